@@ -0,0 +1,248 @@
+package com.example.meruscrap;
+
+import android.content.ContentValues;
+import android.content.Context;
+import android.content.SharedPreferences;
+import android.database.Cursor;
+import android.database.DatabaseUtils;
+import android.database.sqlite.SQLiteDatabase;
+import android.database.sqlite.SQLiteOpenHelper;
+
+import androidx.test.ext.junit.runners.AndroidJUnit4;
+import androidx.test.platform.app.InstrumentationRegistry;
+
+import org.json.JSONObject;
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Test;
+import org.junit.runner.RunWith;
+
+import java.io.ByteArrayInputStream;
+import java.io.ByteArrayOutputStream;
+import java.io.IOException;
+import java.util.HashMap;
+import java.util.Map;
+
+import static org.junit.Assert.*;
+
+/**
+ * Two devices in one process: each is an in-memory database with the synced tables and its
+ * own IdGenerator, and bundles go between them as byte arrays.
+ */
+@RunWith(AndroidJUnit4.class)
+public class SyncManagerTest {
+    private Device yard;
+    private Device truck;
+
+    @Before
+    public void setUp() {
+        Context context = InstrumentationRegistry.getInstrumentation().getTargetContext();
+        yard = new Device(context, "sync_test_yard");
+        truck = new Device(context, "sync_test_truck");
+    }
+
+    @After
+    public void tearDown() {
+        yard.close();
+        truck.close();
+    }
+
+    @Test
+    public void importingSameBundleTwice_isNoOp() throws Exception {
+        yard.upsertMaterial("Copper", 650);
+        byte[] bundle = yard.export();
+
+        SyncManager.ImportResult first = truck.sync.importDelta(new ByteArrayInputStream(bundle));
+        assertEquals(1, first.applied);
+
+        SyncManager.ImportResult second = truck.sync.importDelta(new ByteArrayInputStream(bundle));
+        assertEquals(1, second.received);
+        assertEquals(0, second.applied);
+        assertEquals(1, second.duplicates);
+        assertEquals(1, truck.changeCount());
+        assertEquals(1, truck.materialCount());
+        assertEquals(650, truck.priceOf("Copper"), 0);
+    }
+
+    @Test
+    public void materials_lastWriterWinsOnBothDevices() throws Exception {
+        yard.upsertMaterial("Copper", 600);
+        transfer(yard, truck);
+
+        truck.upsertMaterial("Copper", 700);
+        Thread.sleep(10);
+        yard.upsertMaterial("Copper", 650);
+
+        // The truck's edit is older, so neither order of exchange lets it win
+        SyncManager.ImportResult atYard = transfer(truck, yard);
+        SyncManager.ImportResult atTruck = transfer(yard, truck);
+
+        assertEquals(1, atYard.conflicts);
+        assertEquals(1, atTruck.applied);
+        assertEquals(650, yard.priceOf("Copper"), 0);
+        assertEquals(650, truck.priceOf("Copper"), 0);
+        assertEquals(yard.vector(), truck.vector());
+    }
+
+    @Test
+    public void renameOntoExistingName_keepsLocalRowAndForwardsChange() throws Exception {
+        yard.upsertMaterial("Copper Wire", 600);
+        transfer(yard, truck);
+
+        // The truck adds "Copper" before the yard renames its "Copper Wire" to the same name
+        truck.upsertMaterial("Copper", 700);
+        Thread.sleep(10);
+        yard.renameMaterial("Copper Wire", "Copper");
+
+        SyncManager.ImportResult result = transfer(yard, truck);
+        assertEquals(1, result.conflicts);
+        assertEquals(0, result.applied);
+        assertEquals(700, truck.priceOf("Copper"), 0);
+        assertEquals(600, truck.priceOf("Copper Wire"), 0);
+        // Rejected locally, but kept in the log so it still reaches other devices
+        assertEquals(yard.vector().get(yard.originId()), truck.vector().get(yard.originId()));
+    }
+
+    @Test
+    public void ownBundle_isRefused() throws Exception {
+        yard.upsertMaterial("Copper", 650);
+        byte[] bundle = yard.export();
+        try {
+            yard.sync.importDelta(new ByteArrayInputStream(bundle));
+            fail("Imported a bundle this device exported");
+        } catch (IOException expected) {
+            // Refused before anything is applied
+        }
+        assertEquals(1, yard.changeCount());
+    }
+
+    private static SyncManager.ImportResult transfer(Device from, Device to) throws IOException {
+        return to.sync.importDelta(new ByteArrayInputStream(from.export()));
+    }
+
+    private static class Device {
+        final SQLiteOpenHelper helper;
+        final IdGenerator ids;
+        final SyncManager sync;
+
+        Device(Context context, String name) {
+            SharedPreferences prefs = context.getSharedPreferences(name, Context.MODE_PRIVATE);
+            prefs.edit().clear().commit();
+            ids = new IdGenerator(prefs);
+            // In memory: a null name gives a fresh database every time
+            helper = new SQLiteOpenHelper(context, null, null, 1) {
+                @Override
+                public void onCreate(SQLiteDatabase db) {
+                    MaterialsDBHelper.createSchema(db);
+                    TransactionsDBHelper.createSchema(db);
+                    ChangeLog.createSchema(db);
+                }
+
+                @Override
+                public void onUpgrade(SQLiteDatabase db, int oldVersion, int newVersion) {
+                }
+            };
+            sync = new SyncManager(helper, ids.getOriginId(), null);
+        }
+
+        long originId() {
+            return ids.getOriginId();
+        }
+
+        byte[] export() throws IOException {
+            ByteArrayOutputStream out = new ByteArrayOutputStream();
+            sync.exportDelta(out, new HashMap<>());
+            return out.toByteArray();
+        }
+
+        // A local insert or update with its change-log entry, as MaterialsDBHelper writes them
+        void upsertMaterial(String name, double pricePerKg) throws Exception {
+            SQLiteDatabase db = helper.getWritableDatabase();
+            long now = System.currentTimeMillis();
+            ContentValues values = new ContentValues();
+            values.put("name", name);
+            values.put("price_per_kg", pricePerKg);
+            values.put("updated_at", now);
+            db.beginTransaction();
+            try {
+                long id = MaterialsDBHelper.findIdByName(db, name);
+                if (id > 0) {
+                    db.update(MaterialsDBHelper.TABLE_MATERIALS, values, "id = ?", new String[]{String.valueOf(id)});
+                } else {
+                    values.put("created_at", now);
+                    values.put("is_active", 1);
+                    db.insertOrThrow(MaterialsDBHelper.TABLE_MATERIALS, null, values);
+                }
+                record(db, name, null);
+                db.setTransactionSuccessful();
+            } finally {
+                db.endTransaction();
+            }
+        }
+
+        void renameMaterial(String from, String to) throws Exception {
+            SQLiteDatabase db = helper.getWritableDatabase();
+            ContentValues values = new ContentValues();
+            values.put("name", to);
+            values.put("updated_at", System.currentTimeMillis());
+            db.beginTransaction();
+            try {
+                db.update(MaterialsDBHelper.TABLE_MATERIALS, values, "name = ?", new String[]{from});
+                record(db, to, from);
+                db.setTransactionSuccessful();
+            } finally {
+                db.endTransaction();
+            }
+        }
+
+        private void record(SQLiteDatabase db, String name, String previousName) throws Exception {
+            ContentValues row = new ContentValues();
+            Cursor cursor = db.rawQuery("SELECT name, price_per_kg, icon, description, created_at, updated_at, " +
+                    "is_active FROM " + MaterialsDBHelper.TABLE_MATERIALS + " WHERE name = ?", new String[]{name});
+            try {
+                assertTrue(cursor.moveToFirst());
+                row.put("name", cursor.getString(0));
+                row.put("price_per_kg", cursor.getDouble(1));
+                row.put("icon", cursor.getString(2));
+                row.put("description", cursor.getString(3));
+                row.put("created_at", cursor.getLong(4));
+                row.put("updated_at", cursor.getLong(5));
+                row.put("is_active", cursor.getInt(6));
+            } finally {
+                cursor.close();
+            }
+            JSONObject payload = ChangeLog.toJson(row);
+            if (previousName != null) {
+                payload.put("previous_name", previousName);
+            }
+            ChangeLog.record(db, ids, ChangeLog.ENTITY_MATERIAL, name, ChangeLog.OP_UPSERT, payload);
+        }
+
+        double priceOf(String name) {
+            Cursor cursor = helper.getReadableDatabase().rawQuery("SELECT price_per_kg FROM " +
+                    MaterialsDBHelper.TABLE_MATERIALS + " WHERE name = ?", new String[]{name});
+            try {
+                assertTrue("No material " + name, cursor.moveToFirst());
+                return cursor.getDouble(0);
+            } finally {
+                cursor.close();
+            }
+        }
+
+        long materialCount() {
+            return DatabaseUtils.queryNumEntries(helper.getReadableDatabase(), MaterialsDBHelper.TABLE_MATERIALS);
+        }
+
+        long changeCount() {
+            return DatabaseUtils.queryNumEntries(helper.getReadableDatabase(), ChangeLog.TABLE_CHANGE_LOG);
+        }
+
+        Map<Long, Long> vector() {
+            return ChangeLog.getVersionVector(helper.getReadableDatabase());
+        }
+
+        void close() {
+            helper.close();
+        }
+    }
+}
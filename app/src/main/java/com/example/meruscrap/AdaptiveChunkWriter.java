@@ -0,0 +1,170 @@
+package com.example.meruscrap;
+
+import android.util.Log;
+
+import java.io.IOException;
+import java.io.OutputStream;
+import java.util.Locale;
+
+/**
+ * Writes print jobs to a printer's RFCOMM stream in chunks, paced so the printer's receive
+ * buffer is not overrun.
+ *
+ * Cheap printers accept bytes faster than they print them and silently drop what does not
+ * fit, which shows on long jobs (daily reports, QR codes). Each chunk is written and flushed,
+ * and the writer then waits as needed to keep the job's average rate at bytesPerSecond. The
+ * time spent inside write() and flush() measures the rate the link accepts bytes.
+ *
+ * The limits adapt per job, additive increase and multiplicative decrease: a clean job lets
+ * the chunk size and rate grow, a failed write or a printer that stops answering halves them.
+ * The result is the PrinterPreferencesManager.LinkProfile for that printer, saved by the
+ * caller so the next connection starts where this one left off. Print thread only.
+ */
+public class AdaptiveChunkWriter {
+    private static final String TAG = "AdaptiveChunkWriter";
+
+    static final int MIN_CHUNK = 64;
+    static final int MAX_CHUNK = 4096;
+    static final int MIN_RATE = 1024;
+    static final int MAX_RATE = 256 * 1024;
+    // Where a printer with no history starts: small enough for a 4 KB receive buffer
+    private static final int DEFAULT_CHUNK = 512;
+    private static final int DEFAULT_RATE = 8 * 1024;
+    private static final double RATE_INCREASE = 1.15;
+    // Jobs this small say nothing about the printer's buffer, so they do not raise the limits
+    private static final int MIN_JOB_TO_LEARN = 2 * DEFAULT_CHUNK;
+
+    private final PrinterPreferencesManager.LinkProfile profile;
+    private final int maxChunk;
+    private boolean changed;
+
+    // Last job, for stats and for learning from its outcome
+    private int lastJobBytes;
+    private int lastJobWrites;
+    private long lastJobNanos;
+
+    /**
+     * Start from a saved profile, or from the defaults when there is none. linkPacketSize is
+     * the RFCOMM maximum packet size when known (0 otherwise); a chunk is never made larger
+     * than that, since the extra would be split on the link anyway.
+     */
+    public AdaptiveChunkWriter(PrinterPreferencesManager.LinkProfile saved, int linkPacketSize) {
+        profile = new PrinterPreferencesManager.LinkProfile();
+        if (saved != null) {
+            profile.chunkSize = saved.chunkSize;
+            profile.bytesPerSecond = saved.bytesPerSecond;
+            profile.measuredBytesPerSecond = saved.measuredBytesPerSecond;
+        } else {
+            profile.chunkSize = DEFAULT_CHUNK;
+            profile.bytesPerSecond = DEFAULT_RATE;
+        }
+        int maxChunk = linkPacketSize > 0 ? Math.max(MIN_CHUNK, Math.min(MAX_CHUNK, linkPacketSize)) : MAX_CHUNK;
+        profile.chunkSize = clamp(profile.chunkSize, MIN_CHUNK, maxChunk);
+        profile.bytesPerSecond = clamp(profile.bytesPerSecond, MIN_RATE, MAX_RATE);
+        this.maxChunk = maxChunk;
+    }
+
+    /**
+     * Send the job in paced chunks, each flushed. Returns the number of writes.
+     */
+    public int write(OutputStream out, ESCPOSBuffer job) throws IOException, InterruptedException {
+        int size = job.size();
+        int chunk = profile.chunkSize;
+        long rate = profile.bytesPerSecond;
+        long start = System.nanoTime();
+        long linkNanos = 0;
+        int writes = 0;
+
+        for (int offset = 0; offset < size; offset += chunk) {
+            int length = Math.min(chunk, size - offset);
+            long writeStart = System.nanoTime();
+            job.writeRange(out, offset, length);
+            out.flush();
+            long now = System.nanoTime();
+            linkNanos += now - writeStart;
+            writes++;
+
+            // Hold the average at the rate the printer is known to keep up with
+            int sent = offset + length;
+            if (sent < size) {
+                long due = start + sent * 1_000_000_000L / rate;
+                long wait = due - now;
+                if (wait > 0) {
+                    Thread.sleep(wait / 1_000_000, (int) (wait % 1_000_000));
+                }
+            }
+        }
+
+        lastJobBytes = size;
+        lastJobWrites = writes;
+        lastJobNanos = System.nanoTime() - start;
+        // Only multi-chunk jobs time the link itself; one write just lands in the socket buffer
+        if (writes > 1 && linkNanos > 0) {
+            int measured = (int) Math.min(Integer.MAX_VALUE, size * 1_000_000_000L / linkNanos);
+            profile.measuredBytesPerSecond = profile.measuredBytesPerSecond > 0
+                    ? (profile.measuredBytesPerSecond * 3 + measured) / 4
+                    : measured;
+            changed = true;
+        }
+        return writes;
+    }
+
+    /**
+     * Outcome of the last job. delivered means the printer took all of it and answered
+     * afterwards; false for a failed write or a printer that went quiet, both signs of an
+     * overrun buffer.
+     */
+    public void onJobResult(boolean delivered) {
+        if (!delivered) {
+            profile.chunkSize = Math.max(MIN_CHUNK, profile.chunkSize / 2);
+            profile.bytesPerSecond = Math.max(MIN_RATE, profile.bytesPerSecond / 2);
+            changed = true;
+            Log.w(TAG, "Job not delivered, backing off to " + profile);
+            return;
+        }
+        if (lastJobBytes < MIN_JOB_TO_LEARN) {
+            return;
+        }
+        int chunk = Math.min(maxChunk, profile.chunkSize + MIN_CHUNK);
+        int rateCap = profile.measuredBytesPerSecond > 0
+                ? Math.min(MAX_RATE, Math.max(MIN_RATE, profile.measuredBytesPerSecond))
+                : MAX_RATE;
+        // Pacing faster than the link carries gains nothing
+        int rate = (int) Math.min(rateCap, (long) (profile.bytesPerSecond * RATE_INCREASE));
+        if (chunk != profile.chunkSize || rate != profile.bytesPerSecond) {
+            profile.chunkSize = chunk;
+            profile.bytesPerSecond = rate;
+            changed = true;
+        }
+    }
+
+    /**
+     * The current limits if they changed since the last call, for saving; null otherwise.
+     */
+    public PrinterPreferencesManager.LinkProfile takeChangedProfile() {
+        if (!changed) {
+            return null;
+        }
+        changed = false;
+        PrinterPreferencesManager.LinkProfile copy = new PrinterPreferencesManager.LinkProfile();
+        copy.chunkSize = profile.chunkSize;
+        copy.bytesPerSecond = profile.bytesPerSecond;
+        copy.measuredBytesPerSecond = profile.measuredBytesPerSecond;
+        return copy;
+    }
+
+    public PrinterPreferencesManager.LinkProfile getProfile() {
+        return profile;
+    }
+
+    @Override
+    public String toString() {
+        double seconds = lastJobNanos / 1_000_000_000.0;
+        return String.format(Locale.US, "link: %s; last job %d bytes in %d writes, %.0f B/s",
+                profile, lastJobBytes, lastJobWrites, seconds > 0 ? lastJobBytes / seconds : 0.0);
+    }
+
+    private static int clamp(int value, int min, int max) {
+        return Math.max(min, Math.min(max, value));
+    }
+}
@@ -0,0 +1,375 @@
+package com.example.meruscrap;
+
+import android.os.Handler;
+import android.os.Looper;
+import android.os.Process;
+import android.util.Log;
+
+import androidx.fragment.app.Fragment;
+
+import java.util.EnumMap;
+import java.util.Locale;
+import java.util.Map;
+import java.util.concurrent.ArrayBlockingQueue;
+import java.util.concurrent.Callable;
+import java.util.concurrent.Executor;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.RejectedExecutionException;
+import java.util.concurrent.RejectedExecutionHandler;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.ScheduledFuture;
+import java.util.concurrent.ScheduledThreadPoolExecutor;
+import java.util.concurrent.ThreadFactory;
+import java.util.concurrent.ThreadPoolExecutor;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.AtomicLong;
+
+/**
+ * App-wide thread pools. Work goes to the pool that matches the resource it uses:
+ * DB (serial, SQLite has a single writer anyway), BLE (scale), PRINT (serial, one printer
+ * stream) and COMPUTE (everything else). Queues are bounded. The main thread never blocks
+ * on a full queue and never runs pool work itself: its task goes to the scheduler, which
+ * offers it again every DEFER_RETRY_MS until there is room, so under load a deferred task on
+ * a serial pool can run after ones submitted later. Other threads submitting to a full BLE
+ * or COMPUTE pool run the task themselves. DB and PRINT tasks never run anywhere but their
+ * own thread, since callers rely on them being serial: a background caller of a full one
+ * waits up to FULL_WAIT_MS for room, then gets RejectedExecutionException. Only background
+ * threads can be blocked by DB and PRINT.
+ */
+public final class AppExecutors {
+    private static final String TAG = "AppExecutors";
+
+    // How long a caller waits for room in a full serial pool before the task is rejected
+    private static final long FULL_WAIT_MS = 5000;
+    // How often a task the main thread could not queue is offered to its pool again
+    private static final long DEFER_RETRY_MS = 50;
+    // The pool whose worker is running the current thread, if any
+    private static final ThreadLocal<Pool> CURRENT_POOL = new ThreadLocal<>();
+
+    public enum Pool {
+        DB("db", 1, 256, Process.THREAD_PRIORITY_BACKGROUND, true),
+        BLE("ble", 1, 64, Process.THREAD_PRIORITY_DEFAULT, false),
+        PRINT("print", 1, 64, Process.THREAD_PRIORITY_BACKGROUND + Process.THREAD_PRIORITY_MORE_FAVORABLE, true),
+        COMPUTE("compute", Math.max(2, Math.min(4, Runtime.getRuntime().availableProcessors() - 1)), 128,
+                Process.THREAD_PRIORITY_BACKGROUND, false);
+
+        final String threadName;
+        final int threads;
+        final int queueCapacity;
+        final int priority;
+        // Tasks must run one at a time, in order, on the pool's own thread
+        final boolean serial;
+
+        Pool(String threadName, int threads, int queueCapacity, int priority, boolean serial) {
+            this.threadName = threadName;
+            this.threads = threads;
+            this.queueCapacity = queueCapacity;
+            this.priority = priority;
+            this.serial = serial;
+        }
+    }
+
+    public interface ResultCallback<T> {
+        void onResult(T result);
+
+        void onError(Exception e);
+    }
+
+    private static AppExecutors instance;
+
+    private final Map<Pool, MonitoredExecutor> pools = new EnumMap<>(Pool.class);
+    private final ScheduledExecutorService scheduler;
+    private final Handler mainHandler = new Handler(Looper.getMainLooper());
+    private final Executor mainThread = mainHandler::post;
+
+    public static synchronized AppExecutors get() {
+        if (instance == null) {
+            instance = new AppExecutors();
+        }
+        return instance;
+    }
+
+    private AppExecutors() {
+        // Only hands due tasks over to a pool, so one thread is enough
+        scheduler = new ScheduledThreadPoolExecutor(1, namedThreadFactory("scheduler", Process.THREAD_PRIORITY_BACKGROUND));
+        for (Pool pool : Pool.values()) {
+            pools.put(pool, new MonitoredExecutor(pool, scheduler));
+        }
+    }
+
+    public ExecutorService db() {
+        return pools.get(Pool.DB);
+    }
+
+    public ExecutorService ble() {
+        return pools.get(Pool.BLE);
+    }
+
+    public ExecutorService print() {
+        return pools.get(Pool.PRINT);
+    }
+
+    public ExecutorService compute() {
+        return pools.get(Pool.COMPUTE);
+    }
+
+    public Executor mainThread() {
+        return mainThread;
+    }
+
+    /**
+     * Run a task on a pool every periodMs until the returned future is cancelled.
+     */
+    public ScheduledFuture<?> scheduleAtFixedRate(Pool pool, Runnable task, long initialDelayMs, long periodMs) {
+        ExecutorService target = pools.get(pool);
+        // An exception here would cancel the schedule, so a full pool only skips this run
+        return scheduler.scheduleAtFixedRate(() -> executeQuietly(target, task), initialDelayMs, periodMs,
+                TimeUnit.MILLISECONDS);
+    }
+
+    /**
+     * Run a task on a pool once, after delayMs.
+     */
+    public ScheduledFuture<?> schedule(Pool pool, Runnable task, long delayMs) {
+        ExecutorService target = pools.get(pool);
+        return scheduler.schedule(() -> executeQuietly(target, task), delayMs, TimeUnit.MILLISECONDS);
+    }
+
+    private static void executeQuietly(ExecutorService target, Runnable task) {
+        try {
+            target.execute(task);
+        } catch (RejectedExecutionException e) {
+            Log.e(TAG, "Scheduled task dropped", e);
+        }
+    }
+
+    /**
+     * Run work on a pool and deliver the result on the main thread, but only if the fragment
+     * is still attached by then; results for a fragment that has gone away are dropped.
+     */
+    public <T> void submit(Pool pool, Fragment owner, Callable<T> work, ResultCallback<T> callback) {
+        pools.get(pool).execute(() -> {
+            try {
+                T result = work.call();
+                deliver(owner, () -> callback.onResult(result));
+            } catch (Exception e) {
+                Log.e(TAG, "Task on " + pool.threadName + " pool failed", e);
+                deliver(owner, () -> callback.onError(e));
+            }
+        });
+    }
+
+    /**
+     * Post a UI action that only runs if the fragment is still attached to an activity.
+     */
+    public void deliver(Fragment owner, Runnable uiAction) {
+        mainHandler.post(() -> {
+            if (owner.isAdded() && owner.getContext() != null) {
+                uiAction.run();
+            } else {
+                Log.d(TAG, "Dropping result for detached " + owner.getClass().getSimpleName());
+            }
+        });
+    }
+
+    public PoolStats getStats(Pool pool) {
+        return pools.get(pool).snapshot();
+    }
+
+    public String getStatsSummary() {
+        StringBuilder summary = new StringBuilder();
+        for (Pool pool : Pool.values()) {
+            summary.append(getStats(pool)).append('\n');
+        }
+        return summary.toString().trim();
+    }
+
+    private static boolean isMainThread() {
+        return Looper.myLooper() == Looper.getMainLooper();
+    }
+
+    private static ThreadFactory namedThreadFactory(String name, int priority) {
+        AtomicInteger counter = new AtomicInteger(1);
+        return r -> new Thread(() -> {
+            Process.setThreadPriority(priority);
+            r.run();
+        }, "MeruScrap-" + name + "-" + counter.getAndIncrement());
+    }
+
+    public static class PoolStats {
+        public String name;
+        public int activeThreads;
+        public int queueDepth;
+        public int peakQueueDepth;
+        public long completedTasks;
+        public long rejectedTasks;
+        public double averageWaitMs;
+        public double averageRunMs;
+        public double maxWaitMs;
+
+        @Override
+        public String toString() {
+            return String.format(Locale.US,
+                    "%s: active=%d queue=%d (peak %d) done=%d rejected=%d wait=%.1fms (max %.1f) run=%.1fms",
+                    name, activeThreads, queueDepth, peakQueueDepth, completedTasks, rejectedTasks,
+                    averageWaitMs, maxWaitMs, averageRunMs);
+        }
+    }
+
+    /**
+     * Bounded pool that records queue depth and per-task wait/run latency.
+     */
+    private static class MonitoredExecutor extends ThreadPoolExecutor {
+        private final Pool pool;
+        private final ScheduledExecutorService scheduler;
+        private final AtomicInteger peakQueueDepth = new AtomicInteger();
+        private final AtomicLong completed = new AtomicLong();
+        private final AtomicLong rejected = new AtomicLong();
+        private final AtomicLong totalWaitNanos = new AtomicLong();
+        private final AtomicLong totalRunNanos = new AtomicLong();
+        private final AtomicLong maxWaitNanos = new AtomicLong();
+
+        MonitoredExecutor(Pool pool, ScheduledExecutorService scheduler) {
+            super(pool.threads, pool.threads, 30, TimeUnit.SECONDS,
+                    new ArrayBlockingQueue<>(pool.queueCapacity),
+                    namedThreadFactory(pool.threadName, pool.priority),
+                    pool.serial ? new WaitWhenFull() : new CallerRunsWhenFull());
+            this.pool = pool;
+            this.scheduler = scheduler;
+            allowCoreThreadTimeOut(true);
+        }
+
+        // Keep offering a task from the scheduler thread, which neither waits nor runs it
+        void defer(Runnable task) {
+            scheduler.schedule(() -> {
+                if (isShutdown()) {
+                    return;
+                }
+                if (getQueue().offer(task)) {
+                    // The worker may have timed out while the task was waiting
+                    prestartCoreThread();
+                } else {
+                    defer(task);
+                }
+            }, DEFER_RETRY_MS, TimeUnit.MILLISECONDS);
+        }
+
+        @Override
+        public void execute(Runnable command) {
+            super.execute(new TimedTask(command));
+            int depth = getQueue().size();
+            int peak;
+            while (depth > (peak = peakQueueDepth.get())) {
+                if (peakQueueDepth.compareAndSet(peak, depth)) {
+                    break;
+                }
+            }
+        }
+
+        @Override
+        public void shutdown() {
+            // Shared pools live as long as the process
+            Log.w(TAG, "Ignoring shutdown() on shared " + pool.threadName + " pool");
+        }
+
+        PoolStats snapshot() {
+            PoolStats stats = new PoolStats();
+            long done = completed.get();
+            stats.name = pool.threadName;
+            stats.activeThreads = getActiveCount();
+            stats.queueDepth = getQueue().size();
+            stats.peakQueueDepth = peakQueueDepth.get();
+            stats.completedTasks = done;
+            stats.rejectedTasks = rejected.get();
+            stats.averageWaitMs = done > 0 ? totalWaitNanos.get() / 1_000_000.0 / done : 0;
+            stats.averageRunMs = done > 0 ? totalRunNanos.get() / 1_000_000.0 / done : 0;
+            stats.maxWaitMs = maxWaitNanos.get() / 1_000_000.0;
+            return stats;
+        }
+
+        private class TimedTask implements Runnable {
+            private final Runnable task;
+            private final long enqueuedAt = System.nanoTime();
+
+            TimedTask(Runnable task) {
+                this.task = task;
+            }
+
+            @Override
+            public void run() {
+                long start = System.nanoTime();
+                long wait = start - enqueuedAt;
+                CURRENT_POOL.set(pool);
+                try {
+                    task.run();
+                } finally {
+                    CURRENT_POOL.remove();
+                    completed.incrementAndGet();
+                    totalWaitNanos.addAndGet(wait);
+                    totalRunNanos.addAndGet(System.nanoTime() - start);
+                    long max;
+                    while (wait > (max = maxWaitNanos.get())) {
+                        if (maxWaitNanos.compareAndSet(max, wait)) {
+                            break;
+                        }
+                    }
+                }
+            }
+        }
+    }
+
+    /**
+     * For serial pools: the caller waits for room in the queue. A task from the pool's own
+     * thread would wait for itself, so it is rejected straight away, as is one still without
+     * room after FULL_WAIT_MS. The main thread does not wait; its task is deferred.
+     */
+    private static class WaitWhenFull implements RejectedExecutionHandler {
+        @Override
+        public void rejectedExecution(Runnable r, ThreadPoolExecutor executor) {
+            MonitoredExecutor pool = (MonitoredExecutor) executor;
+            pool.rejected.incrementAndGet();
+            if (executor.isShutdown() || CURRENT_POOL.get() == pool.pool) {
+                throw new RejectedExecutionException(pool.pool.threadName + " queue full");
+            }
+            if (isMainThread()) {
+                Log.w(TAG, pool.pool.threadName + " queue full, deferring task from main thread");
+                pool.defer(r);
+                return;
+            }
+            Log.w(TAG, pool.pool.threadName + " queue full, caller waiting for room");
+            boolean queued;
+            try {
+                queued = executor.getQueue().offer(r, FULL_WAIT_MS, TimeUnit.MILLISECONDS);
+            } catch (InterruptedException e) {
+                Thread.currentThread().interrupt();
+                queued = false;
+            }
+            if (!queued) {
+                throw new RejectedExecutionException(pool.pool.threadName + " queue still full after " +
+                        FULL_WAIT_MS + "ms");
+            }
+            // The worker may have timed out while the caller waited
+            executor.prestartCoreThread();
+        }
+    }
+
+    // For the other pools: the caller runs the task, unless it is the main thread
+    private static class CallerRunsWhenFull implements RejectedExecutionHandler {
+        @Override
+        public void rejectedExecution(Runnable r, ThreadPoolExecutor executor) {
+            if (executor.isShutdown()) {
+                return;
+            }
+            MonitoredExecutor pool = (MonitoredExecutor) executor;
+            pool.rejected.incrementAndGet();
+            if (isMainThread()) {
+                Log.w(TAG, pool.pool.threadName + " queue full, deferring task from main thread");
+                pool.defer(r);
+            } else {
+                Log.w(TAG, pool.pool.threadName + " queue full, running task on caller");
+                r.run();
+            }
+        }
+    }
+}
@@ -0,0 +1,925 @@
+package com.example.meruscrap;
+
+import android.content.Context;
+import android.content.SharedPreferences;
+import android.database.Cursor;
+import android.database.DatabaseUtils;
+import android.database.sqlite.SQLiteDatabase;
+import android.util.Log;
+
+import org.json.JSONArray;
+import org.json.JSONException;
+import org.json.JSONObject;
+
+import java.io.ByteArrayInputStream;
+import java.io.ByteArrayOutputStream;
+import java.io.File;
+import java.io.FileInputStream;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.OutputStream;
+import java.nio.charset.StandardCharsets;
+import java.security.DigestOutputStream;
+import java.security.MessageDigest;
+import java.security.NoSuchAlgorithmException;
+import java.text.SimpleDateFormat;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.Date;
+import java.util.HashMap;
+import java.util.HashSet;
+import java.util.Iterator;
+import java.util.List;
+import java.util.Locale;
+import java.util.Map;
+import java.util.Set;
+import java.util.zip.ZipEntry;
+import java.util.zip.ZipFile;
+import java.util.zip.ZipOutputStream;
+
+/**
+ * Backup and restore of the application database, the yearly transaction archives and the
+ * settings SharedPreferences, as one compressed zip per backup.
+ *
+ * A full backup snapshots each database with VACUUM INTO on its own connection: a single
+ * read transaction, so the copy is consistent and, with WAL, never holds up the app's
+ * writers. SQLite before 3.27 (Android 10 and older) has no VACUUM INTO; there the tables
+ * are copied over an ATTACH inside one transaction instead, which does make writers wait
+ * for the length of the copy.
+ *
+ * An incremental backup holds only the change-log entries (see {@link ChangeLog}) made since
+ * the full backup it names as its base, plus the current settings. Restoring it restores the
+ * base and then replays those changes; print history is only as recent as the base.
+ *
+ * Every entry is listed in manifest.json with its size and SHA-256, and restore checks
+ * those and runs PRAGMA integrity_check on each database before anything is replaced.
+ * Restoring only stages the checked files; they are swapped in by applyPendingRestore() at
+ * the next cold start, before anything has opened a database. The files being replaced are
+ * kept aside and put back if that fails part way.
+ *
+ * All methods block and take a while; run them on the COMPUTE pool, not the serial DB pool,
+ * which sales and print jobs wait on. They open their own connections where they need them.
+ */
+public class BackupManager {
+    private static final String TAG = "BackupManager";
+
+    private static final int FORMAT_VERSION = 1;
+    private static final String BACKUP_DIR = "backups";
+    private static final String BACKUP_PREFIX = "meruscrap_";
+    private static final String BACKUP_SUFFIX = ".zip";
+    // Full backups kept; incrementals go with their base
+    private static final int MAX_FULL_BACKUPS = 3;
+
+    public static final String TYPE_FULL = "full";
+    public static final String TYPE_INCREMENTAL = "incremental";
+
+    private static final String MANIFEST_ENTRY = "manifest.json";
+    private static final String DATABASE_PREFIX = "databases/";
+    private static final String PREFS_ENTRY = "preferences.json";
+    private static final String CHANGES_ENTRY = "changes.ndjson.gz";
+
+    // A staged restore waiting for the next start; the marker is written last, once all is checked
+    private static final String PENDING_DIR = "restore_pending";
+    private static final String PENDING_MARKER = "restore.json";
+
+    private static final String KEY_FORMAT = "format";
+    private static final String KEY_TYPE = "type";
+    private static final String KEY_CREATED_AT = "created_at";
+    private static final String KEY_DEVICE = "device";
+    private static final String KEY_BASE = "base";
+    private static final String KEY_VECTOR = "vector";
+    private static final String KEY_ENTRIES = "entries";
+    private static final String KEY_NAME = "name";
+    private static final String KEY_SIZE = "size";
+    private static final String KEY_SHA256 = "sha256";
+
+    // VACUUM INTO arrived in SQLite 3.27.0
+    private static final int VACUUM_INTO_MIN_VERSION = 3_027_000;
+
+    private static BackupManager instance;
+
+    private final Context appContext;
+
+    public static synchronized BackupManager getInstance(Context context) {
+        if (instance == null) {
+            instance = new BackupManager(context.getApplicationContext());
+        }
+        return instance;
+    }
+
+    private BackupManager(Context context) {
+        this.appContext = context;
+    }
+
+    public File getBackupDirectory() {
+        File dir = appContext.getExternalFilesDir(BACKUP_DIR);
+        if (dir == null) {
+            // No shared storage mounted
+            dir = new File(appContext.getFilesDir(), BACKUP_DIR);
+        }
+        if (!dir.exists() && !dir.mkdirs()) {
+            Log.w(TAG, "Could not create " + dir);
+        }
+        return dir;
+    }
+
+    /**
+     * Backups in the backup directory, newest first.
+     */
+    public List<File> listBackups() {
+        List<File> backups = new ArrayList<>();
+        File[] files = getBackupDirectory().listFiles();
+        if (files != null) {
+            for (File file : files) {
+                if (file.getName().startsWith(BACKUP_PREFIX) && file.getName().endsWith(BACKUP_SUFFIX)) {
+                    backups.add(file);
+                }
+            }
+        }
+        // Names carry a sortable timestamp
+        Collections.sort(backups, (a, b) -> b.getName().compareTo(a.getName()));
+        return backups;
+    }
+
+    // Settings worth carrying over; device identity, license and BLE runtime state stay behind
+    private String[] getBackedUpPreferences() {
+        return new String[]{
+                appContext.getPackageName() + "_preferences",
+                "printer_preferences",
+                "printer_settings",
+                "pending_receipts",
+                "transaction_archive",
+                "ble_service_config"
+        };
+    }
+
+    // ---- Backup ----
+
+    /**
+     * Write a new backup. An incremental backup needs a full one to build on; without one a
+     * full backup is written instead.
+     */
+    public BackupResult createBackup(boolean incremental) {
+        BackupResult result = new BackupResult();
+        long start = System.currentTimeMillis();
+        File staging = resetDir(new File(appContext.getCacheDir(), "backup_staging"));
+
+        File base = incremental ? findLatestFull() : null;
+        result.type = base != null ? TYPE_INCREMENTAL : TYPE_FULL;
+        String stamp = new SimpleDateFormat("yyyyMMdd_HHmmss", Locale.US).format(new Date(start));
+        File target = new File(getBackupDirectory(), BACKUP_PREFIX + stamp + "_" + result.type + BACKUP_SUFFIX);
+        File partial = new File(target.getPath() + ".part");
+
+        try {
+            JSONObject manifest = new JSONObject()
+                    .put(KEY_FORMAT, FORMAT_VERSION)
+                    .put(KEY_TYPE, result.type)
+                    .put(KEY_CREATED_AT, start)
+                    .put(KEY_DEVICE, IdGenerator.getInstance(appContext).getOriginId());
+            JSONArray entries = new JSONArray();
+
+            ZipOutputStream zip = new ZipOutputStream(new FileOutputStream(partial));
+            try {
+                if (base == null) {
+                    // Snapshot everything first, then compress, so the read transactions stay short
+                    long snapshotStart = System.currentTimeMillis();
+                    List<File> snapshots = new ArrayList<>();
+                    snapshots.add(snapshot(appContext.getDatabasePath(MeruScrapDatabase.DATABASE_NAME), staging));
+                    TransactionArchiveManager archives = TransactionArchiveManager.getInstance(appContext);
+                    for (int year : archives.getArchiveYears()) {
+                        snapshots.add(snapshot(archives.getArchiveFile(year), staging));
+                    }
+                    result.snapshotMs = System.currentTimeMillis() - snapshotStart;
+
+                    for (File snapshot : snapshots) {
+                        result.uncompressedBytes += snapshot.length();
+                        entries.put(writeFile(zip, DATABASE_PREFIX + snapshot.getName(), snapshot));
+                    }
+                    // The main snapshot's vector is what a later incremental starts from
+                    manifest.put(KEY_VECTOR, readVector(snapshots.get(0)));
+                } else {
+                    JSONObject baseManifest = readManifest(base);
+                    manifest.put(KEY_BASE, base.getName());
+                    manifest.put(KEY_VECTOR, ChangeLog.vectorToJson(ChangeLog.getVersionVector(
+                            MeruScrapDatabase.getInstance(appContext).getReadableDatabase())));
+
+                    ByteArrayOutputStream changes = new ByteArrayOutputStream();
+                    result.changes = SyncManager.getInstance(appContext).exportDelta(changes,
+                            ChangeLog.vectorFromJson(baseManifest.getJSONObject(KEY_VECTOR))).entries;
+                    result.uncompressedBytes += changes.size();
+                    entries.put(writeBytes(zip, CHANGES_ENTRY, changes.toByteArray()));
+                }
+
+                byte[] prefs = exportPreferences().toString().getBytes(StandardCharsets.UTF_8);
+                result.uncompressedBytes += prefs.length;
+                entries.put(writeBytes(zip, PREFS_ENTRY, prefs));
+
+                manifest.put(KEY_ENTRIES, entries);
+                zip.putNextEntry(new ZipEntry(MANIFEST_ENTRY));
+                zip.write(manifest.toString(2).getBytes(StandardCharsets.UTF_8));
+                zip.closeEntry();
+            } finally {
+                zip.close();
+            }
+
+            if (!partial.renameTo(target)) {
+                throw new IOException("Could not rename " + partial + " to " + target);
+            }
+            result.file = target;
+            result.bytes = target.length();
+            pruneOldBackups();
+        } catch (Exception e) {
+            Log.e(TAG, "Backup failed", e);
+            result.error = e.getMessage();
+            if (partial.exists() && !partial.delete()) {
+                Log.w(TAG, "Could not delete " + partial);
+            }
+        } finally {
+            deleteRecursively(staging);
+        }
+
+        result.durationMs = System.currentTimeMillis() - start;
+        Log.d(TAG, "Backup: " + result);
+        return result;
+    }
+
+    /**
+     * Consistent copy of a database file into dir, under the same name.
+     */
+    private File snapshot(File source, File dir) throws IOException {
+        File target = new File(dir, source.getName());
+        SQLiteDatabase db = SQLiteDatabase.openDatabase(source.getAbsolutePath(), null, SQLiteDatabase.OPEN_READWRITE);
+        try {
+            if (sqliteVersion(db) >= VACUUM_INTO_MIN_VERSION) {
+                db.execSQL("VACUUM INTO ?", new Object[]{target.getAbsolutePath()});
+            } else {
+                copyInto(db, target);
+            }
+        } finally {
+            db.close();
+        }
+        Log.d(TAG, "Snapshot of " + source.getName() + ": " + target.length() + " bytes");
+        return target;
+    }
+
+    private static int sqliteVersion(SQLiteDatabase db) {
+        String[] parts = DatabaseUtils.stringForQuery(db, "SELECT sqlite_version()", null).split("\\.");
+        int version = 0;
+        for (int i = 0; i < 3; i++) {
+            version = version * 1000 + (i < parts.length ? Integer.parseInt(parts[i]) : 0);
+        }
+        return version;
+    }
+
+    // Pre-3.27 fallback: recreate the schema in the target and copy every table in one transaction
+    private static void copyInto(SQLiteDatabase source, File target) throws IOException {
+        SQLiteDatabase copy = SQLiteDatabase.openDatabase(target.getAbsolutePath(), null,
+                SQLiteDatabase.CREATE_IF_NECESSARY | SQLiteDatabase.NO_LOCALIZED_COLLATORS);
+        try {
+            copy.execSQL("ATTACH DATABASE ? AS source", new Object[]{source.getPath()});
+            copy.beginTransaction();
+            try {
+                List<String[]> schema = new ArrayList<>();
+                Cursor cursor = copy.rawQuery("SELECT type, name, sql FROM source.sqlite_master" +
+                        " WHERE sql IS NOT NULL AND name NOT LIKE 'sqlite_%' ORDER BY rowid", null);
+                try {
+                    while (cursor.moveToNext()) {
+                        schema.add(new String[]{cursor.getString(0), cursor.getString(1), cursor.getString(2)});
+                    }
+                } finally {
+                    cursor.close();
+                }
+
+                // Tables first (a virtual table creates its own shadow tables), then their rows
+                for (String[] object : schema) {
+                    if ("table".equals(object[0]) && !tableExists(copy, object[1])) {
+                        copy.execSQL(object[2]);
+                    }
+                }
+                for (String[] object : schema) {
+                    if ("table".equals(object[0]) && !object[2].toUpperCase(Locale.ROOT).startsWith("CREATE VIRTUAL")) {
+                        String table = "\"" + object[1].replace("\"", "\"\"") + "\"";
+                        copy.execSQL("INSERT INTO main." + table + " SELECT * FROM source." + table);
+                    }
+                }
+                if (tableExists(copy, "sqlite_sequence")) {
+                    copy.execSQL("DELETE FROM main.sqlite_sequence");
+                    copy.execSQL("INSERT INTO main.sqlite_sequence SELECT * FROM source.sqlite_sequence");
+                }
+                // Indexes and triggers last, so the copy neither pays for nor fires them per row
+                for (String[] object : schema) {
+                    if (!"table".equals(object[0])) {
+                        copy.execSQL(object[2]);
+                    }
+                }
+                copy.setVersion(source.getVersion());
+                copy.setTransactionSuccessful();
+            } finally {
+                copy.endTransaction();
+            }
+            copy.execSQL("DETACH DATABASE source");
+        } catch (RuntimeException e) {
+            throw new IOException("Could not copy " + source.getPath(), e);
+        } finally {
+            copy.close();
+        }
+    }
+
+    private static boolean tableExists(SQLiteDatabase db, String table) {
+        return DatabaseUtils.longForQuery(db, "SELECT COUNT(*) FROM main.sqlite_master WHERE type = 'table' AND name = ?",
+                new String[]{table}) > 0;
+    }
+
+    private static JSONObject readVector(File database) {
+        SQLiteDatabase db = SQLiteDatabase.openDatabase(database.getAbsolutePath(), null, SQLiteDatabase.OPEN_READONLY);
+        try {
+            return ChangeLog.vectorToJson(ChangeLog.getVersionVector(db));
+        } finally {
+            db.close();
+        }
+    }
+
+    private File findLatestFull() {
+        for (File backup : listBackups()) {
+            if (backup.getName().endsWith("_" + TYPE_FULL + BACKUP_SUFFIX)) {
+                return backup;
+            }
+        }
+        return null;
+    }
+
+    // Keep the newest MAX_FULL_BACKUPS full backups and the incrementals built on them
+    private void pruneOldBackups() {
+        Set<String> keptBases = new HashSet<>();
+        int fulls = 0;
+        for (File backup : listBackups()) {
+            boolean full = backup.getName().endsWith("_" + TYPE_FULL + BACKUP_SUFFIX);
+            boolean keep;
+            if (full) {
+                keep = ++fulls <= MAX_FULL_BACKUPS;
+                if (keep) {
+                    keptBases.add(backup.getName());
+                }
+            } else {
+                // Newest first, so every base an incremental may name has been seen by now
+                try {
+                    keep = keptBases.contains(readManifest(backup).getString(KEY_BASE));
+                } catch (Exception e) {
+                    Log.w(TAG, "Unreadable backup " + backup.getName(), e);
+                    keep = true;
+                }
+            }
+            if (!keep && backup.delete()) {
+                Log.d(TAG, "Pruned " + backup.getName());
+            }
+        }
+    }
+
+    // ---- Restore ----
+
+    /**
+     * Check a backup without touching anything: checksums, and for databases an integrity check.
+     */
+    public RestoreResult verify(File backup) {
+        RestoreResult result = new RestoreResult();
+        long start = System.currentTimeMillis();
+        File staging = resetDir(new File(appContext.getCacheDir(), "restore_staging"));
+        try {
+            stage(backup, staging, result);
+        } catch (Exception e) {
+            Log.e(TAG, "Verification of " + backup.getName() + " failed", e);
+            result.error = e.getMessage();
+        } finally {
+            deleteRecursively(staging);
+        }
+        result.durationMs = System.currentTimeMillis() - start;
+        return result;
+    }
+
+    /**
+     * Check a backup and stage it to replace the current databases and settings the next time
+     * the app starts. Nothing is replaced now: other threads may have the database open, so
+     * the files can only be swapped before anything opens them (see applyPendingRestore).
+     */
+    public RestoreResult restore(File backup) {
+        RestoreResult result = new RestoreResult();
+        long start = System.currentTimeMillis();
+        File pending = resetDir(getPendingRestoreDir());
+
+        try {
+            Staged staged = stage(backup, pending, result);
+            writeFile(new File(pending, PREFS_ENTRY), staged.preferences.toString().getBytes(StandardCharsets.UTF_8));
+            if (staged.changes != null) {
+                writeFile(new File(pending, CHANGES_ENTRY), staged.changes);
+            }
+            JSONObject marker = new JSONObject()
+                    .put(KEY_TYPE, result.type)
+                    .put(KEY_NAME, backup.getName())
+                    .put(KEY_CREATED_AT, start);
+            writeFile(new File(pending, PENDING_MARKER), marker.toString().getBytes(StandardCharsets.UTF_8));
+            result.pending = true;
+        } catch (Exception e) {
+            Log.e(TAG, "Restore of " + backup.getName() + " failed", e);
+            result.error = e.getMessage();
+            deleteRecursively(pending);
+        }
+
+        result.durationMs = System.currentTimeMillis() - start;
+        Log.d(TAG, "Restore: " + result);
+        return result;
+    }
+
+    public boolean hasPendingRestore() {
+        return new File(getPendingRestoreDir(), PENDING_MARKER).exists();
+    }
+
+    /**
+     * Put a restore staged by restore() in place. Call first thing at startup, before anything
+     * opens a database; returns null when there is nothing to restore. The staged files are
+     * copied rather than moved, so if the process dies part way the restore is simply applied
+     * again on the following start. A restore that fails puts the previous files back and is
+     * dropped.
+     */
+    public RestoreResult applyPendingRestore() {
+        File pending = getPendingRestoreDir();
+        if (!new File(pending, PENDING_MARKER).exists()) {
+            if (pending.exists()) {
+                // Staging never finished
+                deleteRecursively(pending);
+            }
+            return null;
+        }
+
+        RestoreResult result = new RestoreResult();
+        long start = System.currentTimeMillis();
+        File rollback = resetDir(new File(appContext.getCacheDir(), "restore_rollback"));
+        File databaseDir = appContext.getDatabasePath(MeruScrapDatabase.DATABASE_NAME).getParentFile();
+        MeruScrapDatabase database = MeruScrapDatabase.getInstance(appContext);
+
+        try {
+            result.type = new JSONObject(new String(readFile(new File(pending, PENDING_MARKER)),
+                    StandardCharsets.UTF_8)).getString(KEY_TYPE);
+            JSONObject preferences = new JSONObject(new String(readFile(new File(pending, PREFS_ENTRY)),
+                    StandardCharsets.UTF_8));
+            File changes = new File(pending, CHANGES_ENTRY);
+
+            moveAll(currentDatabaseFiles(), rollback);
+            try {
+                for (File file : nonNull(pending.listFiles())) {
+                    if (isOurDatabase(file.getName())) {
+                        copy(file, new File(databaseDir, file.getName()));
+                        result.databases++;
+                    }
+                }
+                // Open now, so a backup from an older version is upgraded before changes replay
+                database.getWritableDatabase();
+                if (changes.exists()) {
+                    InputStream in = new FileInputStream(changes);
+                    try {
+                        result.changesApplied = SyncManager.getInstance(appContext).importOwnDelta(in).applied;
+                    } finally {
+                        in.close();
+                    }
+                }
+            } catch (Exception e) {
+                Log.e(TAG, "Restore failed, putting the previous data back", e);
+                database.close();
+                for (File file : currentDatabaseFiles()) {
+                    if (!file.delete()) {
+                        Log.w(TAG, "Could not delete " + file);
+                    }
+                }
+                moveAll(Arrays.asList(nonNull(rollback.listFiles())), databaseDir);
+                throw e;
+            }
+
+            importPreferences(preferences);
+            result.restored = true;
+        } catch (Exception e) {
+            Log.e(TAG, "Staged restore failed", e);
+            result.error = e.getMessage();
+        } finally {
+            deleteRecursively(pending);
+            deleteRecursively(rollback);
+        }
+
+        result.durationMs = System.currentTimeMillis() - start;
+        Log.d(TAG, "Restore applied: " + result);
+        return result;
+    }
+
+    private File getPendingRestoreDir() {
+        return new File(appContext.getFilesDir(), PENDING_DIR);
+    }
+
+    private static class Staged {
+        final List<File> databases = new ArrayList<>();
+        JSONObject preferences;
+        byte[] changes;
+    }
+
+    // Extract and check a backup (and its base, for an incremental) into dir
+    private Staged stage(File backup, File dir, RestoreResult result) throws IOException, JSONException {
+        Staged staged = new Staged();
+        JSONObject manifest = readManifest(backup);
+        if (manifest.optInt(KEY_FORMAT) != FORMAT_VERSION) {
+            throw new IOException("Unsupported backup format " + manifest.opt(KEY_FORMAT));
+        }
+        result.type = manifest.getString(KEY_TYPE);
+
+        Map<String, byte[]> small = new HashMap<>();
+        extractVerified(backup, manifest, dir, staged, small);
+        staged.preferences = new JSONObject(new String(requireEntry(small, PREFS_ENTRY), StandardCharsets.UTF_8));
+
+        if (TYPE_INCREMENTAL.equals(result.type)) {
+            staged.changes = requireEntry(small, CHANGES_ENTRY);
+            File base = new File(getBackupDirectory(), new File(manifest.getString(KEY_BASE)).getName());
+            if (!base.exists()) {
+                throw new IOException("Base backup " + base.getName() + " is missing");
+            }
+            extractVerified(base, readManifest(base), dir, staged, new HashMap<>());
+        }
+
+        for (File file : staged.databases) {
+            SQLiteDatabase db = SQLiteDatabase.openDatabase(file.getAbsolutePath(), null, SQLiteDatabase.OPEN_READONLY);
+            try {
+                String check = DatabaseUtils.stringForQuery(db, "PRAGMA integrity_check", null);
+                if (!"ok".equals(check)) {
+                    throw new IOException(file.getName() + " failed integrity check: " + check);
+                }
+            } finally {
+                db.close();
+            }
+            result.databases++;
+        }
+        if (staged.databases.isEmpty()) {
+            throw new IOException("Backup holds no databases");
+        }
+        return staged;
+    }
+
+    private static byte[] requireEntry(Map<String, byte[]> entries, String name) throws IOException {
+        byte[] bytes = entries.get(name);
+        if (bytes == null) {
+            throw new IOException("Backup is missing " + name);
+        }
+        return bytes;
+    }
+
+    private void extractVerified(File backup, JSONObject manifest, File dir, Staged staged,
+                                 Map<String, byte[]> small) throws IOException, JSONException {
+        JSONArray entries = manifest.getJSONArray(KEY_ENTRIES);
+        ZipFile zip = new ZipFile(backup);
+        try {
+            for (int i = 0; i < entries.length(); i++) {
+                JSONObject entry = entries.getJSONObject(i);
+                String name = entry.getString(KEY_NAME);
+                ZipEntry zipEntry = zip.getEntry(name);
+                if (zipEntry == null) {
+                    throw new IOException(backup.getName() + " is missing " + name);
+                }
+
+                OutputStream sink;
+                File file = null;
+                ByteArrayOutputStream bytes = null;
+                if (name.startsWith(DATABASE_PREFIX)) {
+                    // Only our own database names, never a path from the archive
+                    String fileName = new File(name).getName();
+                    if (!isOurDatabase(fileName)) {
+                        throw new IOException("Unexpected database " + name);
+                    }
+                    file = new File(dir, fileName);
+                    sink = new FileOutputStream(file);
+                } else {
+                    bytes = new ByteArrayOutputStream();
+                    sink = bytes;
+                }
+
+                MessageDigest digest = sha256();
+                long size;
+                InputStream in = zip.getInputStream(zipEntry);
+                try {
+                    size = copy(in, new DigestOutputStream(sink, digest));
+                } finally {
+                    in.close();
+                    sink.close();
+                }
+                if (size != entry.getLong(KEY_SIZE) || !toHex(digest.digest()).equals(entry.getString(KEY_SHA256))) {
+                    throw new IOException(backup.getName() + ": checksum mismatch for " + name);
+                }
+
+                if (file != null) {
+                    staged.databases.add(file);
+                } else {
+                    small.put(name, bytes.toByteArray());
+                }
+            }
+        } finally {
+            zip.close();
+        }
+    }
+
+    private static boolean isOurDatabase(String name) {
+        return name.equals(MeruScrapDatabase.DATABASE_NAME)
+                || (name.startsWith("MeruScrapArchive_") && name.endsWith(".db"));
+    }
+
+    // The main database with its WAL files, and every archive
+    private List<File> currentDatabaseFiles() {
+        List<File> files = new ArrayList<>();
+        File main = appContext.getDatabasePath(MeruScrapDatabase.DATABASE_NAME);
+        for (String suffix : new String[]{"", "-wal", "-shm", "-journal"}) {
+            File file = new File(main.getPath() + suffix);
+            if (file.exists()) {
+                files.add(file);
+            }
+        }
+        TransactionArchiveManager archives = TransactionArchiveManager.getInstance(appContext);
+        for (int year : archives.getArchiveYears()) {
+            files.add(archives.getArchiveFile(year));
+        }
+        return files;
+    }
+
+    // ---- Preferences ----
+
+    private JSONObject exportPreferences() throws JSONException {
+        JSONObject all = new JSONObject();
+        for (String name : getBackedUpPreferences()) {
+            JSONObject values = new JSONObject();
+            for (Map.Entry<String, ?> entry : appContext.getSharedPreferences(name, Context.MODE_PRIVATE)
+                    .getAll().entrySet()) {
+                Object value = entry.getValue();
+                // Typed, so ints and longs or floats come back as what they were
+                JSONObject typed = new JSONObject().put("type", value.getClass().getSimpleName());
+                typed.put("value", value instanceof Set ? new JSONArray((Set<?>) value) : value);
+                values.put(entry.getKey(), typed);
+            }
+            all.put(name, values);
+        }
+        return all;
+    }
+
+    private void importPreferences(JSONObject all) throws JSONException {
+        List<String> allowed = Arrays.asList(getBackedUpPreferences());
+        Iterator<String> names = all.keys();
+        while (names.hasNext()) {
+            String name = names.next();
+            if (!allowed.contains(name)) {
+                continue;
+            }
+            JSONObject values = all.getJSONObject(name);
+            SharedPreferences.Editor editor = appContext.getSharedPreferences(name, Context.MODE_PRIVATE).edit().clear();
+            Iterator<String> keys = values.keys();
+            while (keys.hasNext()) {
+                String key = keys.next();
+                JSONObject typed = values.getJSONObject(key);
+                switch (typed.getString("type")) {
+                    case "Boolean":
+                        editor.putBoolean(key, typed.getBoolean("value"));
+                        break;
+                    case "Integer":
+                        editor.putInt(key, typed.getInt("value"));
+                        break;
+                    case "Long":
+                        editor.putLong(key, typed.getLong("value"));
+                        break;
+                    case "Float":
+                        editor.putFloat(key, (float) typed.getDouble("value"));
+                        break;
+                    case "String":
+                        editor.putString(key, typed.getString("value"));
+                        break;
+                    default:
+                        JSONArray array = typed.getJSONArray("value");
+                        Set<String> set = new HashSet<>();
+                        for (int i = 0; i < array.length(); i++) {
+                            set.add(array.getString(i));
+                        }
+                        editor.putStringSet(key, set);
+                        break;
+                }
+            }
+            editor.commit();
+        }
+    }
+
+    // ---- Zip helpers ----
+
+    private static JSONObject writeFile(ZipOutputStream zip, String name, File file) throws IOException, JSONException {
+        InputStream in = new FileInputStream(file);
+        try {
+            return writeEntry(zip, name, in);
+        } finally {
+            in.close();
+        }
+    }
+
+    private static JSONObject writeBytes(ZipOutputStream zip, String name, byte[] bytes) throws IOException, JSONException {
+        return writeEntry(zip, name, new ByteArrayInputStream(bytes));
+    }
+
+    // Compress one entry, hashing the uncompressed bytes on the way through
+    private static JSONObject writeEntry(ZipOutputStream zip, String name, InputStream in) throws IOException, JSONException {
+        MessageDigest digest = sha256();
+        zip.putNextEntry(new ZipEntry(name));
+        long size = copy(in, new DigestOutputStream(new NonClosingOutputStream(zip), digest));
+        zip.closeEntry();
+        return new JSONObject()
+                .put(KEY_NAME, name)
+                .put(KEY_SIZE, size)
+                .put(KEY_SHA256, toHex(digest.digest()));
+    }
+
+    private static JSONObject readManifest(File backup) throws IOException, JSONException {
+        ZipFile zip = new ZipFile(backup);
+        try {
+            ZipEntry entry = zip.getEntry(MANIFEST_ENTRY);
+            if (entry == null) {
+                throw new IOException(backup.getName() + " has no manifest");
+            }
+            ByteArrayOutputStream bytes = new ByteArrayOutputStream();
+            InputStream in = zip.getInputStream(entry);
+            try {
+                copy(in, bytes);
+            } finally {
+                in.close();
+            }
+            return new JSONObject(new String(bytes.toByteArray(), StandardCharsets.UTF_8));
+        } finally {
+            zip.close();
+        }
+    }
+
+    // ---- File helpers ----
+
+    private static long copy(InputStream in, OutputStream out) throws IOException {
+        byte[] buffer = new byte[64 * 1024];
+        long total = 0;
+        int read;
+        while ((read = in.read(buffer)) != -1) {
+            out.write(buffer, 0, read);
+            total += read;
+        }
+        out.flush();
+        return total;
+    }
+
+    private static void copy(File from, File to) throws IOException {
+        InputStream in = new FileInputStream(from);
+        try {
+            OutputStream out = new FileOutputStream(to);
+            try {
+                copy(in, out);
+            } finally {
+                out.close();
+            }
+        } finally {
+            in.close();
+        }
+    }
+
+    private static void writeFile(File file, byte[] bytes) throws IOException {
+        OutputStream out = new FileOutputStream(file);
+        try {
+            out.write(bytes);
+        } finally {
+            out.close();
+        }
+    }
+
+    private static byte[] readFile(File file) throws IOException {
+        ByteArrayOutputStream bytes = new ByteArrayOutputStream();
+        InputStream in = new FileInputStream(file);
+        try {
+            copy(in, bytes);
+        } finally {
+            in.close();
+        }
+        return bytes.toByteArray();
+    }
+
+    private static void moveAll(List<File> files, File dir) throws IOException {
+        for (File file : files) {
+            File target = new File(dir, file.getName());
+            if (!file.renameTo(target)) {
+                // Different filesystem
+                copy(file, target);
+                if (!file.delete()) {
+                    Log.w(TAG, "Could not delete " + file);
+                }
+            }
+        }
+    }
+
+    private static File[] nonNull(File[] files) {
+        return files != null ? files : new File[0];
+    }
+
+    private static File resetDir(File dir) {
+        deleteRecursively(dir);
+        if (!dir.mkdirs()) {
+            Log.w(TAG, "Could not create " + dir);
+        }
+        return dir;
+    }
+
+    private static void deleteRecursively(File file) {
+        if (file.isDirectory()) {
+            for (File child : nonNull(file.listFiles())) {
+                deleteRecursively(child);
+            }
+        }
+        if (file.exists() && !file.delete()) {
+            Log.w(TAG, "Could not delete " + file);
+        }
+    }
+
+    private static MessageDigest sha256() {
+        try {
+            return MessageDigest.getInstance("SHA-256");
+        } catch (NoSuchAlgorithmException e) {
+            // Every Android release ships SHA-256
+            throw new IllegalStateException(e);
+        }
+    }
+
+    private static String toHex(byte[] bytes) {
+        StringBuilder hex = new StringBuilder(bytes.length * 2);
+        for (byte b : bytes) {
+            hex.append(String.format(Locale.US, "%02x", b));
+        }
+        return hex.toString();
+    }
+
+    // Lets a stream wrapper be closed or flushed without closing the zip
+    private static class NonClosingOutputStream extends OutputStream {
+        private final OutputStream out;
+
+        NonClosingOutputStream(OutputStream out) {
+            this.out = out;
+        }
+
+        @Override
+        public void write(int b) throws IOException {
+            out.write(b);
+        }
+
+        @Override
+        public void write(byte[] b, int off, int len) throws IOException {
+            out.write(b, off, len);
+        }
+
+        @Override
+        public void close() {
+        }
+    }
+
+    // ---- Results ----
+
+    public static class BackupResult {
+        public File file;
+        public String type;
+        public long bytes = 0;
+        public long uncompressedBytes = 0;
+        // Change-log entries carried by an incremental backup
+        public int changes = 0;
+        public long snapshotMs = 0;
+        public long durationMs = 0;
+        public String error;
+
+        @Override
+        public String toString() {
+            if (error != null) {
+                return type + " backup failed: " + error;
+            }
+            return String.format(Locale.US, "%s backup %s: %.1f KB (%.1f KB uncompressed)%s in %dms (snapshot %dms)",
+                    type, file != null ? file.getName() : "", bytes / 1024.0, uncompressedBytes / 1024.0,
+                    TYPE_INCREMENTAL.equals(type) ? ", " + changes + " changes" : "", durationMs, snapshotMs);
+        }
+    }
+
+    public static class RestoreResult {
+        public String type;
+        public boolean restored = false;
+        // Checked and staged, to be put in place at the next start
+        public boolean pending = false;
+        // Databases that passed the checksum and integrity checks
+        public int databases = 0;
+        public int changesApplied = 0;
+        public long durationMs = 0;
+        public String error;
+
+        @Override
+        public String toString() {
+            if (error != null) {
+                return "failed: " + error;
+            }
+            return (restored ? "restored " : pending ? "staged " : "verified ") + type + " backup: " + databases + " databases" +
+                    (TYPE_INCREMENTAL.equals(type) ? ", " + changesApplied + " changes replayed" : "") +
+                    " in " + durationMs + "ms";
+        }
+    }
+}
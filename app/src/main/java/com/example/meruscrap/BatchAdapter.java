@@ -6,12 +6,15 @@ import android.view.ViewGroup;
 import android.widget.TextView;
 
 import androidx.annotation.NonNull;
+import androidx.recyclerview.widget.AsyncListDiffer;
+import androidx.recyclerview.widget.DiffUtil;
 import androidx.recyclerview.widget.RecyclerView;
 
 import com.google.android.material.button.MaterialButton;
 
 import java.text.DecimalFormat;
 import java.text.SimpleDateFormat;
+import java.util.ArrayList;
 import java.util.Date;
 import java.util.List;
 import java.util.Locale;
@@ -21,8 +24,13 @@ import java.util.Locale;
  * Used in the batch weighing card to show individual weighing batches
  */
 public class BatchAdapter extends RecyclerView.Adapter<BatchAdapter.BatchViewHolder> {
-    private List<WeighingBatch> batches;
+    // "Batch N" labels after a removal point shift without the batch itself changing
+    private static final Object PAYLOAD_NUMBER = new Object();
+
+    // Holds its own snapshot; callers pass the updated list to updateBatches after each change
+    private final AsyncListDiffer<WeighingBatch> batches = new AsyncListDiffer<>(this, DIFF_CALLBACK);
     private OnBatchRemovedListener listener;
+    private final RenderStats renderStats = RenderStats.forList("Weighing batches");
     private DecimalFormat weightFormat;
     private DecimalFormat currencyFormat;
     private SimpleDateFormat timeFormat;
@@ -32,11 +40,13 @@ public class BatchAdapter extends RecyclerView.Adapter<BatchAdapter.BatchViewHol
     }
 
     public BatchAdapter(List<WeighingBatch> batches, OnBatchRemovedListener listener) {
-        this.batches = batches;
         this.listener = listener;
         this.weightFormat = new DecimalFormat("0.00");
         this.currencyFormat = new DecimalFormat("KSH #,##0.00");
         this.timeFormat = new SimpleDateFormat("HH:mm:ss", Locale.getDefault());
+        setHasStableIds(true);
+        this.batches.addListListener(this::renumberFromFirstChange);
+        this.batches.submitList(batches != null ? new ArrayList<>(batches) : new ArrayList<>());
     }
 
     @NonNull
@@ -49,41 +59,59 @@ public class BatchAdapter extends RecyclerView.Adapter<BatchAdapter.BatchViewHol
 
     @Override
     public void onBindViewHolder(@NonNull BatchViewHolder holder, int position) {
-        WeighingBatch batch = batches.get(position);
+        long start = renderStats.bindStarted();
+        WeighingBatch batch = batches.getCurrentList().get(position);
         holder.bind(batch, position + 1); // 1-based numbering for display
+        renderStats.bindFinished(start);
+    }
+
+    @Override
+    public void onBindViewHolder(@NonNull BatchViewHolder holder, int position, @NonNull List<Object> payloads) {
+        if (payloads.isEmpty()) {
+            onBindViewHolder(holder, position);
+            return;
+        }
+        long start = renderStats.bindStarted();
+        holder.bindNumber(batches.getCurrentList().get(position), position + 1);
+        renderStats.bindFinished(start);
     }
 
     @Override
     public int getItemCount() {
-        return batches.size();
+        return batches.getCurrentList().size();
+    }
+
+    @Override
+    public long getItemId(int position) {
+        return batches.getCurrentList().get(position).getId();
     }
 
     /**
-     * Update the batches list and refresh the adapter
+     * Show the given list. The diff runs in the background, so adding a batch inserts just
+     * that row.
      */
     public void updateBatches(List<WeighingBatch> newBatches) {
-        this.batches.clear();
-        if (newBatches != null) {
-            this.batches.addAll(newBatches);
-        }
-        notifyDataSetChanged();
+        renderStats.listUpdated();
+        batches.submitList(newBatches != null ? new ArrayList<>(newBatches) : new ArrayList<>());
     }
 
     /**
      * Add a new batch to the list
      */
     public void addBatch(WeighingBatch batch) {
-        batches.add(batch);
-        notifyItemInserted(batches.size() - 1);
+        List<WeighingBatch> updated = new ArrayList<>(batches.getCurrentList());
+        updated.add(batch);
+        updateBatches(updated);
     }
 
     /**
      * Remove batch at position
      */
     public void removeBatch(int position) {
-        if (position >= 0 && position < batches.size()) {
-            batches.remove(position);
-            notifyItemRemoved(position);
+        List<WeighingBatch> updated = new ArrayList<>(batches.getCurrentList());
+        if (position >= 0 && position < updated.size()) {
+            updated.remove(position);
+            updateBatches(updated);
         }
     }
 
@@ -91,8 +119,9 @@ public class BatchAdapter extends RecyclerView.Adapter<BatchAdapter.BatchViewHol
      * Get batch at position
      */
     public WeighingBatch getBatchAt(int position) {
-        if (position >= 0 && position < batches.size()) {
-            return batches.get(position);
+        List<WeighingBatch> current = batches.getCurrentList();
+        if (position >= 0 && position < current.size()) {
+            return current.get(position);
         }
         return null;
     }
@@ -101,31 +130,58 @@ public class BatchAdapter extends RecyclerView.Adapter<BatchAdapter.BatchViewHol
      * Check if the list is empty
      */
     public boolean isEmpty() {
-        return batches.isEmpty();
+        return batches.getCurrentList().isEmpty();
+    }
+
+    // Rows after the first insertion/removal show a different number; refresh just the label
+    private void renumberFromFirstChange(@NonNull List<WeighingBatch> previous, @NonNull List<WeighingBatch> current) {
+        int first = 0;
+        while (first < previous.size() && first < current.size()
+                && previous.get(first).getId() == current.get(first).getId()) {
+            first++;
+        }
+        // Appending leaves existing numbers alone
+        if (first < previous.size() && first < current.size()) {
+            notifyItemRangeChanged(first, current.size() - first, PAYLOAD_NUMBER);
+        }
     }
 
     /**
      * Get total weight of all batches
      */
     public double getTotalWeight() {
-        double total = 0.0;
-        for (WeighingBatch batch : batches) {
-            total += batch.getWeight();
+        long totalGrams = 0;
+        for (WeighingBatch batch : batches.getCurrentList()) {
+            totalGrams += batch.getWeightGrams();
         }
-        return total;
+        return FixedPoint.fromGrams(totalGrams);
     }
 
     /**
      * Get total value of all batches
      */
     public double getTotalValue() {
-        double total = 0.0;
-        for (WeighingBatch batch : batches) {
-            total += batch.getValue();
+        long totalCents = 0;
+        for (WeighingBatch batch : batches.getCurrentList()) {
+            totalCents += batch.getValueCents();
         }
-        return total;
+        return FixedPoint.fromCents(totalCents);
     }
 
+    private static final DiffUtil.ItemCallback<WeighingBatch> DIFF_CALLBACK = new DiffUtil.ItemCallback<WeighingBatch>() {
+        @Override
+        public boolean areItemsTheSame(@NonNull WeighingBatch oldItem, @NonNull WeighingBatch newItem) {
+            return oldItem.getId() == newItem.getId();
+        }
+
+        @Override
+        public boolean areContentsTheSame(@NonNull WeighingBatch oldItem, @NonNull WeighingBatch newItem) {
+            return oldItem.getWeightGrams() == newItem.getWeightGrams()
+                    && oldItem.getPricePerKgCents() == newItem.getPricePerKgCents()
+                    && oldItem.getTimestamp() == newItem.getTimestamp();
+        }
+    };
+
     public class BatchViewHolder extends RecyclerView.ViewHolder {
         private TextView tvBatchNumber;
         private TextView tvBatchWeight;
@@ -143,7 +199,6 @@ public class BatchAdapter extends RecyclerView.Adapter<BatchAdapter.BatchViewHol
         }
 
         public void bind(WeighingBatch batch, int displayNumber) {
-            tvBatchNumber.setText("Batch " + displayNumber);
             tvBatchWeight.setText(weightFormat.format(batch.getWeight()) + " kg");
             tvBatchValue.setText(currencyFormat.format(batch.getValue()));
             tvBatchTime.setText(timeFormat.format(new Date(batch.getTimestamp())));
@@ -154,6 +209,12 @@ public class BatchAdapter extends RecyclerView.Adapter<BatchAdapter.BatchViewHol
                 }
             });
 
+            bindNumber(batch, displayNumber);
+        }
+
+        void bindNumber(WeighingBatch batch, int displayNumber) {
+            tvBatchNumber.setText("Batch " + displayNumber);
+
             // Accessibility
             itemView.setContentDescription(
                     "Batch " + displayNumber + ", " +
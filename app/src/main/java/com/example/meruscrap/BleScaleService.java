@@ -619,37 +619,37 @@ public class BleScaleService extends Service {
     }
 
     private void activateScale(BluetoothGatt gatt) {
-        // Send activation commands to wake up the scale
-        new Thread(() -> {
-            try {
-                if (weightCharacteristic != null && checkBluetoothPermissions()) {
-                    // Common activation commands
-                    byte[][] commands = {
-                            {(byte)0x05}, // Start command
-                            {(byte)0x04}  // Request weight
-                    };
-
-                    for (byte[] command : commands) {
-                        mainHandler.post(() -> {
-                            try {
-                                weightCharacteristic.setValue(command);
-                                int properties = weightCharacteristic.getProperties();
-                                if ((properties & BluetoothGattCharacteristic.PROPERTY_WRITE_NO_RESPONSE) != 0) {
-                                    weightCharacteristic.setWriteType(BluetoothGattCharacteristic.WRITE_TYPE_NO_RESPONSE);
-                                }
-                                boolean success = gatt.writeCharacteristic(weightCharacteristic);
-                                Log.d(TAG, "Activation command sent: " + success);
-                            } catch (SecurityException e) {
-                                Log.e(TAG, "Permission error sending activation command", e);
-                            }
-                        });
-                        Thread.sleep(1000); // Delay between commands
+        // Send activation commands to wake up the scale, one second apart; GATT writes
+        // belong on the main handler anyway, so no thread needs to sleep between them
+        if (weightCharacteristic == null || !checkBluetoothPermissions()) {
+            return;
+        }
+
+        // Common activation commands
+        byte[][] commands = {
+                {(byte)0x05}, // Start command
+                {(byte)0x04}  // Request weight
+        };
+
+        for (int i = 0; i < commands.length; i++) {
+            byte[] command = commands[i];
+            mainHandler.postDelayed(() -> {
+                if (weightCharacteristic == null) {
+                    return;
+                }
+                try {
+                    weightCharacteristic.setValue(command);
+                    int properties = weightCharacteristic.getProperties();
+                    if ((properties & BluetoothGattCharacteristic.PROPERTY_WRITE_NO_RESPONSE) != 0) {
+                        weightCharacteristic.setWriteType(BluetoothGattCharacteristic.WRITE_TYPE_NO_RESPONSE);
                     }
+                    boolean success = gatt.writeCharacteristic(weightCharacteristic);
+                    Log.d(TAG, "Activation command sent: " + success);
+                } catch (SecurityException e) {
+                    Log.e(TAG, "Permission error sending activation command", e);
                 }
-            } catch (InterruptedException e) {
-                Thread.currentThread().interrupt();
-            }
-        }).start();
+            }, i * 1000L); // Delay between commands
+        }
     }
 
     private double parseWeightData(byte[] data) {
@@ -41,6 +41,7 @@ public class BleScaleViewModel extends ViewModel {
     private static final String TAG = "BleScaleViewModel";
     private static final long SCAN_PERIOD = 15000;
     private static final int CONNECTION_TIMEOUT = 10000;
+    private static final long ACTIVATION_COMMAND_DELAY_MS = 2000;
 
     // Standard BLE Weight Scale Service UUIDs
     private static final UUID WEIGHT_SERVICE_UUID = UUID.fromString("0000ffc0-0000-1000-8000-00805f9b34fb");
@@ -713,68 +714,53 @@ public class BleScaleViewModel extends ViewModel {
                     {(byte)0x04}                     // Request weight that works
             };
 
-            // Send commands with PROPER DELAYS on background thread
-            new Thread(() -> {
-                try {
-                    for (int i = 0; i < activationCommands.length; i++) {
-                        final byte[] command = activationCommands[i];
-                        final int commandIndex = i + 1;
-
-                        // Send command on main thread (required for BLE)
-                        handler.post(() -> {
-                            try {
-                                // ✅ FIX: Add permission check before writeCharacteristic
-                                if (!checkPermissions()) {
-                                    Log.e(TAG, "Missing permissions for write command " + commandIndex);
-                                    return;
-                                }
+            // Send commands with PROPER DELAYS, scheduled on the main handler (required for BLE)
+            for (int i = 0; i < activationCommands.length; i++) {
+                final byte[] command = activationCommands[i];
+                final int commandIndex = i + 1;
 
-                                commandChar.setValue(command);
-                                int properties = commandChar.getProperties();
-                                if ((properties & BluetoothGattCharacteristic.PROPERTY_WRITE_NO_RESPONSE) != 0) {
-                                    commandChar.setWriteType(BluetoothGattCharacteristic.WRITE_TYPE_NO_RESPONSE);
-                                } else {
-                                    commandChar.setWriteType(BluetoothGattCharacteristic.WRITE_TYPE_DEFAULT);
-                                }
+                handler.postDelayed(() -> {
+                    try {
+                        // ✅ FIX: Add permission check before writeCharacteristic
+                        if (!checkPermissions()) {
+                            Log.e(TAG, "Missing permissions for write command " + commandIndex);
+                            return;
+                        }
 
-                                // ✅ FIX: Permission-safe writeCharacteristic call
-                                boolean success = gatt.writeCharacteristic(commandChar);
+                        commandChar.setValue(command);
+                        int properties = commandChar.getProperties();
+                        if ((properties & BluetoothGattCharacteristic.PROPERTY_WRITE_NO_RESPONSE) != 0) {
+                            commandChar.setWriteType(BluetoothGattCharacteristic.WRITE_TYPE_NO_RESPONSE);
+                        } else {
+                            commandChar.setWriteType(BluetoothGattCharacteristic.WRITE_TYPE_DEFAULT);
+                        }
 
-                                StringBuilder hex = new StringBuilder();
-                                for (byte b : command) {
-                                    hex.append(String.format("%02X ", b));
-                                }
-                                Log.d(TAG, "Activation command " + commandIndex + " sent: " + success + " (hex: " + hex.toString().trim() + ")");
-
-                            } catch (SecurityException e) {
-                                // ✅ FIX: Handle SecurityException properly
-                                Log.e(TAG, "Permission denied for activation command " + commandIndex + ": " + e.getMessage());
-                                _errorMessage.setValue("Bluetooth permission denied");
-                            } catch (Exception e) {
-                                Log.e(TAG, "Error sending activation command " + commandIndex + ": " + e.getMessage());
-                            }
-                        });
+                        // ✅ FIX: Permission-safe writeCharacteristic call
+                        boolean success = gatt.writeCharacteristic(commandChar);
 
-                        // Wait between commands (OFF main thread)
-                        Thread.sleep(2000); // 2 seconds between commands
-                    }
+                        StringBuilder hex = new StringBuilder();
+                        for (byte b : command) {
+                            hex.append(String.format("%02X ", b));
+                        }
+                        Log.d(TAG, "Activation command " + commandIndex + " sent: " + success + " (hex: " + hex.toString().trim() + ")");
 
-                    // Update UI after activation sequence
-                    handler.post(() -> {
-                        _connectionStatus.setValue("🎉 Scale activated! Step on scale for readings");
+                    } catch (SecurityException e) {
+                        // ✅ FIX: Handle SecurityException properly
+                        Log.e(TAG, "Permission denied for activation command " + commandIndex + ": " + e.getMessage());
+                        _errorMessage.setValue("Bluetooth permission denied");
+                    } catch (Exception e) {
+                        Log.e(TAG, "Error sending activation command " + commandIndex + ": " + e.getMessage());
+                    }
+                }, i * ACTIVATION_COMMAND_DELAY_MS); // 2 seconds between commands
+            }
 
-                        // Start gentle polling after activation
-                        startOptimizedPolling(gatt);
-                    });
+            // Update UI after activation sequence
+            handler.postDelayed(() -> {
+                _connectionStatus.setValue("🎉 Scale activated! Step on scale for readings");
 
-                } catch (InterruptedException e) {
-                    Thread.currentThread().interrupt();
-                    Log.e(TAG, "Activation sequence interrupted");
-                } catch (Exception e) {
-                    Log.e(TAG, "Error in activation sequence: " + e.getMessage());
-                    handler.post(() -> _connectionStatus.setValue("Error activating scale"));
-                }
-            }).start();
+                // Start gentle polling after activation
+                startOptimizedPolling(gatt);
+            }, activationCommands.length * ACTIVATION_COMMAND_DELAY_MS);
 
         } catch (Exception e) {
             Log.e(TAG, "Error in activateScale: " + e.getMessage());
@@ -11,12 +11,12 @@ import android.util.Log;
 import java.io.IOException;
 import java.io.InputStream;
 import java.io.OutputStream;
-import java.nio.charset.StandardCharsets;
-import java.util.LinkedList;
-import java.util.Queue;
 import java.util.UUID;
 import java.util.concurrent.ExecutorService;
-import java.util.concurrent.Executors;
+import java.util.concurrent.RejectedExecutionException;
+import java.util.concurrent.ScheduledFuture;
+import java.util.concurrent.atomic.AtomicBoolean;
+import java.util.concurrent.locks.ReentrantLock;
 
 public class BluetoothPrintManager {
     private static final String TAG = "BluetoothPrintManager";
@@ -33,20 +33,74 @@ public class BluetoothPrintManager {
     private static final byte[] ESC_CUT_PAPER = {0x1D, 0x56, 0x00}; // Cut paper
     private static final byte[] ESC_FEED_LINES = {0x1B, 0x64, 0x03}; // Feed 3 lines
 
-    // Status query commands
-    private static final byte[] DLE_EOT_STATUS = {0x10, 0x04, 0x01}; // Paper sensor status
-    private static final byte[] DLE_EOT_OFFLINE = {0x10, 0x04, 0x02}; // Offline status
-    private static final byte[] DLE_EOT_ERROR = {0x10, 0x04, 0x03}; // Error status
-    private static final byte[] DLE_EOT_PAPER = {0x10, 0x04, 0x04}; // Paper roll sensor status
+    // Status queries and their replies are in PrinterStatusReader
+
+    // Pacing: how long to wait for the printer to report ready before sending anyway
+    private static final long JOB_READY_TIMEOUT_MS = 10000;
+    private static final long RETRY_READY_TIMEOUT_MS = 5000;
+    private static final long CONNECT_READY_TIMEOUT_MS = 2000;
+    // While the printer reports an error (no paper, cover open) it is asked again this often
+    private static final long ERROR_POLL_MS = 500;
+    // Fixed gaps for printers that never answer status queries
+    private static final long FALLBACK_JOB_DELAY_MS = 1000;
+    private static final long FALLBACK_RETRY_DELAY_MS = 2000;
+    // Keep-alive: an idle link is probed this often, which also notices a dead one
+    private static final long KEEP_ALIVE_MS = 10000;
 
     private BluetoothSocket socket;
     private OutputStream outputStream;
     private InputStream inputStream;
     private ExecutorService executor;
+    private ScheduledFuture<?> statusMonitor;
     private Handler mainHandler;
-    private Queue<PrintJob> printQueue;
-    private boolean isConnected = false;
-    private boolean isPrinting = false;
+    // Durable queue shared with the print history; this class is its only consumer
+    private final PrintQueue printQueue;
+    private volatile boolean isConnected = false;
+    // Set before the print loop is scheduled and cleared by the loop itself, so only one runs
+    private final AtomicBoolean printing = new AtomicBoolean();
+    private volatile BluetoothDevice connectedDevice;
+    // When the current connection became ready; jobs queued before then waited for it
+    private volatile long connectedAtMillis;
+    private volatile LinkListener linkListener;
+    // Takes every reply from the printer on its own thread; one per connection
+    private volatile PrinterStatusReader statusReader;
+    // Held while a job or a query is written, so probes from other threads never split one
+    private final ReentrantLock writeLock = new ReentrantLock();
+    private final PrinterStatusReader.Listener readerListener = new PrinterStatusReader.Listener() {
+        @Override
+        public void onStatusChanged(PrinterStatusReader reader, PrinterStatus status) {
+            if (reader == statusReader) {
+                postStatus(status);
+            }
+        }
+
+        @Override
+        public void onReaderFailed(PrinterStatusReader reader, IOException cause) {
+            executor.execute(() -> {
+                if (reader == statusReader) {
+                    connectionLost(cause);
+                }
+            });
+        }
+    };
+
+    // Jobs are rendered here and sent in one go; only touched on the print thread
+    private final ESCPOSBuffer jobBuffer = new ESCPOSBuffer();
+    // Chunk size and pacing for the connected printer, learned across connections
+    private final PrinterPreferencesManager printerPreferences;
+    private volatile AdaptiveChunkWriter linkWriter;
+    private String printerAddress;
+    // Diagnostic: replay the old flush-per-fragment sending, to compare against
+    private volatile boolean flushPerFragment = false;
+    private final PrintStats bufferedStats = new PrintStats("paced chunks");
+    private final PrintStats fragmentStats = new PrintStats("flush per fragment");
+    // Whether this printer answers status queries; cleared on the first one that times out
+    private volatile boolean statusReplies = true;
+    private final PacingStats pacingStats = new PacingStats();
+
+    // Receipt layout compiled from the printer preferences
+    private final ReceiptTemplateCompiler receiptTemplates;
+    private final ReceiptRenderer receipts;
 
     private PrinterStatusListener statusListener;
 
@@ -59,6 +113,18 @@ public class BluetoothPrintManager {
         void onStatusUpdate(PrinterStatus status);
     }
 
+    /**
+     * Connection events for PrinterSessionManager, which keeps the link up. Called on the
+     * print thread, independently of the UI listener.
+     */
+    interface LinkListener {
+        void onLinkUp(BluetoothDevice device, long connectMs);
+        void onLinkLost(BluetoothDevice device, IOException cause);
+        void onConnectFailed(BluetoothDevice device, Exception cause);
+        // A job queued while there was no connection has started printing
+        void onJobWaitedForLink(long waitMs);
+    }
+
     public enum PrinterStatus {
         ONLINE,
         OFFLINE,
@@ -72,7 +138,10 @@ public class BluetoothPrintManager {
 
     public static class PrintJob {
         public String jobId;
+        // Null for a transaction receipt, which is rendered from transactionRef when it prints
         public String content;
+        public String transactionRef;
+        public int templateVersion;
         public PrintJobType type;
         public long timestamp;
         public int retryCount;
@@ -93,20 +162,29 @@ public class BluetoothPrintManager {
     }
 
     public BluetoothPrintManager(Context context) {
-        this.executor = Executors.newSingleThreadExecutor();
+        this.executor = AppExecutors.get().print();
         this.mainHandler = new Handler(Looper.getMainLooper());
-        this.printQueue = new LinkedList<>();
+        this.printQueue = PrintQueue.getInstance(context);
+        printQueue.setConsumer(this::processPrintQueue);
+        this.receiptTemplates = ReceiptTemplateCompiler.getInstance(context);
+        this.receipts = ReceiptRenderer.getInstance(context);
+        this.printerPreferences = new PrinterPreferencesManager(context);
     }
 
     public void setStatusListener(PrinterStatusListener listener) {
         this.statusListener = listener;
     }
 
+    void setLinkListener(LinkListener listener) {
+        this.linkListener = listener;
+    }
+
     public void connect(BluetoothDevice device) {
         if (isConnected) {
             disconnect();
         }
 
+        long connectStart = System.nanoTime();
         executor.execute(() -> {
             try {
                 socket = device.createRfcommSocketToServiceRecord(SPP_UUID);
@@ -114,15 +192,29 @@ public class BluetoothPrintManager {
 
                 outputStream = socket.getOutputStream();
                 inputStream = socket.getInputStream();
+                printerAddress = device.getAddress();
+                linkWriter = new AdaptiveChunkWriter(printerPreferences.getLinkProfile(printerAddress),
+                        socket.getMaxTransmitPacketSize());
+                Log.d(TAG, "Link to " + printerAddress + ": " + linkWriter.getProfile());
+
+                statusReader = new PrinterStatusReader(inputStream, readerListener);
+                statusReader.start();
 
                 isConnected = true;
+                statusReplies = true;
 
-                // Initialize printer
+                // Initialize printer; its status reply doubles as the check that it is ready
                 sendRawData(ESC_INIT);
-                Thread.sleep(500);
-
-                // Check printer status
-                checkPrinterStatus();
+                awaitPrinterReady(CONNECT_READY_TIMEOUT_MS);
+
+                connectedDevice = device;
+                connectedAtMillis = System.currentTimeMillis();
+                long connectMs = (System.nanoTime() - connectStart) / 1_000_000;
+                Log.d(TAG, "Connected to " + printerAddress + " in " + connectMs + "ms");
+                LinkListener link = linkListener;
+                if (link != null) {
+                    link.onLinkUp(device, connectMs);
+                }
 
                 mainHandler.post(() -> {
                     if (statusListener != null) {
@@ -130,15 +222,20 @@ public class BluetoothPrintManager {
                     }
                 });
 
-                // Start status monitoring
+                // Keep the idle link warm and find out early when it drops
                 startStatusMonitoring();
 
                 // Process queued jobs
                 processPrintQueue();
 
-            } catch (IOException | InterruptedException e) {
+            } catch (IOException | InterruptedException | SecurityException e) {
                 Log.e(TAG, "Connection failed", e);
                 isConnected = false;
+                closeConnection();
+                LinkListener link = linkListener;
+                if (link != null) {
+                    link.onConnectFailed(device, e);
+                }
                 mainHandler.post(() -> {
                     if (statusListener != null) {
                         statusListener.onError("Connection failed: " + e.getMessage());
@@ -150,92 +247,247 @@ public class BluetoothPrintManager {
 
     public void disconnect() {
         isConnected = false;
-        isPrinting = false;
+        stopStatusMonitoring();
 
         executor.execute(() -> {
-            try {
-                if (socket != null && socket.isConnected()) {
-                    socket.close();
+            closeConnection();
+            mainHandler.post(() -> {
+                if (statusListener != null) {
+                    statusListener.onDisconnected();
                 }
-                if (outputStream != null) {
-                    outputStream.close();
-                }
-                if (inputStream != null) {
-                    inputStream.close();
-                }
-            } catch (IOException e) {
-                Log.e(TAG, "Error during disconnect", e);
-            } finally {
-                socket = null;
-                outputStream = null;
-                inputStream = null;
+            });
+        });
+    }
 
-                mainHandler.post(() -> {
-                    if (statusListener != null) {
-                        statusListener.onDisconnected();
-                    }
-                });
+    /**
+     * Treat the connection as lost, e.g. when the system reports the ACL link down, rather
+     * than waiting for the next write to fail.
+     */
+    void dropConnection(String reason) {
+        executor.execute(() -> connectionLost(new IOException(reason)));
+    }
+
+    // The link failed under us: close it, tell the UI and let the session reconnect
+    private void connectionLost(IOException cause) {
+        if (!isConnected) {
+            return;
+        }
+        Log.w(TAG, "Connection to " + printerAddress + " lost", cause);
+        BluetoothDevice device = connectedDevice;
+        isConnected = false;
+        stopStatusMonitoring();
+        closeConnection();
+
+        mainHandler.post(() -> {
+            if (statusListener != null) {
+                statusListener.onDisconnected();
             }
         });
+        LinkListener link = linkListener;
+        if (link != null) {
+            link.onLinkLost(device, cause);
+        }
+    }
+
+    // Print thread only
+    private void closeConnection() {
+        if (statusReader != null) {
+            statusReader.close();
+            statusReader = null;
+        }
+        try {
+            if (socket != null) {
+                socket.close();
+            }
+            if (outputStream != null) {
+                outputStream.close();
+            }
+            if (inputStream != null) {
+                inputStream.close();
+            }
+        } catch (IOException e) {
+            Log.e(TAG, "Error during disconnect", e);
+        } finally {
+            socket = null;
+            outputStream = null;
+            inputStream = null;
+            connectedDevice = null;
+        }
     }
 
     public void addPrintJob(String jobId, String content, PrintJobType type) {
-        PrintJob job = new PrintJob(jobId, content, type);
-        printQueue.offer(job);
+        addPrintJob(jobId, content, type, null);
+    }
 
-        if (isConnected && !isPrinting) {
-            processPrintQueue();
-        }
+    /**
+     * Queue a job. It is stored before the callback is told, and printed once connected;
+     * a job id that was already queued is ignored.
+     */
+    public void addPrintJob(String jobId, String content, PrintJobType type, PrintQueue.Callback callback) {
+        printQueue.enqueue(jobId, type, content, callback);
     }
 
     private void processPrintQueue() {
-        if (!isConnected || isPrinting || printQueue.isEmpty()) {
+        if (!isConnected || printQueue.isEmpty() || !printing.compareAndSet(false, true)) {
             return;
         }
 
-        executor.execute(() -> {
-            isPrinting = true;
+        try {
+            executor.execute(this::runPrintLoop);
+        } catch (RejectedExecutionException e) {
+            printing.set(false);
+            Log.e(TAG, "Print loop not scheduled, queued jobs wait for the next enqueue", e);
+        }
+    }
 
-            while (!printQueue.isEmpty() && isConnected) {
+    // Print thread only; exactly one runs at a time, guarded by printing
+    private void runPrintLoop() {
+        try {
+            long runStart = System.nanoTime();
+            int printed = 0;
+
+            while (isConnected) {
                 PrintJob job = printQueue.poll();
+                if (job == null) {
+                    break;
+                }
+                if (job.timestamp < connectedAtMillis) {
+                    LinkListener link = linkListener;
+                    if (link != null) {
+                        link.onJobWaitedForLink(System.currentTimeMillis() - job.timestamp);
+                    }
+                }
 
                 try {
                     printJob(job);
 
+                    // Next job goes as soon as the printer has worked through this one
+                    long waitStart = System.nanoTime();
+                    boolean answering = statusReplies;
+                    PrinterStatus status = null;
+                    IOException statusFailure = null;
+                    try {
+                        status = awaitJobDone(JOB_READY_TIMEOUT_MS, FALLBACK_JOB_DELAY_MS);
+                    } catch (IOException e) {
+                        // The job itself was sent; only the status query failed, so do not resend it
+                        Log.w(TAG, "Status query after " + job.jobId + " failed", e);
+                        answering = false;
+                        statusFailure = e;
+                    }
+                    pacingStats.recordWait(System.nanoTime() - waitStart, status == null);
+                    // A printer that answered before the job and not after it most likely lost bytes
+                    learnLink(!answering || status != null);
+                    printQueue.complete(job);
+                    printed++;
+
                     mainHandler.post(() -> {
                         if (statusListener != null) {
                             statusListener.onPrintJobCompleted(job.jobId);
                         }
                     });
-
-                    // Brief delay between jobs
-                    Thread.sleep(1000);
+                    if (statusFailure != null) {
+                        connectionLost(statusFailure);
+                    }
 
                 } catch (Exception e) {
                     Log.e(TAG, "Print job failed: " + job.jobId, e);
+                    // A write that fails means the link is gone; the job waits for the reconnect
+                    boolean linkFailed = e instanceof IOException;
+                    if (linkFailed) {
+                        learnLink(false);
+                    }
 
                     // Retry logic
                     if (job.retryCount < 3) {
-                        job.retryCount++;
-                        printQueue.offer(job); // Re-queue for retry
-                        try {
-                            Thread.sleep(2000); // Wait before retry
-                        } catch (InterruptedException ie) {
-                            Thread.currentThread().interrupt();
-                            break;
+                        printQueue.retry(job, e.getMessage()); // Re-queue for retry
+                        if (!linkFailed) {
+                            try {
+                                // Wait for the printer to recover rather than a fixed time
+                                awaitJobDone(RETRY_READY_TIMEOUT_MS, FALLBACK_RETRY_DELAY_MS);
+                            } catch (InterruptedException ie) {
+                                Thread.currentThread().interrupt();
+                                break;
+                            } catch (IOException ioe) {
+                                Log.w(TAG, "Printer not answering before retry", ioe);
+                                connectionLost(ioe);
+                            }
                         }
                     } else {
+                        printQueue.fail(job, e.getMessage());
                         mainHandler.post(() -> {
                             if (statusListener != null) {
                                 statusListener.onPrintJobFailed(job.jobId, e.getMessage());
                             }
                         });
                     }
+                    if (linkFailed) {
+                        connectionLost((IOException) e);
+                    }
                 }
             }
 
-            isPrinting = false;
-        });
+            if (printed > 0) {
+                long elapsed = System.nanoTime() - runStart;
+                pacingStats.recordRun(printed, elapsed);
+                Log.d(TAG, "Printed " + printed + " jobs in " + elapsed / 1_000_000 + "ms (" +
+                        String.format(java.util.Locale.US, "%.1f", PacingStats.perMinute(printed, elapsed)) +
+                        " jobs/min)");
+            }
+        } finally {
+            printing.set(false);
+        }
+        // A job queued just as the loop ended would otherwise wait for the next one
+        if (isConnected && !printQueue.isEmpty()) {
+            processPrintQueue();
+        }
+    }
+
+    /**
+     * Wait for the printer to finish what it was sent and be ready for more. Returns its
+     * status, or null when it gave no answer and the wait fell back to a fixed delay.
+     */
+    private PrinterStatus awaitJobDone(long timeoutMs, long fallbackDelayMs)
+            throws IOException, InterruptedException {
+        if (!statusReplies) {
+            Thread.sleep(fallbackDelayMs);
+            return null;
+        }
+        PrinterStatus status = awaitPrinterReady(timeoutMs);
+        if (status != null && status != PrinterStatus.ONLINE) {
+            Log.w(TAG, "Printer still reports " + status + " after " + timeoutMs + "ms, continuing");
+        }
+        return status;
+    }
+
+    /**
+     * Block until the printer has processed everything sent so far and reports it can print.
+     *
+     * GS r 1 is answered in sequence with the print data, so its reply arrives once the bytes
+     * before it have left the printer's buffer; DLE EOT real-time status then tells whether
+     * the printer can take the next job (paper, cover, errors). While it reports an error it
+     * is asked again every ERROR_POLL_MS; the status reader passes each change to the
+     * listener. Returns the last status, or null if the printer never replied, in which case
+     * later waits fall back to fixed delays for this connection. Print thread only.
+     */
+    private PrinterStatus awaitPrinterReady(long timeoutMs) throws IOException, InterruptedException {
+        long deadline = System.nanoTime() + timeoutMs * 1_000_000;
+        PrinterStatusReader reader = requireStatusReader();
+        long processed = reader.getProcessedCount();
+        sendQueries(reader, PrinterStatusReader.Query.PROCESSED);
+        if (!reader.awaitProcessed(processed, deadline)) {
+            reader.resync();
+            statusReplies = false;
+            Log.w(TAG, "No status reply within " + timeoutMs + "ms, pacing with fixed delays");
+            return null;
+        }
+
+        while (true) {
+            PrinterStatus status = queryPrinterStatus(deadline);
+            if (status == null || status == PrinterStatus.ONLINE || System.nanoTime() >= deadline) {
+                return status;
+            }
+            Thread.sleep(ERROR_POLL_MS);
+        }
     }
 
     private void printJob(PrintJob job) throws IOException, InterruptedException {
@@ -243,214 +495,262 @@ public class BluetoothPrintManager {
             throw new IOException("Printer not connected");
         }
 
+        long start = System.nanoTime();
+        ESCPOSBuffer buffer = jobBuffer.reset();
         switch (job.type) {
             case RECEIPT:
-                printReceipt(job.content);
+                renderReceipt(buffer, receiptTemplates.get(), receiptText(job));
                 break;
             case REPORT:
-                printReport(job.content);
+                renderReport(buffer, job.content);
                 break;
             case TEST_PAGE:
-                printTestPage();
+                renderTestPage(buffer);
                 break;
         }
+        sendJob(buffer, start);
     }
 
-    private void printReceipt(String content) throws IOException {
-        // Initialize and center align
-        sendRawData(ESC_INIT);
-        sendRawData(ESC_ALIGN_CENTER);
-
-        // Print header
-        sendRawData(ESC_BOLD_ON);
-        sendRawData(ESC_DOUBLE_HEIGHT);
-        sendText("MERU SCRAP METAL");
-        sendNewLine();
-        sendRawData(ESC_NORMAL_SIZE);
-        sendRawData(ESC_BOLD_OFF);
+    // Send a rendered job in chunks sized and paced for this printer's link
+    private void sendJob(ESCPOSBuffer buffer, long startNanos) throws IOException, InterruptedException {
+        OutputStream out = outputStream;
+        AdaptiveChunkWriter writer = linkWriter;
+        if (out == null || writer == null) {
+            throw new IOException("Printer not connected");
+        }
 
-        sendText("Receipt");
-        sendNewLine();
-        sendNewLine();
+        int writes;
+        PrintStats stats;
+        writeLock.lock();
+        try {
+            if (flushPerFragment) {
+                writes = buffer.writeFragmentsTo(out);
+                stats = fragmentStats;
+            } else {
+                writes = writer.write(out, buffer);
+                stats = bufferedStats;
+            }
+        } finally {
+            writeLock.unlock();
+        }
+        long elapsed = System.nanoTime() - startNanos;
+        stats.record(buffer.size(), writes, elapsed);
+        Log.d(TAG, "Sent " + buffer.size() + " bytes in " + writes + " writes (" + buffer.getFragmentCount() +
+                " fragments) in " + elapsed / 1_000_000 + "ms");
+    }
 
-        // Print content (left aligned)
-        sendRawData(ESC_ALIGN_LEFT);
-        sendText(content);
-        sendNewLine();
-        sendNewLine();
+    // Feed a job's outcome back into the link limits and keep them for the next connection
+    private void learnLink(boolean delivered) {
+        AdaptiveChunkWriter writer = linkWriter;
+        if (writer == null || flushPerFragment) {
+            return;
+        }
+        writer.onJobResult(delivered);
+        PrinterPreferencesManager.LinkProfile changed = writer.takeChangedProfile();
+        if (changed != null) {
+            printerPreferences.saveLinkProfile(printerAddress, changed);
+        }
+    }
 
-        // Print footer
-        sendRawData(ESC_ALIGN_CENTER);
-        sendText("Thank you!");
-        sendNewLine();
-        sendText("Date: " + new java.util.Date().toString());
+    // A job for a transaction is rendered from its rows now (or taken from the recent-receipt cache)
+    private String receiptText(PrintJob job) {
+        if (job.content != null || job.transactionRef == null) {
+            return job.content;
+        }
+        String text = receipts.getReceipt(job.transactionRef, job.templateVersion);
+        if (text == null) {
+            throw new IllegalStateException("Transaction " + job.transactionRef + " not found");
+        }
+        return text;
+    }
 
-        // Feed and cut
-        sendRawData(ESC_FEED_LINES);
-        sendRawData(ESC_CUT_PAPER);
+    private static void renderReceipt(ESCPOSBuffer buffer, ReceiptTemplateCompiler.CompiledReceipt template,
+                                      String content) {
+        // Header, footer, feed and cut come pre-encoded; only the content and date are written
+        template.renderJob(buffer, content, System.currentTimeMillis());
     }
 
-    private void printReport(String content) throws IOException {
-        sendRawData(ESC_INIT);
-        sendRawData(ESC_ALIGN_LEFT);
+    private static void renderReport(ESCPOSBuffer buffer, String content) {
+        buffer.command(ESC_INIT)
+                .command(ESC_ALIGN_LEFT);
 
-        sendRawData(ESC_BOLD_ON);
-        sendText("REPORT - MERU SCRAP METAL");
-        sendRawData(ESC_BOLD_OFF);
-        sendNewLine();
-        sendNewLine();
+        buffer.command(ESC_BOLD_ON)
+                .text("REPORT - MERU SCRAP METAL")
+                .command(ESC_BOLD_OFF)
+                .newLine()
+                .newLine();
 
-        sendText(content);
-        sendNewLine();
-        sendNewLine();
+        buffer.line(content)
+                .newLine();
 
-        sendText("Generated: " + new java.util.Date().toString());
-        sendRawData(ESC_FEED_LINES);
-        sendRawData(ESC_CUT_PAPER);
+        buffer.text("Generated: " + new java.util.Date().toString())
+                .command(ESC_FEED_LINES)
+                .command(ESC_CUT_PAPER);
     }
 
-    private void printTestPage() throws IOException {
-        sendRawData(ESC_INIT);
-        sendRawData(ESC_ALIGN_CENTER);
+    private static void renderTestPage(ESCPOSBuffer buffer) {
+        buffer.command(ESC_INIT)
+                .command(ESC_ALIGN_CENTER);
 
-        sendRawData(ESC_BOLD_ON);
-        sendText("PRINTER TEST PAGE");
-        sendRawData(ESC_BOLD_OFF);
-        sendNewLine();
-        sendNewLine();
+        buffer.command(ESC_BOLD_ON)
+                .text("PRINTER TEST PAGE")
+                .command(ESC_BOLD_OFF)
+                .newLine()
+                .newLine();
 
-        sendText("If you can read this,");
-        sendNewLine();
-        sendText("your printer is working!");
-        sendNewLine();
-        sendNewLine();
+        buffer.line("If you can read this,")
+                .line("your printer is working!")
+                .newLine();
 
-        sendText("Test performed at:");
-        sendNewLine();
-        sendText(new java.util.Date().toString());
+        buffer.line("Test performed at:")
+                .text(new java.util.Date().toString());
 
-        sendRawData(ESC_FEED_LINES);
-        sendRawData(ESC_CUT_PAPER);
+        buffer.command(ESC_FEED_LINES)
+                .command(ESC_CUT_PAPER);
     }
 
-    private void sendText(String text) throws IOException {
-        if (outputStream != null) {
-            outputStream.write(text.getBytes(StandardCharsets.UTF_8));
-            outputStream.flush();
+    private void sendRawData(byte[] data) throws IOException {
+        writeLock.lock();
+        try {
+            if (outputStream != null) {
+                outputStream.write(data);
+                outputStream.flush();
+            }
+        } finally {
+            writeLock.unlock();
         }
     }
 
-    private void sendNewLine() throws IOException {
-        sendText("\n");
+    // Register each query with the reader before it goes out, so its reply is matched to it
+    private void sendQueries(PrinterStatusReader reader, PrinterStatusReader.Query... queries) throws IOException {
+        writeLock.lock();
+        try {
+            OutputStream out = outputStream;
+            if (out == null) {
+                throw new IOException("Printer not connected");
+            }
+            for (PrinterStatusReader.Query query : queries) {
+                reader.expect(query);
+                out.write(query.command);
+            }
+            out.flush();
+        } finally {
+            writeLock.unlock();
+        }
     }
 
-    private void sendRawData(byte[] data) throws IOException {
-        if (outputStream != null) {
-            outputStream.write(data);
-            outputStream.flush();
+    private PrinterStatusReader requireStatusReader() throws IOException {
+        PrinterStatusReader reader = statusReader;
+        if (reader == null) {
+            throw new IOException("Printer not connected");
         }
+        return reader;
     }
 
+    /**
+     * Keep-alive probe, run off the print thread: sends the status queries and leaves the
+     * replies to the reader, which posts any change. Skipped while a job is going out, since
+     * the print worker asks for status after each job itself. A probe that cannot be sent
+     * means the link is gone.
+     */
     private void checkPrinterStatus() {
-        if (!isConnected || outputStream == null) {
+        PrinterStatusReader reader = statusReader;
+        if (!isConnected || printing.get() || reader == null || !writeLock.tryLock()) {
             return;
         }
+        try {
+            sendQueries(reader, PrinterStatusReader.Query.OFFLINE, PrinterStatusReader.Query.ERROR,
+                    PrinterStatusReader.Query.PAPER);
+        } catch (IOException e) {
+            Log.e(TAG, "Status check failed", e);
+            executor.execute(() -> {
+                if (reader == statusReader) {
+                    connectionLost(e);
+                }
+            });
+        } finally {
+            writeLock.unlock();
+        }
+    }
 
-        executor.execute(() -> {
-            try {
-                // Query paper status
-                sendRawData(DLE_EOT_PAPER);
-                Thread.sleep(100);
-
-                // Query offline status
-                sendRawData(DLE_EOT_OFFLINE);
-                Thread.sleep(100);
-
-                // Query error status
-                sendRawData(DLE_EOT_ERROR);
-                Thread.sleep(100);
-
-                // Read responses if available
-                readStatusResponses();
+    /**
+     * Ask the three DLE EOT real-time statuses, each answered with one byte as soon as the
+     * printer receives it, even mid-job, and wait for the reader to have all three. Returns
+     * null if they go unanswered by the deadline.
+     */
+    private PrinterStatus queryPrinterStatus(long deadlineNanos) throws IOException, InterruptedException {
+        PrinterStatusReader reader = requireStatusReader();
+        long answered = reader.getStatusCount();
+        sendQueries(reader, PrinterStatusReader.Query.OFFLINE, PrinterStatusReader.Query.ERROR,
+                PrinterStatusReader.Query.PAPER);
+        PrinterStatus status = reader.awaitStatus(answered, deadlineNanos);
+        if (status == null) {
+            reader.resync();
+        }
+        return status;
+    }
 
-            } catch (IOException | InterruptedException e) {
-                Log.e(TAG, "Status check failed", e);
+    private void postStatus(PrinterStatus status) {
+        mainHandler.post(() -> {
+            if (statusListener != null) {
+                statusListener.onStatusUpdate(status);
             }
         });
     }
 
-    private void readStatusResponses() {
-        if (inputStream == null) return;
-
-        try {
-            byte[] buffer = new byte[16];
-            int available = inputStream.available();
-
-            if (available > 0) {
-                int bytesRead = inputStream.read(buffer, 0, Math.min(available, buffer.length));
-
-                if (bytesRead > 0) {
-                    PrinterStatus status = interpretStatusResponse(buffer, bytesRead);
-
-                    mainHandler.post(() -> {
-                        if (statusListener != null) {
-                            statusListener.onStatusUpdate(status);
-                        }
-                    });
-                }
+    private synchronized void startStatusMonitoring() {
+        stopStatusMonitoring();
+        // Only writes three bytes and never waits for the reply, so it stays off the print pool
+        statusMonitor = AppExecutors.get().scheduleAtFixedRate(AppExecutors.Pool.COMPUTE, () -> {
+            if (isConnected) {
+                checkPrinterStatus();
             }
-        } catch (IOException e) {
-            Log.e(TAG, "Error reading status response", e);
+        }, KEEP_ALIVE_MS, KEEP_ALIVE_MS);
+    }
+
+    private synchronized void stopStatusMonitoring() {
+        if (statusMonitor != null) {
+            statusMonitor.cancel(false);
+            statusMonitor = null;
         }
     }
 
-    private PrinterStatus interpretStatusResponse(byte[] response, int length) {
-        if (length == 0) return PrinterStatus.UNKNOWN_ERROR;
+    public boolean isConnected() {
+        return isConnected;
+    }
 
-        byte status = response[0];
+    // The printer this manager is connected to, or null
+    public BluetoothDevice getConnectedDevice() {
+        return connectedDevice;
+    }
 
-        // Interpret common status bits (varies by printer manufacturer)
-        if ((status & 0x04) != 0) {
-            return PrinterStatus.NO_PAPER;
-        }
-        if ((status & 0x08) != 0) {
-            return PrinterStatus.COVER_OPEN;
-        }
-        if ((status & 0x20) != 0) {
-            return PrinterStatus.PAPER_JAM;
-        }
-        if ((status & 0x40) != 0) {
-            return PrinterStatus.OFFLINE;
-        }
-        if ((status & 0x80) != 0) {
-            return PrinterStatus.OVERHEATED;
-        }
+    // Last status the printer reported on this connection, or null if it has not answered
+    public PrinterStatus getPrinterStatus() {
+        PrinterStatusReader reader = statusReader;
+        return reader != null ? reader.getStatus() : null;
+    }
 
-        return PrinterStatus.ONLINE;
+    /**
+     * Diagnostic: send jobs the old way, flushing after every command and line, so its
+     * bytes and timings can be compared with the paced chunk path in getPrintStats().
+     */
+    public void setFlushPerFragment(boolean enabled) {
+        flushPerFragment = enabled;
     }
 
-    private void startStatusMonitoring() {
-        executor.execute(() -> {
-            while (isConnected) {
-                try {
-                    Thread.sleep(10000); // Check every 10 seconds
-                    if (isConnected) {
-                        checkPrinterStatus();
-                    }
-                } catch (InterruptedException e) {
-                    Thread.currentThread().interrupt();
-                    break;
-                }
-            }
-        });
+    public String getPrintStats() {
+        AdaptiveChunkWriter writer = linkWriter;
+        return bufferedStats + "\n" + fragmentStats + "\n" + pacingStats + "\n" + printQueue.getStats() +
+                (writer != null ? "\n" + writer : "");
     }
 
-    public boolean isConnected() {
-        return isConnected;
+    // Jobs per minute over all queue runs since the app started
+    public double getJobsPerMinute() {
+        return pacingStats.getJobsPerMinute();
     }
 
     public boolean isPrinting() {
-        return isPrinting;
+        return printing.get();
     }
 
     public int getQueueSize() {
@@ -462,9 +762,80 @@ public class BluetoothPrintManager {
     }
 
     public void shutdown() {
+        // The print pool is shared, so only the connection is torn down here
         disconnect();
-        if (executor != null) {
-            executor.shutdown();
+    }
+
+    // Throughput of queue runs and time spent waiting for the printer between jobs
+    private static class PacingStats {
+        private long jobs;
+        private long runNanos;
+        private long waits;
+        private long waitNanos;
+        private long fallbacks;
+
+        synchronized void recordWait(long nanos, boolean fallback) {
+            waits++;
+            waitNanos += nanos;
+            if (fallback) {
+                fallbacks++;
+            }
+        }
+
+        synchronized void recordRun(int runJobs, long nanos) {
+            jobs += runJobs;
+            runNanos += nanos;
+        }
+
+        synchronized double getJobsPerMinute() {
+            return perMinute(jobs, runNanos);
+        }
+
+        static double perMinute(long jobs, long nanos) {
+            return nanos > 0 ? jobs * 60_000_000_000.0 / nanos : 0.0;
+        }
+
+        @Override
+        public synchronized String toString() {
+            if (jobs == 0) {
+                return "pacing: no jobs";
+            }
+            return String.format(java.util.Locale.US,
+                    "pacing: %d jobs at %.1f jobs/min, avg %.0fms waiting for ready, %d fixed-delay fallbacks",
+                    jobs, perMinute(jobs, runNanos), waits > 0 ? waitNanos / 1_000_000.0 / waits : 0.0, fallbacks);
+        }
+    }
+
+    // Per sending mode: bytes, writes and time from rendering start to the final flush
+    private static class PrintStats {
+        private final String name;
+        private long jobs;
+        private long bytes;
+        private long writes;
+        private long totalNanos;
+        private long maxNanos;
+
+        PrintStats(String name) {
+            this.name = name;
+        }
+
+        synchronized void record(int jobBytes, int jobWrites, long nanos) {
+            jobs++;
+            bytes += jobBytes;
+            writes += jobWrites;
+            totalNanos += nanos;
+            maxNanos = Math.max(maxNanos, nanos);
+        }
+
+        @Override
+        public synchronized String toString() {
+            if (jobs == 0) {
+                return name + ": no jobs";
+            }
+            return String.format(java.util.Locale.US,
+                    "%s: %d jobs, avg %d bytes in %.1f writes, avg %.1fms to sent, max %.1fms",
+                    name, jobs, bytes / jobs, (double) writes / jobs,
+                    totalNanos / 1_000_000.0 / jobs, maxNanos / 1_000_000.0);
         }
     }
 }
\ No newline at end of file
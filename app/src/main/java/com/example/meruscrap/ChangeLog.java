@@ -0,0 +1,233 @@
+package com.example.meruscrap;
+
+import android.content.ContentValues;
+import android.database.Cursor;
+import android.database.sqlite.SQLiteDatabase;
+import android.util.Log;
+
+import org.json.JSONArray;
+import org.json.JSONException;
+import org.json.JSONObject;
+
+import java.util.Arrays;
+import java.util.HashMap;
+import java.util.Iterator;
+import java.util.List;
+import java.util.Map;
+
+/**
+ * Append-only log of changes to synced data (transactions and materials), for delta sync
+ * between devices.
+ *
+ * Each entry is identified by the device it was made on and that device's own sequence
+ * number, which only ever increases, wherever the entries end up. The device's last
+ * sequence is also kept outside the database (see IdGenerator.nextChangeSequence), so
+ * restoring an older backup never reuses a number other devices have already received. Local writes
+ * record their entry inside the same SQLite transaction as the change itself; entries
+ * received from other devices are stored with their original device and sequence. The
+ * highest sequence held per device (the version vector) is what decides which entries
+ * another device still needs.
+ */
+public final class ChangeLog {
+    private static final String TAG = "ChangeLog";
+
+    static final String TABLE_CHANGE_LOG = "change_log";
+    static final String TABLE_SYNC_PEERS = "sync_peers";
+
+    static final String COLUMN_SEQ = "seq";
+    static final String COLUMN_ORIGIN_DEVICE = "origin_device";
+    static final String COLUMN_ORIGIN_SEQ = "origin_seq";
+    static final String COLUMN_ENTITY = "entity";
+    static final String COLUMN_ENTITY_REF = "entity_ref";
+    static final String COLUMN_OP = "op";
+    static final String COLUMN_CHANGED_AT = "changed_at";
+    static final String COLUMN_PAYLOAD = "payload";
+
+    private static final String COLUMN_PEER_DEVICE = "device_id";
+    private static final String COLUMN_PEER_VECTOR = "vector";
+    private static final String COLUMN_PEER_LAST_SYNC = "last_sync";
+
+    // Transactions are keyed by transaction_ref, materials by name
+    public static final String ENTITY_TRANSACTION = "transaction";
+    public static final String ENTITY_MATERIAL = "material";
+
+    public static final String OP_UPSERT = "upsert";
+    public static final String OP_DELETE = "delete";
+
+    private ChangeLog() {
+    }
+
+    // Called from MeruScrapDatabase (onCreate, and onUpgrade to version 3)
+    static void createSchema(SQLiteDatabase db) {
+        db.execSQL("CREATE TABLE " + TABLE_CHANGE_LOG + " (" +
+                COLUMN_SEQ + " INTEGER PRIMARY KEY AUTOINCREMENT, " +
+                COLUMN_ORIGIN_DEVICE + " INTEGER NOT NULL, " +
+                COLUMN_ORIGIN_SEQ + " INTEGER NOT NULL, " +
+                COLUMN_ENTITY + " TEXT NOT NULL, " +
+                COLUMN_ENTITY_REF + " TEXT NOT NULL, " +
+                COLUMN_OP + " TEXT NOT NULL, " +
+                COLUMN_CHANGED_AT + " INTEGER NOT NULL, " +
+                COLUMN_PAYLOAD + " TEXT NOT NULL, " +
+                // Receiving the same entry twice is a no-op
+                "UNIQUE(" + COLUMN_ORIGIN_DEVICE + ", " + COLUMN_ORIGIN_SEQ + "))");
+        db.execSQL("CREATE INDEX idx_change_log_entity ON " + TABLE_CHANGE_LOG + "(" +
+                COLUMN_ENTITY + ", " + COLUMN_ENTITY_REF + ")");
+
+        // Version vector each peer reported at its last sync
+        db.execSQL("CREATE TABLE " + TABLE_SYNC_PEERS + " (" +
+                COLUMN_PEER_DEVICE + " INTEGER PRIMARY KEY, " +
+                COLUMN_PEER_VECTOR + " TEXT NOT NULL, " +
+                COLUMN_PEER_LAST_SYNC + " INTEGER NOT NULL)");
+    }
+
+    /**
+     * Record a local change. Call inside the write transaction that makes the change, so the
+     * entry exists exactly when the change does. Returns this device's sequence number for it.
+     */
+    static long record(SQLiteDatabase db, IdGenerator ids, String entity, String entityRef,
+                       String op, JSONObject payload) {
+        long deviceId = ids.getOriginId();
+        long originSeq = ids.nextChangeSequence(nextSequence(db, deviceId));
+        ContentValues values = new ContentValues();
+        values.put(COLUMN_ORIGIN_DEVICE, deviceId);
+        values.put(COLUMN_ORIGIN_SEQ, originSeq);
+        values.put(COLUMN_ENTITY, entity);
+        values.put(COLUMN_ENTITY_REF, entityRef);
+        values.put(COLUMN_OP, op);
+        values.put(COLUMN_CHANGED_AT, System.currentTimeMillis());
+        values.put(COLUMN_PAYLOAD, payload.toString());
+        // insertOrThrow so a failure rolls the caller's transaction back with it
+        db.insertOrThrow(TABLE_CHANGE_LOG, null, values);
+        return originSeq;
+    }
+
+    // Next sequence going by the log alone; the caller's write transaction keeps it and the insert atomic
+    private static long nextSequence(SQLiteDatabase db, long deviceId) {
+        Cursor cursor = db.rawQuery("SELECT IFNULL(MAX(" + COLUMN_ORIGIN_SEQ + "), 0) + 1 FROM " +
+                TABLE_CHANGE_LOG + " WHERE " + COLUMN_ORIGIN_DEVICE + " = ?", new String[]{String.valueOf(deviceId)});
+        try {
+            cursor.moveToFirst();
+            return cursor.getLong(0);
+        } finally {
+            cursor.close();
+        }
+    }
+
+    /**
+     * Highest sequence held for each origin device.
+     */
+    static Map<Long, Long> getVersionVector(SQLiteDatabase db) {
+        Map<Long, Long> vector = new HashMap<>();
+        Cursor cursor = db.rawQuery("SELECT " + COLUMN_ORIGIN_DEVICE + ", MAX(" + COLUMN_ORIGIN_SEQ + ") FROM " +
+                TABLE_CHANGE_LOG + " GROUP BY " + COLUMN_ORIGIN_DEVICE, null);
+        try {
+            while (cursor.moveToNext()) {
+                vector.put(cursor.getLong(0), cursor.getLong(1));
+            }
+        } finally {
+            cursor.close();
+        }
+        return vector;
+    }
+
+    // What the peer told us it had last time, or an empty vector for a new peer
+    static Map<Long, Long> getPeerVector(SQLiteDatabase db, long peerDeviceId) {
+        Cursor cursor = db.rawQuery("SELECT " + COLUMN_PEER_VECTOR + " FROM " + TABLE_SYNC_PEERS +
+                " WHERE " + COLUMN_PEER_DEVICE + " = ?", new String[]{String.valueOf(peerDeviceId)});
+        try {
+            if (cursor.moveToFirst()) {
+                return vectorFromJson(new JSONObject(cursor.getString(0)));
+            }
+        } catch (JSONException e) {
+            Log.w(TAG, "Discarding unreadable vector for peer " + peerDeviceId, e);
+        } finally {
+            cursor.close();
+        }
+        return new HashMap<>();
+    }
+
+    static void savePeerVector(SQLiteDatabase db, long peerDeviceId, Map<Long, Long> vector) {
+        ContentValues values = new ContentValues();
+        values.put(COLUMN_PEER_DEVICE, peerDeviceId);
+        values.put(COLUMN_PEER_VECTOR, vectorToJson(vector).toString());
+        values.put(COLUMN_PEER_LAST_SYNC, System.currentTimeMillis());
+        db.insertWithOnConflict(TABLE_SYNC_PEERS, null, values, SQLiteDatabase.CONFLICT_REPLACE);
+    }
+
+    static JSONObject vectorToJson(Map<Long, Long> vector) {
+        JSONObject json = new JSONObject();
+        try {
+            for (Map.Entry<Long, Long> entry : vector.entrySet()) {
+                json.put(String.valueOf(entry.getKey()), entry.getValue().longValue());
+            }
+        } catch (JSONException e) {
+            // Keys are non-null strings and values finite numbers
+            throw new IllegalStateException(e);
+        }
+        return json;
+    }
+
+    static Map<Long, Long> vectorFromJson(JSONObject json) throws JSONException {
+        Map<Long, Long> vector = new HashMap<>();
+        Iterator<String> keys = json.keys();
+        while (keys.hasNext()) {
+            String key = keys.next();
+            vector.put(Long.parseLong(key), json.getLong(key));
+        }
+        return vector;
+    }
+
+    // ---- Payload helpers ----
+
+    /**
+     * Row values as JSON, keyed by column name, leaving out device-local columns.
+     */
+    static JSONObject toJson(ContentValues values, String... skipColumns) {
+        List<String> skip = Arrays.asList(skipColumns);
+        JSONObject json = new JSONObject();
+        try {
+            for (String key : values.keySet()) {
+                if (!skip.contains(key)) {
+                    Object value = values.get(key);
+                    json.put(key, value != null ? value : JSONObject.NULL);
+                }
+            }
+        } catch (JSONException e) {
+            throw new IllegalStateException(e);
+        }
+        return json;
+    }
+
+    /**
+     * The inverse of toJson for the given columns; columns missing from the JSON are left out.
+     */
+    static ContentValues toContentValues(JSONObject json, String... columns) {
+        ContentValues values = new ContentValues();
+        for (String column : columns) {
+            if (!json.has(column)) {
+                continue;
+            }
+            Object value = json.opt(column);
+            if (value == null || value == JSONObject.NULL) {
+                values.putNull(column);
+            } else if (value instanceof Integer || value instanceof Long) {
+                values.put(column, ((Number) value).longValue());
+            } else if (value instanceof Number) {
+                values.put(column, ((Number) value).doubleValue());
+            } else if (value instanceof Boolean) {
+                values.put(column, (Boolean) value ? 1 : 0);
+            } else {
+                values.put(column, value.toString());
+            }
+        }
+        return values;
+    }
+
+    static JSONArray toJsonArray(List<ContentValues> rows, String... skipColumns) {
+        JSONArray array = new JSONArray();
+        for (ContentValues row : rows) {
+            array.put(toJson(row, skipColumns));
+        }
+        return array;
+    }
+}
@@ -0,0 +1,200 @@
+package com.example.meruscrap;
+
+import java.io.IOException;
+import java.io.OutputStream;
+import java.nio.charset.StandardCharsets;
+import java.util.Arrays;
+
+/**
+ * A whole print job, text and ESC/POS commands, composed into one reusable byte array.
+ *
+ * Appending never touches the connection; {@link #writeTo} then sends the job with one write
+ * (or back-to-back chunk writes) and a single flush, instead of a flush per fragment, which
+ * over RFCOMM turned every command and newline into its own packet. The array grows to the
+ * largest job seen and is kept, so after warm-up rendering allocates nothing but text bytes.
+ *
+ * Fragment boundaries are remembered only so the old flush-per-fragment path can be replayed
+ * for comparison ({@link #writeFragmentsTo}). Not thread-safe; one buffer per print thread.
+ */
+public class ESCPOSBuffer {
+    private static final int INITIAL_CAPACITY = 4 * 1024;
+    private static final byte[] NEW_LINE = {'\n'};
+
+    private byte[] bytes = new byte[INITIAL_CAPACITY];
+    private int size;
+    // End offset of each appended fragment
+    private int[] fragmentEnds = new int[64];
+    private int fragments;
+
+    /**
+     * Start a new job, keeping the allocated capacity.
+     */
+    public ESCPOSBuffer reset() {
+        size = 0;
+        fragments = 0;
+        return this;
+    }
+
+    public ESCPOSBuffer command(byte[] command) {
+        return append(command, 0, command.length);
+    }
+
+    public ESCPOSBuffer command(int b) {
+        ensureCapacity(1);
+        bytes[size++] = (byte) b;
+        return endFragment();
+    }
+
+    public ESCPOSBuffer text(String text) {
+        if (text == null || text.isEmpty()) {
+            return this;
+        }
+        // Receipts are almost all ASCII, which needs no encoder and no temporary array
+        int length = text.length();
+        boolean ascii = true;
+        for (int i = 0; i < length && ascii; i++) {
+            ascii = text.charAt(i) < 0x80;
+        }
+        if (!ascii) {
+            byte[] encoded = text.getBytes(StandardCharsets.UTF_8);
+            return append(encoded, 0, encoded.length);
+        }
+        ensureCapacity(length);
+        for (int i = 0; i < length; i++) {
+            bytes[size++] = (byte) text.charAt(i);
+        }
+        return endFragment();
+    }
+
+    public ESCPOSBuffer newLine() {
+        return command(NEW_LINE);
+    }
+
+    public ESCPOSBuffer line(String text) {
+        return text(text).newLine();
+    }
+
+    public ESCPOSBuffer repeat(int b, int count) {
+        if (count <= 0) {
+            return this;
+        }
+        ensureCapacity(count);
+        Arrays.fill(bytes, size, size + count, (byte) b);
+        size += count;
+        return endFragment();
+    }
+
+    /**
+     * A fixed-point number written straight into the job, e.g. fixed(123456, 2) is "1234.56".
+     * Does what String.format("%.2f") did for receipts without the formatter and its strings.
+     */
+    public ESCPOSBuffer fixed(long scaled, int decimals) {
+        int length = fixedLength(scaled, decimals);
+        ensureCapacity(length);
+        int end = size + length;
+        // Negate as negative so Long.MIN_VALUE does not overflow
+        long rest = scaled < 0 ? scaled : -scaled;
+        int position = end;
+        for (int digit = 0; digit < decimals; digit++) {
+            bytes[--position] = (byte) ('0' - (rest % 10));
+            rest /= 10;
+        }
+        if (decimals > 0) {
+            bytes[--position] = '.';
+        }
+        do {
+            bytes[--position] = (byte) ('0' - (rest % 10));
+            rest /= 10;
+        } while (rest != 0);
+        if (scaled < 0) {
+            bytes[--position] = '-';
+        }
+        size = end;
+        return endFragment();
+    }
+
+    // Characters fixed() will write, for right-aligning a column before writing it
+    public static int fixedLength(long scaled, int decimals) {
+        int digits = 1;
+        for (long rest = scaled / 10; rest != 0; rest /= 10) {
+            digits++;
+        }
+        int length = Math.max(digits, decimals + 1);
+        if (decimals > 0) {
+            length++;
+        }
+        return scaled < 0 ? length + 1 : length;
+    }
+
+    public ESCPOSBuffer append(byte[] data, int offset, int length) {
+        ensureCapacity(length);
+        System.arraycopy(data, offset, bytes, size, length);
+        size += length;
+        return endFragment();
+    }
+
+    public int size() {
+        return size;
+    }
+
+    // How many separate writes the flush-per-fragment path would have made for this job
+    public int getFragmentCount() {
+        return fragments;
+    }
+
+    public byte[] toByteArray() {
+        return Arrays.copyOf(bytes, size);
+    }
+
+    /**
+     * Send the job and flush once. chunkSize splits it into writes of at most that many
+     * bytes (e.g. the RFCOMM packet size), with no flush in between; 0 writes it in one go.
+     * Returns the number of writes made.
+     */
+    public int writeTo(OutputStream out, int chunkSize) throws IOException {
+        int writes = 0;
+        if (chunkSize <= 0 || chunkSize >= size) {
+            out.write(bytes, 0, size);
+            writes = 1;
+        } else {
+            for (int offset = 0; offset < size; offset += chunkSize) {
+                out.write(bytes, offset, Math.min(chunkSize, size - offset));
+                writes++;
+            }
+        }
+        out.flush();
+        return writes;
+    }
+
+    // Part of the job, written without flushing; for writers that size and pace their own chunks
+    public void writeRange(OutputStream out, int offset, int length) throws IOException {
+        out.write(bytes, offset, length);
+    }
+
+    /**
+     * The previous behaviour: one write and flush per appended fragment. Kept for A/B timing.
+     */
+    public int writeFragmentsTo(OutputStream out) throws IOException {
+        int start = 0;
+        for (int i = 0; i < fragments; i++) {
+            out.write(bytes, start, fragmentEnds[i] - start);
+            out.flush();
+            start = fragmentEnds[i];
+        }
+        return fragments;
+    }
+
+    private ESCPOSBuffer endFragment() {
+        if (fragments == fragmentEnds.length) {
+            fragmentEnds = Arrays.copyOf(fragmentEnds, fragments * 2);
+        }
+        fragmentEnds[fragments++] = size;
+        return this;
+    }
+
+    private void ensureCapacity(int extra) {
+        if (size + extra > bytes.length) {
+            bytes = Arrays.copyOf(bytes, Math.max(bytes.length * 2, size + extra));
+        }
+    }
+}
@@ -2,7 +2,6 @@ package com.example.meruscrap;
 
 import java.io.IOException;
 import java.io.OutputStream;
-import java.nio.charset.StandardCharsets;
 
 public class ESCPOSCommands {
 
@@ -55,22 +54,41 @@ public class ESCPOSCommands {
     public static final byte[] PAPER_SENSOR_STATUS = {0x10, 0x04, 0x01};
     public static final byte[] DRAWER_KICK_PULSE = {0x1B, 0x70, 0x00, 0x19, (byte) 0xFA};
 
-    // Advanced formatting helper class
+    // Advanced formatting helper class. Output is composed in an ESCPOSBuffer and only goes
+    // to the printer on flush(), as one write.
     public static class PrintFormatter {
-        private OutputStream outputStream;
+        private final OutputStream outputStream;
+        private final ESCPOSBuffer buffer;
 
         public PrintFormatter(OutputStream outputStream) {
+            this(outputStream, new ESCPOSBuffer());
+        }
+
+        // Reuse a caller's buffer across jobs
+        public PrintFormatter(OutputStream outputStream, ESCPOSBuffer buffer) {
             this.outputStream = outputStream;
+            this.buffer = buffer.reset();
         }
 
         public void initialize() throws IOException, InterruptedException {
+            // The printer applies INIT before the bytes queued behind it, so no settle delay
             send(INIT);
-            Thread.sleep(100);
         }
 
         public void printLine(String text) throws IOException {
-            send(text.getBytes(StandardCharsets.UTF_8));
-            send("\n".getBytes());
+            buffer.line(text);
+        }
+
+        /**
+         * Send everything composed so far in one write with one flush, and start over.
+         */
+        public void flush() throws IOException {
+            buffer.writeTo(outputStream, 0);
+            buffer.reset();
+        }
+
+        public ESCPOSBuffer getBuffer() {
+            return buffer;
         }
 
         public void printBoldLine(String text) throws IOException {
@@ -126,11 +144,11 @@ public class ESCPOSCommands {
                 case CODE128:
                     send(BARCODE_CODE128);
                     send(data.length());
-                    send(data.getBytes());
+                    buffer.text(data);
                     break;
                 // Add more barcode types as needed
             }
-            send("\n".getBytes());
+            buffer.newLine();
         }
 
         public void printQRCode(String data) throws IOException {
@@ -142,12 +160,12 @@ public class ESCPOSCommands {
             // Store QR code data
             byte[] storeCommand = {0x1D, 0x28, 0x6B, (byte) (data.length() + 3), 0x00, 0x31, 0x50, 0x30};
             send(storeCommand);
-            send(data.getBytes());
+            buffer.text(data);
 
             // Print QR code
             byte[] printCommand = {0x1D, 0x28, 0x6B, 0x03, 0x00, 0x31, 0x51, 0x30};
             send(printCommand);
-            send("\n".getBytes());
+            buffer.newLine();
         }
 
         public void openDrawer() throws IOException {
@@ -161,18 +179,16 @@ public class ESCPOSCommands {
 
         public void feedLines(int lines) throws IOException {
             for (int i = 0; i < lines; i++) {
-                send("\n".getBytes());
+                buffer.newLine();
             }
         }
 
-        private void send(byte[] data) throws IOException {
-            outputStream.write(data);
-            outputStream.flush();
+        private void send(byte[] data) {
+            buffer.command(data);
         }
 
-        private void send(int data) throws IOException {
-            outputStream.write(data);
-            outputStream.flush();
+        private void send(int data) {
+            buffer.command(data);
         }
 
         private String formatTwoColumn(String left, String right, int totalWidth) {
@@ -213,6 +229,22 @@ public class ESCPOSCommands {
     public static class ReceiptTemplate {
 
         public static void printBusinessReceipt(PrintFormatter formatter, ReceiptData data) throws IOException, InterruptedException {
+            printBusinessReceipt(formatter, data, ReceiptTemplateCompiler.defaults());
+        }
+
+        /**
+         * Print from a compiled layout (ReceiptTemplateCompiler): the fixed parts are copied
+         * in pre-encoded and only the receipt's own fields are written.
+         */
+        public static void printBusinessReceipt(PrintFormatter formatter, ReceiptData data,
+                                                ReceiptTemplateCompiler.CompiledReceipt template) throws IOException {
+            template.renderBusinessReceipt(formatter.getBuffer(), data);
+            formatter.flush();
+        }
+
+        // Field-by-field rendering with String.format, kept as the baseline for
+        // ReceiptTemplateCompiler.benchmark
+        static void printBusinessReceiptLegacy(PrintFormatter formatter, ReceiptData data) throws IOException, InterruptedException {
             formatter.initialize();
 
             // Header
@@ -287,6 +319,7 @@ public class ESCPOSCommands {
             formatter.feedLines(1);
 
             formatter.feedAndCut();
+            formatter.flush();
         }
 
         public static void printDailyReport(PrintFormatter formatter, DailyReportData data) throws IOException, InterruptedException {
@@ -329,6 +362,7 @@ public class ESCPOSCommands {
 
             formatter.feedLines(2);
             formatter.feedAndCut();
+            formatter.flush();
         }
     }
 
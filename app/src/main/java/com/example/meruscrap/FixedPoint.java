@@ -0,0 +1,41 @@
+package com.example.meruscrap;
+
+/**
+ * Fixed-point helpers for money and weight.
+ * Money is held as integer cents and weight as integer grams so that sums are exact;
+ * doubles are only used at the edges for user entry and display.
+ */
+public final class FixedPoint {
+    public static final long CENTS_PER_SHILLING = 100;
+    public static final long GRAMS_PER_KG = 1000;
+
+    private FixedPoint() {
+    }
+
+    public static long toCents(double amount) {
+        return Math.round(amount * CENTS_PER_SHILLING);
+    }
+
+    public static double fromCents(long cents) {
+        return cents / (double) CENTS_PER_SHILLING;
+    }
+
+    public static long toGrams(double kilograms) {
+        return Math.round(kilograms * GRAMS_PER_KG);
+    }
+
+    public static double fromGrams(long grams) {
+        return grams / (double) GRAMS_PER_KG;
+    }
+
+    /**
+     * Value of a weight at a per-kg price, rounded half away from zero to the nearest cent.
+     */
+    public static long valueCents(long grams, long pricePerKgCents) {
+        long product = grams * pricePerKgCents;
+        long half = GRAMS_PER_KG / 2;
+        return product >= 0
+                ? (product + half) / GRAMS_PER_KG
+                : -((-product + half) / GRAMS_PER_KG);
+    }
+}
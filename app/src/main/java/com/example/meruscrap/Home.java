@@ -244,42 +244,22 @@ public class Home extends Fragment implements
             return;
         }
 
-        // Use ExecutorService for better thread management
-        new Thread(() -> {
-            try {
-                // Add a small delay to ensure fragment is properly attached
-                Thread.sleep(100);
-
-                if (!isAdded() || getContext() == null) {
-                    Log.w(TAG, "Fragment detached during database operation");
-                    return;
-                }
-
-                TransactionsDBHelper.TodayStats stats = transactionsDBHelper.getTodayTransactionStats();
-
-                // Check again before updating UI
-                if (getActivity() != null && isAdded()) {
-                    getActivity().runOnUiThread(() -> {
-                        if (isAdded() && getContext() != null) {
-                            updateStatsUI(stats);
-                            Log.d(TAG, "Stats updated - Sales: " + stats.getFormattedTotalValue() +
-                                    ", Count: " + stats.transactionCount);
-                        }
-                    });
-                }
-
-            } catch (Exception e) {
-                Log.e(TAG, "Error loading today's stats", e);
+        AppExecutors.get().submit(AppExecutors.Pool.DB, this,
+                transactionsDBHelper::getTodayTransactionStats,
+                new AppExecutors.ResultCallback<TransactionsDBHelper.TodayStats>() {
+                    @Override
+                    public void onResult(TransactionsDBHelper.TodayStats stats) {
+                        updateStatsUI(stats);
+                        Log.d(TAG, "Stats updated - Sales: " + stats.getFormattedTotalValue() +
+                                ", Count: " + stats.transactionCount);
+                    }
 
-                if (getActivity() != null && isAdded()) {
-                    getActivity().runOnUiThread(() -> {
-                        if (isAdded() && getContext() != null) {
-                            showDefaultStats();
-                        }
-                    });
-                }
-            }
-        }).start();
+                    @Override
+                    public void onError(Exception e) {
+                        Log.e(TAG, "Error loading today's stats", e);
+                        showDefaultStats();
+                    }
+                });
     }
 
     private void updateStatsUI(TransactionsDBHelper.TodayStats stats) {
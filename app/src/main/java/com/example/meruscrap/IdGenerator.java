@@ -0,0 +1,180 @@
+package com.example.meruscrap;
+
+import android.content.Context;
+import android.content.SharedPreferences;
+import android.util.Log;
+
+import java.security.SecureRandom;
+import java.util.concurrent.atomic.AtomicLong;
+
+/**
+ * Time-ordered, device-unique ids for transactions, line items and print jobs.
+ *
+ * Each id is a 63-bit Snowflake-style number: 41 bits of milliseconds since 2024-01-01,
+ * 16 bits of device id and a 6-bit per-millisecond sequence. It is written as a fixed-width
+ * (13 character) Crockford base32 string, so string order matches creation order and refs
+ * stay compact and index-friendly.
+ *
+ * The device id is random and persisted on first use. Sixteen bits are enough to keep a
+ * yard's ids apart, but not to name a device to other devices, so the change log and sync use
+ * a separate 62-bit random origin id (getOriginId). Ids never go backwards: a
+ * clock that steps back, or more than 64 ids in one millisecond, just borrows the next
+ * millisecond. A persisted high-water mark keeps that true across restarts. Generation is
+ * a CAS loop, so concurrent callers never block each other.
+ */
+public final class IdGenerator {
+    private static final String TAG = "IdGenerator";
+
+    private static final String PREFS_NAME = "id_generator";
+    private static final String KEY_DEVICE_ID = "device_id";
+    private static final String KEY_ORIGIN_ID = "origin_id";
+    private static final String KEY_RESERVED_UNTIL = "reserved_until_ms";
+    private static final String KEY_CHANGE_SEQUENCE = "change_sequence";
+
+    // 2024-01-01T00:00:00Z; 41 bits of milliseconds from here last until 2093
+    private static final long EPOCH_MS = 1704067200000L;
+    private static final int DEVICE_BITS = 16;
+    private static final int SEQUENCE_BITS = 6;
+    private static final long SEQUENCE_MASK = (1L << SEQUENCE_BITS) - 1;
+    private static final long DEVICE_MASK = (1L << DEVICE_BITS) - 1;
+
+    // How far ahead the high-water mark is written, so prefs are touched about once per lease
+    private static final long RESERVATION_MS = 10_000;
+
+    private static final char[] BASE32 = "0123456789ABCDEFGHJKMNPQRSTVWXYZ".toCharArray();
+    private static final int ENCODED_LENGTH = 13;
+
+    private static volatile IdGenerator instance;
+
+    private final SharedPreferences prefs;
+    private final long deviceId;
+    private final long originId;
+    // (milliseconds since EPOCH_MS << SEQUENCE_BITS) | sequence of the last id handed out
+    private final AtomicLong lastState;
+    private final AtomicLong reservedUntil;
+
+    public static IdGenerator getInstance(Context context) {
+        if (instance == null) {
+            synchronized (IdGenerator.class) {
+                if (instance == null) {
+                    instance = new IdGenerator(context.getApplicationContext());
+                }
+            }
+        }
+        return instance;
+    }
+
+    private IdGenerator(Context context) {
+        this(context.getSharedPreferences(PREFS_NAME, Context.MODE_PRIVATE));
+    }
+
+    // Package-private for tests, which supply their own preferences
+    IdGenerator(SharedPreferences prefs) {
+        this.prefs = prefs;
+
+        long storedDevice = prefs.getLong(KEY_DEVICE_ID, -1);
+        if (storedDevice < 0) {
+            storedDevice = new SecureRandom().nextInt(1 << DEVICE_BITS);
+            prefs.edit().putLong(KEY_DEVICE_ID, storedDevice).apply();
+            Log.d(TAG, "Assigned device id " + storedDevice);
+        }
+        deviceId = storedDevice & DEVICE_MASK;
+
+        long storedOrigin = prefs.getLong(KEY_ORIGIN_ID, 0);
+        if (storedOrigin <= 0) {
+            SecureRandom random = new SecureRandom();
+            do {
+                storedOrigin = random.nextLong() >>> 2;
+            } while (storedOrigin == 0);
+            prefs.edit().putLong(KEY_ORIGIN_ID, storedOrigin).apply();
+            Log.d(TAG, "Assigned origin id " + storedOrigin);
+        }
+        originId = storedOrigin;
+
+        // Start past anything a previous run could have issued, even if the clock has gone back
+        long reserved = prefs.getLong(KEY_RESERVED_UNTIL, 0);
+        long start = Math.max(System.currentTimeMillis(), reserved) - EPOCH_MS;
+        lastState = new AtomicLong(start << SEQUENCE_BITS);
+        reservedUntil = new AtomicLong(reserved);
+    }
+
+    /**
+     * Next id as a number; larger means later.
+     */
+    public long nextId() {
+        long now = System.currentTimeMillis() - EPOCH_MS;
+        long state;
+        long next;
+        do {
+            state = lastState.get();
+            long lastMs = state >>> SEQUENCE_BITS;
+            if (now > lastMs) {
+                next = now << SEQUENCE_BITS;
+            } else {
+                // Same millisecond, clock went back, or sequence exhausted: stay monotonic
+                next = state + 1;
+            }
+        } while (!lastState.compareAndSet(state, next));
+
+        long ms = next >>> SEQUENCE_BITS;
+        reserve(ms + EPOCH_MS);
+        return (ms << (DEVICE_BITS + SEQUENCE_BITS)) | (deviceId << SEQUENCE_BITS) | (next & SEQUENCE_MASK);
+    }
+
+    /**
+     * Next id as prefix + "_" + 13 base32 characters, e.g. TXN_01J5Q8Z3M0K2B.
+     */
+    public String next(String prefix) {
+        return prefix + "_" + encode(nextId());
+    }
+
+    public long getDeviceId() {
+        return deviceId;
+    }
+
+    /**
+     * This device's id in the change log and in sync bundles: 62 random bits, so two devices
+     * syncing with each other will not pick the same one.
+     */
+    public long getOriginId() {
+        return originId;
+    }
+
+    /**
+     * Claim this device's next change-log sequence, given the next one its log would use.
+     * The last one handed out is kept here, outside the database and out of backups, so a
+     * restored older database carries on past it instead of reusing numbers.
+     */
+    public synchronized long nextChangeSequence(long nextInLog) {
+        long next = Math.max(nextInLog, prefs.getLong(KEY_CHANGE_SEQUENCE, 0) + 1);
+        prefs.edit().putLong(KEY_CHANGE_SEQUENCE, next).apply();
+        return next;
+    }
+
+    // Fixed width, most significant digit first, so encoded ids sort like the numbers
+    public static String encode(long id) {
+        char[] out = new char[ENCODED_LENGTH];
+        for (int i = ENCODED_LENGTH - 1; i >= 0; i--) {
+            out[i] = BASE32[(int) (id & 31)];
+            id >>>= 5;
+        }
+        return new String(out);
+    }
+
+    // Creation time (epoch ms) of an id from nextId()
+    public static long timestampOf(long id) {
+        return (id >>> (DEVICE_BITS + SEQUENCE_BITS)) + EPOCH_MS;
+    }
+
+    private void reserve(long issuedMs) {
+        long reserved = reservedUntil.get();
+        if (issuedMs < reserved) {
+            return;
+        }
+        long target = issuedMs + RESERVATION_MS;
+        // Only the caller that moves the mark writes it
+        if (reservedUntil.compareAndSet(reserved, target)) {
+            prefs.edit().putLong(KEY_RESERVED_UNTIL, target).apply();
+        }
+    }
+}
@@ -41,7 +41,6 @@ import java.util.ArrayList;
 import java.util.List;
 import java.util.Set;
 import java.util.concurrent.ExecutorService;
-import java.util.concurrent.Executors;
 
 public class MainActivity extends AppCompatActivity implements
         BottomNavigationView.OnNavigationItemSelectedListener {
@@ -57,6 +56,7 @@ public class MainActivity extends AppCompatActivity implements
 
     // Bluetooth Printer Management
     public BluetoothPrintManager printManager; // Made public for Settings fragment access
+    private PrinterSessionManager printerSession;
     private BluetoothDevice connectedPrinter = null;
     private boolean printerConnected = false;
 
@@ -124,6 +124,21 @@ public class MainActivity extends AppCompatActivity implements
         // ALWAYS initialize the app - don't block on permissions
         initializeApp();
 
+        // A confirmed sale that keeps failing to reach the database must not go unnoticed
+        TransactionJournal.getInstance(this).setStuckListener((ref, attempts, pendingCount) -> {
+            if (isFinishing()) {
+                return;
+            }
+            new AlertDialog.Builder(this)
+                    .setTitle("Sale not saved yet")
+                    .setMessage("Transaction " + ref + " is stored on this device but could not be written " +
+                            "to the database after " + attempts + " attempts (" + pendingCount +
+                            " sales waiting). Saving keeps retrying; it will not show in reports or " +
+                            "sync until it succeeds.")
+                    .setPositiveButton("OK", null)
+                    .show();
+        });
+
         // Then check and request permissions if needed
         if (!PermissionManager.hasAllRequiredPermissions(this) && !permissionsRequested) {
             // Show gentle permission request after app loads
@@ -254,6 +269,9 @@ public class MainActivity extends AppCompatActivity implements
             initializeBluetooth();
             Log.d(TAG, "Bluetooth initialized successfully");
 
+            // Reconnect the saved printer if the session was closed when the app was last left
+            printerSession.start();
+
         } catch (Exception e) {
             Log.e(TAG, "Error during Bluetooth initialization", e);
             showSnackbar("⚠️ Bluetooth initialization failed", Snackbar.LENGTH_SHORT);
@@ -421,15 +439,28 @@ public class MainActivity extends AppCompatActivity implements
         bottomNavigationView = findViewById(R.id.bottom_navigation);
 
         mainHandler = new Handler(Looper.getMainLooper());
-        bluetoothExecutor = Executors.newSingleThreadExecutor();
+        bluetoothExecutor = AppExecutors.get().ble();
         discoveredDevices = new ArrayList<>();
 
         // Initialize preferences
         printerPrefs = getSharedPreferences("printer_settings", MODE_PRIVATE);
 
-        // Initialize print manager
-        printManager = new BluetoothPrintManager(this);
+        // The print manager belongs to the printer session, which outlives this activity
+        printerSession = PrinterSessionManager.getInstance(this);
+        printManager = printerSession.getPrintManager();
         setupPrintManagerListener();
+        // The session may have connected before this activity was created
+        if (printManager.isConnected()) {
+            connectedPrinter = printManager.getConnectedDevice();
+            printerConnected = connectedPrinter != null;
+        }
+
+        // Printers saved before the session existed are only in this activity's preferences
+        PrinterPreferencesManager printerPreferences = new PrinterPreferencesManager(this);
+        String savedAddress = printerPrefs.getString(PREF_PRINTER_ADDRESS, null);
+        if (savedAddress != null && printerPreferences.getSavedPrinterAddress() == null) {
+            printerPreferences.savePrinterDevice(savedAddress, printerPrefs.getString(PREF_PRINTER_NAME, null));
+        }
     }
 
     private void initializeBleService() {
@@ -524,6 +555,11 @@ public class MainActivity extends AppCompatActivity implements
             @Override
             public void onConnected() {
                 printerConnected = true;
+                // Reconnects come from the session, so take the device from the print manager
+                BluetoothDevice device = printManager.getConnectedDevice();
+                if (device != null) {
+                    connectedPrinter = device;
+                }
                 android.util.Log.d(TAG, "Printer connected successfully");
                 showSnackbar("Printer connected successfully", Snackbar.LENGTH_SHORT);
 
@@ -1207,8 +1243,8 @@ public class MainActivity extends AppCompatActivity implements
         // Set as connected printer
         connectedPrinter = device;
 
-        // Connect using print manager
-        printManager.connect(device);
+        // Connect through the printer session, which keeps it connected from now on
+        printerSession.open(device);
 
         // Show connecting message
         showSnackbar("Connecting to " + getDeviceNameSafely(device) + "...", Snackbar.LENGTH_SHORT);
@@ -1225,6 +1261,8 @@ public class MainActivity extends AppCompatActivity implements
         editor.putString(PREF_PRINTER_ADDRESS, device.getAddress());
         editor.putString(PREF_PRINTER_NAME, getDeviceNameSafely(device));
         editor.apply();
+        // The printer session reconnects to the printer saved here
+        new PrinterPreferencesManager(this).savePrinterDevice(device.getAddress(), getDeviceNameSafely(device));
     }
 
     public void clearSavedPrinter() {
@@ -1232,6 +1270,7 @@ public class MainActivity extends AppCompatActivity implements
         editor.remove(PREF_PRINTER_ADDRESS);
         editor.remove(PREF_PRINTER_NAME);
         editor.apply();
+        new PrinterPreferencesManager(this).clearSavedPrinter();
         showSnackbar("Saved printer cleared", Snackbar.LENGTH_SHORT);
     }
 
@@ -1315,10 +1354,9 @@ public class MainActivity extends AppCompatActivity implements
                 if (device != null) {
                     android.util.Log.d(TAG, "Device disconnected: " + getDeviceNameSafely(device));
 
-                    // If this was our connected printer, clear the connection
-                    if (connectedPrinter != null && device.getAddress().equals(connectedPrinter.getAddress())) {
-                        disconnectPrinter();
-                        showSnackbar("Printer disconnected", Snackbar.LENGTH_SHORT);
+                    // If this was our printer, the session closes the link and reconnects
+                    if (printerSession != null) {
+                        printerSession.onLinkDropped(device.getAddress());
                     }
 
                     // Notify current fragment if it's Settings
@@ -1341,13 +1379,38 @@ public class MainActivity extends AppCompatActivity implements
 
     // Method to print receipt data
     public void printReceipt(String receiptContent) {
+        queueReceipt(receiptContent, null, 0, null);
+    }
+
+    /**
+     * Print the receipt of a saved transaction. Only the ref is stored with the job; the
+     * receipt is rendered from the transaction when it prints.
+     */
+    public void printTransactionReceipt(String transactionRef, int templateVersion) {
+        queueReceipt(null, transactionRef, templateVersion, null);
+    }
+
+    // As above; done is told on the main thread whether the job was stored and queued
+    public void printTransactionReceipt(String transactionRef, int templateVersion, PrintQueue.Callback done) {
+        queueReceipt(null, transactionRef, templateVersion, done);
+    }
 
+    private void queueReceipt(String receiptContent, String transactionRef, int templateVersion,
+                              PrintQueue.Callback done) {
         // CHECK LICENSE for printing
         if (!LicenseChecker.checkLicense(this, "print receipts")) {
+            if (done != null) {
+                done.onQueued(null, false);
+            }
             return;
         }
-        if (!isPrinterConnected()) {
+        // While the session is (re)connecting the receipt is queued and prints once it is up
+        boolean waitingForPrinter = !isPrinterConnected();
+        if (waitingForPrinter && (printerSession == null || !printerSession.isConnecting())) {
             showSnackbar("No printer connected", Snackbar.LENGTH_SHORT);
+            if (done != null) {
+                done.onQueued(null, false);
+            }
             return;
         }
 
@@ -1355,13 +1418,31 @@ public class MainActivity extends AppCompatActivity implements
             showSnackbar("Printer is busy, adding to queue", Snackbar.LENGTH_SHORT);
         }
 
-        // Generate unique job ID
-        String jobId = "receipt_" + System.currentTimeMillis();
-
-        // Add receipt print job to queue
-        printManager.addPrintJob(jobId, receiptContent, BluetoothPrintManager.PrintJobType.RECEIPT);
-
-        showSnackbar("Receipt queued for printing", Snackbar.LENGTH_SHORT);
+        // A sale's receipt is the job recorded with the sale; anything else gets a new job
+        String jobId = transactionRef != null ? PrintHistoryManager.receiptJobId(transactionRef)
+                : IdGenerator.getInstance(this).next("receipt");
+
+        PrintHistoryManager.PrintJob record = new PrintHistoryManager.PrintJob();
+        record.jobId = jobId;
+        record.jobType = PrintHistoryManager.PrintJobType.RECEIPT;
+        record.contentPreview = receiptContent;
+        record.transactionId = transactionRef;
+        record.templateVersion = templateVersion;
+
+        // Add receipt print job to the queue; acknowledged once it is stored
+        PrintQueue.Callback queued = (queuedId, accepted) -> {
+            showSnackbar(!accepted ? "Receipt could not be queued"
+                    : waitingForPrinter ? "Receipt queued, printing once the printer connects"
+                    : "Receipt queued for printing", Snackbar.LENGTH_SHORT);
+            if (done != null) {
+                done.onQueued(queuedId, accepted);
+            }
+        };
+        if (transactionRef != null) {
+            PrintQueue.getInstance(this).enqueueReceipt(record, queued);
+        } else {
+            PrintQueue.getInstance(this).enqueue(record, queued);
+        }
     }
 
     // 9. Make printer/BLE methods more defensive
@@ -1450,7 +1531,8 @@ public class MainActivity extends AppCompatActivity implements
                 android.util.Log.d(TAG, "Auto-connecting to saved printer: " + savedAddress);
 
                 connectedPrinter = savedDevice;
-                printManager.connect(savedDevice);
+                // Nothing more to do if the session is already connected or connecting to it
+                printerSession.open(savedDevice);
 
             } catch (Exception e) {
                 android.util.Log.w(TAG, "Failed to auto-connect to saved printer", e);
@@ -1478,8 +1560,8 @@ public class MainActivity extends AppCompatActivity implements
     }
 
     public void disconnectPrinter() {
-        if (printManager != null) {
-            printManager.disconnect();
+        if (printerSession != null) {
+            printerSession.close();
         }
 
         connectedPrinter = null;
@@ -1508,13 +1590,7 @@ public class MainActivity extends AppCompatActivity implements
             // Send to printer
             sendToPrinter(testData);
 
-            // Log the print job - FIX: Use PrintHistoryManager enums
-            PrintHistoryManager historyManager = PrintHistoryManager.getInstance(this);
-            historyManager.addPrintJob(createPrintJob("Test Page",
-                    PrintHistoryManager.PrintJobType.TEST_PAGE,
-                    PrintHistoryManager.PrintJobStatus.COMPLETED,
-                    testData));
-
+            // The print queue records the job in the history itself
             showSnackbar("Test page sent to printer", Snackbar.LENGTH_SHORT);
 
         } catch (Exception e) {
@@ -1540,7 +1616,7 @@ public class MainActivity extends AppCompatActivity implements
                                                         String fullContent) {
 
         PrintHistoryManager.PrintJob job = new PrintHistoryManager.PrintJob();
-        job.jobId = "job_" + System.currentTimeMillis();
+        job.jobId = IdGenerator.getInstance(this).next("job");
         job.jobType = jobType;
         job.contentPreview = contentPreview;
         job.status = status;
@@ -1568,7 +1644,7 @@ public class MainActivity extends AppCompatActivity implements
         try {
             // Use the print manager to send the data
             if (printManager != null) {
-                String jobId = "manual_print_" + System.currentTimeMillis();
+                String jobId = IdGenerator.getInstance(this).next("manual_print");
                 printManager.addPrintJob(jobId, data, BluetoothPrintManager.PrintJobType.TEST_PAGE);
                 android.util.Log.d(TAG, "Data sent to printer via print manager");
             } else {
@@ -1793,9 +1869,14 @@ public class MainActivity extends AppCompatActivity implements
 
     @Override
     protected void onDestroy() {
-        // Shutdown print manager
+        TransactionJournal.getInstance(this).setStuckListener(null);
+
+        // The printer session outlives the activity; it is only closed when the app is left
         if (printManager != null) {
-            printManager.shutdown();
+            printManager.setStatusListener(null);
+            if (isFinishing()) {
+                printerSession.close();
+            }
         }
 
         // Your existing onDestroy code...
@@ -1812,10 +1893,6 @@ public class MainActivity extends AppCompatActivity implements
             currentScanDialog.dismiss();
             currentScanDialog = null;
         }
-
-        if (bluetoothExecutor != null) {
-            bluetoothExecutor.shutdown();
-        }
     }
 
     // Helper class for scrap items
@@ -1836,25 +1913,23 @@ public class MainActivity extends AppCompatActivity implements
     // Add these methods to MainActivity class
     public void reprintReceipt(String jobId) {
         PrintHistoryManager.PrintJob job = PrintHistoryManager.getInstance(this).getPrintJobById(jobId);
-        if (job != null && job.contentPreview != null) {
-            // Mark job for reprint
-            PrintHistoryManager.getInstance(this).markJobForReprint(jobId);
-
-            // Print the saved content using your BluetoothPrintManager's addPrintJob method
+        if (job != null && PrintQueue.hasContent(job)) {
             if (printManager != null && isPrinterConnected()) {
-                // Convert PrintHistoryManager.PrintJobType to BluetoothPrintManager.PrintJobType
-                BluetoothPrintManager.PrintJobType printType = convertJobType(job.jobType);
-
-                // Add to print queue with reprint prefix
-                String reprintJobId = "reprint_" + jobId + "_" + System.currentTimeMillis();
-                printManager.addPrintJob(reprintJobId, job.contentPreview, printType);
-
-                // Update the job status in history
-                PrintHistoryManager.getInstance(this).updatePrintJobStatus(jobId,
-                        PrintHistoryManager.PrintJobStatus.PRINTING, null);
-
-                // ADD THIS LINE - Notify Settings to refresh queue status
-                notifySettingsFragmentOfPrinterChange();
+                // A reprint is a job of its own in the queue and the history; the original is left as it was
+                PrintHistoryManager.PrintJob reprint = new PrintHistoryManager.PrintJob();
+                reprint.jobId = IdGenerator.getInstance(this).next("reprint_" + jobId);
+                reprint.jobType = job.jobType;
+                reprint.transactionId = job.transactionId;
+                if (job.transactionId != null) {
+                    // Rendered again from the transaction rather than copying the stored text
+                    reprint.templateVersion = job.templateVersion > 0 ? job.templateVersion
+                            : ReceiptRenderer.TEMPLATE_VERSION;
+                } else {
+                    reprint.contentPreview = job.contentPreview;
+                }
+                reprint.userId = job.userId;
+                PrintQueue.getInstance(this).enqueue(reprint,
+                        (queuedId, accepted) -> notifySettingsFragmentOfPrinterChange());
 
             } else {
                 runOnUiThread(() -> {
@@ -1881,21 +1956,12 @@ public class MainActivity extends AppCompatActivity implements
             return;
         }
 
-        // Print all pending jobs using your BluetoothPrintManager's addPrintJob method
+        // Pending jobs are queued under their own ids, so ones already in the queue are not doubled
         int jobsAdded = 0;
+        PrintQueue queue = PrintQueue.getInstance(this);
         for (PrintHistoryManager.PrintJob job : pendingJobs) {
-            if (job.contentPreview != null) {
-                // Convert job type
-                BluetoothPrintManager.PrintJobType printType = convertJobType(job.jobType);
-
-                // Add to print queue with pending prefix
-                String pendingJobId = "pending_" + job.jobId + "_" + System.currentTimeMillis();
-                printManager.addPrintJob(pendingJobId, job.contentPreview, printType);
-
-                // Update status to printing
-                PrintHistoryManager.getInstance(this).updatePrintJobStatus(job.jobId,
-                        PrintHistoryManager.PrintJobStatus.PRINTING, null);
-
+            if (PrintQueue.hasContent(job)) {
+                queue.enqueueExisting(job.jobId, null);
                 jobsAdded++;
             }
         }
@@ -1908,23 +1974,6 @@ public class MainActivity extends AppCompatActivity implements
         notifySettingsFragmentOfPrinterChange();
     }
 
-    // Add this helper method to convert between job types
-    private BluetoothPrintManager.PrintJobType convertJobType(PrintHistoryManager.PrintJobType historyJobType) {
-        switch (historyJobType) {
-            case RECEIPT:
-                return BluetoothPrintManager.PrintJobType.RECEIPT;
-            case REPORT:
-                return BluetoothPrintManager.PrintJobType.REPORT;
-            case TEST_PAGE:
-                return BluetoothPrintManager.PrintJobType.TEST_PAGE;
-            case LABEL:
-            case BARCODE:
-            default:
-                // Default to RECEIPT for unsupported types
-                return BluetoothPrintManager.PrintJobType.RECEIPT;
-        }
-    }
-
     // Add this method to MainActivity.java
     private void notifySettingsFragmentOfPrinterChange() {
         // Find the Settings fragment and update its status
@@ -0,0 +1,227 @@
+package com.example.meruscrap;
+
+import android.content.Context;
+import android.os.Handler;
+import android.os.Looper;
+import android.util.Log;
+
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.HashMap;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Locale;
+import java.util.Map;
+import java.util.concurrent.CopyOnWriteArrayList;
+
+/**
+ * In-memory copy of the active materials.
+ *
+ * The catalog is a few dozen rows that change only from the Materials screen, so it is read
+ * from SQLite once (on the DB pool) and then served from memory: by id, by case-insensitive
+ * name, or as the name-ordered list. Inserts, updates and deletes go through this class, which
+ * writes to MaterialsDBHelper first and then updates its indexes, and listeners are told on the
+ * main thread so screens refresh without re-querying.
+ */
+public class MaterialCatalog {
+    private static final String TAG = "MaterialCatalog";
+
+    public interface Listener {
+        // Called on the main thread with the active materials ordered by name
+        void onCatalogChanged(List<Material> materials);
+    }
+
+    private static MaterialCatalog instance;
+
+    private final MaterialsDBHelper dbHelper;
+    private final Handler mainHandler = new Handler(Looper.getMainLooper());
+    private final List<Listener> listeners = new CopyOnWriteArrayList<>();
+
+    // Guarded by this
+    private final Map<Long, Material> byId = new LinkedHashMap<>();
+    private final Map<String, Material> byName = new HashMap<>();
+    private List<Material> sorted = Collections.emptyList();
+    private boolean loaded;
+    private boolean loading;
+
+    public static synchronized MaterialCatalog getInstance(Context context) {
+        if (instance == null) {
+            instance = new MaterialCatalog(context.getApplicationContext());
+        }
+        return instance;
+    }
+
+    private MaterialCatalog(Context context) {
+        this.dbHelper = MaterialsDBHelper.getInstance(context);
+    }
+
+    /**
+     * Start loading on the DB pool if that has not happened yet. Listeners are notified
+     * once the materials are in memory.
+     */
+    public void preload() {
+        synchronized (this) {
+            if (loaded || loading) {
+                return;
+            }
+            loading = true;
+        }
+        AppExecutors.get().db().execute(this::reload);
+    }
+
+    /**
+     * Re-read the table and notify listeners. Runs on the calling thread.
+     */
+    public void reload() {
+        long start = System.nanoTime();
+        List<Material> materials = dbHelper.getAllMaterials();
+        List<Material> snapshot;
+        synchronized (this) {
+            byId.clear();
+            for (Material material : materials) {
+                byId.put(material.getId(), material);
+            }
+            snapshot = rebuildIndexes();
+            loaded = true;
+            loading = false;
+        }
+        Log.d(TAG, "Loaded " + snapshot.size() + " materials in "
+                + (System.nanoTime() - start) / 1000 + "µs");
+        publish(snapshot);
+    }
+
+    public synchronized boolean isLoaded() {
+        return loaded;
+    }
+
+    // ---- Lookups ----
+
+    /**
+     * Active materials ordered by name. Empty until the first load finishes; callers that
+     * registered a listener get the list when it does.
+     */
+    public List<Material> getAll() {
+        synchronized (this) {
+            if (loaded) {
+                return new ArrayList<>(sorted);
+            }
+        }
+        preload();
+        return new ArrayList<>();
+    }
+
+    public synchronized Material getById(long id) {
+        return byId.get(id);
+    }
+
+    public synchronized Material getByName(String name) {
+        if (name == null) {
+            return null;
+        }
+        return byName.get(nameKey(name));
+    }
+
+    public synchronized int size() {
+        return byId.size();
+    }
+
+    // Case-insensitive, ignoring the material being edited
+    public synchronized boolean nameExists(String name, long excludeId) {
+        Material existing = getByName(name);
+        return existing != null && existing.getId() != excludeId;
+    }
+
+    // ---- Write-through ----
+
+    public long insert(Material material) {
+        long id = dbHelper.insertMaterial(material);
+        if (id != -1 && material.isActive()) {
+            List<Material> snapshot;
+            synchronized (this) {
+                byId.put(id, material);
+                snapshot = rebuildIndexes();
+            }
+            publish(snapshot);
+        }
+        return id;
+    }
+
+    public int update(Material material) {
+        int rows = dbHelper.updateMaterial(material);
+        if (rows > 0) {
+            List<Material> snapshot;
+            synchronized (this) {
+                if (material.isActive()) {
+                    byId.put(material.getId(), material);
+                } else {
+                    byId.remove(material.getId());
+                }
+                snapshot = rebuildIndexes();
+            }
+            publish(snapshot);
+        }
+        return rows;
+    }
+
+    // Soft delete, as MaterialsDBHelper.deleteMaterial
+    public int delete(long id) {
+        int rows = dbHelper.deleteMaterial(id);
+        if (rows > 0) {
+            List<Material> snapshot;
+            synchronized (this) {
+                byId.remove(id);
+                snapshot = rebuildIndexes();
+            }
+            publish(snapshot);
+        }
+        return rows;
+    }
+
+    // ---- Change events ----
+
+    public void addListener(Listener listener) {
+        if (listener != null && !listeners.contains(listener)) {
+            listeners.add(listener);
+        }
+    }
+
+    public void removeListener(Listener listener) {
+        listeners.remove(listener);
+    }
+
+    private void publish(List<Material> snapshot) {
+        mainHandler.post(() -> {
+            for (Listener listener : listeners) {
+                try {
+                    // Each screen gets its own list, adapters clear and refill theirs
+                    listener.onCatalogChanged(new ArrayList<>(snapshot));
+                } catch (Exception e) {
+                    Log.e(TAG, "Catalog listener failed", e);
+                }
+            }
+        });
+    }
+
+    // The catalog is tiny, so the name index and sorted list are simply rebuilt on each write.
+    // Rebuilding from byId also covers renames, where the old name key is otherwise unknown.
+    private List<Material> rebuildIndexes() {
+        byName.clear();
+        List<Material> list = new ArrayList<>(byId.values());
+        for (Material material : list) {
+            if (material.getName() != null) {
+                byName.put(nameKey(material.getName()), material);
+            }
+        }
+        Collections.sort(list, (a, b) -> {
+            String left = a.getName() != null ? a.getName() : "";
+            String right = b.getName() != null ? b.getName() : "";
+            return left.compareTo(right);
+        });
+        sorted = Collections.unmodifiableList(list);
+        return sorted;
+    }
+
+    private static String nameKey(String name) {
+        return name.trim().toLowerCase(Locale.ROOT);
+    }
+}
@@ -0,0 +1,171 @@
+package com.example.meruscrap;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Locale;
+import java.util.Map;
+
+/**
+ * Substring search over material names and descriptions, backed by an n-gram index.
+ *
+ * Every 1-, 2- and 3-character gram of the lower-cased name and description maps to the
+ * materials containing it. Queries of up to three characters are a single lookup; longer
+ * ones intersect the postings of their trigrams and then confirm the match. When a query
+ * extends the previous one (typing another character), only the previous results are
+ * re-checked. Results keep the order of the list the index was built from.
+ *
+ * Built for one list; create a new index when the materials change. Not thread-safe.
+ */
+public class MaterialSearchIndex {
+    private static final int MAX_GRAM = 3;
+    private static final int[] EMPTY = new int[0];
+
+    private final List<Material> materials;
+    private final String[] names;
+    private final String[] descriptions;
+    private final Map<String, int[]> postings;
+
+    // Last query and the positions it matched, for refining as the user types
+    private String lastQuery;
+    private int[] lastMatches;
+
+    public MaterialSearchIndex(List<Material> materials) {
+        this.materials = new ArrayList<>(materials);
+        int count = this.materials.size();
+        names = new String[count];
+        descriptions = new String[count];
+
+        Map<String, List<Integer>> building = new HashMap<>();
+        for (int i = 0; i < count; i++) {
+            Material material = this.materials.get(i);
+            names[i] = normalize(material.getName());
+            descriptions[i] = normalize(material.getDescription());
+            addGrams(building, names[i], i);
+            addGrams(building, descriptions[i], i);
+        }
+
+        postings = new HashMap<>(building.size() * 2);
+        for (Map.Entry<String, List<Integer>> entry : building.entrySet()) {
+            List<Integer> ids = entry.getValue();
+            int[] array = new int[ids.size()];
+            for (int i = 0; i < array.length; i++) {
+                array[i] = ids.get(i);
+            }
+            postings.put(entry.getKey(), array);
+        }
+    }
+
+    public int size() {
+        return materials.size();
+    }
+
+    /**
+     * Materials whose name or description contains the query, ignoring case.
+     * A blank query returns everything.
+     */
+    public List<Material> search(String query) {
+        String normalized = normalize(query);
+        if (normalized.isEmpty()) {
+            lastQuery = null;
+            lastMatches = null;
+            return new ArrayList<>(materials);
+        }
+
+        int[] matches;
+        if (lastQuery != null && normalized.contains(lastQuery)) {
+            // Anything matching the longer query also matched the shorter one
+            matches = verify(lastMatches, normalized);
+        } else if (normalized.length() <= MAX_GRAM) {
+            // The query is itself an indexed gram, so the postings are exact
+            matches = postingsFor(normalized);
+        } else {
+            matches = verify(trigramCandidates(normalized), normalized);
+        }
+
+        lastQuery = normalized;
+        lastMatches = matches;
+
+        List<Material> results = new ArrayList<>(matches.length);
+        for (int position : matches) {
+            results.add(materials.get(position));
+        }
+        return results;
+    }
+
+    private int[] trigramCandidates(String query) {
+        // Start from the rarest trigram so the intersections stay small
+        List<int[]> lists = new ArrayList<>();
+        for (int i = 0; i + MAX_GRAM <= query.length(); i++) {
+            int[] list = postingsFor(query.substring(i, i + MAX_GRAM));
+            if (list.length == 0) {
+                return EMPTY;
+            }
+            lists.add(list);
+        }
+        Collections.sort(lists, (a, b) -> Integer.compare(a.length, b.length));
+
+        int[] candidates = lists.get(0);
+        for (int i = 1; i < lists.size() && candidates.length > 0; i++) {
+            candidates = intersect(candidates, lists.get(i));
+        }
+        return candidates;
+    }
+
+    // Trigrams can all be present without being adjacent, so confirm the substring
+    private int[] verify(int[] candidates, String query) {
+        int[] confirmed = new int[candidates.length];
+        int count = 0;
+        for (int position : candidates) {
+            if (names[position].contains(query) || descriptions[position].contains(query)) {
+                confirmed[count++] = position;
+            }
+        }
+        return count == confirmed.length ? confirmed : Arrays.copyOf(confirmed, count);
+    }
+
+    private int[] postingsFor(String gram) {
+        int[] list = postings.get(gram);
+        return list != null ? list : EMPTY;
+    }
+
+    // Both inputs are ascending material positions
+    private static int[] intersect(int[] a, int[] b) {
+        int[] out = new int[Math.min(a.length, b.length)];
+        int i = 0, j = 0, count = 0;
+        while (i < a.length && j < b.length) {
+            if (a[i] == b[j]) {
+                out[count++] = a[i];
+                i++;
+                j++;
+            } else if (a[i] < b[j]) {
+                i++;
+            } else {
+                j++;
+            }
+        }
+        return Arrays.copyOf(out, count);
+    }
+
+    private static void addGrams(Map<String, List<Integer>> index, String text, int position) {
+        for (int start = 0; start < text.length(); start++) {
+            for (int length = 1; length <= MAX_GRAM && start + length <= text.length(); length++) {
+                List<Integer> list = index.get(text.substring(start, start + length));
+                if (list == null) {
+                    list = new ArrayList<>();
+                    index.put(text.substring(start, start + length), list);
+                }
+                // Positions are added in ascending order; skip repeats within the same material
+                if (list.isEmpty() || list.get(list.size() - 1) != position) {
+                    list.add(position);
+                }
+            }
+        }
+    }
+
+    private static String normalize(String text) {
+        return text == null ? "" : text.trim().toLowerCase(Locale.ROOT);
+    }
+}
@@ -2,6 +2,8 @@ package com.example.meruscrap;
 
 import android.app.AlertDialog;
 import android.os.Bundle;
+import android.os.Handler;
+import android.os.Looper;
 import android.text.Editable;
 import android.text.TextWatcher;
 import android.util.Log;
@@ -20,17 +22,19 @@ import androidx.recyclerview.widget.GridLayoutManager;
 import androidx.recyclerview.widget.RecyclerView;
 
 import com.example.meruscrap.MaterialsAdapter;
-import com.example.meruscrap.MaterialsDBHelper;
 import com.example.meruscrap.Material;
 import com.example.meruscrap.GridSpacingItemDecoration;
 import com.google.android.material.button.MaterialButton;
 import com.google.android.material.floatingactionbutton.FloatingActionButton;
 import com.google.android.material.textfield.TextInputEditText;
 
+import java.util.ArrayList;
 import java.util.List;
 
 public class Materials extends Fragment implements MaterialsAdapter.OnMaterialClickListener {
     private static final String TAG = "MaterialsFragment";
+    // Wait for a pause in typing before searching
+    private static final long SEARCH_DEBOUNCE_MS = 150;
 
     // UI Components
     private RecyclerView rvMaterials;
@@ -44,11 +48,17 @@ public class Materials extends Fragment implements MaterialsAdapter.OnMaterialCl
 
     // Data & Adapter
     private MaterialsAdapter materialsAdapter;
-    private MaterialsDBHelper dbHelper;
+    private MaterialCatalog catalog;
     private List<Material> materials;
+    private MaterialSearchIndex searchIndex = new MaterialSearchIndex(new ArrayList<>());
 
     // State
     private boolean isSortedByPrice = false;
+    private final Handler searchHandler = new Handler(Looper.getMainLooper());
+    private final Runnable searchRunnable = this::runSearch;
+
+    // Inserts, edits and deletes (from here or elsewhere) arrive as catalog events
+    private final MaterialCatalog.Listener catalogListener = this::showMaterials;
 
     public Materials() {
         // Required empty public constructor
@@ -57,7 +67,7 @@ public class Materials extends Fragment implements MaterialsAdapter.OnMaterialCl
     @Override
     public void onCreate(Bundle savedInstanceState) {
         super.onCreate(savedInstanceState);
-        dbHelper = MaterialsDBHelper.getInstance(getContext());
+        catalog = MaterialCatalog.getInstance(getContext());
     }
 
     @Override
@@ -73,9 +83,17 @@ public class Materials extends Fragment implements MaterialsAdapter.OnMaterialCl
         setupRecyclerView();
         setupClickListeners();
         setupSearchFunctionality();
+        catalog.addListener(catalogListener);
         loadMaterials();
     }
 
+    @Override
+    public void onDestroyView() {
+        catalog.removeListener(catalogListener);
+        searchHandler.removeCallbacks(searchRunnable);
+        super.onDestroyView();
+    }
+
     private void initializeViews(View view) {
         rvMaterials = view.findViewById(R.id.rv_materials);
         emptyState = view.findViewById(R.id.empty_state);
@@ -88,7 +106,7 @@ public class Materials extends Fragment implements MaterialsAdapter.OnMaterialCl
     }
 
     private void setupRecyclerView() {
-        materials = dbHelper.getAllMaterials();
+        materials = catalog.getAll();
         materialsAdapter = new MaterialsAdapter(getContext(), materials);
         materialsAdapter.setOnMaterialClickListener(this);
 
@@ -116,8 +134,8 @@ public class Materials extends Fragment implements MaterialsAdapter.OnMaterialCl
 
             @Override
             public void onTextChanged(CharSequence s, int start, int before, int count) {
-                materialsAdapter.filter(s.toString());
-                updateEmptyState();
+                searchHandler.removeCallbacks(searchRunnable);
+                searchHandler.postDelayed(searchRunnable, SEARCH_DEBOUNCE_MS);
             }
 
             @Override
@@ -125,12 +143,26 @@ public class Materials extends Fragment implements MaterialsAdapter.OnMaterialCl
         });
     }
 
+    // Served from memory; if the catalog is still loading, the listener fills the list in
     private void loadMaterials() {
+        showMaterials(catalog.getAll());
+    }
+
+    private void showMaterials(List<Material> catalogMaterials) {
+        if (materialsAdapter == null) {
+            return;
+        }
         try {
-            materials = dbHelper.getAllMaterials();
-            materialsAdapter.updateMaterials(materials);
+            materials = catalogMaterials;
+            searchIndex = new MaterialSearchIndex(materials);
             updateMaterialCount();
-            updateEmptyState();
+            if (currentQuery().isEmpty()) {
+                materialsAdapter.updateMaterials(materials, this::updateEmptyState);
+            } else {
+                // Keep the list narrowed to what the user is searching for
+                materialsAdapter.updateMaterials(materials);
+                runSearch();
+            }
             Log.d(TAG, "Loaded " + materials.size() + " materials");
         } catch (Exception e) {
             Log.e(TAG, "Error loading materials: " + e.getMessage());
@@ -138,6 +170,23 @@ public class Materials extends Fragment implements MaterialsAdapter.OnMaterialCl
         }
     }
 
+    private String currentQuery() {
+        return etSearchMaterials != null && etSearchMaterials.getText() != null
+                ? etSearchMaterials.getText().toString().trim() : "";
+    }
+
+    // The index lookup is cheap enough for the main thread; the adapter diffs in the background
+    private void runSearch() {
+        if (materialsAdapter == null) {
+            return;
+        }
+        long start = System.nanoTime();
+        List<Material> results = searchIndex.search(currentQuery());
+        Log.d(TAG, "Search matched " + results.size() + "/" + searchIndex.size() + " in "
+                + (System.nanoTime() - start) / 1000 + "µs");
+        materialsAdapter.submitFiltered(results, this::updateEmptyState);
+    }
+
     private void updateMaterialCount() {
         int count = materials.size();
         String countText = count == 1 ? "1 material configured" : count + " materials configured";
@@ -264,22 +313,22 @@ public class Materials extends Fragment implements MaterialsAdapter.OnMaterialCl
 
             // Check for duplicate name (excluding current material if editing)
             long excludeId = isEditing ? materialToEdit.getId() : 0;
-            if (dbHelper.materialNameExists(name, excludeId)) {
+            if (catalog.nameExists(name, excludeId)) {
                 etMaterialName.setError("Material with this name already exists");
                 return;
             }
 
             // Create or update material
             if (isEditing) {
-                materialToEdit.setName(name);
-                materialToEdit.setPricePerKg(price);
-                materialToEdit.setIcon(selectedIcon[0]);
-                materialToEdit.setDescription(description.isEmpty() ? null : description);
+                // Edit a copy: the shown list and the catalog keep the old values until the
+                // update succeeds, and the list diff can see what changed
+                Material edited = new Material(materialToEdit.getId(), name, price, selectedIcon[0],
+                        description.isEmpty() ? null : description, materialToEdit.getCreatedAt(),
+                        materialToEdit.getUpdatedAt(), materialToEdit.isActive());
 
-                int result = dbHelper.updateMaterial(materialToEdit);
+                int result = catalog.update(edited);
                 if (result > 0) {
                     Toast.makeText(getContext(), "Material updated successfully", Toast.LENGTH_SHORT).show();
-                    loadMaterials(); // Reload to get fresh data
                 } else {
                     Toast.makeText(getContext(), "Failed to update material", Toast.LENGTH_SHORT).show();
                 }
@@ -287,12 +336,9 @@ public class Materials extends Fragment implements MaterialsAdapter.OnMaterialCl
                 Material newMaterial = new Material(name, price, selectedIcon[0],
                         description.isEmpty() ? null : description);
 
-                long result = dbHelper.insertMaterial(newMaterial);
+                long result = catalog.insert(newMaterial);
                 if (result > 0) {
                     Toast.makeText(getContext(), "Material added successfully", Toast.LENGTH_SHORT).show();
-                    materialsAdapter.addMaterial(newMaterial);
-                    updateMaterialCount();
-                    updateEmptyState();
                 } else {
                     Toast.makeText(getContext(), "Failed to add material", Toast.LENGTH_SHORT).show();
                 }
@@ -309,11 +355,8 @@ public class Materials extends Fragment implements MaterialsAdapter.OnMaterialCl
                 .setTitle("Delete Material")
                 .setMessage("Are you sure you want to delete \"" + material.getName() + "\"? This action cannot be undone.")
                 .setPositiveButton("Delete", (dialog, which) -> {
-                    int result = dbHelper.deleteMaterial(material.getId());
+                    int result = catalog.delete(material.getId());
                     if (result > 0) {
-                        materialsAdapter.removeMaterial(position);
-                        updateMaterialCount();
-                        updateEmptyState();
                         Toast.makeText(getContext(), material.getName() + " deleted", Toast.LENGTH_SHORT).show();
                     } else {
                         Toast.makeText(getContext(), "Failed to delete material", Toast.LENGTH_SHORT).show();
@@ -368,21 +411,28 @@ public class Materials extends Fragment implements MaterialsAdapter.OnMaterialCl
 
     // Public methods for external access (e.g., from Transactions fragment)
     public List<Material> getAllMaterials() {
-        return dbHelper.getAllMaterials();
+        return catalog.getAll();
     }
 
     public Material getMaterialById(long id) {
-        return dbHelper.getMaterialById(id);
+        return catalog.getById(id);
     }
 
     public Material getMaterialByName(String name) {
-        return dbHelper.getMaterialByName(name);
+        return catalog.getByName(name);
     }
 
     @Override
     public void onResume() {
         super.onResume();
+        RenderStats.startFrameMonitor();
         // Refresh data when fragment becomes visible
         loadMaterials();
     }
-}
\ No newline at end of file
+
+    @Override
+    public void onPause() {
+        RenderStats.stopFrameMonitor();
+        super.onPause();
+    }
+}
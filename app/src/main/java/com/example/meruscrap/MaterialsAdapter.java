@@ -9,6 +9,8 @@ import android.widget.ImageView;
 import android.widget.TextView;
 
 import androidx.annotation.NonNull;
+import androidx.recyclerview.widget.AsyncListDiffer;
+import androidx.recyclerview.widget.DiffUtil;
 import androidx.recyclerview.widget.RecyclerView;
 
 import com.example.meruscrap.R;
@@ -17,13 +19,16 @@ import com.google.android.material.card.MaterialCardView;
 
 import java.util.ArrayList;
 import java.util.List;
+import java.util.Objects;
 
 public class MaterialsAdapter extends RecyclerView.Adapter<MaterialsAdapter.MaterialViewHolder> {
     private Context context;
     private List<Material> materials;
-    private List<Material> materialsFiltered;
+    // The shown (filtered/sorted) list; diffs are computed off the main thread
+    private final AsyncListDiffer<Material> materialsFiltered = new AsyncListDiffer<>(this, DIFF_CALLBACK);
     private OnMaterialClickListener listener;
     private int selectedPosition = -1;
+    private final RenderStats renderStats = RenderStats.forList("Materials");
 
     public interface OnMaterialClickListener {
         void onMaterialClick(Material material, int position);
@@ -35,7 +40,8 @@ public class MaterialsAdapter extends RecyclerView.Adapter<MaterialsAdapter.Mate
     public MaterialsAdapter(Context context, List<Material> materials) {
         this.context = context;
         this.materials = materials != null ? materials : new ArrayList<>();
-        this.materialsFiltered = new ArrayList<>(this.materials);
+        setHasStableIds(true);
+        this.materialsFiltered.submitList(new ArrayList<>(this.materials));
     }
 
     public void setOnMaterialClickListener(OnMaterialClickListener listener) {
@@ -51,47 +57,77 @@ public class MaterialsAdapter extends RecyclerView.Adapter<MaterialsAdapter.Mate
 
     @Override
     public void onBindViewHolder(@NonNull MaterialViewHolder holder, int position) {
-        Material material = materialsFiltered.get(position);
+        long start = renderStats.bindStarted();
+        Material material = shown().get(position);
         holder.bind(material, position);
+        renderStats.bindFinished(start);
+    }
+
+    @Override
+    public long getItemId(int position) {
+        return shown().get(position).getId();
     }
 
     @Override
     public int getItemCount() {
-        return materialsFiltered.size();
+        return shown().size();
+    }
+
+    private List<Material> shown() {
+        return materialsFiltered.getCurrentList();
+    }
+
+    private void submit(List<Material> list, Runnable onApplied) {
+        renderStats.listUpdated();
+        materialsFiltered.submitList(list, onApplied);
     }
 
     public void updateMaterials(List<Material> newMaterials) {
+        updateMaterials(newMaterials, null);
+    }
+
+    public void updateMaterials(List<Material> newMaterials, Runnable onApplied) {
         this.materials.clear();
         this.materials.addAll(newMaterials);
-        this.materialsFiltered.clear();
-        this.materialsFiltered.addAll(newMaterials);
-        notifyDataSetChanged();
+        submit(new ArrayList<>(newMaterials), onApplied);
+    }
+
+    /**
+     * Show a search result. Only the rows that actually differ from what is on screen are
+     * rebound; onApplied runs once the list is displayed.
+     */
+    public void submitFiltered(List<Material> results, Runnable onApplied) {
+        selectedPosition = -1; // Clear selection when filtering
+        submit(new ArrayList<>(results), onApplied);
     }
 
     public void addMaterial(Material material) {
         materials.add(material);
-        materialsFiltered.add(material);
-        notifyItemInserted(materialsFiltered.size() - 1);
+        List<Material> updated = new ArrayList<>(shown());
+        updated.add(material);
+        submit(updated, null);
     }
 
     public void updateMaterial(Material material, int position) {
-        if (position >= 0 && position < materialsFiltered.size()) {
+        if (position >= 0 && position < shown().size()) {
             // Update in both lists
-            int originalPosition = materials.indexOf(materialsFiltered.get(position));
+            int originalPosition = materials.indexOf(shown().get(position));
             if (originalPosition >= 0) {
                 materials.set(originalPosition, material);
             }
-            materialsFiltered.set(position, material);
-            notifyItemChanged(position);
+            List<Material> updated = new ArrayList<>(shown());
+            updated.set(position, material);
+            submit(updated, null);
         }
     }
 
     public void removeMaterial(int position) {
-        if (position >= 0 && position < materialsFiltered.size()) {
-            Material removedMaterial = materialsFiltered.get(position);
+        if (position >= 0 && position < shown().size()) {
+            Material removedMaterial = shown().get(position);
             materials.remove(removedMaterial);
-            materialsFiltered.remove(position);
-            notifyItemRemoved(position);
+            List<Material> updated = new ArrayList<>(shown());
+            updated.remove(position);
+            submit(updated, null);
 
             // Clear selection if removed item was selected
             if (selectedPosition == position) {
@@ -119,42 +155,40 @@ public class MaterialsAdapter extends RecyclerView.Adapter<MaterialsAdapter.Mate
     }
 
     public Material getSelectedMaterial() {
-        if (selectedPosition >= 0 && selectedPosition < materialsFiltered.size()) {
-            return materialsFiltered.get(selectedPosition);
+        if (selectedPosition >= 0 && selectedPosition < shown().size()) {
+            return shown().get(selectedPosition);
         }
         return null;
     }
 
-    public void filter(String searchText) {
-        materialsFiltered.clear();
-
-        if (searchText == null || searchText.trim().isEmpty()) {
-            materialsFiltered.addAll(materials);
-        } else {
-            String searchLower = searchText.toLowerCase().trim();
-            for (Material material : materials) {
-                if (material.getName().toLowerCase().contains(searchLower) ||
-                        (material.getDescription() != null &&
-                                material.getDescription().toLowerCase().contains(searchLower))) {
-                    materialsFiltered.add(material);
-                }
-            }
-        }
-
-        selectedPosition = -1; // Clear selection when filtering
-        notifyDataSetChanged();
-    }
-
     public void sortByName() {
-        materialsFiltered.sort((m1, m2) -> m1.getName().compareToIgnoreCase(m2.getName()));
-        notifyDataSetChanged();
+        List<Material> sorted = new ArrayList<>(shown());
+        sorted.sort((m1, m2) -> m1.getName().compareToIgnoreCase(m2.getName()));
+        submit(sorted, null);
     }
 
     public void sortByPrice() {
-        materialsFiltered.sort((m1, m2) -> Double.compare(m2.getPricePerKg(), m1.getPricePerKg()));
-        notifyDataSetChanged();
+        List<Material> sorted = new ArrayList<>(shown());
+        sorted.sort((m1, m2) -> Double.compare(m2.getPricePerKg(), m1.getPricePerKg()));
+        submit(sorted, null);
     }
 
+    // Same material by id; contents compared on the fields the card shows
+    private static final DiffUtil.ItemCallback<Material> DIFF_CALLBACK = new DiffUtil.ItemCallback<Material>() {
+        @Override
+        public boolean areItemsTheSame(@NonNull Material oldItem, @NonNull Material newItem) {
+            return oldItem.getId() == newItem.getId();
+        }
+
+        @Override
+        public boolean areContentsTheSame(@NonNull Material oldItem, @NonNull Material newItem) {
+            return Objects.equals(oldItem.getName(), newItem.getName())
+                    && oldItem.getPricePerKg() == newItem.getPricePerKg()
+                    && Objects.equals(oldItem.getIcon(), newItem.getIcon())
+                    && Objects.equals(oldItem.getDescription(), newItem.getDescription());
+        }
+    };
+
     public class MaterialViewHolder extends RecyclerView.ViewHolder {
         private MaterialCardView materialCard;
         private TextView tvMaterialIcon;
@@ -184,17 +218,11 @@ public class MaterialsAdapter extends RecyclerView.Adapter<MaterialsAdapter.Mate
             materialCard.setChecked(isSelected);
             ivSelectedIndicator.setVisibility(isSelected ? View.VISIBLE : View.GONE);
 
-            // Set up click listeners
-            materialCard.setOnClickListener(v -> {
-                if (listener != null) {
-                    setSelectedPosition(position);
-                    listener.onMaterialClick(material, position);
-                }
-            });
-
+            // Set up click listeners. Diffed rows can move without being rebound, so the
+            // position is read at click time rather than captured here.
             materialCard.setOnLongClickListener(v -> {
                 if (listener != null) {
-                    listener.onMaterialLongClick(material, position);
+                    listener.onMaterialLongClick(material, getAdapterPosition());
                 }
                 return true;
             });
@@ -207,8 +235,12 @@ public class MaterialsAdapter extends RecyclerView.Adapter<MaterialsAdapter.Mate
 
                     // Small delay to show the selection, then call listener
                     v.postDelayed(() -> {
-                        setSelectedPosition(position);
-                        listener.onMaterialClick(material, position);
+                        int current = getAdapterPosition();
+                        if (current == RecyclerView.NO_POSITION) {
+                            return;
+                        }
+                        setSelectedPosition(current);
+                        listener.onMaterialClick(material, current);
                     }, 100);
                 }
             });
@@ -229,23 +261,24 @@ public class MaterialsAdapter extends RecyclerView.Adapter<MaterialsAdapter.Mate
     }
 
     public List<Material> getFilteredMaterials() {
-        return new ArrayList<>(materialsFiltered);
+        return new ArrayList<>(shown());
     }
 
     public boolean isEmpty() {
-        return materialsFiltered.isEmpty();
+        return shown().isEmpty();
     }
 
     public Material getMaterialAt(int position) {
-        if (position >= 0 && position < materialsFiltered.size()) {
-            return materialsFiltered.get(position);
+        if (position >= 0 && position < shown().size()) {
+            return shown().get(position);
         }
         return null;
     }
 
     public int findMaterialPosition(long materialId) {
-        for (int i = 0; i < materialsFiltered.size(); i++) {
-            if (materialsFiltered.get(i).getId() == materialId) {
+        List<Material> current = shown();
+        for (int i = 0; i < current.size(); i++) {
+            if (current.get(i).getId() == materialId) {
                 return i;
             }
         }
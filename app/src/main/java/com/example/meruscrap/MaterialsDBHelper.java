@@ -4,23 +4,27 @@ import android.content.ContentValues;
 import android.content.Context;
 import android.database.Cursor;
 import android.database.sqlite.SQLiteDatabase;
-import android.database.sqlite.SQLiteOpenHelper;
 import android.util.Log;
 
 import com.example.meruscrap.Material;
 
+import org.json.JSONException;
+import org.json.JSONObject;
+
 import java.util.ArrayList;
+import java.util.HashMap;
 import java.util.List;
+import java.util.Map;
 
-public class MaterialsDBHelper extends SQLiteOpenHelper {
+/**
+ * Material catalog. The table lives in MeruScrapDatabase together with transactions and
+ * print history; this class owns its schema and queries.
+ */
+public class MaterialsDBHelper {
     private static final String TAG = "MaterialsDBHelper";
 
-    // Database Info
-    private static final String DATABASE_NAME = "MeruScrapDB";
-    private static final int DATABASE_VERSION = 1;
-
     // Table Names
-    private static final String TABLE_MATERIALS = "materials";
+    static final String TABLE_MATERIALS = "materials";
 
     // Materials Table Columns
     private static final String KEY_ID = "id";
@@ -32,6 +36,9 @@ public class MaterialsDBHelper extends SQLiteOpenHelper {
     private static final String KEY_UPDATED_AT = "updated_at";
     private static final String KEY_IS_ACTIVE = "is_active";
 
+    // Change-log payload key for a rename; materials are matched across devices by name
+    private static final String PAYLOAD_PREVIOUS_NAME = "previous_name";
+
     // Create Materials Table SQL
     private static final String CREATE_MATERIALS_TABLE =
             "CREATE TABLE " + TABLE_MATERIALS + " (" +
@@ -55,29 +62,28 @@ public class MaterialsDBHelper extends SQLiteOpenHelper {
         return instance;
     }
 
+    private final MeruScrapDatabase database;
+    private final IdGenerator ids;
+
     private MaterialsDBHelper(Context context) {
-        super(context, DATABASE_NAME, null, DATABASE_VERSION);
+        this.database = MeruScrapDatabase.getInstance(context);
+        this.ids = IdGenerator.getInstance(context);
     }
 
-    @Override
-    public void onCreate(SQLiteDatabase db) {
-        Log.d(TAG, "Creating materials table");
-        db.execSQL(CREATE_MATERIALS_TABLE);
-
-        // Insert default materials
-        insertDefaultMaterials(db);
+    public SQLiteDatabase getWritableDatabase() {
+        return database.getWritableDatabase();
     }
 
-    @Override
-    public void onUpgrade(SQLiteDatabase db, int oldVersion, int newVersion) {
-        Log.d(TAG, "Upgrading database from version " + oldVersion + " to " + newVersion);
+    public SQLiteDatabase getReadableDatabase() {
+        return database.getReadableDatabase();
+    }
 
-        if (oldVersion < newVersion) {
-            // For now, just drop and recreate
-            // In production, you'd want to migrate data
-            db.execSQL("DROP TABLE IF EXISTS " + TABLE_MATERIALS);
-            onCreate(db);
-        }
+    /**
+     * Create the materials table; called from MeruScrapDatabase.onCreate
+     */
+    static void createSchema(SQLiteDatabase db) {
+        Log.d(TAG, "Creating materials table");
+        db.execSQL(CREATE_MATERIALS_TABLE);
     }
 
     // CRUD Operations
@@ -99,7 +105,16 @@ public class MaterialsDBHelper extends SQLiteOpenHelper {
             values.put(KEY_UPDATED_AT, material.getUpdatedAt());
             values.put(KEY_IS_ACTIVE, material.isActive() ? 1 : 0);
 
-            result = db.insert(TABLE_MATERIALS, null, values);
+            db.beginTransaction();
+            try {
+                result = db.insert(TABLE_MATERIALS, null, values);
+                if (result != -1) {
+                    recordChange(db, result, null);
+                    db.setTransactionSuccessful();
+                }
+            } finally {
+                db.endTransaction();
+            }
 
             if (result != -1) {
                 material.setId(result);
@@ -109,6 +124,7 @@ public class MaterialsDBHelper extends SQLiteOpenHelper {
             }
         } catch (Exception e) {
             Log.e(TAG, "Error inserting material: " + e.getMessage());
+            result = -1;
         }
 
         return result;
@@ -119,7 +135,7 @@ public class MaterialsDBHelper extends SQLiteOpenHelper {
      */
     public List<Material> getAllMaterials() {
         List<Material> materials = new ArrayList<>();
-        String selectQuery = "SELECT * FROM " + TABLE_MATERIALS +
+        String selectQuery = "SELECT " + MATERIAL_MAPPER.select() + " FROM " + TABLE_MATERIALS +
                 " WHERE " + KEY_IS_ACTIVE + " = 1 " +
                 " ORDER BY " + KEY_NAME + " ASC";
 
@@ -129,12 +145,7 @@ public class MaterialsDBHelper extends SQLiteOpenHelper {
         try {
             cursor = db.rawQuery(selectQuery, null);
 
-            if (cursor.moveToFirst()) {
-                do {
-                    Material material = cursorToMaterial(cursor);
-                    materials.add(material);
-                } while (cursor.moveToNext());
-            }
+            materials = MATERIAL_MAPPER.mapAll(cursor);
 
             Log.d(TAG, "Retrieved " + materials.size() + " materials");
         } catch (Exception e) {
@@ -157,13 +168,13 @@ public class MaterialsDBHelper extends SQLiteOpenHelper {
         Material material = null;
 
         try {
-            cursor = db.query(TABLE_MATERIALS, null,
+            cursor = db.query(TABLE_MATERIALS, MATERIAL_MAPPER.getColumns(),
                     KEY_ID + " = ? AND " + KEY_IS_ACTIVE + " = 1",
                     new String[]{String.valueOf(id)},
                     null, null, null);
 
-            if (cursor != null && cursor.moveToFirst()) {
-                material = cursorToMaterial(cursor);
+            if (cursor != null) {
+                material = MATERIAL_MAPPER.mapFirst(cursor);
             }
         } catch (Exception e) {
             Log.e(TAG, "Error getting material by ID: " + e.getMessage());
@@ -185,13 +196,13 @@ public class MaterialsDBHelper extends SQLiteOpenHelper {
         Material material = null;
 
         try {
-            cursor = db.query(TABLE_MATERIALS, null,
+            cursor = db.query(TABLE_MATERIALS, MATERIAL_MAPPER.getColumns(),
                     KEY_NAME + " = ? AND " + KEY_IS_ACTIVE + " = 1",
                     new String[]{name},
                     null, null, null);
 
-            if (cursor != null && cursor.moveToFirst()) {
-                material = cursorToMaterial(cursor);
+            if (cursor != null) {
+                material = MATERIAL_MAPPER.mapFirst(cursor);
             }
         } catch (Exception e) {
             Log.e(TAG, "Error getting material by name: " + e.getMessage());
@@ -220,13 +231,24 @@ public class MaterialsDBHelper extends SQLiteOpenHelper {
             values.put(KEY_UPDATED_AT, System.currentTimeMillis());
             values.put(KEY_IS_ACTIVE, material.isActive() ? 1 : 0);
 
-            result = db.update(TABLE_MATERIALS, values,
-                    KEY_ID + " = ?",
-                    new String[]{String.valueOf(material.getId())});
+            db.beginTransaction();
+            try {
+                String previousName = getNameById(db, material.getId());
+                result = db.update(TABLE_MATERIALS, values,
+                        KEY_ID + " = ?",
+                        new String[]{String.valueOf(material.getId())});
+                if (result > 0) {
+                    recordChange(db, material.getId(), previousName);
+                    db.setTransactionSuccessful();
+                }
+            } finally {
+                db.endTransaction();
+            }
 
             Log.d(TAG, "Material updated: " + material.getName() + ", rows affected: " + result);
         } catch (Exception e) {
             Log.e(TAG, "Error updating material: " + e.getMessage());
+            result = 0;
         }
 
         return result;
@@ -244,13 +266,24 @@ public class MaterialsDBHelper extends SQLiteOpenHelper {
             values.put(KEY_IS_ACTIVE, 0);
             values.put(KEY_UPDATED_AT, System.currentTimeMillis());
 
-            result = db.update(TABLE_MATERIALS, values,
-                    KEY_ID + " = ?",
-                    new String[]{String.valueOf(id)});
+            db.beginTransaction();
+            try {
+                result = db.update(TABLE_MATERIALS, values,
+                        KEY_ID + " = ?",
+                        new String[]{String.valueOf(id)});
+                if (result > 0) {
+                    // Travels as an upsert with is_active = 0
+                    recordChange(db, id, null);
+                    db.setTransactionSuccessful();
+                }
+            } finally {
+                db.endTransaction();
+            }
 
             Log.d(TAG, "Material soft deleted, ID: " + id + ", rows affected: " + result);
         } catch (Exception e) {
             Log.e(TAG, "Error deleting material: " + e.getMessage());
+            result = 0;
         }
 
         return result;
@@ -264,12 +297,24 @@ public class MaterialsDBHelper extends SQLiteOpenHelper {
         int result = 0;
 
         try {
-            result = db.delete(TABLE_MATERIALS, KEY_ID + " = ?",
-                    new String[]{String.valueOf(id)});
+            db.beginTransaction();
+            try {
+                String name = getNameById(db, id);
+                result = db.delete(TABLE_MATERIALS, KEY_ID + " = ?",
+                        new String[]{String.valueOf(id)});
+                if (result > 0 && name != null) {
+                    JSONObject payload = new JSONObject().put(KEY_NAME, name);
+                    ChangeLog.record(db, ids, ChangeLog.ENTITY_MATERIAL, name, ChangeLog.OP_DELETE, payload);
+                }
+                db.setTransactionSuccessful();
+            } finally {
+                db.endTransaction();
+            }
 
             Log.d(TAG, "Material hard deleted, ID: " + id + ", rows affected: " + result);
         } catch (Exception e) {
             Log.e(TAG, "Error hard deleting material: " + e.getMessage());
+            result = 0;
         }
 
         return result;
@@ -280,7 +325,7 @@ public class MaterialsDBHelper extends SQLiteOpenHelper {
      */
     public List<Material> searchMaterials(String searchTerm) {
         List<Material> materials = new ArrayList<>();
-        String selectQuery = "SELECT * FROM " + TABLE_MATERIALS +
+        String selectQuery = "SELECT " + MATERIAL_MAPPER.select() + " FROM " + TABLE_MATERIALS +
                 " WHERE " + KEY_NAME + " LIKE ? AND " + KEY_IS_ACTIVE + " = 1 " +
                 " ORDER BY " + KEY_NAME + " ASC";
 
@@ -290,12 +335,7 @@ public class MaterialsDBHelper extends SQLiteOpenHelper {
         try {
             cursor = db.rawQuery(selectQuery, new String[]{"%" + searchTerm + "%"});
 
-            if (cursor.moveToFirst()) {
-                do {
-                    Material material = cursorToMaterial(cursor);
-                    materials.add(material);
-                } while (cursor.moveToNext());
-            }
+            materials = MATERIAL_MAPPER.mapAll(cursor);
 
             Log.d(TAG, "Search for '" + searchTerm + "' returned " + materials.size() + " materials");
         } catch (Exception e) {
@@ -368,25 +408,143 @@ public class MaterialsDBHelper extends SQLiteOpenHelper {
     }
 
     /**
-     * Helper method to convert cursor to Material object
+     * Get the id of every material (active or not) keyed by name.
+     */
+    public Map<String, Long> getMaterialIdsByName() {
+        Map<String, Long> ids = new HashMap<>();
+        SQLiteDatabase db = this.getReadableDatabase();
+        Cursor cursor = null;
+
+        try {
+            cursor = db.query(TABLE_MATERIALS, new String[]{KEY_ID, KEY_NAME},
+                    null, null, null, null, null);
+
+            while (cursor.moveToNext()) {
+                ids.put(cursor.getString(1), cursor.getLong(0));
+            }
+        } catch (Exception e) {
+            Log.e(TAG, "Error getting material ids: " + e.getMessage());
+        } finally {
+            if (cursor != null) {
+                cursor.close();
+            }
+        }
+
+        return ids;
+    }
+
+    // ---- Change log / sync ----
+
+    private static String getNameById(SQLiteDatabase db, long id) {
+        Cursor cursor = db.query(TABLE_MATERIALS, new String[]{KEY_NAME}, KEY_ID + " = ?",
+                new String[]{String.valueOf(id)}, null, null, null);
+        try {
+            return cursor.moveToFirst() ? cursor.getString(0) : null;
+        } finally {
+            cursor.close();
+        }
+    }
+
+    // Any material with this name, active or not; -1 if there is none
+    static long findIdByName(SQLiteDatabase db, String name) {
+        Cursor cursor = db.query(TABLE_MATERIALS, new String[]{KEY_ID}, KEY_NAME + " = ?",
+                new String[]{name}, null, null, null);
+        try {
+            return cursor.moveToFirst() ? cursor.getLong(0) : -1;
+        } finally {
+            cursor.close();
+        }
+    }
+
+    // Log the row as it now stands, inside the caller's write transaction
+    private void recordChange(SQLiteDatabase db, long id, String previousName) throws JSONException {
+        ContentValues row = new ContentValues();
+        Cursor cursor = db.query(TABLE_MATERIALS, new String[]{KEY_NAME, KEY_PRICE_PER_KG, KEY_ICON,
+                KEY_DESCRIPTION, KEY_CREATED_AT, KEY_UPDATED_AT, KEY_IS_ACTIVE}, KEY_ID + " = ?",
+                new String[]{String.valueOf(id)}, null, null, null);
+        try {
+            if (!cursor.moveToFirst()) {
+                return;
+            }
+            row.put(KEY_NAME, cursor.getString(0));
+            row.put(KEY_PRICE_PER_KG, cursor.getDouble(1));
+            row.put(KEY_ICON, cursor.getString(2));
+            row.put(KEY_DESCRIPTION, cursor.getString(3));
+            row.put(KEY_CREATED_AT, cursor.getLong(4));
+            row.put(KEY_UPDATED_AT, cursor.getLong(5));
+            row.put(KEY_IS_ACTIVE, cursor.getInt(6));
+        } finally {
+            cursor.close();
+        }
+
+        String name = row.getAsString(KEY_NAME);
+        JSONObject payload = ChangeLog.toJson(row);
+        if (previousName != null && !previousName.equals(name)) {
+            payload.put(PAYLOAD_PREVIOUS_NAME, previousName);
+        }
+        ChangeLog.record(db, ids, ChangeLog.ENTITY_MATERIAL, name, ChangeLog.OP_UPSERT, payload);
+    }
+
+    // Names a change refers to: the current name and, for a rename, the old one
+    static String[] changeRefs(JSONObject payload) throws JSONException {
+        String name = payload.getString(KEY_NAME);
+        String previousName = payload.optString(PAYLOAD_PREVIOUS_NAME, null);
+        return previousName != null ? new String[]{name, previousName} : new String[]{name};
+    }
+
+    /**
+     * Apply a material change received from another device; SyncManager has already decided
+     * it wins. Returns true if a row changed. A rename onto a name that is already taken
+     * throws SQLiteConstraintException.
      */
-    private Material cursorToMaterial(Cursor cursor) {
-        return new Material(
-                cursor.getLong(cursor.getColumnIndexOrThrow(KEY_ID)),
-                cursor.getString(cursor.getColumnIndexOrThrow(KEY_NAME)),
-                cursor.getDouble(cursor.getColumnIndexOrThrow(KEY_PRICE_PER_KG)),
-                cursor.getString(cursor.getColumnIndexOrThrow(KEY_ICON)),
-                cursor.getString(cursor.getColumnIndexOrThrow(KEY_DESCRIPTION)),
-                cursor.getLong(cursor.getColumnIndexOrThrow(KEY_CREATED_AT)),
-                cursor.getLong(cursor.getColumnIndexOrThrow(KEY_UPDATED_AT)),
-                cursor.getInt(cursor.getColumnIndexOrThrow(KEY_IS_ACTIVE)) == 1
-        );
+    static boolean applyRemoteChange(SQLiteDatabase db, String op, JSONObject payload) throws JSONException {
+        String name = payload.getString(KEY_NAME);
+        if (ChangeLog.OP_DELETE.equals(op)) {
+            return db.delete(TABLE_MATERIALS, KEY_NAME + " = ?", new String[]{name}) > 0;
+        }
+
+        ContentValues values = ChangeLog.toContentValues(payload, KEY_NAME, KEY_PRICE_PER_KG, KEY_ICON,
+                KEY_DESCRIPTION, KEY_CREATED_AT, KEY_UPDATED_AT, KEY_IS_ACTIVE);
+        String previousName = payload.optString(PAYLOAD_PREVIOUS_NAME, null);
+        long id = previousName != null ? findIdByName(db, previousName) : -1;
+        if (id <= 0) {
+            id = findIdByName(db, name);
+        }
+
+        if (id > 0) {
+            // Keep our own creation time for a material both devices have
+            values.remove(KEY_CREATED_AT);
+            return db.updateWithOnConflict(TABLE_MATERIALS, values, KEY_ID + " = ?",
+                    new String[]{String.valueOf(id)}, SQLiteDatabase.CONFLICT_ABORT) > 0;
+        }
+        return db.insertOrThrow(TABLE_MATERIALS, null, values) != -1;
     }
 
     /**
-     * Insert default materials when database is first created
+     * Maps the explicit material projection; column indices are resolved once per cursor
+     */
+    private static final RowMapper<Material> MATERIAL_MAPPER = new RowMapper<Material>(
+            KEY_ID, KEY_NAME, KEY_PRICE_PER_KG, KEY_ICON, KEY_DESCRIPTION,
+            KEY_CREATED_AT, KEY_UPDATED_AT, KEY_IS_ACTIVE) {
+        @Override
+        protected Material map(Cursor cursor, int[] col) {
+            return new Material(
+                    cursor.getLong(col[0]),
+                    cursor.getString(col[1]),
+                    cursor.getDouble(col[2]),
+                    cursor.getString(col[3]),
+                    cursor.getString(col[4]),
+                    cursor.getLong(col[5]),
+                    cursor.getLong(col[6]),
+                    cursor.getInt(col[7]) == 1
+            );
+        }
+    };
+
+    /**
+     * Insert default materials when database is first created without legacy data to import
      */
-    private void insertDefaultMaterials(SQLiteDatabase db) {
+    static void insertDefaultMaterials(SQLiteDatabase db) {
         Log.d(TAG, "Inserting default materials");
 
         Material[] defaultMaterials = {
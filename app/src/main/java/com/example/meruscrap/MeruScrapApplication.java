@@ -4,6 +4,7 @@ import android.app.Application;
 import android.content.Intent;
 import android.os.Build;
 import android.util.Log;
+import android.widget.Toast;
 
 /**
  * Application class for MeruScrap
@@ -19,9 +20,27 @@ public class MeruScrapApplication extends Application {
         super.onCreate();
         Log.d(TAG, "MeruScrap Application starting");
 
+        // Swap in a restore staged from Settings before anything below opens the database
+        applyPendingRestore();
+
         // Initialize the BLE connection manager
         initializeBleConnectionManager();
 
+        // Apply any confirmed sales that had not reached the database before the last exit
+        TransactionJournal.getInstance(this).replay();
+
+        // Move old transactions into the yearly archive files (at most once a day)
+        scheduleTransactionArchival();
+
+        // Read the material catalog on the DB pool so screens open with it already in memory
+        MaterialCatalog.getInstance(this).preload();
+
+        // Connect to the saved printer in the background so the first receipt does not wait for it
+        PrinterSessionManager.getInstance(this).start();
+
+        // Trim print history and vacuum while the printer is idle (at most once a day)
+        PrintHistoryMaintenance.getInstance(this).schedule();
+
         Log.d(TAG, "MeruScrap Application initialization completed");
     }
 
@@ -41,6 +60,29 @@ public class MeruScrapApplication extends Application {
         }
     }
 
+    private void applyPendingRestore() {
+        try {
+            BackupManager.RestoreResult result = BackupManager.getInstance(this).applyPendingRestore();
+            if (result != null) {
+                Toast.makeText(this, result.error == null ? "Backup restored"
+                        : "Restore failed, previous data kept: " + result.error, Toast.LENGTH_LONG).show();
+            }
+        } catch (Exception e) {
+            Log.e(TAG, "Failed to apply pending restore", e);
+        }
+    }
+
+    private void scheduleTransactionArchival() {
+        // Long-running maintenance: keep it off the serial DB pool
+        AppExecutors.get().compute().execute(() -> {
+            try {
+                TransactionArchiveManager.getInstance(this).runIfDue();
+            } catch (Exception e) {
+                Log.e(TAG, "Transaction archival failed", e);
+            }
+        });
+    }
+
     @Override
     public void onTerminate() {
         Log.d(TAG, "Application terminating");
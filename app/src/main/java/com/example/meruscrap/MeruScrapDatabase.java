@@ -0,0 +1,313 @@
+package com.example.meruscrap;
+
+import android.content.Context;
+import android.database.Cursor;
+import android.database.DatabaseUtils;
+import android.database.sqlite.SQLiteDatabase;
+import android.database.sqlite.SQLiteDebug;
+import android.database.sqlite.SQLiteOpenHelper;
+import android.database.sqlite.SQLiteStatement;
+import android.util.Log;
+
+import java.io.File;
+import java.util.HashMap;
+import java.util.Map;
+
+/**
+ * The single application database. Materials, transactions and print history live in one
+ * file behind one connection pool, so a sale and its receipt job can commit together.
+ *
+ * MaterialsDBHelper, TransactionsDBHelper and PrintHistoryManager own their tables and
+ * queries; this class owns the file, the schema version and the one-time import of the
+ * three databases the app used before (MeruScrapDB, MeruScrapTransactions.db, print_history.db).
+ */
+public class MeruScrapDatabase extends SQLiteOpenHelper {
+    private static final String TAG = "MeruScrapDatabase";
+
+    static final String DATABASE_NAME = "MeruScrap.db";
+    // 2: transaction_items.item_ref
+    // 3: change_log and sync_peers
+    // 4: print_jobs.enqueued_at (durable print queue)
+    // 5: print_jobs.template_version (receipts re-rendered from the transaction)
+    private static final int DATABASE_VERSION = 5;
+
+    // PRAGMA auto_vacuum value that lets PrintHistoryMaintenance free pages a few at a time
+    static final int AUTO_VACUUM_INCREMENTAL = 2;
+
+    // Databases from before consolidation, imported once and then deleted
+    private static final String LEGACY_MATERIALS_DB = "MeruScrapDB";
+    private static final String LEGACY_TRANSACTIONS_DB = "MeruScrapTransactions.db";
+    private static final String LEGACY_PRINT_HISTORY_DB = "print_history.db";
+    private static final String[] LEGACY_DATABASES = {
+            LEGACY_MATERIALS_DB, LEGACY_TRANSACTIONS_DB, LEGACY_PRINT_HISTORY_DB
+    };
+
+    private static MeruScrapDatabase instance;
+
+    private final Context appContext;
+    private final long createdAtNanos = System.nanoTime();
+    private long openDurationMs = -1;
+    private long importDurationMs = -1;
+
+    public interface TransactionBody<T> {
+        T run(SQLiteDatabase db) throws Exception;
+    }
+
+    public static synchronized MeruScrapDatabase getInstance(Context context) {
+        if (instance == null) {
+            instance = new MeruScrapDatabase(context.getApplicationContext());
+        }
+        return instance;
+    }
+
+    private MeruScrapDatabase(Context context) {
+        super(context, DATABASE_NAME, null, DATABASE_VERSION);
+        this.appContext = context;
+        // Readers (stats, search, history) no longer queue behind the writer
+        setWriteAheadLoggingEnabled(true);
+    }
+
+    @Override
+    public void onConfigure(SQLiteDatabase db) {
+        super.onConfigure(db);
+        db.setForeignKeyConstraintsEnabled(true);
+    }
+
+    @Override
+    public void onCreate(SQLiteDatabase db) {
+        Log.d(TAG, "Creating application database");
+        // Only takes effect before the first table; older files are converted by archival's VACUUM
+        db.execSQL("PRAGMA auto_vacuum = " + AUTO_VACUUM_INCREMENTAL);
+        MaterialsDBHelper.createSchema(db);
+        TransactionsDBHelper.createSchema(db);
+        PrintHistoryManager.createSchema(db);
+        ChangeLog.createSchema(db);
+
+        // Runs inside onCreate's transaction: either everything is imported or the
+        // new file stays at version 0 and the import is retried on the next open
+        if (!importLegacyDatabases(db)) {
+            MaterialsDBHelper.insertDefaultMaterials(db);
+        }
+    }
+
+    static boolean hasIncrementalVacuum(SQLiteDatabase db) {
+        return DatabaseUtils.longForQuery(db, "PRAGMA auto_vacuum", null) == AUTO_VACUUM_INCREMENTAL;
+    }
+
+    @Override
+    public void onUpgrade(SQLiteDatabase db, int oldVersion, int newVersion) {
+        Log.d(TAG, "Upgrading database from version " + oldVersion + " to " + newVersion);
+        if (oldVersion < 2) {
+            TransactionsDBHelper.migrateToItemRefs(db);
+        }
+        if (oldVersion < 3) {
+            ChangeLog.createSchema(db);
+        }
+        if (oldVersion < 4) {
+            PrintHistoryManager.migrateToPrintQueue(db);
+        }
+        if (oldVersion < 5) {
+            PrintHistoryManager.migrateToReceiptRefs(db);
+        }
+    }
+
+    @Override
+    public void onOpen(SQLiteDatabase db) {
+        super.onOpen(db);
+        // Anything imported is committed by now, so the old files are only taking space
+        for (String name : LEGACY_DATABASES) {
+            if (appContext.getDatabasePath(name).exists()) {
+                appContext.deleteDatabase(name);
+                Log.d(TAG, "Removed imported database " + name);
+            }
+        }
+        openDurationMs = (System.nanoTime() - createdAtNanos) / 1_000_000;
+        Log.d(TAG, "Database open in " + openDurationMs + "ms");
+    }
+
+    /**
+     * Run body in one SQLite transaction on the shared connection. DAO calls made inside it
+     * (e.g. saveTransaction then addPrintJob) nest into this transaction, so they commit or
+     * roll back together. Returns null if the body throws.
+     */
+    public <T> T runInTransaction(TransactionBody<T> body) {
+        SQLiteDatabase db = getWritableDatabase();
+        db.beginTransaction();
+        try {
+            T result = body.run(db);
+            db.setTransactionSuccessful();
+            return result;
+        } catch (Exception e) {
+            Log.e(TAG, "Transaction rolled back", e);
+            return null;
+        } finally {
+            db.endTransaction();
+        }
+    }
+
+    // ---- Legacy import ----
+
+    // Returns true if a legacy materials table was imported (so no default materials are needed)
+    private boolean importLegacyDatabases(SQLiteDatabase db) {
+        long start = System.currentTimeMillis();
+        boolean importedMaterials = false;
+        Map<String, Long> materialIds = new HashMap<>();
+
+        SQLiteDatabase legacy = openLegacy(LEGACY_MATERIALS_DB);
+        if (legacy != null) {
+            try {
+                copyTable(legacy, db, MaterialsDBHelper.TABLE_MATERIALS);
+                materialIds = readMaterialIds(legacy);
+                importedMaterials = true;
+            } finally {
+                legacy.close();
+            }
+        }
+
+        legacy = openLegacy(LEGACY_TRANSACTIONS_DB);
+        if (legacy != null) {
+            try {
+                // Bring old files up to the current table layout first so rows copy column for column
+                int version = legacy.getVersion();
+                if (version < TransactionsDBHelper.SCHEMA_VERSION) {
+                    legacy.beginTransaction();
+                    try {
+                        TransactionsDBHelper.upgradeLegacyTables(legacy, version, materialIds);
+                        legacy.setVersion(TransactionsDBHelper.SCHEMA_VERSION);
+                        legacy.setTransactionSuccessful();
+                    } finally {
+                        legacy.endTransaction();
+                    }
+                }
+                // The FTS triggers index each row as it is inserted here
+                copyTable(legacy, db, TransactionsDBHelper.TABLE_TRANSACTIONS);
+                copyTable(legacy, db, TransactionsDBHelper.TABLE_TRANSACTION_ITEMS);
+            } finally {
+                legacy.close();
+            }
+        }
+
+        legacy = openLegacy(LEGACY_PRINT_HISTORY_DB);
+        if (legacy != null) {
+            try {
+                // Version 1 files lack user_id/transaction_id; copying by column name leaves them NULL
+                copyTable(legacy, db, PrintHistoryManager.TABLE_PRINT_JOBS);
+                copyTable(legacy, db, PrintHistoryManager.TABLE_PRINTER_EVENTS);
+            } finally {
+                legacy.close();
+            }
+        }
+
+        importDurationMs = System.currentTimeMillis() - start;
+        Log.d(TAG, "Legacy import finished in " + importDurationMs + "ms");
+        return importedMaterials;
+    }
+
+    private SQLiteDatabase openLegacy(String name) {
+        File file = appContext.getDatabasePath(name);
+        if (!file.exists()) {
+            return null;
+        }
+        // Read-write so a pending WAL is recovered and old schemas can be upgraded in place
+        return SQLiteDatabase.openDatabase(file.getAbsolutePath(), null, SQLiteDatabase.OPEN_READWRITE);
+    }
+
+    private static boolean hasTable(SQLiteDatabase db, String table) {
+        Cursor cursor = db.rawQuery("SELECT 1 FROM sqlite_master WHERE type = 'table' AND name = ?",
+                new String[]{table});
+        try {
+            return cursor.moveToFirst();
+        } finally {
+            cursor.close();
+        }
+    }
+
+    // Copies every row, keeping ids, for the columns the legacy table actually has
+    private static void copyTable(SQLiteDatabase from, SQLiteDatabase to, String table) {
+        if (!hasTable(from, table)) {
+            return;
+        }
+
+        Cursor cursor = from.rawQuery("SELECT * FROM " + table, null);
+        SQLiteStatement insert = null;
+        int rows = 0;
+        try {
+            String[] columns = cursor.getColumnNames();
+            StringBuilder sql = new StringBuilder("INSERT INTO " + table + " (");
+            StringBuilder params = new StringBuilder();
+            for (int i = 0; i < columns.length; i++) {
+                sql.append(i > 0 ? ", " : "").append(columns[i]);
+                params.append(i > 0 ? ", ?" : "?");
+            }
+            sql.append(") VALUES (").append(params).append(")");
+            insert = to.compileStatement(sql.toString());
+
+            while (cursor.moveToNext()) {
+                insert.clearBindings();
+                for (int i = 0; i < columns.length; i++) {
+                    switch (cursor.getType(i)) {
+                        case Cursor.FIELD_TYPE_INTEGER:
+                            insert.bindLong(i + 1, cursor.getLong(i));
+                            break;
+                        case Cursor.FIELD_TYPE_FLOAT:
+                            insert.bindDouble(i + 1, cursor.getDouble(i));
+                            break;
+                        case Cursor.FIELD_TYPE_STRING:
+                            insert.bindString(i + 1, cursor.getString(i));
+                            break;
+                        case Cursor.FIELD_TYPE_BLOB:
+                            insert.bindBlob(i + 1, cursor.getBlob(i));
+                            break;
+                        default:
+                            insert.bindNull(i + 1);
+                    }
+                }
+                insert.executeInsert();
+                rows++;
+            }
+        } finally {
+            cursor.close();
+            if (insert != null) {
+                insert.close();
+            }
+        }
+        Log.d(TAG, "Imported " + rows + " rows into " + table);
+    }
+
+    private static Map<String, Long> readMaterialIds(SQLiteDatabase legacy) {
+        Map<String, Long> ids = new HashMap<>();
+        Cursor cursor = legacy.rawQuery("SELECT id, name FROM materials", null);
+        try {
+            while (cursor.moveToNext()) {
+                ids.put(cursor.getString(1), cursor.getLong(0));
+            }
+        } finally {
+            cursor.close();
+        }
+        return ids;
+    }
+
+    // ---- Diagnostics ----
+
+    /**
+     * Open/import timings plus SQLite's process-wide memory and per-connection page cache
+     * figures, for comparing against the three-database layout.
+     */
+    public String getDiagnostics() {
+        StringBuilder info = new StringBuilder();
+        info.append("Open: ").append(openDurationMs).append("ms");
+        if (importDurationMs >= 0) {
+            info.append(", legacy import: ").append(importDurationMs).append("ms");
+        }
+
+        SQLiteDebug.PagerStats stats = SQLiteDebug.getDatabaseInfo();
+        info.append("\nSQLite memory: ").append(stats.memoryUsed / 1024).append(" KB")
+                .append(" (peak malloc ").append(stats.largestMemAlloc / 1024).append(" KB)")
+                .append(", page cache overflow: ").append(stats.pageCacheOverflow / 1024).append(" KB");
+        for (SQLiteDebug.DbStats db : stats.dbStats) {
+            info.append("\n").append(db.dbName).append(": ").append(db.dbSize).append(" KB, ")
+                    .append(db.pageSize).append(" KB pages, lookaside ").append(db.lookaside);
+        }
+        return info.toString();
+    }
+}
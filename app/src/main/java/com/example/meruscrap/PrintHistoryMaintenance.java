@@ -0,0 +1,394 @@
+package com.example.meruscrap;
+
+import android.content.Context;
+import android.content.SharedPreferences;
+import android.database.Cursor;
+import android.database.DatabaseUtils;
+import android.database.sqlite.SQLiteDatabase;
+import android.database.sqlite.SQLiteStatement;
+import android.util.Log;
+
+import java.io.File;
+import java.util.Locale;
+import java.util.concurrent.ScheduledFuture;
+
+/**
+ * Keeps the print history from growing without bound. Jobs and printer events older than
+ * their retention are deleted, sale receipt bodies (rendered again from the transaction if
+ * reprinted) are dropped from jobs that printed long ago, printer_events is held to a fixed
+ * number of rows, and the freed pages are handed back to the file system with incremental
+ * vacuum.
+ *
+ * Passes run on the DB pool, at most once a day and only while the printer has nothing to
+ * print. Each batch changes at most BATCH_ROWS rows in its own statement; after SLICE_MS the
+ * pass yields and carries on SLICE_PAUSE_MS later, so other database work never queues long
+ * behind it. Retention per table is configurable.
+ */
+public class PrintHistoryMaintenance {
+    private static final String TAG = "PrintHistoryMaint";
+    private static final String PREFS_NAME = "print_history_maintenance";
+    private static final String KEY_JOB_RETENTION_DAYS = "job_retention_days";
+    private static final String KEY_CONTENT_RETENTION_DAYS = "content_retention_days";
+    private static final String KEY_EVENT_RETENTION_DAYS = "event_retention_days";
+    private static final String KEY_EVENT_CAP = "event_cap";
+    private static final String KEY_LAST_RUN = "last_run";
+
+    public static final int DEFAULT_JOB_RETENTION_DAYS = 180;
+    public static final int DEFAULT_CONTENT_RETENTION_DAYS = 30;
+    public static final int DEFAULT_EVENT_RETENTION_DAYS = 30;
+    public static final int DEFAULT_EVENT_CAP = 5000;
+
+    private static final int BATCH_ROWS = 500;
+    private static final int VACUUM_PAGES = 256;
+    private static final long SLICE_MS = 100;
+    private static final long SLICE_PAUSE_MS = 2000;
+    private static final long CHECK_INTERVAL_MS = 15 * 60 * 1000;
+    private static final long FIRST_CHECK_MS = 60 * 1000;
+    private static final long RUN_INTERVAL_MS = 24L * 60 * 60 * 1000;
+    private static final long DAY_MS = 24L * 60 * 60 * 1000;
+
+    private static PrintHistoryMaintenance instance;
+
+    private final Context appContext;
+    private final SharedPreferences prefs;
+    private ScheduledFuture<?> checkTask;
+    // The pass in progress, only touched on the DB pool
+    private Pass pass;
+    private volatile MaintenanceResult lastResult;
+
+    public static synchronized PrintHistoryMaintenance getInstance(Context context) {
+        if (instance == null) {
+            instance = new PrintHistoryMaintenance(context.getApplicationContext());
+        }
+        return instance;
+    }
+
+    private PrintHistoryMaintenance(Context context) {
+        this.appContext = context;
+        this.prefs = context.getSharedPreferences(PREFS_NAME, Context.MODE_PRIVATE);
+        PrintHistoryManager.getInstance(context).setEventCap(getEventCap());
+    }
+
+    public int getJobRetentionDays() {
+        return prefs.getInt(KEY_JOB_RETENTION_DAYS, DEFAULT_JOB_RETENTION_DAYS);
+    }
+
+    public void setJobRetentionDays(int days) {
+        prefs.edit().putInt(KEY_JOB_RETENTION_DAYS, Math.max(1, days)).apply();
+    }
+
+    public int getContentRetentionDays() {
+        return prefs.getInt(KEY_CONTENT_RETENTION_DAYS, DEFAULT_CONTENT_RETENTION_DAYS);
+    }
+
+    public void setContentRetentionDays(int days) {
+        prefs.edit().putInt(KEY_CONTENT_RETENTION_DAYS, Math.max(1, days)).apply();
+    }
+
+    public int getEventRetentionDays() {
+        return prefs.getInt(KEY_EVENT_RETENTION_DAYS, DEFAULT_EVENT_RETENTION_DAYS);
+    }
+
+    public void setEventRetentionDays(int days) {
+        prefs.edit().putInt(KEY_EVENT_RETENTION_DAYS, Math.max(1, days)).apply();
+    }
+
+    public int getEventCap() {
+        return prefs.getInt(KEY_EVENT_CAP, DEFAULT_EVENT_CAP);
+    }
+
+    public void setEventCap(int cap) {
+        int bounded = Math.max(100, cap);
+        prefs.edit().putInt(KEY_EVENT_CAP, bounded).apply();
+        PrintHistoryManager.getInstance(appContext).setEventCap(bounded);
+    }
+
+    /**
+     * Start checking every CHECK_INTERVAL_MS whether a pass is due and the printer is idle.
+     */
+    public synchronized void schedule() {
+        if (checkTask == null) {
+            checkTask = AppExecutors.get().scheduleAtFixedRate(AppExecutors.Pool.DB, this::runIfDue,
+                    FIRST_CHECK_MS, CHECK_INTERVAL_MS);
+        }
+    }
+
+    public MaintenanceResult getLastResult() {
+        return lastResult;
+    }
+
+    // DB pool only
+    private void runIfDue() {
+        long now = System.currentTimeMillis();
+        if (pass != null || now - prefs.getLong(KEY_LAST_RUN, 0) < RUN_INTERVAL_MS) {
+            return;
+        }
+        if (!isIdle()) {
+            Log.d(TAG, "Printer busy, maintenance postponed");
+            return;
+        }
+        pass = new Pass(now, getJobRetentionDays(), getContentRetentionDays(), getEventRetentionDays(), getEventCap());
+        pass.result.bytesBefore = databaseBytes(MeruScrapDatabase.getInstance(appContext).getWritableDatabase());
+        runSlice();
+    }
+
+    private void runSlice() {
+        Pass current = pass;
+        SQLiteDatabase db = MeruScrapDatabase.getInstance(appContext).getWritableDatabase();
+        long deadline = System.nanoTime() + SLICE_MS * 1_000_000;
+        try {
+            while (!current.isDone() && System.nanoTime() < deadline && isIdle()) {
+                runBatch(db, current);
+            }
+        } catch (Exception e) {
+            Log.e(TAG, "Print history maintenance stopped early", e);
+            current.result.error = e.getMessage();
+            current.stage = Stage.DONE;
+        }
+
+        if (!current.isDone()) {
+            // Let queued database work and printing go first
+            AppExecutors.get().schedule(AppExecutors.Pool.DB, this::runSlice, SLICE_PAUSE_MS);
+            return;
+        }
+        MaintenanceResult result = current.result;
+        result.bytesAfter = databaseBytes(db);
+        result.durationMs = System.currentTimeMillis() - current.now;
+        lastResult = result;
+        pass = null;
+        prefs.edit().putLong(KEY_LAST_RUN, current.now).apply();
+        Log.d(TAG, result.toString());
+    }
+
+    private boolean isIdle() {
+        return PrintQueue.getInstance(appContext).isEmpty() &&
+                !PrinterSessionManager.getInstance(appContext).getPrintManager().isPrinting();
+    }
+
+    private enum Stage {
+        STRIP_CONTENT,
+        DELETE_JOBS,
+        DELETE_EVENTS,
+        TRIM_EVENTS,
+        VACUUM,
+        DONE
+    }
+
+    // Cutoffs fixed when the pass starts, and where it has got to
+    private static class Pass {
+        final long now;
+        final long jobCutoff;
+        final long contentCutoff;
+        final long eventCutoff;
+        final int eventCap;
+        final MaintenanceResult result = new MaintenanceResult();
+        Stage stage = Stage.STRIP_CONTENT;
+
+        Pass(long now, int jobDays, int contentDays, int eventDays, int eventCap) {
+            this.now = now;
+            this.jobCutoff = now - jobDays * DAY_MS;
+            this.contentCutoff = now - contentDays * DAY_MS;
+            this.eventCutoff = now - eventDays * DAY_MS;
+            this.eventCap = eventCap;
+        }
+
+        boolean isDone() {
+            return stage == Stage.DONE;
+        }
+    }
+
+    // One bounded step of the pass; moves to the next stage once a step finds less than a full batch
+    private static void runBatch(SQLiteDatabase db, Pass pass) {
+        MaintenanceResult result = pass.result;
+        int changed;
+        switch (pass.stage) {
+            case STRIP_CONTENT:
+                changed = PrintHistoryManager.stripContentBefore(db, pass.contentCutoff, BATCH_ROWS);
+                result.contentsStripped += changed;
+                break;
+            case DELETE_JOBS:
+                changed = PrintHistoryManager.deleteJobsBefore(db, pass.jobCutoff, BATCH_ROWS);
+                result.jobsDeleted += changed;
+                break;
+            case DELETE_EVENTS:
+                changed = PrintHistoryManager.deleteEventsBefore(db, pass.eventCutoff, BATCH_ROWS);
+                result.eventsDeleted += changed;
+                break;
+            case TRIM_EVENTS:
+                changed = PrintHistoryManager.trimEvents(db, pass.eventCap, BATCH_ROWS);
+                result.eventsDeleted += changed;
+                break;
+            case VACUUM:
+                changed = vacuumStep(db, result);
+                break;
+            default:
+                return;
+        }
+        result.batches++;
+        if (changed < (pass.stage == Stage.VACUUM ? VACUUM_PAGES : BATCH_ROWS)) {
+            pass.stage = Stage.values()[pass.stage.ordinal() + 1];
+        }
+    }
+
+    /**
+     * Return up to VACUUM_PAGES free pages to the file system. Returns the pages freed.
+     * A database created before incremental vacuum was turned on is skipped until the
+     * archival job's VACUUM has converted it; a full VACUUM here would hold the DB pool.
+     */
+    private static int vacuumStep(SQLiteDatabase db, MaintenanceResult result) {
+        if (!MeruScrapDatabase.hasIncrementalVacuum(db)) {
+            Log.d(TAG, "Incremental vacuum not on yet, skipping");
+            return 0;
+        }
+        long freeBefore = DatabaseUtils.longForQuery(db, "PRAGMA freelist_count", null);
+        if (freeBefore == 0) {
+            return 0;
+        }
+        Cursor cursor = db.rawQuery("PRAGMA incremental_vacuum(" + VACUUM_PAGES + ")", null);
+        try {
+            while (cursor.moveToNext()) {
+                // Each step frees pages; the rows themselves carry nothing
+            }
+        } finally {
+            cursor.close();
+        }
+        int freed = (int) (freeBefore - DatabaseUtils.longForQuery(db, "PRAGMA freelist_count", null));
+        result.pagesVacuumed += freed;
+        return freed;
+    }
+
+    static long databaseBytes(SQLiteDatabase db) {
+        return DatabaseUtils.longForQuery(db, "PRAGMA page_count", null) *
+                DatabaseUtils.longForQuery(db, "PRAGMA page_size", null);
+    }
+
+    /**
+     * Play a year of printing into two scratch databases, one left alone and one maintained
+     * daily with the current settings, and report their size and query times month by month.
+     * For diagnostics; takes a few seconds, call from a background thread.
+     */
+    public String simulateYear(int receiptsPerDay, int eventsPerDay) {
+        File keptFile = appContext.getDatabasePath("print_history_sim_kept.db");
+        File maintainedFile = appContext.getDatabasePath("print_history_sim_maintained.db");
+        SQLiteDatabase.deleteDatabase(keptFile);
+        SQLiteDatabase.deleteDatabase(maintainedFile);
+        SQLiteDatabase kept = SQLiteDatabase.openOrCreateDatabase(keptFile, null);
+        SQLiteDatabase maintained = SQLiteDatabase.openOrCreateDatabase(maintainedFile, null);
+        StringBuilder report = new StringBuilder(String.format(Locale.US,
+                "Simulated year, %d receipts and %d printer events a day (kept vs maintained):",
+                receiptsPerDay, eventsPerDay));
+        try {
+            maintained.execSQL("PRAGMA auto_vacuum = " + MeruScrapDatabase.AUTO_VACUUM_INCREMENTAL);
+            PrintHistoryManager.createSchema(kept);
+            PrintHistoryManager.createSchema(maintained);
+
+            String receipt = sampleReceipt();
+            long start = System.currentTimeMillis() - 365 * DAY_MS;
+            long maintenanceNanos = 0;
+            for (int day = 0; day < 365; day++) {
+                long dayStart = start + day * DAY_MS;
+                insertDay(kept, dayStart, day, receiptsPerDay, eventsPerDay, receipt);
+                insertDay(maintained, dayStart, day, receiptsPerDay, eventsPerDay, receipt);
+
+                long maintenanceStart = System.nanoTime();
+                Pass pass = new Pass(dayStart + DAY_MS, getJobRetentionDays(), getContentRetentionDays(),
+                        getEventRetentionDays(), getEventCap());
+                while (!pass.isDone()) {
+                    runBatch(maintained, pass);
+                }
+                maintenanceNanos += System.nanoTime() - maintenanceStart;
+
+                if ((day + 1) % 30 == 0 || day == 364) {
+                    long now = dayStart + DAY_MS;
+                    report.append(String.format(Locale.US,
+                            "\nday %3d: %6d KB vs %6d KB, weekly stats %.2fms vs %.2fms",
+                            day + 1, databaseBytes(kept) / 1024, databaseBytes(maintained) / 1024,
+                            timeStatistics(kept, now), timeStatistics(maintained, now)));
+                }
+            }
+            report.append(String.format(Locale.US, "\ndaily maintenance avg %.1fms",
+                    maintenanceNanos / 1_000_000.0 / 365));
+        } catch (Exception e) {
+            Log.e(TAG, "Simulation failed", e);
+            report.append("\nfailed: ").append(e.getMessage());
+        } finally {
+            kept.close();
+            maintained.close();
+            SQLiteDatabase.deleteDatabase(keptFile);
+            SQLiteDatabase.deleteDatabase(maintainedFile);
+        }
+        return report.toString();
+    }
+
+    private static void insertDay(SQLiteDatabase db, long dayStart, int day, int receipts, int events, String receipt) {
+        SQLiteStatement job = db.compileStatement(PrintHistoryManager.INSERT_QUEUED_JOB);
+        SQLiteStatement event = db.compileStatement(PrintHistoryManager.INSERT_EVENT);
+        db.beginTransaction();
+        try {
+            for (int i = 0; i < receipts; i++) {
+                long time = dayStart + i * (DAY_MS / Math.max(1, receipts));
+                job.bindString(1, "sim-" + day + "-" + i);
+                job.bindString(2, PrintHistoryManager.PrintJobType.RECEIPT.name());
+                job.bindString(3, receipt);
+                job.bindNull(4);
+                job.bindNull(5);
+                job.bindString(6, PrintHistoryManager.PrintJobStatus.COMPLETED.name());
+                job.bindLong(7, time);
+                job.bindNull(8);
+                job.bindString(9, "sim-txn-" + day + "-" + i);
+                job.bindLong(10, time);
+                job.bindNull(11);
+                job.executeInsert();
+            }
+            for (int i = 0; i < events; i++) {
+                event.bindString(1, PrintHistoryManager.PrinterEventType.STATUS_CHECK.name());
+                event.bindString(2, "00:11:22:33:44:55");
+                event.bindString(3, "Simulated printer");
+                event.bindLong(4, dayStart + i * (DAY_MS / Math.max(1, events)));
+                event.bindString(5, "ONLINE");
+                event.executeInsert();
+            }
+            db.setTransactionSuccessful();
+        } finally {
+            db.endTransaction();
+            job.close();
+            event.close();
+        }
+    }
+
+    private static double timeStatistics(SQLiteDatabase db, long now) {
+        long start = System.nanoTime();
+        PrintHistoryManager.queryStatistics(db, now - 7 * DAY_MS, now);
+        return (System.nanoTime() - start) / 1_000_000.0;
+    }
+
+    // About the size of a real business receipt
+    private static String sampleReceipt() {
+        StringBuilder receipt = new StringBuilder("MERU SCRAP METAL\nReceipt\n");
+        for (int line = 0; line < 12; line++) {
+            receipt.append(String.format(Locale.US, "Material %2d       %6.2f kg  KES %8.2f\n", line, 12.5, 1250.0));
+        }
+        return receipt.append("TOTAL                        KES 15000.00\nThank you!\n").toString();
+    }
+
+    public static class MaintenanceResult {
+        public int contentsStripped;
+        public int jobsDeleted;
+        public int eventsDeleted;
+        public int pagesVacuumed;
+        public int batches;
+        public long bytesBefore;
+        public long bytesAfter;
+        public long durationMs;
+        public String error;
+
+        @Override
+        public String toString() {
+            return String.format(Locale.US,
+                    "print history maintenance: %d bodies dropped, %d jobs and %d events deleted, %d pages vacuumed " +
+                            "in %d batches over %dms; %d KB -> %d KB%s",
+                    contentsStripped, jobsDeleted, eventsDeleted, pagesVacuumed, batches, durationMs,
+                    bytesBefore / 1024, bytesAfter / 1024, error != null ? " (stopped: " + error + ")" : "");
+        }
+    }
+}
@@ -4,18 +4,28 @@ import android.content.ContentValues;
 import android.content.Context;
 import android.database.Cursor;
 import android.database.sqlite.SQLiteDatabase;
-import android.database.sqlite.SQLiteOpenHelper;
+import android.database.sqlite.SQLiteStatement;
+import android.util.Log;
 import java.util.ArrayList;
 import java.util.Date;
+import java.util.HashMap;
 import java.util.List;
-
-public class PrintHistoryManager extends SQLiteOpenHelper {
-    private static final String DATABASE_NAME = "print_history.db";
-    private static final int DATABASE_VERSION = 2;
+import java.util.Locale;
+import java.util.Map;
+
+/**
+ * Print job and printer event history, stored in MeruScrapDatabase. The connection is shared
+ * with materials and transactions, so it is never closed here.
+ *
+ * The writes made for every print job (queue, claim, status, events) go through statements
+ * compiled once and reused for as long as the connection stays open.
+ */
+public class PrintHistoryManager {
+    private static final String TAG = "PrintHistoryManager";
 
     // Table names
-    private static final String TABLE_PRINT_JOBS = "print_jobs";
-    private static final String TABLE_PRINTER_EVENTS = "printer_events";
+    static final String TABLE_PRINT_JOBS = "print_jobs";
+    static final String TABLE_PRINTER_EVENTS = "printer_events";
 
     // Print jobs table columns
     private static final String COLUMN_ID = "id";
@@ -32,6 +42,12 @@ public class PrintHistoryManager extends SQLiteOpenHelper {
     private static final String COLUMN_RETRY_COUNT = "retry_count";
     private static final String COLUMN_USER_ID = "user_id";
     private static final String COLUMN_TRANSACTION_ID = "transaction_id";
+    // Set while the job is in the print queue (PrintQueue); NULL for history-only rows and
+    // receipts saved to print later
+    private static final String COLUMN_ENQUEUED_AT = "enqueued_at";
+    // Receipts of a transaction keep only transaction_id and the ReceiptRenderer layout version;
+    // content_preview is NULL and the text is rendered again when printed
+    private static final String COLUMN_TEMPLATE_VERSION = "template_version";
 
     // Printer events table columns
     private static final String COLUMN_EVENT_ID = "event_id";
@@ -48,12 +64,66 @@ public class PrintHistoryManager extends SQLiteOpenHelper {
         return instance;
     }
 
+    private final MeruScrapDatabase database;
+    private final IdGenerator ids;
+    private final StoreStats storeStats = new StoreStats();
+
+    // Compiled statements by SQL, valid for statementDb only; guarded by statements
+    private final Map<String, SQLiteStatement> statements = new HashMap<>();
+    private SQLiteDatabase statementDb;
+    // printer_events is a ring of at most this many rows; set by PrintHistoryMaintenance
+    private volatile int eventCap = PrintHistoryMaintenance.DEFAULT_EVENT_CAP;
+
     private PrintHistoryManager(Context context) {
-        super(context, DATABASE_NAME, null, DATABASE_VERSION);
+        this.database = MeruScrapDatabase.getInstance(context);
+        this.ids = IdGenerator.getInstance(context);
+    }
+
+    private SQLiteDatabase getWritableDatabase() {
+        return storeStats.recordConnection(database.getWritableDatabase());
     }
 
-    @Override
-    public void onCreate(SQLiteDatabase db) {
+    private SQLiteDatabase getReadableDatabase() {
+        return storeStats.recordConnection(database.getReadableDatabase());
+    }
+
+    /**
+     * The compiled statement for this SQL, reused while the connection is the same one.
+     * SQLiteStatement is not thread-safe, so callers bind and execute it while holding its
+     * lock (the print thread and the DB pool both write here).
+     */
+    private SQLiteStatement statement(String sql) {
+        SQLiteDatabase db = getWritableDatabase();
+        synchronized (statements) {
+            if (db != statementDb) {
+                for (SQLiteStatement stale : statements.values()) {
+                    stale.close();
+                }
+                statements.clear();
+                statementDb = db;
+            }
+            SQLiteStatement statement = statements.get(sql);
+            if (statement == null) {
+                statement = db.compileStatement(sql);
+                statements.put(sql, statement);
+                storeStats.recordCompile();
+            } else {
+                storeStats.recordReuse();
+            }
+            return statement;
+        }
+    }
+
+    private static void bindNullable(SQLiteStatement statement, int index, String value) {
+        if (value == null) {
+            statement.bindNull(index);
+        } else {
+            statement.bindString(index, value);
+        }
+    }
+
+    // Called from MeruScrapDatabase.onCreate
+    static void createSchema(SQLiteDatabase db) {
         String createPrintJobsTable = "CREATE TABLE " + TABLE_PRINT_JOBS + "("
                 + COLUMN_ID + " INTEGER PRIMARY KEY AUTOINCREMENT,"
                 + COLUMN_JOB_ID + " TEXT UNIQUE NOT NULL,"
@@ -68,7 +138,9 @@ public class PrintHistoryManager extends SQLiteOpenHelper {
                 + COLUMN_ERROR_MESSAGE + " TEXT,"
                 + COLUMN_RETRY_COUNT + " INTEGER DEFAULT 0,"
                 + COLUMN_USER_ID + " TEXT,"
-                + COLUMN_TRANSACTION_ID + " TEXT"
+                + COLUMN_TRANSACTION_ID + " TEXT,"
+                + COLUMN_ENQUEUED_AT + " INTEGER,"
+                + COLUMN_TEMPLATE_VERSION + " INTEGER"
                 + ")";
 
         String createPrinterEventsTable = "CREATE TABLE " + TABLE_PRINTER_EVENTS + "("
@@ -87,15 +159,28 @@ public class PrintHistoryManager extends SQLiteOpenHelper {
         db.execSQL("CREATE INDEX idx_print_jobs_created_at ON " + TABLE_PRINT_JOBS + "(" + COLUMN_CREATED_AT + ")");
         db.execSQL("CREATE INDEX idx_print_jobs_status ON " + TABLE_PRINT_JOBS + "(" + COLUMN_STATUS + ")");
         db.execSQL("CREATE INDEX idx_printer_events_timestamp ON " + TABLE_PRINTER_EVENTS + "(" + COLUMN_EVENT_TIMESTAMP + ")");
+        createQueueIndex(db);
     }
 
-    @Override
-    public void onUpgrade(SQLiteDatabase db, int oldVersion, int newVersion) {
-        if (oldVersion < 2) {
-            // Add new columns for version 2
-            db.execSQL("ALTER TABLE " + TABLE_PRINT_JOBS + " ADD COLUMN " + COLUMN_USER_ID + " TEXT");
-            db.execSQL("ALTER TABLE " + TABLE_PRINT_JOBS + " ADD COLUMN " + COLUMN_TRANSACTION_ID + " TEXT");
-        }
+    // Called from MeruScrapDatabase.onUpgrade (version 4)
+    static void migrateToPrintQueue(SQLiteDatabase db) {
+        db.execSQL("ALTER TABLE " + TABLE_PRINT_JOBS + " ADD COLUMN " + COLUMN_ENQUEUED_AT + " INTEGER");
+        createQueueIndex(db);
+    }
+
+    // Called from MeruScrapDatabase.onUpgrade (version 5)
+    static void migrateToReceiptRefs(SQLiteDatabase db) {
+        db.execSQL("ALTER TABLE " + TABLE_PRINT_JOBS + " ADD COLUMN " + COLUMN_TEMPLATE_VERSION + " INTEGER");
+    }
+
+    private static void createQueueIndex(SQLiteDatabase db) {
+        db.execSQL("CREATE INDEX idx_print_jobs_queue ON " + TABLE_PRINT_JOBS + "(" +
+                COLUMN_STATUS + ", " + COLUMN_ENQUEUED_AT + ")");
+    }
+
+    // Id of the receipt job recorded with a sale; every print of that sale's receipt is this job
+    public static String receiptJobId(String transactionRef) {
+        return "receipt_" + transactionRef;
     }
 
     // Print job operations
@@ -112,9 +197,11 @@ public class PrintHistoryManager extends SQLiteOpenHelper {
         values.put(COLUMN_CREATED_AT, job.createdAt.getTime());
         values.put(COLUMN_USER_ID, job.userId);
         values.put(COLUMN_TRANSACTION_ID, job.transactionId);
+        if (job.templateVersion > 0) {
+            values.put(COLUMN_TEMPLATE_VERSION, job.templateVersion);
+        }
 
         long id = db.insert(TABLE_PRINT_JOBS, null, values);
-        db.close();
 
         return id;
     }
@@ -122,7 +209,7 @@ public class PrintHistoryManager extends SQLiteOpenHelper {
     // Convenience method for simple job logging
     public void addPrintJob(String contentPreview, PrintJobType jobType, PrintJobStatus status) {
         PrintJob job = new PrintJob();
-        job.jobId = "job_" + System.currentTimeMillis();
+        job.jobId = ids.next("job");
         job.jobType = jobType;
         job.contentPreview = contentPreview;
         job.status = status;
@@ -131,50 +218,196 @@ public class PrintHistoryManager extends SQLiteOpenHelper {
         addPrintJob(job);
     }
 
-    public void updatePrintJobStatus(String jobId, PrintJobStatus status, String errorMessage) {
-        SQLiteDatabase db = this.getWritableDatabase();
-        ContentValues values = new ContentValues();
-
-        values.put(COLUMN_STATUS, status.name());
+    private static final String UPDATE_STATUS = "UPDATE " + TABLE_PRINT_JOBS + " SET " + COLUMN_STATUS + " = ?";
+    private static final String WHERE_JOB_ID = " WHERE " + COLUMN_JOB_ID + " = ?";
+    private static final String SET_STATUS = UPDATE_STATUS + WHERE_JOB_ID;
+    private static final String SET_STARTED = UPDATE_STATUS + ", " + COLUMN_STARTED_AT + " = ?" + WHERE_JOB_ID;
+    private static final String SET_COMPLETED = UPDATE_STATUS + ", " + COLUMN_COMPLETED_AT + " = ?" + WHERE_JOB_ID;
+    private static final String SET_FAILED = UPDATE_STATUS + ", " + COLUMN_COMPLETED_AT + " = ?, " +
+            COLUMN_ERROR_MESSAGE + " = ?" + WHERE_JOB_ID;
 
+    public void updatePrintJobStatus(String jobId, PrintJobStatus status, String errorMessage) {
         long currentTime = System.currentTimeMillis();
-
+        String sql = SET_STATUS;
         switch (status) {
             case PRINTING:
-                values.put(COLUMN_STARTED_AT, currentTime);
+                sql = SET_STARTED;
                 break;
             case COMPLETED:
-                values.put(COLUMN_COMPLETED_AT, currentTime);
+                sql = SET_COMPLETED;
                 break;
             case FAILED:
-                values.put(COLUMN_ERROR_MESSAGE, errorMessage);
-                values.put(COLUMN_COMPLETED_AT, currentTime);
+                sql = SET_FAILED;
                 break;
         }
-
-        db.update(TABLE_PRINT_JOBS, values, COLUMN_JOB_ID + " = ?", new String[]{jobId});
-        db.close();
+        boolean timed = status == PrintJobStatus.PRINTING || status == PrintJobStatus.COMPLETED ||
+                status == PrintJobStatus.FAILED;
+
+        SQLiteStatement update = statement(sql);
+        synchronized (update) {
+            update.bindString(1, status.name());
+            int index = 2;
+            if (timed) {
+                update.bindLong(index++, currentTime);
+            }
+            if (status == PrintJobStatus.FAILED) {
+                bindNullable(update, index++, errorMessage);
+            }
+            update.bindString(index, jobId);
+            update.executeUpdateDelete();
+        }
     }
 
     public void incrementRetryCount(String jobId) {
-        SQLiteDatabase db = this.getWritableDatabase();
-        db.execSQL("UPDATE " + TABLE_PRINT_JOBS + " SET " + COLUMN_RETRY_COUNT + " = " + COLUMN_RETRY_COUNT + " + 1 WHERE " + COLUMN_JOB_ID + " = ?", new String[]{jobId});
-        db.close();
+        SQLiteStatement update = statement("UPDATE " + TABLE_PRINT_JOBS + " SET " + COLUMN_RETRY_COUNT + " = " +
+                COLUMN_RETRY_COUNT + " + 1" + WHERE_JOB_ID);
+        synchronized (update) {
+            update.bindString(1, jobId);
+            update.executeUpdateDelete();
+        }
+    }
+
+    // ---- Print queue operations (PrintQueue) ----
+
+    // Rows the print queue still owns: queued or interrupted mid-print
+    private static final String ACTIVE_QUEUE = COLUMN_ENQUEUED_AT + " IS NOT NULL AND " + COLUMN_STATUS +
+            " IN ('" + PrintJobStatus.QUEUED.name() + "', '" + PrintJobStatus.PRINTING.name() + "')";
+
+    /**
+     * Record a new job as queued. Returns false if a job with this id already exists, which
+     * is how a job enqueued twice is printed once.
+     */
+    boolean insertQueuedJob(PrintJob job, long enqueuedAt) {
+        SQLiteStatement insert = statement(INSERT_QUEUED_JOB);
+        synchronized (insert) {
+            insert.bindString(1, job.jobId);
+            insert.bindString(2, job.jobType.name());
+            bindNullable(insert, 3, job.contentPreview);
+            bindNullable(insert, 4, job.printerAddress);
+            bindNullable(insert, 5, job.printerName);
+            insert.bindString(6, PrintJobStatus.QUEUED.name());
+            insert.bindLong(7, job.createdAt != null ? job.createdAt.getTime() : enqueuedAt);
+            bindNullable(insert, 8, job.userId);
+            bindNullable(insert, 9, job.transactionId);
+            insert.bindLong(10, enqueuedAt);
+            if (job.templateVersion > 0) {
+                insert.bindLong(11, job.templateVersion);
+            } else {
+                insert.bindNull(11);
+            }
+            // -1 when the job id already exists and the insert was ignored
+            return insert.executeInsert() != -1;
+        }
+    }
+
+    static final String INSERT_QUEUED_JOB = "INSERT OR IGNORE INTO " + TABLE_PRINT_JOBS + "(" +
+            COLUMN_JOB_ID + ", " + COLUMN_JOB_TYPE + ", " + COLUMN_CONTENT_PREVIEW + ", " +
+            COLUMN_PRINTER_ADDRESS + ", " + COLUMN_PRINTER_NAME + ", " + COLUMN_STATUS + ", " +
+            COLUMN_CREATED_AT + ", " + COLUMN_USER_ID + ", " + COLUMN_TRANSACTION_ID + ", " +
+            COLUMN_ENQUEUED_AT + ", " + COLUMN_TEMPLATE_VERSION + ") VALUES (?, ?, ?, ?, ?, ?, ?, ?, ?, ?, ?)";
+
+    /**
+     * Put an existing row (saved to print later, or failed) into the queue. Returns false, and
+     * leaves the row alone, if there is no such job, it is already queued or printing, or it
+     * has neither stored text nor a transaction to render.
+     */
+    boolean enqueueExistingJob(String jobId, long enqueuedAt) {
+        ContentValues values = new ContentValues();
+        values.put(COLUMN_STATUS, PrintJobStatus.QUEUED.name());
+        values.put(COLUMN_ENQUEUED_AT, enqueuedAt);
+        values.put(COLUMN_RETRY_COUNT, 0);
+        values.putNull(COLUMN_ERROR_MESSAGE);
+        values.putNull(COLUMN_STARTED_AT);
+        values.putNull(COLUMN_COMPLETED_AT);
+        return getWritableDatabase().update(TABLE_PRINT_JOBS, values,
+                COLUMN_JOB_ID + " = ? AND NOT (" + ACTIVE_QUEUE + ") AND (" + COLUMN_CONTENT_PREVIEW +
+                        " IS NOT NULL OR " + COLUMN_TRANSACTION_ID + " IS NOT NULL)", new String[]{jobId}) == 1;
+    }
+
+    /**
+     * QUEUED -> PRINTING, just before the job is sent. False if the job was cancelled or
+     * deleted meanwhile, in which case it must not be printed.
+     */
+    boolean claimQueuedJob(String jobId) {
+        SQLiteStatement update = statement(SET_STARTED + " AND " + COLUMN_STATUS + " = ? AND " +
+                COLUMN_ENQUEUED_AT + " IS NOT NULL");
+        synchronized (update) {
+            update.bindString(1, PrintJobStatus.PRINTING.name());
+            update.bindLong(2, System.currentTimeMillis());
+            update.bindString(3, jobId);
+            update.bindString(4, PrintJobStatus.QUEUED.name());
+            return update.executeUpdateDelete() == 1;
+        }
+    }
+
+    // Back to QUEUED for another attempt
+    void requeueJob(String jobId, String errorMessage) {
+        SQLiteStatement update = statement(UPDATE_STATUS + ", " + COLUMN_ERROR_MESSAGE + " = ?, " +
+                COLUMN_RETRY_COUNT + " = " + COLUMN_RETRY_COUNT + " + 1" + WHERE_JOB_ID);
+        synchronized (update) {
+            update.bindString(1, PrintJobStatus.QUEUED.name());
+            bindNullable(update, 2, errorMessage);
+            update.bindString(3, jobId);
+            update.executeUpdateDelete();
+        }
+    }
+
+    /**
+     * Jobs left PRINTING by a process that died mid-print go back to QUEUED. They may have
+     * printed already; printing them again is preferred to losing them.
+     */
+    int recoverInterruptedJobs() {
+        ContentValues values = new ContentValues();
+        values.put(COLUMN_STATUS, PrintJobStatus.QUEUED.name());
+        return getWritableDatabase().update(TABLE_PRINT_JOBS, values,
+                COLUMN_STATUS + " = ? AND " + COLUMN_ENQUEUED_AT + " IS NOT NULL",
+                new String[]{PrintJobStatus.PRINTING.name()});
+    }
+
+    // Queued jobs with content, oldest first
+    List<PrintJob> getQueuedJobs() {
+        return getPrintJobs(COLUMN_STATUS + " = ? AND " + COLUMN_ENQUEUED_AT + " IS NOT NULL",
+                new String[]{PrintJobStatus.QUEUED.name()}, COLUMN_ENQUEUED_AT + ", " + COLUMN_ID);
+    }
+
+    int cancelQueuedJobs() {
+        ContentValues values = new ContentValues();
+        values.put(COLUMN_STATUS, PrintJobStatus.CANCELLED.name());
+        values.put(COLUMN_COMPLETED_AT, System.currentTimeMillis());
+        return getWritableDatabase().update(TABLE_PRINT_JOBS, values,
+                COLUMN_STATUS + " = ? AND " + COLUMN_ENQUEUED_AT + " IS NOT NULL",
+                new String[]{PrintJobStatus.QUEUED.name()});
     }
 
     // Printer event operations
+    static final String INSERT_EVENT = "INSERT INTO " + TABLE_PRINTER_EVENTS + "(" +
+            COLUMN_EVENT_TYPE + ", " + COLUMN_PRINTER_ADDRESS + ", " + COLUMN_PRINTER_NAME + ", " +
+            COLUMN_EVENT_TIMESTAMP + ", " + COLUMN_EVENT_DETAILS + ") VALUES (?, ?, ?, ?, ?)";
+
     public void logPrinterEvent(PrinterEventType eventType, String printerAddress, String printerName, String details) {
-        SQLiteDatabase db = this.getWritableDatabase();
-        ContentValues values = new ContentValues();
+        SQLiteStatement insert = statement(INSERT_EVENT);
+        long eventId;
+        synchronized (insert) {
+            insert.bindString(1, eventType.name());
+            bindNullable(insert, 2, printerAddress);
+            bindNullable(insert, 3, printerName);
+            insert.bindLong(4, System.currentTimeMillis());
+            bindNullable(insert, 5, details);
+            eventId = insert.executeInsert();
+        }
 
-        values.put(COLUMN_EVENT_TYPE, eventType.name());
-        values.put(COLUMN_PRINTER_ADDRESS, printerAddress);
-        values.put(COLUMN_PRINTER_NAME, printerName);
-        values.put(COLUMN_EVENT_TIMESTAMP, System.currentTimeMillis());
-        values.put(COLUMN_EVENT_DETAILS, details);
+        // Ids only grow, so the ring is everything more than eventCap ids back
+        if (eventId > eventCap) {
+            SQLiteStatement trim = statement("DELETE FROM " + TABLE_PRINTER_EVENTS + " WHERE " + COLUMN_EVENT_ID + " <= ?");
+            synchronized (trim) {
+                trim.bindLong(1, eventId - eventCap);
+                trim.executeUpdateDelete();
+            }
+        }
+    }
 
-        db.insert(TABLE_PRINTER_EVENTS, null, values);
-        db.close();
+    void setEventCap(int cap) {
+        eventCap = cap;
     }
 
     // Query operations
@@ -198,17 +431,14 @@ public class PrintHistoryManager extends SQLiteOpenHelper {
         SQLiteDatabase db = this.getReadableDatabase();
         List<PrintJob> jobs = new ArrayList<>();
 
-        String query = "SELECT * FROM " + TABLE_PRINT_JOBS + " ORDER BY " + COLUMN_CREATED_AT + " DESC LIMIT " + limit;
+        // History lists never show the receipt body, so skip content_preview
+        String query = "SELECT " + PRINT_JOB_SUMMARY_MAPPER.select() + " FROM " + TABLE_PRINT_JOBS +
+                " ORDER BY " + COLUMN_CREATED_AT + " DESC LIMIT " + limit;
         Cursor cursor = db.rawQuery(query, null);
 
-        if (cursor.moveToFirst()) {
-            do {
-                jobs.add(cursorToPrintJob(cursor));
-            } while (cursor.moveToNext());
-        }
+        jobs.addAll(PRINT_JOB_SUMMARY_MAPPER.mapAll(cursor));
 
         cursor.close();
-        db.close();
 
         return jobs;
     }
@@ -217,16 +447,11 @@ public class PrintHistoryManager extends SQLiteOpenHelper {
         SQLiteDatabase db = this.getReadableDatabase();
         List<PrintJob> jobs = new ArrayList<>();
 
-        Cursor cursor = db.query(TABLE_PRINT_JOBS, null, selection, selectionArgs, null, null, orderBy);
+        Cursor cursor = db.query(TABLE_PRINT_JOBS, PRINT_JOB_MAPPER.getColumns(), selection, selectionArgs, null, null, orderBy);
 
-        if (cursor.moveToFirst()) {
-            do {
-                jobs.add(cursorToPrintJob(cursor));
-            } while (cursor.moveToNext());
-        }
+        jobs.addAll(PRINT_JOB_MAPPER.mapAll(cursor));
 
         cursor.close();
-        db.close();
 
         return jobs;
     }
@@ -238,66 +463,152 @@ public class PrintHistoryManager extends SQLiteOpenHelper {
         String selection = COLUMN_EVENT_TIMESTAMP + " BETWEEN ? AND ?";
         String[] selectionArgs = {String.valueOf(startTime), String.valueOf(endTime)};
 
-        Cursor cursor = db.query(TABLE_PRINTER_EVENTS, null, selection, selectionArgs, null, null, COLUMN_EVENT_TIMESTAMP + " DESC");
+        Cursor cursor = db.query(TABLE_PRINTER_EVENTS, PRINTER_EVENT_MAPPER.getColumns(), selection, selectionArgs,
+                null, null, COLUMN_EVENT_TIMESTAMP + " DESC");
 
-        if (cursor.moveToFirst()) {
-            do {
-                events.add(cursorToPrinterEvent(cursor));
-            } while (cursor.moveToNext());
-        }
+        events.addAll(PRINTER_EVENT_MAPPER.mapAll(cursor));
 
         cursor.close();
-        db.close();
 
         return events;
     }
 
     // Statistics
+
+    // One pass over the range: per job type, all jobs and how many completed or failed
+    private static final String STATISTICS_QUERY = "SELECT " + COLUMN_JOB_TYPE + ", COUNT(*), " +
+            "SUM(" + COLUMN_STATUS + " = ?), SUM(" + COLUMN_STATUS + " = ?) FROM " + TABLE_PRINT_JOBS +
+            " WHERE " + COLUMN_CREATED_AT + " BETWEEN ? AND ? GROUP BY " + COLUMN_JOB_TYPE;
+
     public PrintStatistics getPrintStatistics(long startTime, long endTime) {
-        SQLiteDatabase db = this.getReadableDatabase();
-        PrintStatistics stats = new PrintStatistics();
+        long start = System.nanoTime();
+        PrintStatistics stats = queryStatistics(getReadableDatabase(), startTime, endTime);
+        storeStats.recordStatistics(System.nanoTime() - start);
+        return stats;
+    }
 
-        String timeRange = COLUMN_CREATED_AT + " BETWEEN " + startTime + " AND " + endTime;
+    static PrintStatistics queryStatistics(SQLiteDatabase db, long startTime, long endTime) {
+        PrintStatistics stats = new PrintStatistics();
+        stats.jobsByType = new ArrayList<>();
 
-        // Total jobs
-        Cursor cursor = db.rawQuery("SELECT COUNT(*) FROM " + TABLE_PRINT_JOBS + " WHERE " + timeRange, null);
-        if (cursor.moveToFirst()) {
-            stats.totalJobs = cursor.getInt(0);
+        Cursor cursor = db.rawQuery(STATISTICS_QUERY, new String[]{
+                PrintJobStatus.COMPLETED.name(), PrintJobStatus.FAILED.name(),
+                String.valueOf(startTime), String.valueOf(endTime)});
+        try {
+            while (cursor.moveToNext()) {
+                int count = cursor.getInt(1);
+                stats.totalJobs += count;
+                stats.successfulJobs += cursor.getInt(2);
+                stats.failedJobs += cursor.getInt(3);
+
+                PrintJobType type = parseJobType(cursor.getString(0));
+                if (type != null) {
+                    JobTypeCount typeCount = new JobTypeCount();
+                    typeCount.jobType = type;
+                    typeCount.count = count;
+                    stats.jobsByType.add(typeCount);
+                }
+            }
+        } finally {
+            cursor.close();
         }
-        cursor.close();
 
-        // Successful jobs
-        cursor = db.rawQuery("SELECT COUNT(*) FROM " + TABLE_PRINT_JOBS + " WHERE " + timeRange + " AND " + COLUMN_STATUS + " = ?", new String[]{PrintJobStatus.COMPLETED.name()});
-        if (cursor.moveToFirst()) {
-            stats.successfulJobs = cursor.getInt(0);
+        stats.successRate = stats.totalJobs > 0 ? (double) stats.successfulJobs / stats.totalJobs * 100 : 0;
+        return stats;
+    }
+
+    private static PrintJobType parseJobType(String name) {
+        try {
+            return PrintJobType.valueOf(name);
+        } catch (IllegalArgumentException | NullPointerException e) {
+            Log.w(TAG, "Unknown print job type " + name);
+            return null;
         }
-        cursor.close();
+    }
 
-        // Failed jobs
-        cursor = db.rawQuery("SELECT COUNT(*) FROM " + TABLE_PRINT_JOBS + " WHERE " + timeRange + " AND " + COLUMN_STATUS + " = ?", new String[]{PrintJobStatus.FAILED.name()});
-        if (cursor.moveToFirst()) {
-            stats.failedJobs = cursor.getInt(0);
+    /**
+     * Time the grouped statistics query against the four separate counts it replaced, over
+     * the same range and connection. For diagnostics; runs on the caller's thread.
+     */
+    public String benchmarkStatistics(long startTime, long endTime, int runs) {
+        SQLiteDatabase db = getReadableDatabase();
+        String[] range = {String.valueOf(startTime), String.valueOf(endTime)};
+        String timeRange = " WHERE " + COLUMN_CREATED_AT + " BETWEEN ? AND ?";
+        String statusRange = timeRange + " AND " + COLUMN_STATUS + " = ?";
+
+        long grouped = 0;
+        long separate = 0;
+        for (int i = 0; i < runs; i++) {
+            long start = System.nanoTime();
+            getPrintStatistics(startTime, endTime);
+            grouped += System.nanoTime() - start;
+
+            start = System.nanoTime();
+            countRows(db, "SELECT COUNT(*) FROM " + TABLE_PRINT_JOBS + timeRange, range);
+            countRows(db, "SELECT COUNT(*) FROM " + TABLE_PRINT_JOBS + statusRange,
+                    new String[]{range[0], range[1], PrintJobStatus.COMPLETED.name()});
+            countRows(db, "SELECT COUNT(*) FROM " + TABLE_PRINT_JOBS + statusRange,
+                    new String[]{range[0], range[1], PrintJobStatus.FAILED.name()});
+            countRows(db, "SELECT " + COLUMN_JOB_TYPE + ", COUNT(*) FROM " + TABLE_PRINT_JOBS + timeRange +
+                    " GROUP BY " + COLUMN_JOB_TYPE, range);
+            separate += System.nanoTime() - start;
         }
-        cursor.close();
+        return String.format(Locale.US, "print statistics over %d runs: grouped query %.2fms, four queries %.2fms",
+                runs, grouped / 1_000_000.0 / Math.max(1, runs), separate / 1_000_000.0 / Math.max(1, runs));
+    }
 
-        // Jobs by type
-        cursor = db.rawQuery("SELECT " + COLUMN_JOB_TYPE + ", COUNT(*) FROM " + TABLE_PRINT_JOBS + " WHERE " + timeRange + " GROUP BY " + COLUMN_JOB_TYPE, null);
-        stats.jobsByType = new ArrayList<>();
-        if (cursor.moveToFirst()) {
-            do {
-                JobTypeCount count = new JobTypeCount();
-                count.jobType = PrintJobType.valueOf(cursor.getString(0));
-                count.count = cursor.getInt(1);
-                stats.jobsByType.add(count);
-            } while (cursor.moveToNext());
+    private static void countRows(SQLiteDatabase db, String sql, String[] args) {
+        Cursor cursor = db.rawQuery(sql, args);
+        try {
+            while (cursor.moveToNext()) {
+                cursor.getInt(cursor.getColumnCount() - 1);
+            }
+        } finally {
+            cursor.close();
         }
-        cursor.close();
+    }
 
-        db.close();
+    // Connection opens per request, statement reuse and statistics latency
+    public String getStoreStats() {
+        return storeStats.toString();
+    }
 
-        stats.successRate = stats.totalJobs > 0 ? (double) stats.successfulJobs / stats.totalJobs * 100 : 0;
+    // ---- Retention (PrintHistoryMaintenance) ----
+    // Each call changes at most limit rows, so the caller decides how long a batch may take
 
-        return stats;
+    // Finished jobs before the cutoff; jobs still in the print queue are kept however old
+    static int deleteJobsBefore(SQLiteDatabase db, long cutoff, int limit) {
+        return db.delete(TABLE_PRINT_JOBS, COLUMN_ID + " IN (SELECT " + COLUMN_ID + " FROM " + TABLE_PRINT_JOBS +
+                        " WHERE " + COLUMN_CREATED_AT + " < ? AND NOT (" + ACTIVE_QUEUE + ") LIMIT ?)",
+                new String[]{String.valueOf(cutoff), String.valueOf(limit)});
+    }
+
+    // Drop the receipt body of jobs that printed or were cancelled before the cutoff; the row stays.
+    // Only jobs for a transaction, whose receipt can be rendered again; reports and test pages keep theirs
+    static int stripContentBefore(SQLiteDatabase db, long cutoff, int limit) {
+        ContentValues values = new ContentValues();
+        values.putNull(COLUMN_CONTENT_PREVIEW);
+        return db.update(TABLE_PRINT_JOBS, values, COLUMN_ID + " IN (SELECT " + COLUMN_ID + " FROM " +
+                        TABLE_PRINT_JOBS + " WHERE " + COLUMN_CREATED_AT + " < ? AND " + COLUMN_CONTENT_PREVIEW +
+                        " IS NOT NULL AND " + COLUMN_TRANSACTION_ID + " IS NOT NULL AND " + COLUMN_STATUS +
+                        " IN (?, ?) LIMIT ?)",
+                new String[]{String.valueOf(cutoff), PrintJobStatus.COMPLETED.name(),
+                        PrintJobStatus.CANCELLED.name(), String.valueOf(limit)});
+    }
+
+    static int deleteEventsBefore(SQLiteDatabase db, long cutoff, int limit) {
+        return db.delete(TABLE_PRINTER_EVENTS, COLUMN_EVENT_ID + " IN (SELECT " + COLUMN_EVENT_ID + " FROM " +
+                        TABLE_PRINTER_EVENTS + " WHERE " + COLUMN_EVENT_TIMESTAMP + " < ? LIMIT ?)",
+                new String[]{String.valueOf(cutoff), String.valueOf(limit)});
+    }
+
+    // Oldest events beyond the newest cap
+    static int trimEvents(SQLiteDatabase db, int cap, int limit) {
+        return db.delete(TABLE_PRINTER_EVENTS, COLUMN_EVENT_ID + " IN (SELECT " + COLUMN_EVENT_ID + " FROM " +
+                        TABLE_PRINTER_EVENTS + " WHERE " + COLUMN_EVENT_ID + " <= (SELECT " + COLUMN_EVENT_ID +
+                        " FROM " + TABLE_PRINTER_EVENTS + " ORDER BY " + COLUMN_EVENT_ID + " DESC LIMIT 1 OFFSET ?)" +
+                        " ORDER BY " + COLUMN_EVENT_ID + " LIMIT ?)",
+                new String[]{String.valueOf(cap), String.valueOf(limit)});
     }
 
     // Cleanup operations
@@ -305,139 +616,145 @@ public class PrintHistoryManager extends SQLiteOpenHelper {
         SQLiteDatabase db = this.getWritableDatabase();
         long cutoffTime = System.currentTimeMillis() - (daysToKeep * 24 * 60 * 60 * 1000L);
 
-        db.delete(TABLE_PRINT_JOBS, COLUMN_CREATED_AT + " < ?", new String[]{String.valueOf(cutoffTime)});
+        // Jobs still waiting in the print queue are kept however old they are
+        db.delete(TABLE_PRINT_JOBS, COLUMN_CREATED_AT + " < ? AND NOT (" + ACTIVE_QUEUE + ")",
+                new String[]{String.valueOf(cutoffTime)});
         db.delete(TABLE_PRINTER_EVENTS, COLUMN_EVENT_TIMESTAMP + " < ?", new String[]{String.valueOf(cutoffTime)});
-
-        db.close();
     }
 
     public void clearAllHistory() {
         SQLiteDatabase db = this.getWritableDatabase();
         db.delete(TABLE_PRINT_JOBS, null, null);
         db.delete(TABLE_PRINTER_EVENTS, null, null);
-        db.close();
-    }
-
-    // FIXED: Safe cursor methods to handle -1 column indexes
-    private String getStringSafely(Cursor cursor, String columnName) {
-        int columnIndex = cursor.getColumnIndex(columnName);
-        if (columnIndex >= 0) {
-            return cursor.getString(columnIndex);
-        }
-        return null;
-    }
-
-    private long getLongSafely(Cursor cursor, String columnName) {
-        int columnIndex = cursor.getColumnIndex(columnName);
-        if (columnIndex >= 0) {
-            return cursor.getLong(columnIndex);
-        }
-        return 0;
     }
 
-    private int getIntSafely(Cursor cursor, String columnName) {
-        int columnIndex = cursor.getColumnIndex(columnName);
-        if (columnIndex >= 0) {
-            return cursor.getInt(columnIndex);
+    // Row mappers over explicit projections; column indices are resolved once per cursor
+    private static final PrintJobMapper PRINT_JOB_MAPPER = new PrintJobMapper(true);
+    private static final PrintJobMapper PRINT_JOB_SUMMARY_MAPPER = new PrintJobMapper(false);
+
+    private static final class PrintJobMapper extends RowMapper<PrintJob> {
+        private final boolean withContent;
+
+        PrintJobMapper(boolean withContent) {
+            super(withContent
+                    ? new String[]{COLUMN_ID, COLUMN_JOB_ID, COLUMN_JOB_TYPE, COLUMN_PRINTER_ADDRESS, COLUMN_PRINTER_NAME,
+                    COLUMN_STATUS, COLUMN_CREATED_AT, COLUMN_STARTED_AT, COLUMN_COMPLETED_AT, COLUMN_ERROR_MESSAGE,
+                    COLUMN_RETRY_COUNT, COLUMN_USER_ID, COLUMN_TRANSACTION_ID, COLUMN_ENQUEUED_AT, COLUMN_TEMPLATE_VERSION,
+                    COLUMN_CONTENT_PREVIEW}
+                    : new String[]{COLUMN_ID, COLUMN_JOB_ID, COLUMN_JOB_TYPE, COLUMN_PRINTER_ADDRESS, COLUMN_PRINTER_NAME,
+                    COLUMN_STATUS, COLUMN_CREATED_AT, COLUMN_STARTED_AT, COLUMN_COMPLETED_AT, COLUMN_ERROR_MESSAGE,
+                    COLUMN_RETRY_COUNT, COLUMN_USER_ID, COLUMN_TRANSACTION_ID, COLUMN_ENQUEUED_AT,
+                    COLUMN_TEMPLATE_VERSION});
+            this.withContent = withContent;
         }
-        return 0;
-    }
 
-    // FIXED: Safe cursor to PrintJob conversion
-    private PrintJob cursorToPrintJob(Cursor cursor) {
-        PrintJob job = new PrintJob();
+        @Override
+        protected PrintJob map(Cursor cursor, int[] col) {
+            PrintJob job = new PrintJob();
+
+            try {
+                job.id = cursor.getLong(col[0]);
+                job.jobId = cursor.getString(col[1]);
+
+                String jobTypeStr = cursor.getString(col[2]);
+                if (jobTypeStr != null) {
+                    try {
+                        job.jobType = PrintJobType.valueOf(jobTypeStr);
+                    } catch (IllegalArgumentException e) {
+                        job.jobType = PrintJobType.RECEIPT; // Default fallback
+                    }
+                } else {
+                    job.jobType = PrintJobType.RECEIPT;
+                }
 
-        try {
-            job.id = getLongSafely(cursor, COLUMN_ID);
-            job.jobId = getStringSafely(cursor, COLUMN_JOB_ID);
-
-            String jobTypeStr = getStringSafely(cursor, COLUMN_JOB_TYPE);
-            if (jobTypeStr != null) {
-                try {
-                    job.jobType = PrintJobType.valueOf(jobTypeStr);
-                } catch (IllegalArgumentException e) {
-                    job.jobType = PrintJobType.RECEIPT; // Default fallback
+                job.printerAddress = cursor.getString(col[3]);
+                job.printerName = cursor.getString(col[4]);
+
+                String statusStr = cursor.getString(col[5]);
+                if (statusStr != null) {
+                    try {
+                        job.status = PrintJobStatus.valueOf(statusStr);
+                    } catch (IllegalArgumentException e) {
+                        job.status = PrintJobStatus.QUEUED; // Default fallback
+                    }
+                } else {
+                    job.status = PrintJobStatus.QUEUED;
                 }
-            } else {
-                job.jobType = PrintJobType.RECEIPT;
-            }
 
-            job.contentPreview = getStringSafely(cursor, COLUMN_CONTENT_PREVIEW);
-            job.printerAddress = getStringSafely(cursor, COLUMN_PRINTER_ADDRESS);
-            job.printerName = getStringSafely(cursor, COLUMN_PRINTER_NAME);
+                long createdAt = cursor.getLong(col[6]);
+                job.createdAt = createdAt > 0 ? new Date(createdAt) : new Date();
 
-            String statusStr = getStringSafely(cursor, COLUMN_STATUS);
-            if (statusStr != null) {
-                try {
-                    job.status = PrintJobStatus.valueOf(statusStr);
-                } catch (IllegalArgumentException e) {
-                    job.status = PrintJobStatus.QUEUED; // Default fallback
-                }
-            } else {
-                job.status = PrintJobStatus.QUEUED;
-            }
+                long startedAt = cursor.getLong(col[7]);
+                job.startedAt = startedAt > 0 ? new Date(startedAt) : null;
 
-            long createdAt = getLongSafely(cursor, COLUMN_CREATED_AT);
-            job.createdAt = createdAt > 0 ? new Date(createdAt) : new Date();
+                long completedAt = cursor.getLong(col[8]);
+                job.completedAt = completedAt > 0 ? new Date(completedAt) : null;
 
-            long startedAt = getLongSafely(cursor, COLUMN_STARTED_AT);
-            job.startedAt = startedAt > 0 ? new Date(startedAt) : null;
+                job.errorMessage = cursor.getString(col[9]);
+                job.retryCount = cursor.getInt(col[10]);
+                job.userId = cursor.getString(col[11]);
+                job.transactionId = cursor.getString(col[12]);
 
-            long completedAt = getLongSafely(cursor, COLUMN_COMPLETED_AT);
-            job.completedAt = completedAt > 0 ? new Date(completedAt) : null;
+                long enqueuedAt = cursor.getLong(col[13]);
+                job.enqueuedAt = enqueuedAt > 0 ? new Date(enqueuedAt) : null;
+                job.templateVersion = cursor.getInt(col[14]);
 
-            job.errorMessage = getStringSafely(cursor, COLUMN_ERROR_MESSAGE);
-            job.retryCount = getIntSafely(cursor, COLUMN_RETRY_COUNT);
-            job.userId = getStringSafely(cursor, COLUMN_USER_ID);
-            job.transactionId = getStringSafely(cursor, COLUMN_TRANSACTION_ID);
+                if (withContent) {
+                    job.contentPreview = cursor.getString(col[15]);
+                }
 
-        } catch (Exception e) {
-            // Log error but don't crash - return a basic job object
-            android.util.Log.e("PrintHistoryManager", "Error parsing PrintJob from cursor", e);
-            if (job.jobId == null) job.jobId = "unknown_" + System.currentTimeMillis();
-            if (job.jobType == null) job.jobType = PrintJobType.RECEIPT;
-            if (job.status == null) job.status = PrintJobStatus.FAILED;
-            if (job.createdAt == null) job.createdAt = new Date();
-        }
+            } catch (Exception e) {
+                // Log error but don't crash - return a basic job object
+                Log.e(TAG, "Error parsing PrintJob from cursor", e);
+                if (job.jobId == null) job.jobId = "unknown_" + System.currentTimeMillis();
+                if (job.jobType == null) job.jobType = PrintJobType.RECEIPT;
+                if (job.status == null) job.status = PrintJobStatus.FAILED;
+                if (job.createdAt == null) job.createdAt = new Date();
+            }
 
-        return job;
+            return job;
+        }
     }
 
-    // FIXED: Safe cursor to PrinterEvent conversion
-    private PrinterEvent cursorToPrinterEvent(Cursor cursor) {
-        PrinterEvent event = new PrinterEvent();
-
-        try {
-            event.id = getLongSafely(cursor, COLUMN_EVENT_ID);
-
-            String eventTypeStr = getStringSafely(cursor, COLUMN_EVENT_TYPE);
-            if (eventTypeStr != null) {
-                try {
-                    event.eventType = PrinterEventType.valueOf(eventTypeStr);
-                } catch (IllegalArgumentException e) {
-                    event.eventType = PrinterEventType.STATUS_CHECK; // Default fallback
+    private static final RowMapper<PrinterEvent> PRINTER_EVENT_MAPPER = new RowMapper<PrinterEvent>(
+            COLUMN_EVENT_ID, COLUMN_EVENT_TYPE, COLUMN_PRINTER_ADDRESS, COLUMN_PRINTER_NAME,
+            COLUMN_EVENT_TIMESTAMP, COLUMN_EVENT_DETAILS) {
+        @Override
+        protected PrinterEvent map(Cursor cursor, int[] col) {
+            PrinterEvent event = new PrinterEvent();
+
+            try {
+                event.id = cursor.getLong(col[0]);
+
+                String eventTypeStr = cursor.getString(col[1]);
+                if (eventTypeStr != null) {
+                    try {
+                        event.eventType = PrinterEventType.valueOf(eventTypeStr);
+                    } catch (IllegalArgumentException e) {
+                        event.eventType = PrinterEventType.STATUS_CHECK; // Default fallback
+                    }
+                } else {
+                    event.eventType = PrinterEventType.STATUS_CHECK;
                 }
-            } else {
-                event.eventType = PrinterEventType.STATUS_CHECK;
-            }
 
-            event.printerAddress = getStringSafely(cursor, COLUMN_PRINTER_ADDRESS);
-            event.printerName = getStringSafely(cursor, COLUMN_PRINTER_NAME);
+                event.printerAddress = cursor.getString(col[2]);
+                event.printerName = cursor.getString(col[3]);
 
-            long timestamp = getLongSafely(cursor, COLUMN_EVENT_TIMESTAMP);
-            event.timestamp = timestamp > 0 ? new Date(timestamp) : new Date();
+                long timestamp = cursor.getLong(col[4]);
+                event.timestamp = timestamp > 0 ? new Date(timestamp) : new Date();
 
-            event.details = getStringSafely(cursor, COLUMN_EVENT_DETAILS);
+                event.details = cursor.getString(col[5]);
 
-        } catch (Exception e) {
-            // Log error but don't crash - return a basic event object
-            android.util.Log.e("PrintHistoryManager", "Error parsing PrinterEvent from cursor", e);
-            if (event.eventType == null) event.eventType = PrinterEventType.STATUS_CHECK;
-            if (event.timestamp == null) event.timestamp = new Date();
-        }
+            } catch (Exception e) {
+                // Log error but don't crash - return a basic event object
+                Log.e(TAG, "Error parsing PrinterEvent from cursor", e);
+                if (event.eventType == null) event.eventType = PrinterEventType.STATUS_CHECK;
+                if (event.timestamp == null) event.timestamp = new Date();
+            }
 
-        return event;
-    }
+            return event;
+        }
+    };
 // Add these methods to PrintHistoryManager class
 
     public List<PrintJob> getPendingPrintJobs() {
@@ -452,24 +769,21 @@ public class PrintHistoryManager extends SQLiteOpenHelper {
         SQLiteDatabase db = this.getReadableDatabase();
         List<PrintJob> jobs = new ArrayList<>();
 
-        String selection = COLUMN_STATUS + " IN (?, ?, ?)";
+        // Without stored text or a transaction to render from there is nothing to print again
+        String selection = COLUMN_STATUS + " IN (?, ?, ?) AND (" + COLUMN_CONTENT_PREVIEW + " IS NOT NULL OR " +
+                COLUMN_TRANSACTION_ID + " IS NOT NULL)";
         String[] selectionArgs = {
                 PrintJobStatus.QUEUED.name(),
                 PrintJobStatus.FAILED.name(),
                 PrintJobStatus.COMPLETED.name()  // Allow reprinting completed jobs
         };
 
-        Cursor cursor = db.query(TABLE_PRINT_JOBS, null, selection, selectionArgs,
+        Cursor cursor = db.query(TABLE_PRINT_JOBS, PRINT_JOB_MAPPER.getColumns(), selection, selectionArgs,
                 null, null, COLUMN_CREATED_AT + " DESC");
 
-        if (cursor.moveToFirst()) {
-            do {
-                jobs.add(cursorToPrintJob(cursor));
-            } while (cursor.moveToNext());
-        }
+        jobs.addAll(PRINT_JOB_MAPPER.mapAll(cursor));
 
         cursor.close();
-        db.close();
         return jobs;
     }
 
@@ -477,16 +791,13 @@ public class PrintHistoryManager extends SQLiteOpenHelper {
         SQLiteDatabase db = this.getReadableDatabase();
         PrintJob job = null;
 
-        Cursor cursor = db.query(TABLE_PRINT_JOBS, null,
+        Cursor cursor = db.query(TABLE_PRINT_JOBS, PRINT_JOB_MAPPER.getColumns(),
                 COLUMN_JOB_ID + " = ?", new String[]{jobId},
                 null, null, null);
 
-        if (cursor.moveToFirst()) {
-            job = cursorToPrintJob(cursor);
-        }
+        job = PRINT_JOB_MAPPER.mapFirst(cursor);
 
         cursor.close();
-        db.close();
         return job;
     }
 
@@ -497,7 +808,6 @@ public class PrintHistoryManager extends SQLiteOpenHelper {
         ContentValues values = new ContentValues();
         values.put(COLUMN_RETRY_COUNT, 0);
         db.update(TABLE_PRINT_JOBS, values, COLUMN_JOB_ID + " = ?", new String[]{jobId});
-        db.close();
     }
     // Data classes
     public static class PrintJob {
@@ -515,6 +825,10 @@ public class PrintHistoryManager extends SQLiteOpenHelper {
         public int retryCount;
         public String userId;
         public String transactionId;
+        public Date enqueuedAt;
+        // ReceiptRenderer.TEMPLATE_VERSION it was first laid out with, and is reprinted with
+        // (branding is always current, see ReceiptRenderer); 0 when the text is stored.
+        public int templateVersion;
     }
 
     public static class PrinterEvent {
@@ -569,4 +883,49 @@ public class PrintHistoryManager extends SQLiteOpenHelper {
         STATUS_CHECK,
         ERROR_RECOVERED
     }
-}
\ No newline at end of file
+
+    private static class StoreStats {
+        private SQLiteDatabase lastConnection;
+        private long requests;
+        private long opens;
+        private long compiles;
+        private long reuses;
+        private long statisticsQueries;
+        private long statisticsNanos;
+        private long statisticsMaxNanos;
+
+        // A connection that differs from the last one means the shared one was closed and reopened
+        synchronized SQLiteDatabase recordConnection(SQLiteDatabase db) {
+            requests++;
+            if (db != lastConnection) {
+                opens++;
+                lastConnection = db;
+            }
+            return db;
+        }
+
+        synchronized void recordCompile() {
+            compiles++;
+        }
+
+        synchronized void recordReuse() {
+            reuses++;
+        }
+
+        synchronized void recordStatistics(long nanos) {
+            statisticsQueries++;
+            statisticsNanos += nanos;
+            statisticsMaxNanos = Math.max(statisticsMaxNanos, nanos);
+        }
+
+        @Override
+        public synchronized String toString() {
+            return String.format(Locale.US,
+                    "print history: %d connections opened for %d requests, %d statements compiled, %d reused; " +
+                            "statistics avg %.2fms, max %.2fms over %d queries",
+                    opens, requests, compiles, reuses,
+                    statisticsQueries > 0 ? statisticsNanos / 1_000_000.0 / statisticsQueries : 0.0,
+                    statisticsMaxNanos / 1_000_000.0, statisticsQueries);
+        }
+    }
+}
@@ -0,0 +1,322 @@
+package com.example.meruscrap;
+
+import android.content.Context;
+import android.os.Handler;
+import android.os.Looper;
+import android.util.Log;
+
+import java.util.Collections;
+import java.util.Locale;
+import java.util.Set;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentLinkedQueue;
+
+/**
+ * The print queue, kept in the print_jobs table so that nothing queued is lost if the app dies.
+ *
+ * A job is written as QUEUED before it is acknowledged, then handed to the print worker
+ * through a lock-free in-memory queue. The worker claims it (QUEUED to PRINTING) before
+ * sending and marks it COMPLETED once the printer has taken it. A crash in between leaves
+ * the row PRINTING, and those rows are queued again when the queue is next created, so
+ * delivery is at-least-once: an interrupted job can come out twice but is never dropped.
+ * Job ids are unique in the table and in memory, so the same id enqueued twice prints once.
+ */
+public class PrintQueue {
+    private static final String TAG = "PrintQueue";
+
+    public interface Callback {
+        // Called on the main thread once the job is stored (accepted) or found to be a duplicate
+        void onQueued(String jobId, boolean accepted);
+    }
+
+    private static PrintQueue instance;
+
+    private final PrintHistoryManager history;
+    private final Handler mainHandler = new Handler(Looper.getMainLooper());
+    private final ConcurrentLinkedQueue<BluetoothPrintManager.PrintJob> ready = new ConcurrentLinkedQueue<>();
+    // Ids waiting in ready or being printed, so a job is never in memory twice
+    private final Set<String> active = Collections.newSetFromMap(new ConcurrentHashMap<>());
+    // Told whenever jobs become ready; the print manager starts its worker from it
+    private volatile Runnable consumer;
+
+    private final LatencyStats durableLatency = new LatencyStats("enqueue to stored");
+    private final LatencyStats waitLatency = new LatencyStats("queued to started");
+    private final LatencyStats totalLatency = new LatencyStats("queued to printed");
+
+    public static synchronized PrintQueue getInstance(Context context) {
+        if (instance == null) {
+            instance = new PrintQueue(context.getApplicationContext());
+        }
+        return instance;
+    }
+
+    private PrintQueue(Context context) {
+        this.history = PrintHistoryManager.getInstance(context);
+        // Once per process: pick up whatever the previous one left queued or half printed
+        AppExecutors.get().db().execute(this::recover);
+    }
+
+    public void setConsumer(Runnable consumer) {
+        this.consumer = consumer;
+    }
+
+    public void enqueue(String jobId, BluetoothPrintManager.PrintJobType type, String content, Callback callback) {
+        PrintHistoryManager.PrintJob record = new PrintHistoryManager.PrintJob();
+        record.jobId = jobId;
+        record.jobType = toHistoryType(type);
+        record.contentPreview = content;
+        enqueue(record, callback);
+    }
+
+    /**
+     * Store a new job and queue it. Never blocks the caller: the write happens on the DB
+     * pool and the callback reports the outcome.
+     */
+    public void enqueue(PrintHistoryManager.PrintJob record, Callback callback) {
+        long enqueuedAt = System.currentTimeMillis();
+        AppExecutors.get().db().execute(() -> {
+            boolean accepted = false;
+            try {
+                accepted = history.insertQueuedJob(record, enqueuedAt);
+            } catch (Exception e) {
+                Log.e(TAG, "Error storing print job " + record.jobId, e);
+            }
+            if (accepted) {
+                durableLatency.record(System.currentTimeMillis() - enqueuedAt);
+                offer(toPrintJob(record, enqueuedAt, 0));
+            } else {
+                Log.d(TAG, "Print job " + record.jobId + " already exists, not queued again");
+            }
+            deliver(callback, record.jobId, accepted);
+        });
+    }
+
+    /**
+     * Queue a job that is already in the history (saved to print later, or failed) under
+     * its own id.
+     */
+    public void enqueueExisting(String jobId, Callback callback) {
+        long enqueuedAt = System.currentTimeMillis();
+        AppExecutors.get().db().execute(() -> {
+            boolean accepted = false;
+            try {
+                accepted = queueExisting(jobId, enqueuedAt);
+            } catch (Exception e) {
+                Log.e(TAG, "Error queueing print job " + jobId, e);
+            }
+            deliver(callback, jobId, accepted);
+        });
+    }
+
+    /**
+     * Queue a sale's receipt job (PrintHistoryManager.receiptJobId), which the journal records
+     * with the sale. Stored here first if the sale is not applied yet; printed again if it was
+     * printed before. Not queued a second time while it is still waiting in the queue.
+     */
+    public void enqueueReceipt(PrintHistoryManager.PrintJob record, Callback callback) {
+        long enqueuedAt = System.currentTimeMillis();
+        AppExecutors.get().db().execute(() -> {
+            boolean accepted = false;
+            try {
+                if (history.insertQueuedJob(record, enqueuedAt)) {
+                    durableLatency.record(System.currentTimeMillis() - enqueuedAt);
+                    offer(toPrintJob(record, enqueuedAt, 0));
+                    accepted = true;
+                } else {
+                    accepted = queueExisting(record.jobId, enqueuedAt);
+                }
+            } catch (Exception e) {
+                Log.e(TAG, "Error queueing receipt " + record.jobId, e);
+            }
+            deliver(callback, record.jobId, accepted);
+        });
+    }
+
+    // DB pool only
+    private boolean queueExisting(String jobId, long enqueuedAt) {
+        if (!history.enqueueExistingJob(jobId, enqueuedAt)) {
+            return false;
+        }
+        PrintHistoryManager.PrintJob record = history.getPrintJobById(jobId);
+        if (record == null) {
+            return false;
+        }
+        durableLatency.record(System.currentTimeMillis() - enqueuedAt);
+        offer(toPrintJob(record, enqueuedAt, 0));
+        return true;
+    }
+
+    // ---- Print worker side (print thread) ----
+
+    /**
+     * The next job to print, already marked PRINTING, or null when the queue is empty.
+     * Jobs cancelled since they were queued are dropped here.
+     */
+    public BluetoothPrintManager.PrintJob poll() {
+        BluetoothPrintManager.PrintJob job;
+        while ((job = ready.poll()) != null) {
+            if (history.claimQueuedJob(job.jobId)) {
+                waitLatency.record(System.currentTimeMillis() - job.timestamp);
+                return job;
+            }
+            active.remove(job.jobId);
+            Log.d(TAG, "Skipping print job " + job.jobId + ", no longer queued");
+        }
+        return null;
+    }
+
+    public void complete(BluetoothPrintManager.PrintJob job) {
+        history.updatePrintJobStatus(job.jobId, PrintHistoryManager.PrintJobStatus.COMPLETED, null);
+        active.remove(job.jobId);
+        totalLatency.record(System.currentTimeMillis() - job.timestamp);
+    }
+
+    // Back of the queue for another attempt
+    public void retry(BluetoothPrintManager.PrintJob job, String errorMessage) {
+        job.retryCount++;
+        history.requeueJob(job.jobId, errorMessage);
+        ready.offer(job);
+    }
+
+    public void fail(BluetoothPrintManager.PrintJob job, String errorMessage) {
+        history.updatePrintJobStatus(job.jobId, PrintHistoryManager.PrintJobStatus.FAILED, errorMessage);
+        active.remove(job.jobId);
+    }
+
+    public boolean isEmpty() {
+        return ready.isEmpty();
+    }
+
+    public int size() {
+        return ready.size();
+    }
+
+    /**
+     * Cancel every job that has not started printing.
+     */
+    public void clear() {
+        BluetoothPrintManager.PrintJob job;
+        while ((job = ready.poll()) != null) {
+            active.remove(job.jobId);
+        }
+        AppExecutors.get().db().execute(() -> {
+            int cancelled = history.cancelQueuedJobs();
+            Log.d(TAG, "Cancelled " + cancelled + " queued print jobs");
+        });
+    }
+
+    public String getStats() {
+        return durableLatency + "\n" + waitLatency + "\n" + totalLatency;
+    }
+
+    private void recover() {
+        try {
+            int interrupted = history.recoverInterruptedJobs();
+            int recovered = 0;
+            for (PrintHistoryManager.PrintJob record : history.getQueuedJobs()) {
+                if (!hasContent(record)) {
+                    continue;
+                }
+                long enqueuedAt = record.enqueuedAt != null ? record.enqueuedAt.getTime() : record.createdAt.getTime();
+                offer(toPrintJob(record, enqueuedAt, record.retryCount));
+                recovered++;
+            }
+            if (recovered > 0) {
+                Log.d(TAG, "Recovered " + recovered + " queued print jobs (" + interrupted + " interrupted mid-print)");
+            }
+        } catch (Exception e) {
+            Log.e(TAG, "Error recovering print queue", e);
+        }
+    }
+
+    private void offer(BluetoothPrintManager.PrintJob job) {
+        if (active.add(job.jobId)) {
+            ready.offer(job);
+            Runnable current = consumer;
+            if (current != null) {
+                current.run();
+            }
+        }
+    }
+
+    private void deliver(Callback callback, String jobId, boolean accepted) {
+        if (callback != null) {
+            mainHandler.post(() -> callback.onQueued(jobId, accepted));
+        }
+    }
+
+    // Stored text, or a transaction whose receipt is rendered when the job prints
+    static boolean hasContent(PrintHistoryManager.PrintJob record) {
+        return record.contentPreview != null || record.transactionId != null;
+    }
+
+    private static BluetoothPrintManager.PrintJob toPrintJob(PrintHistoryManager.PrintJob record, long enqueuedAt,
+                                                             int retryCount) {
+        BluetoothPrintManager.PrintJob job = new BluetoothPrintManager.PrintJob(record.jobId, record.contentPreview,
+                toPrintType(record.jobType));
+        if (record.contentPreview == null) {
+            job.transactionRef = record.transactionId;
+            job.templateVersion = record.templateVersion > 0 ? record.templateVersion : ReceiptRenderer.TEMPLATE_VERSION;
+        }
+        job.timestamp = enqueuedAt;
+        job.retryCount = retryCount;
+        return job;
+    }
+
+    static PrintHistoryManager.PrintJobType toHistoryType(BluetoothPrintManager.PrintJobType type) {
+        switch (type) {
+            case REPORT:
+                return PrintHistoryManager.PrintJobType.REPORT;
+            case TEST_PAGE:
+                return PrintHistoryManager.PrintJobType.TEST_PAGE;
+            case RECEIPT:
+            default:
+                return PrintHistoryManager.PrintJobType.RECEIPT;
+        }
+    }
+
+    static BluetoothPrintManager.PrintJobType toPrintType(PrintHistoryManager.PrintJobType type) {
+        if (type == null) {
+            return BluetoothPrintManager.PrintJobType.RECEIPT;
+        }
+        switch (type) {
+            case REPORT:
+                return BluetoothPrintManager.PrintJobType.REPORT;
+            case TEST_PAGE:
+                return BluetoothPrintManager.PrintJobType.TEST_PAGE;
+            case RECEIPT:
+            case LABEL:
+            case BARCODE:
+            default:
+                // Labels and barcodes print through the receipt path
+                return BluetoothPrintManager.PrintJobType.RECEIPT;
+        }
+    }
+
+    // Milliseconds between two points in a job's life, since the job was queued
+    private static class LatencyStats {
+        private final String name;
+        private long count;
+        private long totalMs;
+        private long maxMs;
+
+        LatencyStats(String name) {
+            this.name = name;
+        }
+
+        synchronized void record(long ms) {
+            count++;
+            totalMs += ms;
+            maxMs = Math.max(maxMs, ms);
+        }
+
+        @Override
+        public synchronized String toString() {
+            if (count == 0) {
+                return name + ": no jobs";
+            }
+            return String.format(Locale.US, "%s: %d jobs, avg %.0fms, max %dms",
+                    name, count, (double) totalMs / count, maxMs);
+        }
+    }
+}
@@ -11,7 +11,6 @@ import androidx.core.app.ActivityCompat;
 import java.util.ArrayList;
 import java.util.List;
 import java.util.concurrent.ExecutorService;
-import java.util.concurrent.Executors;
 
 public class PrinterDiagnosticUtility {
     private static final String TAG = "PrinterDiagnostic";
@@ -31,7 +30,8 @@ public class PrinterDiagnosticUtility {
     public PrinterDiagnosticUtility(Context context) {
         this.context = context;
         this.bluetoothAdapter = BluetoothAdapter.getDefaultAdapter();
-        this.executor = Executors.newSingleThreadExecutor();
+        // Diagnostics talk to the printer, so they queue behind print jobs rather than racing them
+        this.executor = AppExecutors.get().print();
         this.mainHandler = new Handler(Looper.getMainLooper());
     }
 
@@ -427,9 +427,8 @@ public class PrinterDiagnosticUtility {
     }
 
     public void shutdown() {
-        if (executor != null) {
-            executor.shutdown();
-        }
+        // Shared print pool outlives this utility; just stop reporting
+        listener = null;
     }
 
     // Quick diagnostic methods for common issues
@@ -2,6 +2,7 @@ package com.example.meruscrap;
 
 import android.content.Context;
 import android.content.SharedPreferences;
+import java.util.Arrays;
 import java.util.HashSet;
 import java.util.Set;
 
@@ -24,6 +25,14 @@ public class PrinterPreferencesManager {
     private static final String KEY_FONT_SIZE = "font_size";
     private static final String KEY_TRUSTED_DEVICES = "trusted_devices";
     private static final String KEY_DEBUG_PRINTING = "debug_printing";
+    // Followed by the printer address; see AdaptiveChunkWriter
+    private static final String KEY_LINK_PROFILE_PREFIX = "link_profile_";
+
+    // Settings that change what a receipt looks like; see ReceiptTemplateCompiler
+    private static final Set<String> RECEIPT_LAYOUT_KEYS = new HashSet<>(Arrays.asList(
+            KEY_PRINT_HEADER, KEY_PRINT_FOOTER, KEY_BUSINESS_NAME, KEY_BUSINESS_ADDRESS,
+            KEY_BUSINESS_PHONE, KEY_RECEIPT_WIDTH, KEY_PRINT_QR_CODE, KEY_AUTO_CUT,
+            KEY_DRAWER_KICK, KEY_FONT_SIZE));
 
     private SharedPreferences prefs;
     private Context context;
@@ -33,6 +42,15 @@ public class PrinterPreferencesManager {
         this.prefs = context.getSharedPreferences(PREF_NAME, Context.MODE_PRIVATE);
     }
 
+    public SharedPreferences getSharedPreferences() {
+        return prefs;
+    }
+
+    // A null key means the file was cleared, which changes everything
+    static boolean affectsReceiptLayout(String key) {
+        return key == null || RECEIPT_LAYOUT_KEYS.contains(key);
+    }
+
     // Saved printer settings
     public void savePrinterDevice(String address, String name) {
         prefs.edit()
@@ -191,6 +209,37 @@ public class PrinterPreferencesManager {
         return getTrustedDevices().contains(address);
     }
 
+    // Link tuning learned per printer
+    public void saveLinkProfile(String address, LinkProfile profile) {
+        if (address == null) {
+            return;
+        }
+        prefs.edit().putString(KEY_LINK_PROFILE_PREFIX + address,
+                profile.chunkSize + "," + profile.bytesPerSecond + "," + profile.measuredBytesPerSecond).apply();
+    }
+
+    // Null if nothing has been learned for this printer yet
+    public LinkProfile getLinkProfile(String address) {
+        String value = address != null ? prefs.getString(KEY_LINK_PROFILE_PREFIX + address, null) : null;
+        if (value == null) {
+            return null;
+        }
+        try {
+            String[] parts = value.split(",");
+            LinkProfile profile = new LinkProfile();
+            profile.chunkSize = Integer.parseInt(parts[0]);
+            profile.bytesPerSecond = Integer.parseInt(parts[1]);
+            profile.measuredBytesPerSecond = Integer.parseInt(parts[2]);
+            return profile;
+        } catch (RuntimeException e) {
+            return null;
+        }
+    }
+
+    public void clearLinkProfile(String address) {
+        prefs.edit().remove(KEY_LINK_PROFILE_PREFIX + address).apply();
+    }
+
     // Debug settings
     public void setDebugPrinting(boolean enabled) {
         prefs.edit().putBoolean(KEY_DEBUG_PRINTING, enabled).apply();
@@ -240,6 +289,19 @@ public class PrinterPreferencesManager {
         return settings;
     }
 
+    // Write sizing and pacing for one printer's Bluetooth link
+    public static class LinkProfile {
+        public int chunkSize;
+        public int bytesPerSecond;
+        public int measuredBytesPerSecond;
+
+        @Override
+        public String toString() {
+            return chunkSize + " B chunks at " + bytesPerSecond + " B/s (link measured " +
+                    measuredBytesPerSecond + " B/s)";
+        }
+    }
+
     // Data class for all settings
     public static class PrinterSettings {
         public String savedPrinterAddress;
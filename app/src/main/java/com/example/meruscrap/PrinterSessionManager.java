@@ -0,0 +1,259 @@
+package com.example.meruscrap;
+
+import android.bluetooth.BluetoothAdapter;
+import android.bluetooth.BluetoothDevice;
+import android.content.Context;
+import android.util.Log;
+
+import java.io.IOException;
+import java.util.Locale;
+import java.util.concurrent.ScheduledFuture;
+
+/**
+ * Keeps the saved printer connected for the life of the process, so the first receipt of a
+ * session does not wait for the RFCOMM connection to open.
+ *
+ * At startup the session connects, on the print pool, to the printer saved in
+ * PrinterPreferencesManager. While connected, BluetoothPrintManager probes the printer's
+ * real-time status every few seconds, which keeps the link warm and finds a dead link before
+ * a receipt does. When the link drops (failed write or probe, or the system reporting the
+ * ACL link down) the session reconnects in the background: at once, then backing off from 1s
+ * to 30s while the printer stays out of reach. Only close() stops it.
+ */
+public class PrinterSessionManager implements BluetoothPrintManager.LinkListener {
+    private static final String TAG = "PrinterSessionManager";
+
+    private static final long RECONNECT_MIN_MS = 1000;
+    private static final long RECONNECT_MAX_MS = 30000;
+
+    private static PrinterSessionManager instance;
+
+    private final Context context;
+    private final PrinterPreferencesManager preferences;
+    private final BluetoothPrintManager printManager;
+    private final SessionStats stats = new SessionStats();
+
+    // The printer the session keeps connected, null once closed; all guarded by this
+    private String targetAddress;
+    private boolean connecting;
+    private int failedAttempts;
+    private ScheduledFuture<?> reconnectTask;
+
+    public static synchronized PrinterSessionManager getInstance(Context context) {
+        if (instance == null) {
+            instance = new PrinterSessionManager(context.getApplicationContext());
+        }
+        return instance;
+    }
+
+    private PrinterSessionManager(Context context) {
+        this.context = context;
+        this.preferences = new PrinterPreferencesManager(context);
+        this.printManager = new BluetoothPrintManager(context);
+        printManager.setLinkListener(this);
+    }
+
+    public BluetoothPrintManager getPrintManager() {
+        return printManager;
+    }
+
+    /**
+     * Connect to the saved printer in the background, if auto-connect is on and the session
+     * is not already keeping a printer connected. Safe to call more than once.
+     */
+    public void start() {
+        AppExecutors.get().print().execute(() -> {
+            String address = preferences.getSavedPrinterAddress();
+            if (address == null || !preferences.isAutoConnectEnabled()) {
+                return;
+            }
+            synchronized (this) {
+                if (targetAddress == null) {
+                    Log.d(TAG, "Pre-connecting to saved printer " + address);
+                    open(address);
+                }
+            }
+        });
+    }
+
+    /**
+     * Connect to this printer now and keep it connected, replacing any other. Does nothing
+     * more if it is already connected or connecting.
+     */
+    public synchronized void open(String address) {
+        targetAddress = address;
+        failedAttempts = 0;
+        cancelReconnect();
+        connect();
+    }
+
+    public void open(BluetoothDevice device) {
+        open(device.getAddress());
+    }
+
+    /**
+     * Disconnect and stop reconnecting, until the next open() or start().
+     */
+    public synchronized void close() {
+        targetAddress = null;
+        failedAttempts = 0;
+        cancelReconnect();
+        printManager.disconnect();
+    }
+
+    // The system reported the link to this device down
+    public synchronized void onLinkDropped(String address) {
+        if (address.equals(targetAddress) && printManager.isConnected()) {
+            printManager.dropConnection("ACL link down");
+        }
+    }
+
+    // Jobs queued while this is true print as soon as the link is back
+    public synchronized boolean isConnecting() {
+        return targetAddress != null && !printManager.isConnected();
+    }
+
+    public String getStats() {
+        return stats.toString();
+    }
+
+    @Override
+    public synchronized void onLinkUp(BluetoothDevice device, long connectMs) {
+        connecting = false;
+        failedAttempts = 0;
+        stats.recordConnect(connectMs);
+        if (targetAddress == null) {
+            // Closed while the connection was opening
+            printManager.disconnect();
+        } else if (!targetAddress.equals(device.getAddress())) {
+            // Another printer was chosen while this one was connecting
+            connect();
+        }
+    }
+
+    @Override
+    public synchronized void onLinkLost(BluetoothDevice device, IOException cause) {
+        stats.recordDrop();
+        failedAttempts = 0;
+        scheduleReconnect();
+    }
+
+    @Override
+    public synchronized void onConnectFailed(BluetoothDevice device, Exception cause) {
+        connecting = false;
+        stats.recordFailure();
+        if (cause instanceof SecurityException) {
+            // No Bluetooth permission; the next start() or open() tries again
+            Log.w(TAG, "Not allowed to connect to the printer, stopping reconnects");
+            targetAddress = null;
+            return;
+        }
+        if (targetAddress != null && targetAddress.equals(device.getAddress())) {
+            failedAttempts++;
+        }
+        scheduleReconnect();
+    }
+
+    @Override
+    public void onJobWaitedForLink(long waitMs) {
+        stats.recordJobWait(waitMs);
+    }
+
+    private synchronized void connect() {
+        reconnectTask = null;
+        if (targetAddress == null || connecting) {
+            return;
+        }
+        BluetoothDevice connected = printManager.getConnectedDevice();
+        if (printManager.isConnected() && connected != null && targetAddress.equals(connected.getAddress())) {
+            return;
+        }
+
+        BluetoothAdapter adapter = BluetoothAdapter.getDefaultAdapter();
+        if (adapter == null) {
+            Log.w(TAG, "Bluetooth not supported, not connecting to the printer");
+            return;
+        }
+        if (!adapter.isEnabled() || !PermissionManager.hasAllRequiredPermissions(context)) {
+            Log.d(TAG, "Bluetooth off or not permitted, trying the printer again later");
+            failedAttempts++;
+            scheduleReconnect();
+            return;
+        }
+        try {
+            BluetoothDevice device = adapter.getRemoteDevice(targetAddress);
+            connecting = true;
+            stats.recordAttempt();
+            printManager.connect(device);
+        } catch (IllegalArgumentException e) {
+            Log.e(TAG, "Invalid printer address " + targetAddress, e);
+            targetAddress = null;
+        }
+    }
+
+    private void scheduleReconnect() {
+        if (targetAddress == null || reconnectTask != null) {
+            return;
+        }
+        long delay = failedAttempts == 0 ? 0
+                : Math.min(RECONNECT_MAX_MS, RECONNECT_MIN_MS << Math.min(failedAttempts - 1, 5));
+        Log.d(TAG, "Reconnecting to " + targetAddress + " in " + delay + "ms");
+        reconnectTask = AppExecutors.get().schedule(AppExecutors.Pool.PRINT, this::connect, delay);
+    }
+
+    private void cancelReconnect() {
+        if (reconnectTask != null) {
+            reconnectTask.cancel(false);
+            reconnectTask = null;
+        }
+    }
+
+    // Time to a ready printer per connection, and how long jobs waited for one
+    private static class SessionStats {
+        private long attempts;
+        private long connects;
+        private long failures;
+        private long drops;
+        private long totalConnectMs;
+        private long maxConnectMs;
+        private long lastConnectMs;
+        private long waitedJobs;
+        private long totalWaitMs;
+        private long maxWaitMs;
+
+        synchronized void recordAttempt() {
+            attempts++;
+        }
+
+        synchronized void recordConnect(long ms) {
+            connects++;
+            totalConnectMs += ms;
+            maxConnectMs = Math.max(maxConnectMs, ms);
+            lastConnectMs = ms;
+        }
+
+        synchronized void recordFailure() {
+            failures++;
+        }
+
+        synchronized void recordDrop() {
+            drops++;
+        }
+
+        synchronized void recordJobWait(long ms) {
+            waitedJobs++;
+            totalWaitMs += ms;
+            maxWaitMs = Math.max(maxWaitMs, ms);
+        }
+
+        @Override
+        public synchronized String toString() {
+            return String.format(Locale.US,
+                    "session: %d connects of %d attempts (%d failed, %d drops), connect avg %.0fms, max %dms, last %dms; " +
+                            "%d jobs waited for the connection, avg %.0fms, max %dms",
+                    connects, attempts, failures, drops,
+                    connects > 0 ? (double) totalConnectMs / connects : 0.0, maxConnectMs, lastConnectMs,
+                    waitedJobs, waitedJobs > 0 ? (double) totalWaitMs / waitedJobs : 0.0, maxWaitMs);
+        }
+    }
+}
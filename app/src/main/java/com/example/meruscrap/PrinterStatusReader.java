@@ -0,0 +1,234 @@
+package com.example.meruscrap;
+
+import android.util.Log;
+
+import java.io.IOException;
+import java.io.InputStream;
+import java.util.ArrayDeque;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Reads everything the printer sends back, on a thread of its own, and keeps the latest
+ * status from it.
+ *
+ * ESC/POS status replies are single bytes that do not say which query they answer, so the
+ * writer registers each query with expect() just before sending it and replies are matched
+ * to queries in order. Each kind of reply also has fixed bits (DLE EOT replies are 0xx1xx10,
+ * GS r replies 0xx0xxxx); a byte that does not fit the query at the head is dropped as stray
+ * instead of shifting every later reply. The reader never writes, so status keeps coming in
+ * while a job is being sent, and nothing waits for a read on the print thread.
+ */
+class PrinterStatusReader implements Runnable {
+    private static final String TAG = "PrinterStatusReader";
+
+    // Queries a printer that stopped answering can leave behind before they are dropped
+    private static final int MAX_PENDING = 16;
+
+    enum Query {
+        OFFLINE(new byte[]{0x10, 0x04, 0x02}),
+        ERROR(new byte[]{0x10, 0x04, 0x03}),
+        PAPER(new byte[]{0x10, 0x04, 0x04}),
+        // Answered in order with the print data, so the reply means everything before it was processed
+        PROCESSED(new byte[]{0x1D, 0x72, 0x01});
+
+        final byte[] command;
+
+        Query(byte[] command) {
+            this.command = command;
+        }
+
+        boolean matches(int reply) {
+            return this == PROCESSED ? (reply & 0x90) == 0 : (reply & 0x93) == 0x12;
+        }
+    }
+
+    interface Listener {
+        // On the reader thread, whenever a complete set of replies gives a different status
+        void onStatusChanged(PrinterStatusReader reader, BluetoothPrintManager.PrinterStatus status);
+
+        // The stream ended or failed while the reader was open, i.e. the link is gone
+        void onReaderFailed(PrinterStatusReader reader, IOException cause);
+    }
+
+    private final InputStream in;
+    private final Listener listener;
+    private volatile boolean closed;
+
+    // All guarded by this
+    private final ArrayDeque<Query> pending = new ArrayDeque<>();
+    private int offline = -1;
+    private int error = -1;
+    private int paper = -1;
+    private long statusCount;
+    private long processedCount;
+    private long strayBytes;
+    private volatile BluetoothPrintManager.PrinterStatus status;
+
+    PrinterStatusReader(InputStream in, Listener listener) {
+        this.in = in;
+        this.listener = listener;
+    }
+
+    void start() {
+        Thread thread = new Thread(this, "printer-status");
+        thread.setDaemon(true);
+        thread.start();
+    }
+
+    // Before the socket is closed, so the read that fails then is not taken for a dropped link
+    void close() {
+        closed = true;
+        synchronized (this) {
+            pending.clear();
+            notifyAll();
+        }
+    }
+
+    synchronized void expect(Query query) {
+        if (pending.size() >= MAX_PENDING) {
+            Log.w(TAG, "Printer left " + pending.size() + " queries unanswered, dropping them");
+            pending.clear();
+        }
+        pending.add(query);
+    }
+
+    // Forget queries that went unanswered, so a late reply is not matched to the next one
+    synchronized void resync() {
+        pending.clear();
+    }
+
+    synchronized long getProcessedCount() {
+        return processedCount;
+    }
+
+    synchronized long getStatusCount() {
+        return statusCount;
+    }
+
+    // Latest status, or null until the printer has answered a full status query
+    BluetoothPrintManager.PrinterStatus getStatus() {
+        return status;
+    }
+
+    /**
+     * Wait for a PROCESSED reply beyond the given count. False at the deadline or when the
+     * reader is closed.
+     */
+    synchronized boolean awaitProcessed(long since, long deadlineNanos) throws InterruptedException {
+        while (processedCount <= since) {
+            if (!awaitChange(deadlineNanos)) {
+                return false;
+            }
+        }
+        return true;
+    }
+
+    /**
+     * Wait for a status beyond the given count and return it; null at the deadline or when
+     * the reader is closed.
+     */
+    synchronized BluetoothPrintManager.PrinterStatus awaitStatus(long since, long deadlineNanos)
+            throws InterruptedException {
+        while (statusCount <= since) {
+            if (!awaitChange(deadlineNanos)) {
+                return null;
+            }
+        }
+        return status;
+    }
+
+    @Override
+    public void run() {
+        try {
+            int b;
+            while (!closed && (b = in.read()) >= 0) {
+                onReply(b);
+            }
+            if (!closed) {
+                throw new IOException("Printer closed the connection");
+            }
+        } catch (IOException e) {
+            if (!closed) {
+                Log.w(TAG, "Status reader stopped", e);
+                listener.onReaderFailed(this, e);
+            }
+        } finally {
+            closed = true;
+            synchronized (this) {
+                notifyAll();
+            }
+            Log.d(TAG, "Status reader done, " + strayBytes + " stray bytes");
+        }
+    }
+
+    private void onReply(int reply) {
+        BluetoothPrintManager.PrinterStatus changed = null;
+        synchronized (this) {
+            Query query = pending.peek();
+            if (query == null || !query.matches(reply)) {
+                strayBytes++;
+                return;
+            }
+            pending.poll();
+            switch (query) {
+                case OFFLINE:
+                    offline = reply;
+                    break;
+                case ERROR:
+                    error = reply;
+                    break;
+                case PAPER:
+                    // Last of the three, which are always sent together
+                    paper = reply;
+                    if (offline >= 0 && error >= 0) {
+                        BluetoothPrintManager.PrinterStatus current = interpretStatus(offline, error, paper);
+                        if (current != status) {
+                            changed = current;
+                        }
+                        status = current;
+                        statusCount++;
+                    }
+                    break;
+                case PROCESSED:
+                    processedCount++;
+                    break;
+            }
+            notifyAll();
+        }
+        if (changed != null) {
+            listener.onStatusChanged(this, changed);
+        }
+    }
+
+    // Caller holds the lock; false once the deadline passed or the reader closed
+    private boolean awaitChange(long deadlineNanos) throws InterruptedException {
+        long remaining = deadlineNanos - System.nanoTime();
+        if (closed || remaining <= 0) {
+            return false;
+        }
+        TimeUnit.NANOSECONDS.timedWait(this, remaining);
+        return true;
+    }
+
+    // Bits per the ESC/POS DLE EOT n=2 (offline), n=3 (error) and n=4 (paper roll) replies
+    static BluetoothPrintManager.PrinterStatus interpretStatus(int offline, int error, int paper) {
+        if ((paper & 0x60) != 0 || (offline & 0x20) != 0) {
+            return BluetoothPrintManager.PrinterStatus.NO_PAPER;
+        }
+        if ((offline & 0x04) != 0) {
+            return BluetoothPrintManager.PrinterStatus.COVER_OPEN;
+        }
+        if ((error & 0x08) != 0) {
+            // Auto-cutter error, usually paper caught in the cutter
+            return BluetoothPrintManager.PrinterStatus.PAPER_JAM;
+        }
+        if ((error & 0x40) != 0) {
+            // Auto-recoverable error, e.g. print head too hot
+            return BluetoothPrintManager.PrinterStatus.OVERHEATED;
+        }
+        if ((error & 0x24) != 0 || (offline & 0x40) != 0) {
+            return BluetoothPrintManager.PrinterStatus.UNKNOWN_ERROR;
+        }
+        return BluetoothPrintManager.PrinterStatus.ONLINE;
+    }
+}
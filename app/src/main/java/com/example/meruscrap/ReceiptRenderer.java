@@ -0,0 +1,306 @@
+package com.example.meruscrap;
+
+import android.content.Context;
+import android.util.Log;
+
+import java.text.DecimalFormat;
+import java.util.ArrayList;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Locale;
+import java.util.Map;
+
+/**
+ * Receipt text for a transaction, rendered from its rows in TransactionsDBHelper.
+ *
+ * Print jobs and receipts saved to print later keep only the transaction ref and the
+ * TEMPLATE_VERSION they were laid out with; the text is rendered again whenever it is printed
+ * or shown. The last CACHE_SIZE receipts are kept, so printing a sale just made, or printing
+ * the same receipt twice, does not go back to the database. A cached receipt is only reused
+ * while the branding (ReceiptTemplateCompiler) it was rendered with is current.
+ *
+ * The body is laid out by the renderer for the receipt's stored version, so a reprint lists the
+ * sale the way it was first printed even after TEMPLATE_VERSION has moved on. The branding is
+ * always the current one: header and footer (business name, address, header/footer switches)
+ * and paper width come from the printer settings at the time it is printed.
+ */
+public class ReceiptRenderer {
+    private static final String TAG = "ReceiptRenderer";
+
+    // Layout of the receipt body for new receipts. To change what it prints, add a renderer for
+    // the next version to render(int, ...) and bump this; keep the old one for stored receipts.
+    public static final int TEMPLATE_VERSION = 1;
+
+    private static final int CACHE_SIZE = 16;
+    // Marks a receipt saved to print later as a ref rather than legacy receipt text
+    private static final String STORED_REF_PREFIX = "receipt-ref:";
+
+    private static final DecimalFormat WEIGHT_FORMAT = new DecimalFormat("0.00");
+    private static final DecimalFormat CURRENCY_FORMAT = new DecimalFormat("KSH #,##0.00");
+
+    private static ReceiptRenderer instance;
+
+    private final TransactionsDBHelper transactions;
+    private final ReceiptTemplateCompiler templates;
+    // Access order, so the eldest entry is the least recently used; guarded by itself
+    private final Map<String, CachedReceipt> cache = new LinkedHashMap<String, CachedReceipt>(CACHE_SIZE, 0.75f, true) {
+        @Override
+        protected boolean removeEldestEntry(Map.Entry<String, CachedReceipt> eldest) {
+            return size() > CACHE_SIZE;
+        }
+    };
+    private final ReceiptStats stats = new ReceiptStats();
+
+    public static synchronized ReceiptRenderer getInstance(Context context) {
+        if (instance == null) {
+            instance = new ReceiptRenderer(context.getApplicationContext());
+        }
+        return instance;
+    }
+
+    private ReceiptRenderer(Context context) {
+        this.transactions = TransactionsDBHelper.getInstance(context);
+        this.templates = ReceiptTemplateCompiler.getInstance(context);
+    }
+
+    /**
+     * Render a transaction that is still in memory, e.g. one just confirmed whose rows may
+     * not be written yet, and keep the text so printing it needs no database read.
+     */
+    public String render(Transaction transaction, List<TransactionItem> items) {
+        ReceiptTemplateCompiler.CompiledReceipt template = templates.get();
+        long start = System.nanoTime();
+        String text = render(TEMPLATE_VERSION, template, transaction, items);
+        stats.recordRender(System.nanoTime() - start);
+        put(transaction.getTransactionId(), TEMPLATE_VERSION, template, text);
+        return text;
+    }
+
+    /**
+     * Receipt text for a stored transaction ref, from the cache or rendered from the
+     * transaction's rows (hot tables or archive) with the body layout of templateVersion and
+     * the current branding. Null if there is no such transaction.
+     * Reads the database on a miss, so not on the main thread.
+     */
+    public String getReceipt(String transactionRef, int templateVersion) {
+        ReceiptTemplateCompiler.CompiledReceipt template = templates.get();
+        synchronized (cache) {
+            CachedReceipt cached = cache.get(transactionRef);
+            if (cached != null && cached.template == template && cached.templateVersion == templateVersion) {
+                stats.recordHit();
+                return cached.text;
+            }
+        }
+        stats.recordMiss();
+
+        long start = System.nanoTime();
+        Transaction transaction = transactions.getTransactionByRef(transactionRef);
+        if (transaction == null) {
+            Log.w(TAG, "No transaction " + transactionRef + " to render a receipt from");
+            return null;
+        }
+        String text = render(templateVersion, template, transaction, transaction.getItems());
+        stats.recordRender(System.nanoTime() - start);
+        put(transactionRef, templateVersion, template, text);
+        return text;
+    }
+
+    /**
+     * Text of a print history job: re-rendered from its transaction when it has one, else the
+     * receipt text stored with older jobs. Null when there is neither.
+     */
+    public String getReceipt(PrintHistoryManager.PrintJob job) {
+        if (job.transactionId != null) {
+            String text = getReceipt(job.transactionId,
+                    job.templateVersion > 0 ? job.templateVersion : TEMPLATE_VERSION);
+            if (text != null) {
+                return text;
+            }
+        }
+        return job.contentPreview;
+    }
+
+    public String getStats() {
+        return stats.toString();
+    }
+
+    // Keyed by ref: a receipt is printed with the one version it was stored with
+    private void put(String transactionRef, int templateVersion, ReceiptTemplateCompiler.CompiledReceipt template,
+                     String text) {
+        synchronized (cache) {
+            cache.put(transactionRef, new CachedReceipt(templateVersion, template, text));
+        }
+    }
+
+    /**
+     * The receipt with the body layout of templateVersion. A version this build does not know
+     * (stored by a newer one, e.g. restored from its backup) gets the current layout.
+     */
+    static String render(int templateVersion, ReceiptTemplateCompiler.CompiledReceipt template,
+                         Transaction transaction, List<TransactionItem> items) {
+        switch (templateVersion) {
+            case 1:
+                return renderV1(template, transaction, items);
+            default:
+                Log.w(TAG, "Unknown receipt version " + templateVersion + " for " +
+                        transaction.getTransactionId() + ", using version " + TEMPLATE_VERSION);
+                return render(TEMPLATE_VERSION, template, transaction, items);
+        }
+    }
+
+    /**
+     * Version 1: header, materials with weight, price and value, totals and footer.
+     * Items of the same material are shown as one line.
+     */
+    private static synchronized String renderV1(ReceiptTemplateCompiler.CompiledReceipt template,
+                                                Transaction transaction, List<TransactionItem> items) {
+        StringBuilder receipt = new StringBuilder(512);
+
+        // Header with business info
+        receipt.append(template.getTextHeader());
+
+        // Date and transaction info
+        receipt.append("Date: ").append(template.formatDate(transaction.getTimestamp())).append("\n");
+        receipt.append("Transaction: ").append(transaction.getTransactionId()).append("\n");
+        if (items != null && !items.isEmpty()) {
+            receipt.append("Materials: ").append(items.size()).append("\n");
+        }
+        receipt.append(template.getTextDoubleSeparator());
+
+        // Materials section
+        receipt.append("MATERIALS:\n");
+        receipt.append(template.getTextSeparator());
+
+        // Name column takes what the weight column (" 12345.67 kg") leaves of the paper width
+        int nameWidth = Math.max(8, template.getWidth() - 17);
+        for (MaterialLine line : groupByMaterial(items)) {
+            ReceiptTemplateCompiler.padRight(receipt, truncate(line.name, nameWidth), nameWidth).append(' ');
+            ReceiptTemplateCompiler.padLeft(receipt, WEIGHT_FORMAT.format(FixedPoint.fromGrams(line.weightGrams)), 8)
+                    .append(" kg\n");
+            receipt.append("  @ ").append(CURRENCY_FORMAT.format(FixedPoint.fromCents(line.pricePerKgCents))
+                            .replace("KSH ", ""))
+                    .append("/kg = ").append(CURRENCY_FORMAT.format(FixedPoint.fromCents(line.valueCents))).append("\n");
+            receipt.append("\n");
+        }
+
+        receipt.append(template.getTextSeparator());
+        receipt.append("TOTAL WEIGHT: ");
+        ReceiptTemplateCompiler.padLeft(receipt, WEIGHT_FORMAT.format(transaction.getTotalWeight()), 10).append(" kg\n");
+        receipt.append("TOTAL VALUE:  ").append(CURRENCY_FORMAT.format(transaction.getTotalValue())).append("\n");
+        receipt.append(template.getTextFooter());
+
+        return receipt.toString();
+    }
+
+    // Weighings of the same material summed, in the order the materials were first weighed
+    private static List<MaterialLine> groupByMaterial(List<TransactionItem> items) {
+        Map<String, MaterialLine> lines = new LinkedHashMap<>();
+        if (items != null) {
+            for (TransactionItem item : items) {
+                String name = item.getMaterialName() != null ? item.getMaterialName() : "";
+                MaterialLine line = lines.get(name);
+                if (line == null) {
+                    line = new MaterialLine(name, item.getPricePerKgCents());
+                    lines.put(name, line);
+                }
+                line.weightGrams += item.getWeightGrams();
+                line.valueCents += item.getTotalValueCents();
+            }
+        }
+        return new ArrayList<>(lines.values());
+    }
+
+    private static String truncate(String text, int maxLength) {
+        return text.length() <= maxLength ? text : text.substring(0, maxLength - 3) + "...";
+    }
+
+    private static class MaterialLine {
+        final String name;
+        final long pricePerKgCents;
+        long weightGrams;
+        long valueCents;
+
+        MaterialLine(String name, long pricePerKgCents) {
+            this.name = name;
+            this.pricePerKgCents = pricePerKgCents;
+        }
+    }
+
+    private static class CachedReceipt {
+        final int templateVersion;
+        final ReceiptTemplateCompiler.CompiledReceipt template;
+        final String text;
+
+        CachedReceipt(int templateVersion, ReceiptTemplateCompiler.CompiledReceipt template, String text) {
+            this.templateVersion = templateVersion;
+            this.template = template;
+            this.text = text;
+        }
+    }
+
+    /**
+     * A receipt saved to print later, as stored in the pending_receipts preferences:
+     * the transaction ref and template version instead of the receipt text.
+     */
+    public static class ReceiptRef {
+        public final String transactionRef;
+        public final int templateVersion;
+
+        public ReceiptRef(String transactionRef, int templateVersion) {
+            this.transactionRef = transactionRef;
+            this.templateVersion = templateVersion;
+        }
+
+        public static String format(String transactionRef) {
+            return STORED_REF_PREFIX + TEMPLATE_VERSION + ":" + transactionRef;
+        }
+
+        // Null for values saved by older versions, which hold the receipt text itself
+        public static ReceiptRef parse(String stored) {
+            if (stored == null || !stored.startsWith(STORED_REF_PREFIX)) {
+                return null;
+            }
+            int separator = stored.indexOf(':', STORED_REF_PREFIX.length());
+            if (separator < 0) {
+                return null;
+            }
+            try {
+                int version = Integer.parseInt(stored.substring(STORED_REF_PREFIX.length(), separator));
+                return new ReceiptRef(stored.substring(separator + 1), version);
+            } catch (NumberFormatException e) {
+                return null;
+            }
+        }
+    }
+
+    // Cache hits against renders, and what a render costs
+    private static class ReceiptStats {
+        private long hits;
+        private long misses;
+        private long renders;
+        private long totalRenderNanos;
+        private long maxRenderNanos;
+
+        synchronized void recordHit() {
+            hits++;
+        }
+
+        synchronized void recordMiss() {
+            misses++;
+        }
+
+        synchronized void recordRender(long nanos) {
+            renders++;
+            totalRenderNanos += nanos;
+            maxRenderNanos = Math.max(maxRenderNanos, nanos);
+        }
+
+        @Override
+        public synchronized String toString() {
+            return String.format(Locale.US,
+                    "receipts: %d cache hits, %d misses; %d renders, avg %.2fms, max %.2fms",
+                    hits, misses, renders, renders > 0 ? totalRenderNanos / 1_000_000.0 / renders : 0.0,
+                    maxRenderNanos / 1_000_000.0);
+        }
+    }
+}
@@ -0,0 +1,627 @@
+package com.example.meruscrap;
+
+import android.content.Context;
+import android.content.SharedPreferences;
+import android.os.Debug;
+import android.util.Log;
+
+import java.io.OutputStream;
+import java.nio.charset.StandardCharsets;
+import java.text.SimpleDateFormat;
+import java.util.ArrayList;
+import java.util.Date;
+import java.util.Locale;
+
+/**
+ * Receipt layouts compiled from the printer preferences.
+ *
+ * Everything on a receipt that is the same for every transaction - business name, address
+ * and phone, separators sized to the paper width, column headings, footer, font, cut and
+ * drawer commands - is encoded once into byte segments. Rendering a receipt copies those
+ * segments into the job buffer and fills the slots between them (date, receipt number, item
+ * lines, totals), writing numbers directly as bytes. The compiled layout is kept until one of
+ * the settings it was built from changes.
+ */
+public class ReceiptTemplateCompiler {
+    private static final String TAG = "ReceiptTemplateCompiler";
+
+    private static ReceiptTemplateCompiler instance;
+    private static CompiledReceipt defaults;
+
+    private final PrinterPreferencesManager preferences;
+    // SharedPreferences only holds listeners weakly, so this one is kept here
+    private final SharedPreferences.OnSharedPreferenceChangeListener preferenceListener = (prefs, key) -> {
+        if (PrinterPreferencesManager.affectsReceiptLayout(key)) {
+            invalidate();
+        }
+    };
+    private volatile CompiledReceipt compiled;
+
+    public static synchronized ReceiptTemplateCompiler getInstance(Context context) {
+        if (instance == null) {
+            instance = new ReceiptTemplateCompiler(context.getApplicationContext());
+        }
+        return instance;
+    }
+
+    private ReceiptTemplateCompiler(Context context) {
+        this.preferences = new PrinterPreferencesManager(context);
+        preferences.getSharedPreferences().registerOnSharedPreferenceChangeListener(preferenceListener);
+    }
+
+    /**
+     * The layout for the current settings, compiled on first use after a change.
+     */
+    public CompiledReceipt get() {
+        CompiledReceipt current = compiled;
+        if (current == null) {
+            synchronized (this) {
+                current = compiled;
+                if (current == null) {
+                    long start = System.nanoTime();
+                    current = compile(preferences.getAllSettings());
+                    compiled = current;
+                    Log.d(TAG, "Compiled receipt template in " + (System.nanoTime() - start) / 1000 + "us");
+                }
+            }
+        }
+        return current;
+    }
+
+    /**
+     * Drop the compiled layout. Takes the same lock as compiling, so a compile that read the
+     * settings before they changed is always published before this clears it, never after.
+     */
+    public synchronized void invalidate() {
+        compiled = null;
+        Log.d(TAG, "Receipt template invalidated");
+    }
+
+    public static CompiledReceipt compile(PrinterPreferencesManager.PrinterSettings settings) {
+        return new CompiledReceipt(settings);
+    }
+
+    /**
+     * The layout for the default settings, for callers without a Context.
+     */
+    public static synchronized CompiledReceipt defaults() {
+        if (defaults == null) {
+            PrinterPreferencesManager.PrinterSettings settings = new PrinterPreferencesManager.PrinterSettings();
+            settings.printHeader = true;
+            settings.printFooter = true;
+            settings.businessName = "Meru Scrap Metal Market";
+            settings.businessAddress = "Meru County, Kenya";
+            settings.businessPhone = "+254 XXX XXX XXX";
+            settings.receiptWidth = 32;
+            settings.printQRCode = true;
+            settings.autoCut = true;
+            settings.drawerKick = false;
+            settings.fontSize = PrinterPreferencesManager.FontSize.NORMAL;
+            defaults = compile(settings);
+        }
+        return defaults;
+    }
+
+    /**
+     * A compiled layout. The segments are immutable, so one instance can be shared by the
+     * print thread and the UI; only the date cache is guarded.
+     */
+    public static final class CompiledReceipt {
+        private static final byte[] RECEIPT_NO = ascii("Receipt No:");
+        private static final byte[] DATE = ascii("Date:");
+        private static final byte[] TIME = ascii("Time:");
+        private static final byte[] CASHIER = ascii("Cashier:");
+        private static final byte[] NAME = ascii("Name:");
+        private static final byte[] PHONE = ascii("Phone:");
+        private static final byte[] ID_NO = ascii("ID No:");
+        private static final byte[] TOTAL_WEIGHT = ascii("TOTAL WEIGHT:");
+        private static final byte[] PAYMENT_METHOD = ascii("Payment Method:");
+        private static final byte[] AMOUNT_PAID = ascii("Amount Paid:");
+        private static final byte[] CHANGE = ascii("Change:");
+        private static final byte[] KSH = ascii("KSh ");
+        private static final byte[] KG = ascii(" kg");
+        private static final byte[] KG_AT_KSH = ascii(" kg @ KSh ");
+        private static final byte[] PER_KG = ascii("/kg");
+        private static final byte[] QR_PRINT = {0x1D, 0x28, 0x6B, 0x03, 0x00, 0x31, 0x51, 0x30};
+
+        private final int width;
+        private final boolean printQRCode;
+
+        // Printer jobs built from pre-formatted text (BluetoothPrintManager receipts)
+        private final byte[] jobHeader;
+        private final byte[] jobFooter;
+        private final byte[] jobEnd;
+
+        // Business receipts (ESCPOSCommands.ReceiptTemplate)
+        private final byte[] businessHeader;
+        private final byte[] customerHeader;
+        private final byte[] itemsHeader;
+        private final byte[] separator;
+        private final byte[] totalAmountStart;
+        private final byte[] qrStart;
+        private final byte[] receiptEnd;
+
+        // Plain-text receipts (Transactions)
+        private final String textHeader;
+        private final String textSeparator;
+        private final String textDoubleSeparator;
+        private final String textFooter;
+
+        // The date changes once a minute, so it is formatted once a minute
+        private final SimpleDateFormat dateFormat = new SimpleDateFormat("dd/MM/yyyy HH:mm", Locale.getDefault());
+        private final Date date = new Date();
+        private long cachedMinute = -1;
+        private String cachedDate;
+
+        CompiledReceipt(PrinterPreferencesManager.PrinterSettings settings) {
+            width = settings.receiptWidth > 0 ? settings.receiptWidth : 32;
+            printQRCode = settings.printQRCode;
+
+            String name = settings.businessName != null ? settings.businessName.toUpperCase(Locale.ROOT) : "";
+            String address = settings.businessAddress != null ? settings.businessAddress : "";
+            String phone = settings.businessPhone != null ? settings.businessPhone : "";
+            byte[] bodyFont = bodyFont(settings.fontSize);
+            textSeparator = repeat('-', width) + "\n";
+            textDoubleSeparator = repeat('=', width) + "\n";
+            separator = ascii(textSeparator);
+            byte[] doubleSeparator = ascii(textDoubleSeparator);
+
+            ESCPOSBuffer segment = new ESCPOSBuffer();
+            segment.reset().command(ESCPOSCommands.PAPER_FEED_3_LINES);
+            if (settings.autoCut) {
+                segment.command(ESCPOSCommands.PAPER_CUT_PARTIAL);
+            }
+            if (settings.drawerKick) {
+                segment.command(ESCPOSCommands.DRAWER_KICK_PULSE);
+            }
+            byte[] end = segment.toByteArray();
+
+            segment.reset()
+                    .command(ESCPOSCommands.INIT)
+                    .command(ESCPOSCommands.ALIGN_CENTER);
+            if (settings.printHeader) {
+                segment.command(ESCPOSCommands.BOLD_ON)
+                        .command(ESCPOSCommands.DOUBLE_HEIGHT_ON)
+                        .line(name)
+                        .command(ESCPOSCommands.NORMAL_SIZE)
+                        .command(ESCPOSCommands.BOLD_OFF);
+            }
+            jobHeader = segment.line("Receipt")
+                    .newLine()
+                    .command(bodyFont)
+                    .command(ESCPOSCommands.ALIGN_LEFT)
+                    .toByteArray();
+
+            segment.reset().command(ESCPOSCommands.ALIGN_CENTER);
+            if (settings.printFooter) {
+                segment.line("Thank you!");
+            }
+            jobFooter = segment.text("Date: ").toByteArray();
+            jobEnd = end;
+
+            segment.reset()
+                    .command(ESCPOSCommands.INIT)
+                    .command(ESCPOSCommands.ALIGN_CENTER);
+            if (settings.printHeader) {
+                segment.command(ESCPOSCommands.BOLD_ON)
+                        .line(name)
+                        .command(ESCPOSCommands.BOLD_OFF)
+                        .line(address)
+                        .line("Phone: " + phone)
+                        .newLine();
+            }
+            businessHeader = segment.command(ESCPOSCommands.ALIGN_LEFT)
+                    .command(doubleSeparator)
+                    .command(ESCPOSCommands.ALIGN_CENTER)
+                    .command(ESCPOSCommands.BOLD_ON)
+                    .line("SCRAP METAL RECEIPT")
+                    .command(ESCPOSCommands.BOLD_OFF)
+                    .command(ESCPOSCommands.ALIGN_LEFT)
+                    .command(doubleSeparator)
+                    .newLine()
+                    .command(bodyFont)
+                    .toByteArray();
+
+            customerHeader = segment.reset()
+                    .command(ESCPOSCommands.BOLD_ON)
+                    .line("CUSTOMER DETAILS:")
+                    .command(ESCPOSCommands.BOLD_OFF)
+                    .command(separator)
+                    .toByteArray();
+
+            itemsHeader = segment.reset()
+                    .command(ESCPOSCommands.BOLD_ON)
+                    .line("ITEMS PURCHASED:")
+                    .command(ESCPOSCommands.BOLD_OFF)
+                    .command(separator)
+                    .line(threeColumn("Material", "Weight(kg)", "Amount", width))
+                    .command(separator)
+                    .toByteArray();
+
+            totalAmountStart = segment.reset()
+                    .command(ESCPOSCommands.BOLD_ON)
+                    .text("TOTAL AMOUNT: KSh ")
+                    .toByteArray();
+
+            qrStart = segment.reset()
+                    .command(ESCPOSCommands.ALIGN_CENTER)
+                    .line("Scan for digital receipt:")
+                    .command(ESCPOSCommands.QR_MODEL)
+                    .command(ESCPOSCommands.QR_SIZE)
+                    .command(ESCPOSCommands.QR_ERROR_CORRECTION)
+                    .toByteArray();
+
+            segment.reset().command(ESCPOSCommands.ALIGN_CENTER);
+            if (settings.printFooter) {
+                segment.line("Thank you for your business!")
+                        .line("Keep this receipt for your records")
+                        .newLine()
+                        .line("Powered by MeruScrap v1.0")
+                        .newLine();
+            }
+            receiptEnd = segment.command(ESCPOSCommands.ALIGN_LEFT)
+                    .command(end)
+                    .toByteArray();
+
+            StringBuilder text = new StringBuilder();
+            if (settings.printHeader) {
+                text.append(textDoubleSeparator);
+                center(text, name, width);
+                center(text, address, width);
+            }
+            textHeader = text.append(textDoubleSeparator).toString();
+
+            text.setLength(0);
+            text.append(textDoubleSeparator);
+            if (settings.printFooter) {
+                text.append("Thank you for your business!\n")
+                        .append("Come back soon!\n")
+                        .append(textDoubleSeparator);
+            }
+            // Extra spacing for cut
+            textFooter = text.append("\n\n").toString();
+        }
+
+        public int getWidth() {
+            return width;
+        }
+
+        /**
+         * A print job around text that is already laid out: business header, the content,
+         * then footer, date, feed and cut.
+         */
+        public void renderJob(ESCPOSBuffer buffer, String content, long timestamp) {
+            buffer.command(jobHeader)
+                    .line(content)
+                    .newLine()
+                    .command(jobFooter)
+                    .text(formatDate(timestamp))
+                    .command(jobEnd);
+        }
+
+        public void renderBusinessReceipt(ESCPOSBuffer buffer, ESCPOSCommands.ReceiptData data) {
+            buffer.command(businessHeader);
+
+            // Transaction details
+            column(buffer, RECEIPT_NO, data.receiptNumber);
+            column(buffer, DATE, data.date);
+            column(buffer, TIME, data.time);
+            column(buffer, CASHIER, data.cashier);
+            buffer.newLine();
+
+            // Customer details
+            buffer.command(customerHeader);
+            column(buffer, NAME, data.customerName);
+            column(buffer, PHONE, data.customerPhone);
+            column(buffer, ID_NO, data.customerId);
+            buffer.newLine();
+
+            // Items
+            buffer.command(itemsHeader);
+            double totalWeight = 0;
+            double totalAmount = 0;
+            if (data.items != null) {
+                for (ESCPOSCommands.ReceiptItem item : data.items) {
+                    buffer.line(item.materialName);
+                    itemLine(buffer, hundredths(item.weight), hundredths(item.rate), hundredths(item.amount));
+                    totalWeight += item.weight;
+                    totalAmount += item.amount;
+                }
+            }
+
+            buffer.command(separator);
+            amountColumn(buffer, TOTAL_WEIGHT, null, hundredths(totalWeight), KG);
+            buffer.command(totalAmountStart)
+                    .fixed(hundredths(totalAmount), 2)
+                    .newLine()
+                    .command(ESCPOSCommands.BOLD_OFF)
+                    .command(separator)
+                    .newLine();
+
+            // Payment details
+            column(buffer, PAYMENT_METHOD, data.paymentMethod);
+            amountColumn(buffer, AMOUNT_PAID, KSH, hundredths(data.amountPaid), null);
+            amountColumn(buffer, CHANGE, KSH, hundredths(data.change), null);
+            buffer.newLine();
+
+            // QR code for the digital receipt
+            if (printQRCode && data.qrCodeData != null && !data.qrCodeData.isEmpty()) {
+                int length = data.qrCodeData.length() + 3;
+                buffer.command(qrStart)
+                        .command(0x1D).command(0x28).command(0x6B)
+                        .command(length & 0xFF).command((length >> 8) & 0xFF)
+                        .command(0x31).command(0x50).command(0x30)
+                        .text(data.qrCodeData)
+                        .command(QR_PRINT)
+                        .newLine()
+                        .newLine();
+            }
+
+            buffer.command(receiptEnd);
+        }
+
+        // Plain-text pieces for receipts composed as a String
+
+        public String getTextHeader() {
+            return textHeader;
+        }
+
+        public String getTextSeparator() {
+            return textSeparator;
+        }
+
+        public String getTextDoubleSeparator() {
+            return textDoubleSeparator;
+        }
+
+        public String getTextFooter() {
+            return textFooter;
+        }
+
+        /**
+         * dd/MM/yyyy HH:mm, formatted once per minute rather than once per receipt.
+         */
+        public synchronized String formatDate(long timestamp) {
+            long minute = timestamp / 60000;
+            if (minute != cachedMinute) {
+                date.setTime(timestamp);
+                cachedDate = dateFormat.format(date);
+                cachedMinute = minute;
+            }
+            return cachedDate;
+        }
+
+        // Label on the left, value right-aligned; wraps when they do not fit on one line
+        private void column(ESCPOSBuffer buffer, byte[] label, String value) {
+            int valueLength = value != null ? value.length() : 0;
+            buffer.command(label);
+            int padding = width - label.length - valueLength;
+            if (padding < 1) {
+                buffer.newLine();
+                padding = width - valueLength;
+            }
+            buffer.repeat(' ', padding)
+                    .text(value)
+                    .newLine();
+        }
+
+        private void amountColumn(ESCPOSBuffer buffer, byte[] label, byte[] prefix, long hundredths, byte[] suffix) {
+            int valueLength = (prefix != null ? prefix.length : 0) + ESCPOSBuffer.fixedLength(hundredths, 2) +
+                    (suffix != null ? suffix.length : 0);
+            buffer.command(label);
+            int padding = width - label.length - valueLength;
+            if (padding < 1) {
+                buffer.newLine();
+                padding = width - valueLength;
+            }
+            buffer.repeat(' ', padding);
+            if (prefix != null) {
+                buffer.command(prefix);
+            }
+            buffer.fixed(hundredths, 2);
+            if (suffix != null) {
+                buffer.command(suffix);
+            }
+            buffer.newLine();
+        }
+
+        // "1.50 kg @ KSh 80.00/kg" and "KSh 120.00" right-aligned on the same line
+        private void itemLine(ESCPOSBuffer buffer, long weight, long rate, long amount) {
+            int leftLength = ESCPOSBuffer.fixedLength(weight, 2) + KG_AT_KSH.length +
+                    ESCPOSBuffer.fixedLength(rate, 2) + PER_KG.length;
+            int rightLength = KSH.length + ESCPOSBuffer.fixedLength(amount, 2);
+            buffer.fixed(weight, 2)
+                    .command(KG_AT_KSH)
+                    .fixed(rate, 2)
+                    .command(PER_KG);
+            int padding = width - leftLength - rightLength;
+            if (padding < 1) {
+                buffer.newLine();
+                padding = width - rightLength;
+            }
+            buffer.repeat(' ', padding)
+                    .command(KSH)
+                    .fixed(amount, 2)
+                    .newLine();
+        }
+
+        private static long hundredths(double value) {
+            return Math.round(value * 100);
+        }
+
+        private static byte[] bodyFont(PrinterPreferencesManager.FontSize fontSize) {
+            if (fontSize == PrinterPreferencesManager.FontSize.SMALL) {
+                return new byte[]{0x1B, 0x21, 0x01}; // Font B
+            } else if (fontSize == PrinterPreferencesManager.FontSize.LARGE) {
+                return ESCPOSCommands.DOUBLE_HEIGHT_ON;
+            }
+            return ESCPOSCommands.NORMAL_SIZE;
+        }
+    }
+
+    // ---- Text helpers, also used by callers composing receipts as Strings ----
+
+    public static StringBuilder padRight(StringBuilder builder, String text, int width) {
+        builder.append(text);
+        for (int i = text.length(); i < width; i++) {
+            builder.append(' ');
+        }
+        return builder;
+    }
+
+    public static StringBuilder padLeft(StringBuilder builder, String text, int width) {
+        for (int i = text.length(); i < width; i++) {
+            builder.append(' ');
+        }
+        return builder.append(text);
+    }
+
+    private static void center(StringBuilder builder, String text, int width) {
+        padLeft(builder, text, text.length() + Math.max(0, (width - text.length()) / 2)).append('\n');
+    }
+
+    private static String threeColumn(String left, String center, String right, int width) {
+        int sideWidth = Math.max(0, (width - center.length()) / 2);
+        StringBuilder builder = new StringBuilder(width);
+        padRight(builder, left, sideWidth).append(center);
+        return padLeft(builder, right, sideWidth).toString();
+    }
+
+    private static String repeat(char c, int count) {
+        StringBuilder builder = new StringBuilder(count);
+        for (int i = 0; i < count; i++) {
+            builder.append(c);
+        }
+        return builder.toString();
+    }
+
+    private static byte[] ascii(String text) {
+        return text.getBytes(StandardCharsets.US_ASCII);
+    }
+
+    // ---- Benchmark ----
+
+    private interface RenderTask {
+        void run() throws Exception;
+    }
+
+    /**
+     * Render the same business receipt repeatedly with the field-by-field formatter and with
+     * the compiled template, into a discarding stream, and report time and allocations per
+     * receipt. Runs on the calling thread. Allocation figures come from the runtime's
+     * per-thread allocation counters and read 0 where those are not kept.
+     */
+    public RenderBenchmark benchmark(int receipts) {
+        RenderBenchmark benchmark = new RenderBenchmark();
+        benchmark.receipts = Math.max(1, receipts);
+
+        try {
+            ESCPOSCommands.ReceiptData data = sampleReceipt();
+            long start = System.nanoTime();
+            CompiledReceipt template = compile(preferences.getAllSettings());
+            benchmark.compileMicros = (System.nanoTime() - start) / 1000.0;
+
+            ESCPOSBuffer buffer = new ESCPOSBuffer();
+            OutputStream sink = new OutputStream() {
+                @Override
+                public void write(int b) {
+                }
+
+                @Override
+                public void write(byte[] b, int off, int len) {
+                    benchmark.bytes = len;
+                }
+            };
+            ESCPOSCommands.PrintFormatter formatter = new ESCPOSCommands.PrintFormatter(sink, buffer);
+            RenderTask legacy = () -> ESCPOSCommands.ReceiptTemplate.printBusinessReceiptLegacy(formatter, data);
+            RenderTask compiledTask = () -> ESCPOSCommands.ReceiptTemplate.printBusinessReceipt(formatter, data, template);
+
+            // Warm up both paths so class loading and buffer growth are not counted
+            for (int i = 0; i < 50; i++) {
+                legacy.run();
+                compiledTask.run();
+            }
+
+            long[] result = measure(legacy, benchmark.receipts);
+            benchmark.legacyMicros = result[0] / 1000.0 / benchmark.receipts;
+            benchmark.legacyAllocations = (double) result[1] / benchmark.receipts;
+            benchmark.legacyAllocatedBytes = (double) result[2] / benchmark.receipts;
+
+            result = measure(compiledTask, benchmark.receipts);
+            benchmark.compiledMicros = result[0] / 1000.0 / benchmark.receipts;
+            benchmark.compiledAllocations = (double) result[1] / benchmark.receipts;
+            benchmark.compiledAllocatedBytes = (double) result[2] / benchmark.receipts;
+            Log.d(TAG, "Receipt render benchmark: " + benchmark);
+        } catch (Exception e) {
+            Log.e(TAG, "Error running receipt render benchmark", e);
+        }
+
+        return benchmark;
+    }
+
+    // Elapsed nanos, allocation count and allocated bytes on this thread
+    @SuppressWarnings("deprecation")
+    private static long[] measure(RenderTask task, int receipts) throws Exception {
+        Debug.resetThreadAllocCount();
+        Debug.resetThreadAllocSize();
+        Debug.startAllocCounting();
+        long start = System.nanoTime();
+        try {
+            for (int i = 0; i < receipts; i++) {
+                task.run();
+            }
+        } finally {
+            Debug.stopAllocCounting();
+        }
+        return new long[]{System.nanoTime() - start, Debug.getThreadAllocCount(), Debug.getThreadAllocSize()};
+    }
+
+    private static ESCPOSCommands.ReceiptData sampleReceipt() {
+        ESCPOSCommands.ReceiptData data = new ESCPOSCommands.ReceiptData();
+        data.receiptNumber = "TXN-0001-00042";
+        data.date = "19/10/2026";
+        data.time = "14:05";
+        data.cashier = "Operator";
+        data.customerName = "Walk-in Customer";
+        data.customerPhone = "+254 700 000 000";
+        data.customerId = "12345678";
+        data.paymentMethod = "Cash";
+        data.qrCodeData = "https://meruscrap.example/r/TXN-0001-00042";
+        data.items = new ArrayList<>();
+        String[] materials = {"Copper", "Aluminium", "Brass", "Steel", "Lead"};
+        double total = 0;
+        for (int i = 0; i < materials.length; i++) {
+            ESCPOSCommands.ReceiptItem item = new ESCPOSCommands.ReceiptItem();
+            item.materialName = materials[i];
+            item.weight = 2.5 + i * 3.75;
+            item.rate = 45.0 + i * 110.5;
+            item.amount = item.weight * item.rate;
+            total += item.amount;
+            data.items.add(item);
+        }
+        data.amountPaid = Math.ceil(total / 100) * 100;
+        data.change = data.amountPaid - total;
+        return data;
+    }
+
+    public static class RenderBenchmark {
+        public int receipts = 0;
+        public int bytes = 0;
+        public double compileMicros = 0.0;
+        public double legacyMicros = 0.0;
+        public double compiledMicros = 0.0;
+        public double legacyAllocations = 0.0;
+        public double compiledAllocations = 0.0;
+        public double legacyAllocatedBytes = 0.0;
+        public double compiledAllocatedBytes = 0.0;
+
+        @Override
+        public String toString() {
+            return String.format(Locale.US,
+                    "%d receipts (%d bytes each): formatted %.1fus, %.0f allocs, %.0f B; " +
+                            "compiled %.1fus, %.0f allocs, %.0f B per receipt (compile once %.0fus)",
+                    receipts, bytes, legacyMicros, legacyAllocations, legacyAllocatedBytes,
+                    compiledMicros, compiledAllocations, compiledAllocatedBytes, compileMicros);
+        }
+    }
+}
@@ -0,0 +1,141 @@
+package com.example.meruscrap;
+
+import android.view.Choreographer;
+
+import java.util.LinkedHashMap;
+import java.util.Locale;
+import java.util.Map;
+import java.util.concurrent.atomic.AtomicLong;
+
+/**
+ * Counters for list rendering: how many rows each adapter binds per list update, how long
+ * binding takes, and (while a screen holds the frame monitor) how long frames take.
+ * Shown in the Settings diagnostics report.
+ */
+public final class RenderStats {
+    // One frame at 60Hz; anything over this was visible as a dropped frame
+    private static final long FRAME_BUDGET_NANOS = 16_666_667L;
+
+    private static final Map<String, RenderStats> LISTS = new LinkedHashMap<>();
+
+    private final String name;
+    private final AtomicLong binds = new AtomicLong();
+    private final AtomicLong bindNanos = new AtomicLong();
+    private final AtomicLong updates = new AtomicLong();
+
+    public static RenderStats forList(String name) {
+        synchronized (LISTS) {
+            RenderStats stats = LISTS.get(name);
+            if (stats == null) {
+                stats = new RenderStats(name);
+                LISTS.put(name, stats);
+            }
+            return stats;
+        }
+    }
+
+    private RenderStats(String name) {
+        this.name = name;
+    }
+
+    // Wrap onBindViewHolder: long start = stats.bindStarted(); ...; stats.bindFinished(start);
+    public long bindStarted() {
+        return System.nanoTime();
+    }
+
+    public void bindFinished(long startNanos) {
+        binds.incrementAndGet();
+        bindNanos.addAndGet(System.nanoTime() - startNanos);
+    }
+
+    // A new list was submitted to the adapter
+    public void listUpdated() {
+        updates.incrementAndGet();
+    }
+
+    @Override
+    public String toString() {
+        long bindCount = binds.get();
+        long updateCount = updates.get();
+        return String.format(Locale.US, "%s: %d binds over %d updates (%.1f per update), %.3fms per bind",
+                name, bindCount, updateCount,
+                updateCount > 0 ? (double) bindCount / updateCount : 0,
+                bindCount > 0 ? bindNanos.get() / 1_000_000.0 / bindCount : 0);
+    }
+
+    public static String getSummary() {
+        StringBuilder summary = new StringBuilder();
+        synchronized (LISTS) {
+            for (RenderStats stats : LISTS.values()) {
+                summary.append(stats).append('\n');
+            }
+        }
+        summary.append(FrameMonitor.INSTANCE);
+        return summary.toString();
+    }
+
+    // ---- Frame timing ----
+
+    /**
+     * Start timing frames; screens call this from onResume and stopFrameMonitor from onPause.
+     */
+    public static void startFrameMonitor() {
+        FrameMonitor.INSTANCE.acquire();
+    }
+
+    public static void stopFrameMonitor() {
+        FrameMonitor.INSTANCE.release();
+    }
+
+    // Main thread only, apart from toString
+    private static final class FrameMonitor implements Choreographer.FrameCallback {
+        static final FrameMonitor INSTANCE = new FrameMonitor();
+
+        private int holders;
+        private long lastFrameNanos;
+        private volatile long frames;
+        private volatile long slowFrames;
+        private volatile long totalFrameNanos;
+        private volatile long maxFrameNanos;
+
+        void acquire() {
+            if (holders++ == 0) {
+                lastFrameNanos = 0;
+                Choreographer.getInstance().postFrameCallback(this);
+            }
+        }
+
+        void release() {
+            if (holders > 0 && --holders == 0) {
+                Choreographer.getInstance().removeFrameCallback(this);
+            }
+        }
+
+        @Override
+        public void doFrame(long frameTimeNanos) {
+            if (lastFrameNanos != 0) {
+                long interval = frameTimeNanos - lastFrameNanos;
+                frames++;
+                totalFrameNanos += interval;
+                if (interval > FRAME_BUDGET_NANOS) {
+                    slowFrames++;
+                }
+                if (interval > maxFrameNanos) {
+                    maxFrameNanos = interval;
+                }
+            }
+            lastFrameNanos = frameTimeNanos;
+            if (holders > 0) {
+                Choreographer.getInstance().postFrameCallback(this);
+            }
+        }
+
+        @Override
+        public String toString() {
+            long count = frames;
+            return String.format(Locale.US, "Frames: %d, avg %.1fms, max %.1fms, over budget %d",
+                    count, count > 0 ? totalFrameNanos / 1_000_000.0 / count : 0,
+                    maxFrameNanos / 1_000_000.0, slowFrames);
+        }
+    }
+}
@@ -0,0 +1,100 @@
+package com.example.meruscrap;
+
+import android.database.Cursor;
+
+import java.util.ArrayList;
+import java.util.List;
+
+/**
+ * Maps cursor rows to objects over an explicit projection.
+ *
+ * Queries select exactly {@link #select(String)} / {@link #getColumns()} instead of SELECT *,
+ * and column indices are resolved once per cursor by {@link #bind(Cursor)} rather than by
+ * name for every column of every row. Subclasses read values by position in the projection.
+ */
+public abstract class RowMapper<T> {
+    private final String[] columns;
+
+    protected RowMapper(String... columns) {
+        this.columns = columns;
+    }
+
+    /**
+     * Convert the current row. columnIndex[i] is the cursor index of the i-th projected column.
+     */
+    protected abstract T map(Cursor cursor, int[] columnIndex);
+
+    // For SQLiteDatabase.query(...)
+    public String[] getColumns() {
+        return columns.clone();
+    }
+
+    public int getColumnCount() {
+        return columns.length;
+    }
+
+    // Comma-separated projection for raw SQL, qualified with a table alias when one is given
+    public String select(String alias) {
+        StringBuilder sql = new StringBuilder();
+        for (int i = 0; i < columns.length; i++) {
+            if (i > 0) {
+                sql.append(", ");
+            }
+            if (alias != null) {
+                sql.append(alias).append('.');
+            }
+            sql.append(columns[i]);
+        }
+        return sql.toString();
+    }
+
+    public String select() {
+        return select(null);
+    }
+
+    /**
+     * Resolve column indices for this cursor once; the returned binding maps any of its rows.
+     */
+    public Bound<T> bind(Cursor cursor) {
+        int[] index = new int[columns.length];
+        for (int i = 0; i < columns.length; i++) {
+            index[i] = cursor.getColumnIndexOrThrow(columns[i]);
+        }
+        return new Bound<>(this, cursor, index);
+    }
+
+    // Map every remaining row of the cursor
+    public List<T> mapAll(Cursor cursor) {
+        List<T> rows = new ArrayList<>(Math.max(cursor.getCount(), 0));
+        Bound<T> bound = bind(cursor);
+        while (cursor.moveToNext()) {
+            rows.add(bound.map());
+        }
+        return rows;
+    }
+
+    // Map the first row, or null when the cursor is empty
+    public T mapFirst(Cursor cursor) {
+        if (!cursor.moveToFirst()) {
+            return null;
+        }
+        return bind(cursor).map();
+    }
+
+    public static final class Bound<T> {
+        private final RowMapper<T> mapper;
+        private final Cursor cursor;
+        private final int[] index;
+
+        private Bound(RowMapper<T> mapper, Cursor cursor, int[] index) {
+            this.mapper = mapper;
+            this.cursor = cursor;
+            this.index = index;
+        }
+
+        // Map the row the cursor is currently on
+        public T map() {
+            return mapper.map(cursor, index);
+        }
+    }
+}
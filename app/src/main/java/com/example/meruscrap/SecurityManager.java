@@ -12,6 +12,7 @@ import android.util.Log;
 
 import java.io.File;
 import java.security.MessageDigest;
+import java.util.concurrent.ScheduledFuture;
 import java.util.concurrent.TimeUnit;
 
 public class SecurityManager {
@@ -21,6 +22,7 @@ public class SecurityManager {
 
     private Context context;
     private boolean isSecurityActive = false;
+    private ScheduledFuture<?> runtimeCheck;
 
     private SecurityManager(Context context) {
         this.context = context.getApplicationContext();
@@ -151,21 +153,28 @@ public class SecurityManager {
         return false;
     }
 
-    private void startRuntimeProtection() {
-        // Continuous monitoring in background thread
-        new Thread(() -> {
-            while (isSecurityActive) {
-                try {
-                    if (isAppTampered() || isRunningInUnsafeEnvironment()) {
-                        handleSecurityViolation("Runtime tampering detected");
-                        break;
-                    }
-                    Thread.sleep(30000); // Check every 30 seconds
-                } catch (InterruptedException e) {
-                    break;
-                }
+    private synchronized void startRuntimeProtection() {
+        if (runtimeCheck != null) {
+            return;
+        }
+        // Check every 30 seconds on the shared pool instead of a parked thread
+        runtimeCheck = AppExecutors.get().scheduleAtFixedRate(AppExecutors.Pool.COMPUTE, () -> {
+            if (!isSecurityActive) {
+                stopRuntimeProtection();
+                return;
+            }
+            if (isAppTampered() || isRunningInUnsafeEnvironment()) {
+                handleSecurityViolation("Runtime tampering detected");
+                stopRuntimeProtection();
             }
-        }).start();
+        }, 0, TimeUnit.SECONDS.toMillis(30));
+    }
+
+    private synchronized void stopRuntimeProtection() {
+        if (runtimeCheck != null) {
+            runtimeCheck.cancel(false);
+            runtimeCheck = null;
+        }
     }
 
     private void handleSecurityViolation(String reason) {
@@ -204,6 +213,7 @@ public class SecurityManager {
 
     public void stopSecurity() {
         isSecurityActive = false;
+        stopRuntimeProtection();
     }
 }
 
@@ -1796,27 +1796,105 @@ public class Settings extends Fragment implements BluetoothPrintManager.PrinterS
     }
 
     private void performBackup() {
+        String[] options = {"Full backup", "Incremental (changes since last full backup)"};
+        new MaterialAlertDialogBuilder(requireContext())
+                .setTitle("Create Backup")
+                .setItems(options, (dialog, which) -> runBackup(which == 1))
+                .setNegativeButton("Cancel", null)
+                .show();
+    }
+
+    private void runBackup(boolean incremental) {
         Toast.makeText(requireContext(), "Creating backup...", Toast.LENGTH_SHORT).show();
-        // TODO: Implement actual backup functionality
+        BackupManager backupManager = BackupManager.getInstance(requireContext());
+        // Snapshots use their own connections and compressing takes a while: keep the serial DB pool free
+        AppExecutors.get().submit(AppExecutors.Pool.COMPUTE, this,
+                () -> backupManager.createBackup(incremental),
+                new AppExecutors.ResultCallback<BackupManager.BackupResult>() {
+                    @Override
+                    public void onResult(BackupManager.BackupResult result) {
+                        if (result.error != null) {
+                            showSnackbar("Backup failed: " + result.error, Snackbar.LENGTH_LONG);
+                            return;
+                        }
+                        new MaterialAlertDialogBuilder(requireContext())
+                                .setTitle("Backup Complete")
+                                .setMessage(result + "\n\nSaved to " + result.file.getParent())
+                                .setPositiveButton("OK", null)
+                                .show();
+                    }
 
-        // Simulate backup process
-        new android.os.Handler().postDelayed(() -> {
-            Toast.makeText(requireContext(), "Backup completed successfully!", Toast.LENGTH_LONG).show();
-        }, 2000);
+                    @Override
+                    public void onError(Exception e) {
+                        showSnackbar("Backup failed: " + e.getMessage(), Snackbar.LENGTH_LONG);
+                    }
+                });
     }
 
     private void performRestore() {
+        BackupManager backupManager = BackupManager.getInstance(requireContext());
+        List<java.io.File> backups = backupManager.listBackups();
+        if (backups.isEmpty()) {
+            showSnackbar("No backups found in " + backupManager.getBackupDirectory(), Snackbar.LENGTH_LONG);
+            return;
+        }
+
+        String[] names = new String[backups.size()];
+        for (int i = 0; i < names.length; i++) {
+            names[i] = backups.get(i).getName();
+        }
+        new MaterialAlertDialogBuilder(requireContext())
+                .setTitle("Restore Data")
+                .setItems(names, (dialog, which) -> confirmRestore(backups.get(which)))
+                .setNegativeButton("Cancel", null)
+                .show();
+    }
+
+    private void confirmRestore(java.io.File backup) {
         AlertDialog.Builder builder = new MaterialAlertDialogBuilder(requireContext());
         builder.setTitle("Restore Data");
-        builder.setMessage("This will replace all current data with backup data. Continue?");
+        builder.setMessage("This will replace all current data with " + backup.getName() + ". Continue?");
         builder.setPositiveButton("Restore", (dialog, which) -> {
-            Toast.makeText(requireContext(), "Restoring data...", Toast.LENGTH_SHORT).show();
-            // TODO: Implement actual restore functionality
+            Toast.makeText(requireContext(), "Checking backup...", Toast.LENGTH_SHORT).show();
+            BackupManager backupManager = BackupManager.getInstance(requireContext());
+            // Only checks and stages files, no database access, so it stays off the serial DB pool
+            AppExecutors.get().submit(AppExecutors.Pool.COMPUTE, this,
+                    () -> backupManager.restore(backup),
+                    new AppExecutors.ResultCallback<BackupManager.RestoreResult>() {
+                        @Override
+                        public void onResult(BackupManager.RestoreResult result) {
+                            if (result.error != null) {
+                                showSnackbar("Restore failed, nothing was changed: " + result.error,
+                                        Snackbar.LENGTH_LONG);
+                            } else {
+                                showRestartForRestore(result);
+                            }
+                        }
+
+                        @Override
+                        public void onError(Exception e) {
+                            showSnackbar("Restore failed: " + e.getMessage(), Snackbar.LENGTH_LONG);
+                        }
+                    });
         });
         builder.setNegativeButton("Cancel", null);
         builder.show();
     }
 
+    // The staged files are swapped in when the app next starts, before the database is opened
+    private void showRestartForRestore(BackupManager.RestoreResult result) {
+        new MaterialAlertDialogBuilder(requireContext())
+                .setTitle("Restore Ready")
+                .setMessage("Backup checked (" + result + ").\n\nIt replaces the current data the next " +
+                        "time MeruScrap starts. Close the app now?")
+                .setPositiveButton("Close app", (dialog, which) -> {
+                    requireActivity().finishAffinity();
+                    System.exit(0);
+                })
+                .setNegativeButton("Later", null)
+                .show();
+    }
+
     private void showClearDataConfirmation() {
         AlertDialog.Builder builder = new MaterialAlertDialogBuilder(requireContext());
         builder.setTitle("Clear All Data");
@@ -1995,9 +2073,31 @@ public class Settings extends Fragment implements BluetoothPrintManager.PrinterS
     }
 
     private void showReceiptContentDialog(PrintHistoryManager.PrintJob job) {
+        // History rows carry the transaction ref, not the text; render the receipt off the main thread
+        PrintHistoryManager history = PrintHistoryManager.getInstance(requireContext());
+        ReceiptRenderer renderer = ReceiptRenderer.getInstance(requireContext());
+        AppExecutors.get().submit(AppExecutors.Pool.DB, this,
+                () -> {
+                    PrintHistoryManager.PrintJob stored = history.getPrintJobById(job.jobId);
+                    return renderer.getReceipt(stored != null ? stored : job);
+                },
+                new AppExecutors.ResultCallback<String>() {
+                    @Override
+                    public void onResult(String content) {
+                        showReceiptContent(job, content);
+                    }
+
+                    @Override
+                    public void onError(Exception e) {
+                        showReceiptContent(job, null);
+                    }
+                });
+    }
+
+    private void showReceiptContent(PrintHistoryManager.PrintJob job, String content) {
         AlertDialog.Builder builder = new AlertDialog.Builder(getContext());
         builder.setTitle("Receipt Content");
-        builder.setMessage(job.contentPreview != null ? job.contentPreview : "No content available");
+        builder.setMessage(content != null ? content : "No content available");
         builder.setPositiveButton("OK", null);
 
         if (mainActivity != null && mainActivity.isPrinterConnected()) {
@@ -2486,6 +2586,7 @@ public class Settings extends Fragment implements BluetoothPrintManager.PrinterS
                 "🔄 Refresh All Status",
                 "📋 Copy System Info",
                 "🔧 Run Diagnostics",
+                "⏱️ Run Benchmarks",
                 "⚙️ Reset All Settings",
                 "📱 Open Device Settings",
                 "ℹ️ Show Permission Help"
@@ -2504,12 +2605,15 @@ public class Settings extends Fragment implements BluetoothPrintManager.PrinterS
                     runCompleteDiagnostics();
                     break;
                 case 3:
-                    showResetAllSettingsDialog();
+                    confirmRunBenchmarks();
                     break;
                 case 4:
-                    openDeviceSettings();
+                    showResetAllSettingsDialog();
                     break;
                 case 5:
+                    openDeviceSettings();
+                    break;
+                case 6:
                     showPermissionEducationDialog();
                     break;
             }
@@ -2561,7 +2665,7 @@ public class Settings extends Fragment implements BluetoothPrintManager.PrinterS
         showSnackbar("Running diagnostics...", Snackbar.LENGTH_SHORT);
 
         // Run diagnostics in background
-        new Thread(() -> {
+        AppExecutors.get().compute().execute(() -> {
             StringBuilder diagnostics = new StringBuilder();
             diagnostics.append("=== COMPLETE DIAGNOSTICS ===\n\n");
 
@@ -2581,30 +2685,81 @@ public class Settings extends Fragment implements BluetoothPrintManager.PrinterS
                 diagnostics.append("Printer Manager Ready: ").append(mainActivity.isPrinterReady()).append("\n");
                 diagnostics.append("Print Queue Size: ").append(
                         mainActivity.printManager != null ? mainActivity.printManager.getQueueSize() : "N/A").append("\n");
+                if (mainActivity.printManager != null) {
+                    diagnostics.append(mainActivity.printManager.getPrintStats()).append("\n");
+                }
+                diagnostics.append(PrinterSessionManager.getInstance(mainActivity).getStats()).append("\n");
             }
 
+            // Background pools
+            diagnostics.append("\n").append(AppExecutors.get().getStatsSummary()).append("\n");
+
+            // List rendering
+            diagnostics.append("\n").append(RenderStats.getSummary()).append("\n");
+
+            // Database
+            diagnostics.append("\n").append(MeruScrapDatabase.getInstance(getContext()).getDiagnostics()).append("\n");
+            PrintHistoryManager printHistory = PrintHistoryManager.getInstance(getContext());
+            diagnostics.append(printHistory.getStoreStats()).append("\n");
+            diagnostics.append(ReceiptRenderer.getInstance(getContext()).getStats()).append("\n");
+            PrintHistoryMaintenance maintenance = PrintHistoryMaintenance.getInstance(getContext());
+            PrintHistoryMaintenance.MaintenanceResult lastMaintenance = maintenance.getLastResult();
+            diagnostics.append(lastMaintenance != null ? lastMaintenance.toString() : "print history maintenance: not run yet")
+                    .append("\n");
+
             // Show results on main thread
             if (isAdded()) {
-                mainHandler.post(() -> {
-                    AlertDialog.Builder builder = new AlertDialog.Builder(getContext());
-                    builder.setTitle("Diagnostic Results");
-                    builder.setMessage(diagnostics.toString());
-                    builder.setPositiveButton("OK", null);
-                    builder.setNeutralButton("Copy", (dialog, which) -> {
-                        try {
-                            android.content.ClipboardManager clipboard =
-                                    (android.content.ClipboardManager) getContext().getSystemService(android.content.Context.CLIPBOARD_SERVICE);
-                            android.content.ClipData clip = android.content.ClipData.newPlainText("Diagnostics", diagnostics.toString());
-                            clipboard.setPrimaryClip(clip);
-                            showSnackbar("Diagnostics copied", Snackbar.LENGTH_SHORT);
-                        } catch (Exception e) {
-                            handleError("copying diagnostics", e);
-                        }
-                    });
-                    builder.show();
-                });
+                AppExecutors.get().deliver(this, () -> showDiagnosticResults("Diagnostic Results", diagnostics.toString()));
             }
-        }).start();
+        });
+    }
+
+    // Benchmarks load the database and take several seconds, so they only run when asked for
+    private void confirmRunBenchmarks() {
+        new AlertDialog.Builder(getContext())
+                .setTitle("Run Benchmarks")
+                .setMessage("Times print statistics queries and simulates a year of print history in scratch " +
+                        "databases. This takes several seconds and keeps the device busy.")
+                .setPositiveButton("Run", (dialog, which) -> runBenchmarks())
+                .setNegativeButton("Cancel", null)
+                .show();
+    }
+
+    private void runBenchmarks() {
+        showSnackbar("Running benchmarks...", Snackbar.LENGTH_SHORT);
+        android.content.Context appContext = requireContext().getApplicationContext();
+
+        AppExecutors.get().compute().execute(() -> {
+            StringBuilder results = new StringBuilder();
+            results.append("=== BENCHMARKS ===\n\n");
+            long now = System.currentTimeMillis();
+            results.append(PrintHistoryManager.getInstance(appContext)
+                    .benchmarkStatistics(now - 7 * 24 * 60 * 60 * 1000L, now, 5)).append("\n");
+            results.append(PrintHistoryMaintenance.getInstance(appContext).simulateYear(50, 20)).append("\n");
+
+            if (isAdded()) {
+                AppExecutors.get().deliver(this, () -> showDiagnosticResults("Benchmark Results", results.toString()));
+            }
+        });
+    }
+
+    private void showDiagnosticResults(String title, String text) {
+        AlertDialog.Builder builder = new AlertDialog.Builder(getContext());
+        builder.setTitle(title);
+        builder.setMessage(text);
+        builder.setPositiveButton("OK", null);
+        builder.setNeutralButton("Copy", (dialog, which) -> {
+            try {
+                android.content.ClipboardManager clipboard =
+                        (android.content.ClipboardManager) getContext().getSystemService(android.content.Context.CLIPBOARD_SERVICE);
+                android.content.ClipData clip = android.content.ClipData.newPlainText("Diagnostics", text);
+                clipboard.setPrimaryClip(clip);
+                showSnackbar("Diagnostics copied", Snackbar.LENGTH_SHORT);
+            } catch (Exception e) {
+                handleError("copying diagnostics", e);
+            }
+        });
+        builder.show();
     }
 
     private void openDeviceSettings() {
@@ -66,9 +66,10 @@ public class SmartTransactionDialog {
     private Runnable autoDismissRunnable;
 
     // Listener interface
+    // Printing goes by transaction ref; the receipt is rendered from the saved transaction
     public interface SmartDialogListener {
-        void onPrintRequested(String receiptContent, int attemptNumber);
-        void onPrintLater(String receiptContent);
+        void onPrintRequested(String transactionRef, int attemptNumber);
+        void onPrintLater(String transactionRef);
         void onViewReceipt(String receiptContent);
         void onDialogDismissed();
         boolean isPrinterConnected();
@@ -202,7 +203,7 @@ public class SmartTransactionDialog {
         startCancelButtonTimer();
 
         // Request print from listener
-        listener.onPrintRequested(receiptContent, retryAttempts);
+        listener.onPrintRequested(transactionData.transactionId, retryAttempts);
 
         Log.d(TAG, "Print requested - attempt " + retryAttempts + "/" + MAX_RETRY_ATTEMPTS);
     }
@@ -283,13 +284,14 @@ public class SmartTransactionDialog {
     // Update the handlePrintLater method in SmartTransactionDialog
     private void handlePrintLater() {
         // Save the job to print history as QUEUED
-        if (transactionData != null && receiptContent != null) {
+        if (transactionData != null) {
             PrintHistoryManager historyManager = PrintHistoryManager.getInstance(context);
 
+            // Only the ref is stored; the receipt is rendered from the transaction when printed
             PrintHistoryManager.PrintJob job = new PrintHistoryManager.PrintJob();
-            job.jobId = "print_later_" + System.currentTimeMillis();
+            job.jobId = IdGenerator.getInstance(context).next("print_later");
             job.jobType = PrintHistoryManager.PrintJobType.RECEIPT;
-            job.contentPreview = receiptContent;
+            job.templateVersion = ReceiptRenderer.TEMPLATE_VERSION;
             job.status = PrintHistoryManager.PrintJobStatus.QUEUED;
             job.createdAt = new java.util.Date();
             job.transactionId = transactionData.transactionId;
@@ -300,8 +302,8 @@ public class SmartTransactionDialog {
             Log.d(TAG, "Receipt saved for later printing: " + job.jobId);
         }
 
-        if (listener != null) {
-            listener.onPrintLater(receiptContent);
+        if (listener != null && transactionData != null) {
+            listener.onPrintLater(transactionData.transactionId);
         }
         dismissDialog();
     }
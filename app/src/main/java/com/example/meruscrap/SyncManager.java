@@ -0,0 +1,482 @@
+package com.example.meruscrap;
+
+import android.content.ContentValues;
+import android.content.Context;
+import android.database.Cursor;
+import android.database.sqlite.SQLiteConstraintException;
+import android.database.sqlite.SQLiteDatabase;
+import android.database.sqlite.SQLiteOpenHelper;
+import android.util.Log;
+
+import org.json.JSONException;
+import org.json.JSONObject;
+
+import java.io.BufferedReader;
+import java.io.BufferedWriter;
+import java.io.ByteArrayInputStream;
+import java.io.ByteArrayOutputStream;
+import java.io.DataInputStream;
+import java.io.DataOutputStream;
+import java.io.File;
+import java.io.FileInputStream;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.InputStreamReader;
+import java.io.OutputStream;
+import java.io.OutputStreamWriter;
+import java.net.Socket;
+import java.nio.charset.StandardCharsets;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Map;
+import java.util.zip.GZIPInputStream;
+import java.util.zip.GZIPOutputStream;
+
+/**
+ * Delta sync between yard devices, built on {@link ChangeLog}.
+ *
+ * A bundle is gzipped NDJSON: a header line with the sender's device id and version vector,
+ * then one line per change-log entry the receiver does not have yet, oldest first. Bundles
+ * travel as files (exportForPeer / importFromFile) or over a local socket (syncOverSocket),
+ * where both sides first swap version vectors so each sends only what the other is missing.
+ *
+ * Applying a bundle is idempotent: an entry already in the log, whichever way it arrived, is
+ * skipped. Transactions are append-only and never conflict. Materials are matched by name and
+ * resolved last-writer-wins on (changed_at, origin device), so every device settles on the
+ * same row whatever order the changes reach it in.
+ *
+ * All methods block; call them off the main thread.
+ */
+public class SyncManager {
+    private static final String TAG = "SyncManager";
+
+    private static final int FORMAT_VERSION = 1;
+    // Upper bound on a socket frame, so a bad peer cannot make us allocate without limit
+    private static final int MAX_FRAME_BYTES = 32 * 1024 * 1024;
+    private static final int SOCKET_TIMEOUT_MS = 30_000;
+
+    // Bundle keys; entries use one letter to keep bundles small
+    private static final String KEY_FORMAT = "format";
+    private static final String KEY_DEVICE = "device";
+    private static final String KEY_VECTOR = "vector";
+    private static final String KEY_ORIGIN_DEVICE = "d";
+    private static final String KEY_ORIGIN_SEQ = "s";
+    private static final String KEY_ENTITY = "e";
+    private static final String KEY_ENTITY_REF = "r";
+    private static final String KEY_OP = "o";
+    private static final String KEY_CHANGED_AT = "t";
+    private static final String KEY_PAYLOAD = "p";
+
+    private static SyncManager instance;
+
+    private final SQLiteOpenHelper helper;
+    private final long deviceId;
+    private final Runnable onMaterialsChanged;
+
+    public static synchronized SyncManager getInstance(Context context) {
+        if (instance == null) {
+            Context appContext = context.getApplicationContext();
+            instance = new SyncManager(MeruScrapDatabase.getInstance(appContext),
+                    IdGenerator.getInstance(appContext).getOriginId(),
+                    () -> MaterialCatalog.getInstance(appContext).reload());
+        }
+        return instance;
+    }
+
+    /**
+     * Any database with the MeruScrap schema works, which is how two devices can be
+     * exercised against each other in one process.
+     */
+    SyncManager(SQLiteOpenHelper helper, long deviceId, Runnable onMaterialsChanged) {
+        this.helper = helper;
+        this.deviceId = deviceId;
+        this.onMaterialsChanged = onMaterialsChanged;
+    }
+
+    public long getDeviceId() {
+        return deviceId;
+    }
+
+    // ---- Export ----
+
+    /**
+     * Write every entry the peer's version vector does not cover. An empty vector exports
+     * the whole log. The stream is left open.
+     */
+    public synchronized ExportResult exportDelta(OutputStream out, Map<Long, Long> peerVector) throws IOException {
+        long start = System.currentTimeMillis();
+        SQLiteDatabase db = helper.getReadableDatabase();
+        ExportResult result = new ExportResult();
+
+        // Entries from devices the peer has never heard of, plus the tail of those it has
+        StringBuilder where = new StringBuilder();
+        List<String> args = new ArrayList<>();
+        if (!peerVector.isEmpty()) {
+            StringBuilder known = new StringBuilder();
+            for (Map.Entry<Long, Long> entry : peerVector.entrySet()) {
+                if (known.length() > 0) {
+                    known.append(", ");
+                    where.append(" OR ");
+                }
+                known.append(entry.getKey());
+                where.append("(").append(ChangeLog.COLUMN_ORIGIN_DEVICE).append(" = ? AND ")
+                        .append(ChangeLog.COLUMN_ORIGIN_SEQ).append(" > ?)");
+                args.add(String.valueOf(entry.getKey()));
+                args.add(String.valueOf(entry.getValue()));
+            }
+            where.append(" OR ").append(ChangeLog.COLUMN_ORIGIN_DEVICE).append(" NOT IN (").append(known).append(")");
+        }
+
+        GZIPOutputStream gzip = new GZIPOutputStream(new NonClosingOutputStream(out));
+        BufferedWriter writer = new BufferedWriter(new OutputStreamWriter(gzip, StandardCharsets.UTF_8));
+        try {
+            JSONObject header = new JSONObject()
+                    .put(KEY_FORMAT, FORMAT_VERSION)
+                    .put(KEY_DEVICE, deviceId)
+                    .put(KEY_VECTOR, ChangeLog.vectorToJson(ChangeLog.getVersionVector(db)));
+            writer.write(header.toString());
+            writer.newLine();
+
+            Cursor cursor = db.query(ChangeLog.TABLE_CHANGE_LOG,
+                    new String[]{ChangeLog.COLUMN_ORIGIN_DEVICE, ChangeLog.COLUMN_ORIGIN_SEQ,
+                            ChangeLog.COLUMN_ENTITY, ChangeLog.COLUMN_ENTITY_REF, ChangeLog.COLUMN_OP,
+                            ChangeLog.COLUMN_CHANGED_AT, ChangeLog.COLUMN_PAYLOAD},
+                    where.length() > 0 ? where.toString() : null,
+                    args.toArray(new String[0]), null, null, ChangeLog.COLUMN_SEQ);
+            try {
+                while (cursor.moveToNext()) {
+                    JSONObject line = new JSONObject()
+                            .put(KEY_ORIGIN_DEVICE, cursor.getLong(0))
+                            .put(KEY_ORIGIN_SEQ, cursor.getLong(1))
+                            .put(KEY_ENTITY, cursor.getString(2))
+                            .put(KEY_ENTITY_REF, cursor.getString(3))
+                            .put(KEY_OP, cursor.getString(4))
+                            .put(KEY_CHANGED_AT, cursor.getLong(5))
+                            .put(KEY_PAYLOAD, new JSONObject(cursor.getString(6)));
+                    writer.write(line.toString());
+                    writer.newLine();
+                    result.entries++;
+                }
+            } finally {
+                cursor.close();
+            }
+            writer.flush();
+            gzip.finish();
+        } catch (JSONException e) {
+            throw new IOException("Could not encode change log", e);
+        }
+
+        result.durationMs = System.currentTimeMillis() - start;
+        Log.d(TAG, "Exported " + result.entries + " changes in " + result.durationMs + "ms");
+        return result;
+    }
+
+    /**
+     * Write a bundle for a peer, holding what it has not seen as of its last sync with us.
+     */
+    public ExportResult exportForPeer(File file, long peerDeviceId) throws IOException {
+        Map<Long, Long> peerVector = ChangeLog.getPeerVector(helper.getReadableDatabase(), peerDeviceId);
+        OutputStream out = new FileOutputStream(file);
+        try {
+            return exportDelta(out, peerVector);
+        } finally {
+            out.close();
+        }
+    }
+
+    // ---- Import ----
+
+    /**
+     * Apply a bundle from another device in one SQLite transaction: either all of it lands or
+     * none of it does. A bundle this device exported is refused: its entries would come back
+     * as a peer's, and a device sharing our id could not be told apart from us.
+     */
+    public synchronized ImportResult importDelta(InputStream in) throws IOException {
+        return importDelta(in, false);
+    }
+
+    /**
+     * Apply changes from a backup (BackupManager). These are this device's own, so they are
+     * accepted whoever exported them, and the sender is not recorded as a peer.
+     */
+    synchronized ImportResult importOwnDelta(InputStream in) throws IOException {
+        return importDelta(in, true);
+    }
+
+    private ImportResult importDelta(InputStream in, boolean ownChanges) throws IOException {
+        long start = System.currentTimeMillis();
+        BufferedReader reader = new BufferedReader(
+                new InputStreamReader(new GZIPInputStream(in), StandardCharsets.UTF_8));
+        ImportResult result = new ImportResult();
+        SQLiteDatabase db = helper.getWritableDatabase();
+
+        try {
+            String headerLine = reader.readLine();
+            if (headerLine == null) {
+                throw new IOException("Empty sync bundle");
+            }
+            JSONObject header = new JSONObject(headerLine);
+            if (header.optInt(KEY_FORMAT) != FORMAT_VERSION) {
+                throw new IOException("Unsupported sync bundle format " + header.opt(KEY_FORMAT));
+            }
+            long senderDevice = header.getLong(KEY_DEVICE);
+            if (senderDevice == deviceId && !ownChanges) {
+                throw new IOException("Sync bundle was exported by this device (" + deviceId + ")");
+            }
+
+            db.beginTransaction();
+            try {
+                String line;
+                while ((line = reader.readLine()) != null) {
+                    if (!line.isEmpty()) {
+                        applyEntry(db, new JSONObject(line), result);
+                    }
+                }
+                // A backup replaying our own changes is not a peer
+                if (!ownChanges) {
+                    ChangeLog.savePeerVector(db, senderDevice, ChangeLog.vectorFromJson(header.getJSONObject(KEY_VECTOR)));
+                }
+                db.setTransactionSuccessful();
+            } finally {
+                db.endTransaction();
+            }
+            result.senderDeviceId = senderDevice;
+        } catch (JSONException e) {
+            throw new IOException("Malformed sync bundle", e);
+        }
+
+        if (result.materialsChanged > 0 && onMaterialsChanged != null) {
+            onMaterialsChanged.run();
+        }
+        result.durationMs = System.currentTimeMillis() - start;
+        Log.d(TAG, "Imported " + result + " in " + result.durationMs + "ms");
+        return result;
+    }
+
+    public ImportResult importFromFile(File file) throws IOException {
+        InputStream in = new FileInputStream(file);
+        try {
+            return importDelta(in);
+        } finally {
+            in.close();
+        }
+    }
+
+    private void applyEntry(SQLiteDatabase db, JSONObject line, ImportResult result) throws JSONException {
+        result.received++;
+        String entity = line.getString(KEY_ENTITY);
+        String op = line.getString(KEY_OP);
+        long changedAt = line.getLong(KEY_CHANGED_AT);
+        long originDevice = line.getLong(KEY_ORIGIN_DEVICE);
+        JSONObject payload = line.getJSONObject(KEY_PAYLOAD);
+
+        ContentValues values = new ContentValues();
+        values.put(ChangeLog.COLUMN_ORIGIN_DEVICE, originDevice);
+        values.put(ChangeLog.COLUMN_ORIGIN_SEQ, line.getLong(KEY_ORIGIN_SEQ));
+        values.put(ChangeLog.COLUMN_ENTITY, entity);
+        values.put(ChangeLog.COLUMN_ENTITY_REF, line.getString(KEY_ENTITY_REF));
+        values.put(ChangeLog.COLUMN_OP, op);
+        values.put(ChangeLog.COLUMN_CHANGED_AT, changedAt);
+        values.put(ChangeLog.COLUMN_PAYLOAD, payload.toString());
+
+        // The log entry goes in first; UNIQUE(origin_device, origin_seq) turns a repeat into a no-op
+        long seq = db.insertWithOnConflict(ChangeLog.TABLE_CHANGE_LOG, null, values, SQLiteDatabase.CONFLICT_IGNORE);
+        if (seq == -1) {
+            result.duplicates++;
+            return;
+        }
+
+        if (ChangeLog.ENTITY_TRANSACTION.equals(entity)) {
+            if (TransactionsDBHelper.applyRemoteChange(db, payload)) {
+                result.applied++;
+            } else {
+                result.duplicates++;
+            }
+        } else if (ChangeLog.ENTITY_MATERIAL.equals(entity)) {
+            String[] refs = MaterialsDBHelper.changeRefs(payload);
+            if (hasNewerMaterialChange(db, seq, refs, changedAt, originDevice)) {
+                // Kept in the log so it is still passed on, but the newer change stands
+                result.conflicts++;
+                return;
+            }
+            try {
+                if (MaterialsDBHelper.applyRemoteChange(db, op, payload)) {
+                    result.applied++;
+                    result.materialsChanged++;
+                }
+            } catch (SQLiteConstraintException e) {
+                // e.g. renamed onto a name that is taken here; the local row wins
+                Log.w(TAG, "Material change for " + refs[0] + " conflicts with local data", e);
+                result.conflicts++;
+            }
+        } else {
+            // From a newer app version; stored and forwarded, applied once this one understands it
+            Log.w(TAG, "Skipping change for unknown entity " + entity);
+        }
+    }
+
+    // Last writer wins: any other entry for the same material that is later, ties broken by device id
+    private static boolean hasNewerMaterialChange(SQLiteDatabase db, long seq, String[] refs,
+                                                  long changedAt, long originDevice) {
+        StringBuilder placeholders = new StringBuilder();
+        List<String> args = new ArrayList<>();
+        args.add(ChangeLog.ENTITY_MATERIAL);
+        for (String ref : refs) {
+            placeholders.append(placeholders.length() > 0 ? ", ?" : "?");
+            args.add(ref);
+        }
+        args.add(String.valueOf(seq));
+        args.add(String.valueOf(changedAt));
+        args.add(String.valueOf(changedAt));
+        args.add(String.valueOf(originDevice));
+
+        Cursor cursor = db.rawQuery("SELECT 1 FROM " + ChangeLog.TABLE_CHANGE_LOG +
+                " WHERE " + ChangeLog.COLUMN_ENTITY + " = ? AND " + ChangeLog.COLUMN_ENTITY_REF +
+                " IN (" + placeholders + ") AND " + ChangeLog.COLUMN_SEQ + " <> ? AND (" +
+                ChangeLog.COLUMN_CHANGED_AT + " > ? OR (" + ChangeLog.COLUMN_CHANGED_AT + " = ? AND " +
+                ChangeLog.COLUMN_ORIGIN_DEVICE + " > ?)) LIMIT 1", args.toArray(new String[0]));
+        try {
+            return cursor.moveToFirst();
+        } finally {
+            cursor.close();
+        }
+    }
+
+    // ---- Socket ----
+
+    /**
+     * Two-way sync with another device over a connected socket. Each side sends its device id
+     * and version vector, then the bundle the other is missing. The initiator sends its bundle
+     * first and the other side reads before sending, so neither blocks on a full buffer.
+     * The socket is left open.
+     */
+    public SyncResult syncOverSocket(Socket socket, boolean initiator) throws IOException {
+        socket.setSoTimeout(SOCKET_TIMEOUT_MS);
+        DataOutputStream out = new DataOutputStream(socket.getOutputStream());
+        DataInputStream in = new DataInputStream(socket.getInputStream());
+        SyncResult result = new SyncResult();
+
+        Map<Long, Long> peerVector;
+        if (initiator) {
+            writeHello(out);
+            peerVector = readHello(in, result);
+        } else {
+            peerVector = readHello(in, result);
+            writeHello(out);
+        }
+
+        if (initiator) {
+            result.sent = sendBundle(out, peerVector);
+            result.received = importDelta(readFrame(in));
+        } else {
+            result.received = importDelta(readFrame(in));
+            result.sent = sendBundle(out, peerVector);
+        }
+        Log.d(TAG, "Synced with device " + result.peerDeviceId + ": sent " + result.sent.entries +
+                ", received " + result.received);
+        return result;
+    }
+
+    private void writeHello(DataOutputStream out) throws IOException {
+        out.writeInt(FORMAT_VERSION);
+        out.writeLong(deviceId);
+        out.writeUTF(ChangeLog.vectorToJson(ChangeLog.getVersionVector(helper.getReadableDatabase())).toString());
+        out.flush();
+    }
+
+    private Map<Long, Long> readHello(DataInputStream in, SyncResult result) throws IOException {
+        int format = in.readInt();
+        if (format != FORMAT_VERSION) {
+            throw new IOException("Peer speaks sync format " + format);
+        }
+        result.peerDeviceId = in.readLong();
+        if (result.peerDeviceId == deviceId) {
+            throw new IOException("Peer has the same device id " + deviceId);
+        }
+        try {
+            return ChangeLog.vectorFromJson(new JSONObject(in.readUTF()));
+        } catch (JSONException e) {
+            throw new IOException("Malformed version vector from peer", e);
+        }
+    }
+
+    private ExportResult sendBundle(DataOutputStream out, Map<Long, Long> peerVector) throws IOException {
+        ByteArrayOutputStream bundle = new ByteArrayOutputStream();
+        ExportResult result = exportDelta(bundle, peerVector);
+        out.writeInt(bundle.size());
+        bundle.writeTo(out);
+        out.flush();
+        return result;
+    }
+
+    private static InputStream readFrame(DataInputStream in) throws IOException {
+        int length = in.readInt();
+        if (length < 0 || length > MAX_FRAME_BYTES) {
+            throw new IOException("Bad sync frame length " + length);
+        }
+        byte[] frame = new byte[length];
+        in.readFully(frame);
+        return new ByteArrayInputStream(frame);
+    }
+
+    // Lets the gzip trailer be written without closing a socket or caller-owned stream
+    private static class NonClosingOutputStream extends OutputStream {
+        private final OutputStream out;
+
+        NonClosingOutputStream(OutputStream out) {
+            this.out = out;
+        }
+
+        @Override
+        public void write(int b) throws IOException {
+            out.write(b);
+        }
+
+        @Override
+        public void write(byte[] b, int off, int len) throws IOException {
+            out.write(b, off, len);
+        }
+
+        @Override
+        public void flush() throws IOException {
+            out.flush();
+        }
+
+        @Override
+        public void close() throws IOException {
+            flush();
+        }
+    }
+
+    // ---- Results ----
+
+    public static class ExportResult {
+        public int entries = 0;
+        public long durationMs = 0;
+    }
+
+    public static class ImportResult {
+        public long senderDeviceId;
+        public int received = 0;
+        public int applied = 0;
+        // Already here, from this bundle or an earlier one
+        public int duplicates = 0;
+        // Material changes that lost to a newer change for the same material
+        public int conflicts = 0;
+        public int materialsChanged = 0;
+        public long durationMs = 0;
+
+        @Override
+        public String toString() {
+            return received + " changes (" + applied + " applied, " + duplicates + " duplicates, " +
+                    conflicts + " conflicts)";
+        }
+    }
+
+    public static class SyncResult {
+        public long peerDeviceId;
+        public ExportResult sent;
+        public ImportResult received;
+    }
+}
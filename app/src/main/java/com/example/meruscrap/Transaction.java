@@ -6,8 +6,8 @@ public class Transaction {
     private long id;
     private String transactionId;
     private long timestamp;
-    private double totalWeight;
-    private double totalValue;
+    private long totalWeightGrams;
+    private long totalValueCents;
     private int materialCount;
     private String status; // "COMPLETED", "PENDING", "CANCELLED"
     private String notes;
@@ -23,19 +23,19 @@ public class Transaction {
     public Transaction(String transactionId, double totalWeight, double totalValue, int materialCount) {
         this();
         this.transactionId = transactionId;
-        this.totalWeight = totalWeight;
-        this.totalValue = totalValue;
+        this.totalWeightGrams = FixedPoint.toGrams(totalWeight);
+        this.totalValueCents = FixedPoint.toCents(totalValue);
         this.materialCount = materialCount;
     }
 
     // Full constructor
-    public Transaction(long id, String transactionId, long timestamp, double totalWeight,
-                       double totalValue, int materialCount, String status, String notes) {
+    public Transaction(long id, String transactionId, long timestamp, long totalWeightGrams,
+                       long totalValueCents, int materialCount, String status, String notes) {
         this.id = id;
         this.transactionId = transactionId;
         this.timestamp = timestamp;
-        this.totalWeight = totalWeight;
-        this.totalValue = totalValue;
+        this.totalWeightGrams = totalWeightGrams;
+        this.totalValueCents = totalValueCents;
         this.materialCount = materialCount;
         this.status = status;
         this.notes = notes;
@@ -67,19 +67,35 @@ public class Transaction {
     }
 
     public double getTotalWeight() {
-        return totalWeight;
+        return FixedPoint.fromGrams(totalWeightGrams);
     }
 
     public void setTotalWeight(double totalWeight) {
-        this.totalWeight = totalWeight;
+        this.totalWeightGrams = FixedPoint.toGrams(totalWeight);
+    }
+
+    public long getTotalWeightGrams() {
+        return totalWeightGrams;
+    }
+
+    public void setTotalWeightGrams(long totalWeightGrams) {
+        this.totalWeightGrams = totalWeightGrams;
     }
 
     public double getTotalValue() {
-        return totalValue;
+        return FixedPoint.fromCents(totalValueCents);
     }
 
     public void setTotalValue(double totalValue) {
-        this.totalValue = totalValue;
+        this.totalValueCents = FixedPoint.toCents(totalValue);
+    }
+
+    public long getTotalValueCents() {
+        return totalValueCents;
+    }
+
+    public void setTotalValueCents(long totalValueCents) {
+        this.totalValueCents = totalValueCents;
     }
 
     public int getMaterialCount() {
@@ -121,11 +137,11 @@ public class Transaction {
     }
 
     public String getFormattedTotalWeight() {
-        return String.format(java.util.Locale.getDefault(), "%.2f kg", totalWeight);
+        return String.format(java.util.Locale.getDefault(), "%.2f kg", getTotalWeight());
     }
 
     public String getFormattedTotalValue() {
-        return String.format(java.util.Locale.getDefault(), "KSH %.2f", totalValue);
+        return String.format(java.util.Locale.getDefault(), "KSH %.2f", getTotalValue());
     }
 
     @Override
@@ -134,8 +150,8 @@ public class Transaction {
                 "id=" + id +
                 ", transactionId='" + transactionId + '\'' +
                 ", timestamp=" + timestamp +
-                ", totalWeight=" + totalWeight +
-                ", totalValue=" + totalValue +
+                ", totalWeightGrams=" + totalWeightGrams +
+                ", totalValueCents=" + totalValueCents +
                 ", materialCount=" + materialCount +
                 ", status='" + status + '\'' +
                 '}';
@@ -0,0 +1,480 @@
+package com.example.meruscrap;
+
+import android.content.Context;
+import android.content.SharedPreferences;
+import android.database.Cursor;
+import android.database.sqlite.SQLiteDatabase;
+import android.util.Log;
+
+import java.io.File;
+import java.util.ArrayList;
+import java.util.Calendar;
+import java.util.Collections;
+import java.util.HashSet;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+import java.util.TreeMap;
+
+/**
+ * Moves old transactions out of the main database into one archive file per year
+ * (MeruScrapArchive_2024.db, ...) and lets TransactionsDBHelper ATTACH only the archives
+ * that a query's date range actually touches.
+ */
+public class TransactionArchiveManager {
+    private static final String TAG = "TransactionArchiveMgr";
+    private static final String PREFS_NAME = "transaction_archive";
+    private static final String KEY_HORIZON_DAYS = "archive_horizon_days";
+    private static final String KEY_LAST_RUN = "archive_last_run";
+
+    private static final String ARCHIVE_PREFIX = "MeruScrapArchive_";
+    private static final String ARCHIVE_SUFFIX = ".db";
+    private static final String HOT_SCHEMA = "hot";
+
+    public static final int DEFAULT_HORIZON_DAYS = 365;
+    public static final int DEFAULT_BATCH_SIZE = 200;
+    private static final long RUN_INTERVAL_MS = 24L * 60 * 60 * 1000;
+    private static final long DAY_MS = 24L * 60 * 60 * 1000;
+    // SQLite's default SQLITE_MAX_ATTACHED
+    private static final int MAX_ATTACHED = 10;
+
+    private static TransactionArchiveManager instance;
+
+    private final Context appContext;
+    private final SharedPreferences prefs;
+    // Read-only connection to the hot database that archives stay attached to once a reader has
+    // needed them, shared by every reader; guarded by this
+    private SQLiteDatabase readerDb;
+    private final Set<Integer> attachedYears = new HashSet<>();
+
+    public static synchronized TransactionArchiveManager getInstance(Context context) {
+        if (instance == null) {
+            instance = new TransactionArchiveManager(context.getApplicationContext());
+        }
+        return instance;
+    }
+
+    private TransactionArchiveManager(Context context) {
+        this.appContext = context;
+        this.prefs = context.getSharedPreferences(PREFS_NAME, Context.MODE_PRIVATE);
+    }
+
+    public int getHorizonDays() {
+        return prefs.getInt(KEY_HORIZON_DAYS, DEFAULT_HORIZON_DAYS);
+    }
+
+    public void setHorizonDays(int days) {
+        prefs.edit().putInt(KEY_HORIZON_DAYS, Math.max(1, days)).apply();
+    }
+
+    /**
+     * Run the archival job if it has not run in the last day. Call from a background thread.
+     */
+    public ArchiveResult runIfDue() {
+        long lastRun = prefs.getLong(KEY_LAST_RUN, 0);
+        if (System.currentTimeMillis() - lastRun < RUN_INTERVAL_MS) {
+            return new ArchiveResult();
+        }
+
+        ArchiveResult result = archiveOlderThan(getHorizonDays(), DEFAULT_BATCH_SIZE);
+        prefs.edit().putLong(KEY_LAST_RUN, System.currentTimeMillis()).apply();
+        return result;
+    }
+
+    /**
+     * Move transactions older than the horizon, with their items, into per-year archive files.
+     * Each batch is copied into the archive and committed there first, then deleted from the hot
+     * tables in a second transaction, so no commit spans two database files. The copy uses
+     * INSERT OR IGNORE, so a batch interrupted between the two commits is simply redone on the
+     * next run; only rows confirmed present in the archive are ever deleted.
+     */
+    public ArchiveResult archiveOlderThan(int horizonDays, int batchSize) {
+        ArchiveResult result = new ArchiveResult();
+        long start = System.currentTimeMillis();
+        long cutoff = start - horizonDays * DAY_MS;
+        TransactionsDBHelper helper = TransactionsDBHelper.getInstance(appContext);
+        File hotFile = appContext.getDatabasePath(MeruScrapDatabase.DATABASE_NAME);
+
+        try {
+            while (true) {
+                Map<Integer, List<Long>> batchByYear;
+                synchronized (helper) {
+                    batchByYear = selectBatch(helper.getReadableDatabase(), cutoff, batchSize);
+                }
+                if (batchByYear.isEmpty()) {
+                    break;
+                }
+
+                int moved = 0;
+                for (Map.Entry<Integer, List<Long>> entry : batchByYear.entrySet()) {
+                    int movedForYear;
+                    synchronized (helper) {
+                        movedForYear = moveBatch(helper.getWritableDatabase(), hotFile, entry.getKey(), entry.getValue());
+                    }
+                    moved += movedForYear;
+                    result.transactionsArchived += movedForYear;
+                    if (!result.years.contains(entry.getKey())) {
+                        result.years.add(entry.getKey());
+                    }
+                }
+                if (moved == 0) {
+                    // Nothing from this batch reached an archive; selecting it again would loop forever
+                    throw new IllegalStateException("No transactions could be copied to the archive");
+                }
+            }
+
+            synchronized (helper) {
+                SQLiteDatabase hotDb = helper.getWritableDatabase();
+                // A file from before incremental vacuum is switched over by one full VACUUM, here
+                // on the compute pool rather than in print history maintenance on the DB pool
+                boolean convert = !MeruScrapDatabase.hasIncrementalVacuum(hotDb);
+                if (convert) {
+                    hotDb.execSQL("PRAGMA auto_vacuum = " + MeruScrapDatabase.AUTO_VACUUM_INCREMENTAL);
+                }
+                if (convert || result.transactionsArchived > 0) {
+                    hotDb.execSQL("VACUUM");
+                }
+            }
+        } catch (Exception e) {
+            Log.e(TAG, "Archival stopped early", e);
+            result.error = e.getMessage();
+        }
+
+        result.durationMs = System.currentTimeMillis() - start;
+        Log.d(TAG, "Archived " + result.transactionsArchived + " transactions into " + result.years +
+                " in " + result.durationMs + "ms");
+        return result;
+    }
+
+    private Map<Integer, List<Long>> selectBatch(SQLiteDatabase hotDb, long cutoff, int batchSize) {
+        Map<Integer, List<Long>> batchByYear = new TreeMap<>();
+        Calendar calendar = Calendar.getInstance();
+        Cursor cursor = null;
+
+        try {
+            cursor = hotDb.rawQuery("SELECT " + TransactionsDBHelper.COLUMN_TRANSACTION_ID + ", " +
+                            TransactionsDBHelper.COLUMN_TIMESTAMP + " FROM " + TransactionsDBHelper.TABLE_TRANSACTIONS +
+                            " WHERE " + TransactionsDBHelper.COLUMN_TIMESTAMP + " < ? ORDER BY " +
+                            TransactionsDBHelper.COLUMN_TIMESTAMP + " LIMIT ?",
+                    new String[]{String.valueOf(cutoff), String.valueOf(batchSize)});
+
+            while (cursor.moveToNext()) {
+                calendar.setTimeInMillis(cursor.getLong(1));
+                int year = calendar.get(Calendar.YEAR);
+                List<Long> ids = batchByYear.get(year);
+                if (ids == null) {
+                    ids = new ArrayList<>();
+                    batchByYear.put(year, ids);
+                }
+                ids.add(cursor.getLong(0));
+            }
+        } finally {
+            if (cursor != null) {
+                cursor.close();
+            }
+        }
+
+        return batchByYear;
+    }
+
+    // The copy runs on the archive's own connection with the hot database attached only to be read,
+    // so the helper's connection never has an ATTACH (which would switch it out of WAL mode) and
+    // the copy commits to the archive file alone. The delete then runs on the helper's connection,
+    // a second single-file commit, for just the ids the archive now holds. Returns how many moved.
+    private int moveBatch(SQLiteDatabase hotDb, File hotFile, int year, List<Long> transactionIds) {
+        String transactions = TransactionsDBHelper.TABLE_TRANSACTIONS;
+        String items = TransactionsDBHelper.TABLE_TRANSACTION_ITEMS;
+        String itemParent = TransactionsDBHelper.COLUMN_ITEM_TRANSACTION_ID;
+        String id = TransactionsDBHelper.COLUMN_TRANSACTION_ID;
+        String idList = joinIds(transactionIds);
+        List<Long> archived = new ArrayList<>();
+
+        SQLiteDatabase archiveDb = openArchive(year, true);
+        try {
+            archiveDb.execSQL("ATTACH DATABASE ? AS " + HOT_SCHEMA, new Object[]{hotFile.getAbsolutePath()});
+            try {
+                archiveDb.beginTransaction();
+                try {
+                    // Archive tables are built from the same definitions as the hot ones, so column order matches
+                    archiveDb.execSQL("INSERT OR IGNORE INTO main." + transactions +
+                            " SELECT * FROM " + HOT_SCHEMA + "." + transactions + " WHERE " + id + " IN (" + idList + ")");
+                    archiveDb.execSQL("INSERT OR IGNORE INTO main." + items +
+                            " SELECT * FROM " + HOT_SCHEMA + "." + items + " WHERE " + itemParent + " IN (" + idList + ")");
+                    archiveDb.setTransactionSuccessful();
+                } finally {
+                    archiveDb.endTransaction();
+                }
+            } finally {
+                archiveDb.execSQL("DETACH DATABASE " + HOT_SCHEMA);
+            }
+
+            // Items were committed with their transaction, so a transaction row here means all of it is
+            Cursor cursor = archiveDb.rawQuery("SELECT " + id + " FROM main." + transactions +
+                    " WHERE " + id + " IN (" + idList + ")", null);
+            try {
+                while (cursor.moveToNext()) {
+                    archived.add(cursor.getLong(0));
+                }
+            } finally {
+                cursor.close();
+            }
+        } finally {
+            archiveDb.close();
+        }
+
+        if (archived.size() < transactionIds.size()) {
+            Log.w(TAG, (transactionIds.size() - archived.size()) + " of " + transactionIds.size() +
+                    " transactions for " + year + " are not in the archive; keeping them");
+        }
+        if (archived.isEmpty()) {
+            return 0;
+        }
+
+        String archivedList = joinIds(archived);
+        hotDb.beginTransaction();
+        try {
+            hotDb.execSQL("DELETE FROM " + items + " WHERE " + itemParent + " IN (" + archivedList + ")");
+            hotDb.execSQL("DELETE FROM " + transactions + " WHERE " + id + " IN (" + archivedList + ")");
+            hotDb.setTransactionSuccessful();
+        } finally {
+            hotDb.endTransaction();
+        }
+        return archived.size();
+    }
+
+    private SQLiteDatabase openArchive(int year, boolean create) {
+        File file = getArchiveFile(year);
+        if (!create) {
+            return SQLiteDatabase.openDatabase(file.getAbsolutePath(), null, SQLiteDatabase.OPEN_READONLY);
+        }
+
+        SQLiteDatabase db = SQLiteDatabase.openOrCreateDatabase(file, null);
+        if (db.getVersion() == 0) {
+            db.beginTransaction();
+            try {
+                TransactionsDBHelper.createArchiveTables(db);
+                db.setVersion(TransactionsDBHelper.SCHEMA_VERSION);
+                db.setTransactionSuccessful();
+            } finally {
+                db.endTransaction();
+            }
+            Log.d(TAG, "Created archive for " + year);
+        } else if (db.getVersion() < TransactionsDBHelper.SCHEMA_VERSION) {
+            // Rows are copied in with SELECT *, so the archive must match the hot table layout
+            db.beginTransaction();
+            try {
+                TransactionsDBHelper.migrateToItemRefs(db);
+                db.setVersion(TransactionsDBHelper.SCHEMA_VERSION);
+                db.setTransactionSuccessful();
+            } finally {
+                db.endTransaction();
+            }
+            Log.d(TAG, "Upgraded archive for " + year);
+        }
+        return db;
+    }
+
+    public File getArchiveFile(int year) {
+        return appContext.getDatabasePath(ARCHIVE_PREFIX + year + ARCHIVE_SUFFIX);
+    }
+
+    /**
+     * Years that have an archive file, oldest first.
+     */
+    public List<Integer> getArchiveYears() {
+        List<Integer> years = new ArrayList<>();
+        File dir = appContext.getDatabasePath(MeruScrapDatabase.DATABASE_NAME).getParentFile();
+        String[] names = dir != null ? dir.list() : null;
+        if (names == null) {
+            return years;
+        }
+
+        for (String name : names) {
+            if (name.startsWith(ARCHIVE_PREFIX) && name.endsWith(ARCHIVE_SUFFIX)) {
+                try {
+                    years.add(Integer.parseInt(name.substring(ARCHIVE_PREFIX.length(),
+                            name.length() - ARCHIVE_SUFFIX.length())));
+                } catch (NumberFormatException ignored) {
+                    // Not one of ours
+                }
+            }
+        }
+        Collections.sort(years);
+        return years;
+    }
+
+    /**
+     * Archive years overlapping [startTime, endTime).
+     */
+    public List<Integer> getArchiveYears(long startTime, long endTime) {
+        Calendar calendar = Calendar.getInstance();
+        calendar.setTimeInMillis(startTime);
+        int firstYear = calendar.get(Calendar.YEAR);
+        calendar.setTimeInMillis(Math.max(startTime, endTime - 1));
+        int lastYear = calendar.get(Calendar.YEAR);
+
+        List<Integer> years = new ArrayList<>();
+        for (int year : getArchiveYears()) {
+            if (year >= firstYear && year <= lastYear) {
+                years.add(year);
+            }
+        }
+        return years;
+    }
+
+    /**
+     * Open a reader over the hot tables plus every archive overlapping [startTime, endTime).
+     * When no archive is needed the helper's own connection is used and nothing is attached.
+     * Otherwise readers share one cached read-only connection, attaching an archive the first
+     * time a reader needs it and leaving it attached; ATTACH never runs on the helper's
+     * connection, which would switch it out of WAL mode.
+     */
+    public ArchiveReader openReader(SQLiteDatabase hotDb, long startTime, long endTime) {
+        List<Integer> years = getArchiveYears(startTime, endTime);
+        if (years.isEmpty()) {
+            return new ArchiveReader(hotDb, Collections.singletonList("main"), false);
+        }
+
+        List<String> schemas = new ArrayList<>();
+        schemas.add("main");
+        for (int year : years) {
+            schemas.add(schemaFor(year));
+        }
+
+        synchronized (this) {
+            if (readerDb == null || !readerDb.isOpen()) {
+                readerDb = openHotReadOnly();
+                attachedYears.clear();
+            }
+            Set<Integer> wanted = new HashSet<>(attachedYears);
+            wanted.addAll(years);
+            if (wanted.size() < MAX_ATTACHED) {
+                for (int year : years) {
+                    if (!attachedYears.contains(year)) {
+                        attach(readerDb, year);
+                        attachedYears.add(year);
+                    }
+                }
+                return new ArchiveReader(readerDb, schemas, false);
+            }
+        }
+
+        // More archives than one connection can hold attached: a private connection for this read
+        SQLiteDatabase db = openHotReadOnly();
+        try {
+            for (int year : years) {
+                attach(db, year);
+            }
+        } catch (RuntimeException e) {
+            db.close();
+            throw e;
+        }
+        return new ArchiveReader(db, schemas, true);
+    }
+
+    private SQLiteDatabase openHotReadOnly() {
+        File hotFile = appContext.getDatabasePath(MeruScrapDatabase.DATABASE_NAME);
+        return SQLiteDatabase.openDatabase(hotFile.getAbsolutePath(), null, SQLiteDatabase.OPEN_READONLY);
+    }
+
+    private void attach(SQLiteDatabase db, int year) {
+        db.execSQL("ATTACH DATABASE ? AS " + schemaFor(year), new Object[]{getArchiveFile(year).getAbsolutePath()});
+    }
+
+    private static String schemaFor(int year) {
+        return "archive_" + year;
+    }
+
+    /**
+     * Open each archive in turn (newest first) until the reader returns a non-null result.
+     * Used for lookups by id, which carry no date to pick the archive from.
+     */
+    public <T> T findInArchives(ArchiveLookup<T> lookup) {
+        List<Integer> years = getArchiveYears();
+        for (int i = years.size() - 1; i >= 0; i--) {
+            SQLiteDatabase db = null;
+            try {
+                db = openArchive(years.get(i), false);
+                T found = lookup.find(db);
+                if (found != null) {
+                    return found;
+                }
+            } catch (Exception e) {
+                Log.e(TAG, "Error reading archive " + years.get(i), e);
+            } finally {
+                if (db != null) {
+                    db.close();
+                }
+            }
+        }
+        return null;
+    }
+
+    private static String joinIds(List<Long> ids) {
+        StringBuilder sb = new StringBuilder();
+        for (Long id : ids) {
+            if (sb.length() > 0) {
+                sb.append(',');
+            }
+            sb.append(id);
+        }
+        return sb.toString();
+    }
+
+    public interface ArchiveLookup<T> {
+        T find(SQLiteDatabase archiveDb);
+    }
+
+    /**
+     * A connection plus the schema names ("main", "archive_2023", ...) a query should union over.
+     */
+    public static class ArchiveReader {
+        public final SQLiteDatabase db;
+        public final List<String> schemas;
+        private final boolean ownsConnection;
+
+        ArchiveReader(SQLiteDatabase db, List<String> schemas, boolean ownsConnection) {
+            this.db = db;
+            this.schemas = schemas;
+            this.ownsConnection = ownsConnection;
+        }
+
+        /**
+         * Repeat a per-schema SELECT (with %1$s where the schema name goes) joined by UNION ALL.
+         */
+        public String unionAll(String perSchemaSql) {
+            StringBuilder sql = new StringBuilder();
+            for (String schema : schemas) {
+                if (sql.length() > 0) {
+                    sql.append(" UNION ALL ");
+                }
+                sql.append(String.format(perSchemaSql, schema));
+            }
+            return sql.toString();
+        }
+
+        /**
+         * Repeat the per-schema bind arguments once for each schema in the union.
+         */
+        public String[] repeatArgs(String... args) {
+            String[] repeated = new String[args.length * schemas.size()];
+            for (int i = 0; i < schemas.size(); i++) {
+                System.arraycopy(args, 0, repeated, i * args.length, args.length);
+            }
+            return repeated;
+        }
+
+        public void close() {
+            if (ownsConnection) {
+                db.close();
+            }
+        }
+    }
+
+    public static class ArchiveResult {
+        public int transactionsArchived = 0;
+        public List<Integer> years = new ArrayList<>();
+        public long durationMs = 0;
+        public String error;
+    }
+}
@@ -0,0 +1,433 @@
+package com.example.meruscrap;
+
+import android.content.Context;
+import android.database.sqlite.SQLiteDatabase;
+import android.util.Log;
+
+import org.json.JSONObject;
+
+import java.io.BufferedOutputStream;
+import java.io.BufferedWriter;
+import java.io.File;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.io.OutputStream;
+import java.io.OutputStreamWriter;
+import java.io.Writer;
+import java.nio.charset.StandardCharsets;
+import java.text.SimpleDateFormat;
+import java.util.Date;
+import java.util.Locale;
+import java.util.zip.GZIPOutputStream;
+
+/**
+ * Streams transaction line items to CSV or NDJSON without loading the history into memory.
+ *
+ * Rows come from {@link TransactionsDBHelper#forEachExportRow} in keyset pages and are written
+ * straight through a buffered (optionally gzipped) writer into one reused row object, so memory
+ * use is the page plus the buffers whatever the size of the history. Files are written under
+ * the app's "exports" directory, to a .part file that is renamed once complete.
+ *
+ * Exports block; run them off the main thread.
+ */
+public class TransactionExporter {
+    private static final String TAG = "TransactionExporter";
+
+    private static final String EXPORT_DIR = "exports";
+    private static final String PARTIAL_SUFFIX = ".part";
+    static final int PAGE_SIZE = 500;
+    private static final int BUFFER_SIZE = 64 * 1024;
+
+    public enum Format {
+        CSV("csv"),
+        NDJSON("ndjson");
+
+        final String extension;
+
+        Format(String extension) {
+            this.extension = extension;
+        }
+    }
+
+    // Defaults export everything as plain CSV
+    public static class Options {
+        public Format format = Format.CSV;
+        public boolean gzip = false;
+        public long startTime = 0;
+        public long endTime = Long.MAX_VALUE;
+        // Only these materials; null or empty for all
+        public long[] materialIds;
+    }
+
+    public interface ProgressListener {
+        // Called on the exporting thread after each page and once at the end
+        void onProgress(long rowsWritten, long totalRows);
+    }
+
+    private static TransactionExporter instance;
+
+    private final Context appContext;
+    private final TransactionsDBHelper dbHelper;
+
+    public static synchronized TransactionExporter getInstance(Context context) {
+        if (instance == null) {
+            instance = new TransactionExporter(context.getApplicationContext());
+        }
+        return instance;
+    }
+
+    private TransactionExporter(Context context) {
+        this.appContext = context;
+        this.dbHelper = TransactionsDBHelper.getInstance(context);
+    }
+
+    public File getExportDirectory() {
+        File dir = appContext.getExternalFilesDir(EXPORT_DIR);
+        if (dir == null) {
+            // No shared storage mounted
+            dir = new File(appContext.getFilesDir(), EXPORT_DIR);
+        }
+        if (!dir.exists() && !dir.mkdirs()) {
+            Log.w(TAG, "Could not create " + dir);
+        }
+        return dir;
+    }
+
+    /**
+     * Export to a new file in the export directory. On failure the partial file is removed
+     * and the result carries the error.
+     */
+    public ExportResult exportToFile(Options options, ProgressListener listener) {
+        ExportResult result = new ExportResult();
+        long start = System.currentTimeMillis();
+        String name = "transactions_" + new SimpleDateFormat("yyyyMMdd_HHmmss", Locale.US).format(new Date()) +
+                "." + options.format.extension + (options.gzip ? ".gz" : "");
+        File file = new File(getExportDirectory(), name);
+        File partial = new File(file.getPath() + PARTIAL_SUFFIX);
+
+        try {
+            FileOutputStream out = new FileOutputStream(partial);
+            try {
+                result.rows = write(out, options, listener);
+            } finally {
+                out.close();
+            }
+            if (!partial.renameTo(file)) {
+                throw new IOException("Could not rename " + partial + " to " + file);
+            }
+            result.file = file;
+            result.bytes = file.length();
+        } catch (Exception e) {
+            Log.e(TAG, "Export failed", e);
+            result.error = e.getMessage();
+            if (partial.exists() && !partial.delete()) {
+                Log.w(TAG, "Could not delete " + partial);
+            }
+        }
+
+        result.durationMs = System.currentTimeMillis() - start;
+        Log.d(TAG, "Export: " + result);
+        return result;
+    }
+
+    /**
+     * Write matching rows to the stream and return how many there were. The stream is
+     * finished (gzip trailer included) but not closed.
+     */
+    public long write(OutputStream out, Options options, ProgressListener listener) throws IOException {
+        long total = listener != null
+                ? dbHelper.countExportRows(options.startTime, options.endTime, options.materialIds) : -1;
+        RowWriter writer = new RowWriter(out, options, total, listener);
+        dbHelper.forEachExportRow(options.startTime, options.endTime, options.materialIds, PAGE_SIZE, writer);
+        return writer.finish();
+    }
+
+    // ---- Benchmark ----
+
+    /**
+     * Diagnostic: seed a scratch database with itemRows items, export them to a discarding
+     * stream and report throughput and the heap growth seen while exporting. The scratch
+     * database is deleted afterwards.
+     */
+    public ExportBenchmark benchmark(int itemRows, Format format, boolean gzip) {
+        ExportBenchmark benchmark = new ExportBenchmark();
+        benchmark.format = format;
+        benchmark.gzip = gzip;
+        File dbFile = new File(appContext.getCacheDir(), "export_benchmark.db");
+        SQLiteDatabase.deleteDatabase(dbFile);
+        SQLiteDatabase db = null;
+
+        try {
+            db = SQLiteDatabase.openOrCreateDatabase(dbFile, null);
+            long start = System.nanoTime();
+            TransactionsDBHelper.seedBenchmarkData(db, itemRows);
+            benchmark.seedMs = (System.nanoTime() - start) / 1_000_000;
+
+            Options options = new Options();
+            options.format = format;
+            options.gzip = gzip;
+            Runtime runtime = Runtime.getRuntime();
+            System.gc();
+            long baseline = runtime.totalMemory() - runtime.freeMemory();
+            long[] peak = {baseline};
+            ProgressListener sampler = (rowsWritten, totalRows) ->
+                    peak[0] = Math.max(peak[0], runtime.totalMemory() - runtime.freeMemory());
+
+            CountingOutputStream sink = new CountingOutputStream();
+            start = System.nanoTime();
+            RowWriter writer = new RowWriter(sink, options, itemRows, sampler);
+            TransactionsDBHelper.forEachExportRow(db, "main", options.startTime, options.endTime,
+                    null, PAGE_SIZE, writer);
+            benchmark.rows = writer.finish();
+            long elapsed = System.nanoTime() - start;
+
+            benchmark.bytes = sink.count;
+            benchmark.exportMs = elapsed / 1_000_000;
+            benchmark.rowsPerSec = elapsed > 0 ? benchmark.rows * 1_000_000_000.0 / elapsed : 0;
+            benchmark.peakHeapGrowthKb = (peak[0] - baseline) / 1024;
+            Log.d(TAG, "Export benchmark: " + benchmark);
+        } catch (Exception e) {
+            Log.e(TAG, "Error running export benchmark", e);
+        } finally {
+            if (db != null) {
+                db.close();
+            }
+            SQLiteDatabase.deleteDatabase(dbFile);
+        }
+
+        return benchmark;
+    }
+
+    // ---- Row formatting ----
+
+    /**
+     * Formats rows as they arrive. Money and weight are written from the stored integers, and
+     * the date is formatted once per transaction rather than once per item.
+     */
+    private static class RowWriter implements TransactionsDBHelper.ExportRowVisitor {
+        private static final String CSV_HEADER = "transaction_ref,date,status,item_ref,material_id," +
+                "material,weight_kg,price_per_kg,value,item_notes,transaction_notes";
+
+        private final GZIPOutputStream gzip;
+        private final Writer writer;
+        private final Format format;
+        private final long total;
+        private final ProgressListener listener;
+        private final SimpleDateFormat dateFormat = new SimpleDateFormat("yyyy-MM-dd HH:mm:ss", Locale.US);
+        private final StringBuilder line = new StringBuilder(256);
+
+        private long rows;
+        private long dateTransactionId = -1;
+        private String date;
+
+        RowWriter(OutputStream out, Options options, long total, ProgressListener listener) throws IOException {
+            OutputStream target = new BufferedOutputStream(new NonClosingOutputStream(out), BUFFER_SIZE);
+            this.gzip = options.gzip ? new GZIPOutputStream(target, BUFFER_SIZE) : null;
+            this.writer = new BufferedWriter(new OutputStreamWriter(gzip != null ? gzip : target,
+                    StandardCharsets.UTF_8), BUFFER_SIZE);
+            this.format = options.format;
+            this.total = total;
+            this.listener = listener;
+
+            if (format == Format.CSV) {
+                writer.write(CSV_HEADER);
+                writer.write('\n');
+            }
+        }
+
+        @Override
+        public void visit(TransactionsDBHelper.ExportRow row) throws IOException {
+            if (row.transactionId != dateTransactionId) {
+                dateTransactionId = row.transactionId;
+                date = dateFormat.format(new Date(row.timestamp));
+            }
+
+            line.setLength(0);
+            if (format == Format.CSV) {
+                appendCsv(row);
+            } else {
+                appendJson(row);
+            }
+            line.append('\n');
+            writer.append(line);
+
+            if (++rows % PAGE_SIZE == 0 && listener != null) {
+                listener.onProgress(rows, total);
+            }
+        }
+
+        // Flush everything through the gzip trailer, leaving the caller's stream open
+        long finish() throws IOException {
+            writer.flush();
+            if (gzip != null) {
+                gzip.finish();
+            }
+            writer.close();
+            if (listener != null) {
+                listener.onProgress(rows, total);
+            }
+            return rows;
+        }
+
+        private void appendCsv(TransactionsDBHelper.ExportRow row) {
+            appendCsvField(row.transactionRef).append(',');
+            line.append(date).append(',');
+            appendCsvField(row.status).append(',');
+            appendCsvField(row.itemRef).append(',');
+            if (row.materialId > 0) {
+                line.append(row.materialId);
+            }
+            line.append(',');
+            appendCsvField(row.materialName).append(',');
+            appendDecimal(row.weightGrams, 3).append(',');
+            appendDecimal(row.pricePerKgCents, 2).append(',');
+            appendDecimal(row.valueCents, 2).append(',');
+            appendCsvField(row.itemNotes).append(',');
+            appendCsvField(row.transactionNotes);
+        }
+
+        // Integer units in JSON, so values round-trip exactly
+        private void appendJson(TransactionsDBHelper.ExportRow row) {
+            line.append("{\"transaction_ref\":").append(JSONObject.quote(row.transactionRef))
+                    .append(",\"timestamp\":").append(row.timestamp)
+                    .append(",\"date\":").append(JSONObject.quote(date))
+                    .append(",\"status\":").append(jsonString(row.status))
+                    .append(",\"item_ref\":").append(jsonString(row.itemRef))
+                    .append(",\"material_id\":");
+            if (row.materialId > 0) {
+                line.append(row.materialId);
+            } else {
+                line.append("null");
+            }
+            line.append(",\"material\":").append(jsonString(row.materialName))
+                    .append(",\"weight_g\":").append(row.weightGrams)
+                    .append(",\"price_per_kg_cents\":").append(row.pricePerKgCents)
+                    .append(",\"value_cents\":").append(row.valueCents)
+                    .append(",\"item_notes\":").append(jsonString(row.itemNotes))
+                    .append(",\"transaction_notes\":").append(jsonString(row.transactionNotes))
+                    .append('}');
+        }
+
+        private static String jsonString(String value) {
+            return value != null ? JSONObject.quote(value) : "null";
+        }
+
+        // RFC 4180: quote fields holding a separator, quote or line break, doubling inner quotes
+        private StringBuilder appendCsvField(String value) {
+            if (value == null) {
+                return line;
+            }
+            boolean quote = false;
+            for (int i = 0; i < value.length() && !quote; i++) {
+                char c = value.charAt(i);
+                quote = c == ',' || c == '"' || c == '\n' || c == '\r';
+            }
+            if (!quote) {
+                return line.append(value);
+            }
+            line.append('"');
+            for (int i = 0; i < value.length(); i++) {
+                char c = value.charAt(i);
+                if (c == '"') {
+                    line.append('"');
+                }
+                line.append(c);
+            }
+            return line.append('"');
+        }
+
+        // Fixed-point integer as a decimal string, e.g. (12345, 2) -> 123.45
+        private StringBuilder appendDecimal(long value, int decimals) {
+            if (value < 0) {
+                line.append('-');
+                value = -value;
+            }
+            long scale = decimals == 3 ? 1000 : 100;
+            line.append(value / scale).append('.');
+            long fraction = value % scale;
+            for (long digit = scale / 10; digit > 1 && fraction < digit; digit /= 10) {
+                line.append('0');
+            }
+            return line.append(fraction);
+        }
+    }
+
+    // Lets the writer be closed (releasing its encoder) without closing the caller's stream
+    private static class NonClosingOutputStream extends OutputStream {
+        private final OutputStream out;
+
+        NonClosingOutputStream(OutputStream out) {
+            this.out = out;
+        }
+
+        @Override
+        public void write(int b) throws IOException {
+            out.write(b);
+        }
+
+        @Override
+        public void write(byte[] b, int off, int len) throws IOException {
+            out.write(b, off, len);
+        }
+
+        @Override
+        public void flush() throws IOException {
+            out.flush();
+        }
+
+        @Override
+        public void close() throws IOException {
+            flush();
+        }
+    }
+
+    // Discards what is written, keeping only the byte count
+    private static class CountingOutputStream extends OutputStream {
+        long count;
+
+        @Override
+        public void write(int b) {
+            count++;
+        }
+
+        @Override
+        public void write(byte[] b, int off, int len) {
+            count += len;
+        }
+    }
+
+    // ---- Results ----
+
+    public static class ExportResult {
+        public File file;
+        public long rows = 0;
+        public long bytes = 0;
+        public long durationMs = 0;
+        public String error;
+
+        @Override
+        public String toString() {
+            return error != null ? "failed: " + error
+                    : rows + " rows, " + bytes + " bytes in " + durationMs + "ms to " + file;
+        }
+    }
+
+    public static class ExportBenchmark {
+        public Format format;
+        public boolean gzip;
+        public long rows = 0;
+        public long bytes = 0;
+        public long seedMs = 0;
+        public long exportMs = 0;
+        public double rowsPerSec = 0.0;
+        public long peakHeapGrowthKb = 0;
+
+        @Override
+        public String toString() {
+            return String.format(Locale.US,
+                    "%s%s: %d rows, %.1f MB in %dms (%.0f rows/s, seeded in %dms), peak heap +%d KB",
+                    format, gzip ? "+gzip" : "", rows, bytes / (1024.0 * 1024.0), exportMs, rowsPerSec,
+                    seedMs, peakHeapGrowthKb);
+        }
+    }
+}
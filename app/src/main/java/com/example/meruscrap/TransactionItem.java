@@ -3,10 +3,11 @@ package com.example.meruscrap;
 public class TransactionItem {
     private long id;
     private long transactionId;
-    private String materialName;
-    private double weight;
-    private double pricePerKg;
-    private double totalValue;
+    private long materialId; // materials.id, 0 when unknown
+    private String materialName; // snapshot of the name at sale time, used on receipts
+    private long weightGrams;
+    private long pricePerKgCents;
+    private long totalValueCents;
     private long timestamp;
     private String notes;
 
@@ -19,10 +20,11 @@ public class TransactionItem {
     public TransactionItem(long transactionId, TransactionMaterial transactionMaterial) {
         this();
         this.transactionId = transactionId;
+        this.materialId = transactionMaterial.getMaterialId();
         this.materialName = transactionMaterial.getMaterialName();
-        this.weight = transactionMaterial.getWeight();
-        this.pricePerKg = transactionMaterial.getPricePerKg();
-        this.totalValue = transactionMaterial.getValue();
+        this.weightGrams = transactionMaterial.getWeightGrams();
+        this.pricePerKgCents = transactionMaterial.getPricePerKgCents();
+        this.totalValueCents = transactionMaterial.getValueCents();
     }
 
     // Constructor with essential fields
@@ -31,20 +33,21 @@ public class TransactionItem {
         this();
         this.transactionId = transactionId;
         this.materialName = materialName;
-        this.weight = weight;
-        this.pricePerKg = pricePerKg;
-        this.totalValue = totalValue;
+        this.weightGrams = FixedPoint.toGrams(weight);
+        this.pricePerKgCents = FixedPoint.toCents(pricePerKg);
+        this.totalValueCents = FixedPoint.toCents(totalValue);
     }
 
     // Full constructor
-    public TransactionItem(long id, long transactionId, String materialName, double weight,
-                           double pricePerKg, double totalValue, long timestamp, String notes) {
+    public TransactionItem(long id, long transactionId, long materialId, String materialName, long weightGrams,
+                           long pricePerKgCents, long totalValueCents, long timestamp, String notes) {
         this.id = id;
         this.transactionId = transactionId;
+        this.materialId = materialId;
         this.materialName = materialName;
-        this.weight = weight;
-        this.pricePerKg = pricePerKg;
-        this.totalValue = totalValue;
+        this.weightGrams = weightGrams;
+        this.pricePerKgCents = pricePerKgCents;
+        this.totalValueCents = totalValueCents;
         this.timestamp = timestamp;
         this.notes = notes;
     }
@@ -66,6 +69,14 @@ public class TransactionItem {
         this.transactionId = transactionId;
     }
 
+    public long getMaterialId() {
+        return materialId;
+    }
+
+    public void setMaterialId(long materialId) {
+        this.materialId = materialId;
+    }
+
     public String getMaterialName() {
         return materialName;
     }
@@ -75,27 +86,39 @@ public class TransactionItem {
     }
 
     public double getWeight() {
-        return weight;
+        return FixedPoint.fromGrams(weightGrams);
     }
 
     public void setWeight(double weight) {
-        this.weight = weight;
+        this.weightGrams = FixedPoint.toGrams(weight);
+    }
+
+    public long getWeightGrams() {
+        return weightGrams;
     }
 
     public double getPricePerKg() {
-        return pricePerKg;
+        return FixedPoint.fromCents(pricePerKgCents);
     }
 
     public void setPricePerKg(double pricePerKg) {
-        this.pricePerKg = pricePerKg;
+        this.pricePerKgCents = FixedPoint.toCents(pricePerKg);
+    }
+
+    public long getPricePerKgCents() {
+        return pricePerKgCents;
     }
 
     public double getTotalValue() {
-        return totalValue;
+        return FixedPoint.fromCents(totalValueCents);
     }
 
     public void setTotalValue(double totalValue) {
-        this.totalValue = totalValue;
+        this.totalValueCents = FixedPoint.toCents(totalValue);
+    }
+
+    public long getTotalValueCents() {
+        return totalValueCents;
     }
 
     public long getTimestamp() {
@@ -116,15 +139,15 @@ public class TransactionItem {
 
     // Utility methods
     public String getFormattedWeight() {
-        return String.format(java.util.Locale.getDefault(), "%.2f kg", weight);
+        return String.format(java.util.Locale.getDefault(), "%.2f kg", getWeight());
     }
 
     public String getFormattedPrice() {
-        return String.format(java.util.Locale.getDefault(), "KSH %.2f/kg", pricePerKg);
+        return String.format(java.util.Locale.getDefault(), "KSH %.2f/kg", getPricePerKg());
     }
 
     public String getFormattedValue() {
-        return String.format(java.util.Locale.getDefault(), "KSH %.2f", totalValue);
+        return String.format(java.util.Locale.getDefault(), "KSH %.2f", getTotalValue());
     }
 
     public String getFormattedTimestamp() {
@@ -137,10 +160,11 @@ public class TransactionItem {
         return "TransactionItem{" +
                 "id=" + id +
                 ", transactionId=" + transactionId +
+                ", materialId=" + materialId +
                 ", materialName='" + materialName + '\'' +
-                ", weight=" + weight +
-                ", pricePerKg=" + pricePerKg +
-                ", totalValue=" + totalValue +
+                ", weightGrams=" + weightGrams +
+                ", pricePerKgCents=" + pricePerKgCents +
+                ", totalValueCents=" + totalValueCents +
                 ", timestamp=" + timestamp +
                 '}';
     }
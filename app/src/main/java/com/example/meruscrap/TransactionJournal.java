@@ -0,0 +1,365 @@
+package com.example.meruscrap;
+
+import android.content.Context;
+import android.util.Log;
+
+import org.json.JSONArray;
+import org.json.JSONException;
+import org.json.JSONObject;
+
+import java.io.BufferedReader;
+import java.io.File;
+import java.io.FileInputStream;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.io.InputStreamReader;
+import java.nio.charset.StandardCharsets;
+import java.util.ArrayList;
+import java.util.Date;
+import java.util.HashMap;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.RejectedExecutionException;
+
+/**
+ * Append-only, fsync'd journal of confirmed transactions.
+ *
+ * A sale is durable as soon as append() returns; a background applier then writes it, with
+ * its receipt print job, to TransactionsDBHelper and records an "applied" marker. Anything
+ * without a marker is replayed on startup. Applying is idempotent on transaction_ref, so a
+ * crash between the SQLite commit and the marker only causes a harmless re-check.
+ *
+ * A failed apply is retried on the applier with exponential backoff. Once a sale has failed
+ * ATTEMPTS_BEFORE_ALERT times the StuckListener is told, so the clerk knows it is not in the
+ * database (reports and sync will not show it) although it is safe in the journal.
+ */
+public class TransactionJournal {
+    private static final String TAG = "TransactionJournal";
+    private static final String JOURNAL_FILE = "transaction_journal.log";
+
+    private static final String TYPE_TRANSACTION = "txn";
+    private static final String TYPE_APPLIED = "applied";
+
+    static final int ATTEMPTS_BEFORE_ALERT = 5;
+    private static final long RETRY_BASE_MS = 500;
+    private static final long RETRY_MAX_MS = 60_000;
+
+    private static TransactionJournal instance;
+
+    private final TransactionsDBHelper dbHelper;
+    private final File journalFile;
+    private final ExecutorService applier;
+
+    // Entries written but not yet applied, in append order; guarded by this
+    private final Map<String, JSONObject> pending = new LinkedHashMap<>();
+    // Failed attempts so far for entries being retried; guarded by this
+    private final Map<String, Integer> failedAttempts = new HashMap<>();
+    private volatile StuckListener stuckListener;
+
+    // Metrics
+    private long appendCount = 0;
+    private long totalAppendNanos = 0;
+    private long maxAppendNanos = 0;
+    private int replayedCount = 0;
+    private long lastReplayMs = 0;
+
+    public interface ApplyCallback {
+        // Once applied, or with -1 once ATTEMPTS_BEFORE_ALERT attempts have failed (retries go on)
+        void onApplied(String transactionRef, long transactionId);
+    }
+
+    public interface StuckListener {
+        // Main thread: the sale has failed to apply this many times and is still being retried
+        void onApplyStuck(String transactionRef, int attempts, int pendingCount);
+    }
+
+    public static synchronized TransactionJournal getInstance(Context context) {
+        if (instance == null) {
+            instance = new TransactionJournal(context.getApplicationContext());
+        }
+        return instance;
+    }
+
+    private TransactionJournal(Context context) {
+        this.dbHelper = TransactionsDBHelper.getInstance(context);
+        this.journalFile = new File(context.getFilesDir(), JOURNAL_FILE);
+        // The shared DB pool is serial. Entries are independent, so one deferred under load may apply late
+        this.applier = AppExecutors.get().db();
+    }
+
+    public void setStuckListener(StuckListener listener) {
+        this.stuckListener = listener;
+    }
+
+    /**
+     * Durably record a confirmed transaction and queue it for the database.
+     * Returns once the entry is fsync'd; the SQLite write happens on the applier thread.
+     * Throws only if the entry could not be written, i.e. when the sale was not recorded.
+     */
+    public void append(Transaction transaction, List<TransactionMaterial> materials,
+                       ApplyCallback callback) throws IOException {
+        long start = System.nanoTime();
+        JSONObject entry;
+        try {
+            entry = toJson(transaction, materials);
+        } catch (JSONException e) {
+            throw new IOException("Could not encode transaction " + transaction.getTransactionId(), e);
+        }
+
+        synchronized (this) {
+            writeLine(entry);
+            pending.put(transaction.getTransactionId(), entry);
+
+            long elapsed = System.nanoTime() - start;
+            appendCount++;
+            totalAppendNanos += elapsed;
+            maxAppendNanos = Math.max(maxAppendNanos, elapsed);
+        }
+
+        Log.d(TAG, "Journaled " + transaction.getTransactionId() + " in " +
+                (System.nanoTime() - start) / 1000 + "us");
+        // The sale is durable from here on, so nothing below may throw back to the caller
+        String transactionRef = transaction.getTransactionId();
+        try {
+            applier.execute(() -> applyEntry(transactionRef, callback));
+        } catch (RejectedExecutionException e) {
+            // If the retry is dropped as well, the entry is still pending and the next replay applies it
+            Log.w(TAG, "Applier busy, deferring " + transactionRef, e);
+            AppExecutors.get().schedule(AppExecutors.Pool.DB, () -> applyEntry(transactionRef, callback),
+                    RETRY_BASE_MS);
+        }
+    }
+
+    /**
+     * Re-read the journal and apply every entry that has no applied marker.
+     * Call once at startup; runs on the applier thread.
+     */
+    public void replay() {
+        applier.execute(() -> {
+            long start = System.currentTimeMillis();
+            List<String> refs;
+            synchronized (this) {
+                loadPending();
+                refs = new ArrayList<>(pending.keySet());
+            }
+
+            for (String ref : refs) {
+                applyEntry(ref, null);
+            }
+
+            synchronized (this) {
+                replayedCount = refs.size();
+                lastReplayMs = System.currentTimeMillis() - start;
+            }
+            Log.d(TAG, "Replayed " + refs.size() + " journal entries in " + lastReplayMs + "ms");
+        });
+    }
+
+    private void applyEntry(String transactionRef, ApplyCallback callback) {
+        JSONObject entry;
+        synchronized (this) {
+            entry = pending.get(transactionRef);
+        }
+        if (entry == null) {
+            return;
+        }
+
+        long transactionId;
+        try {
+            transactionId = dbHelper.getTransactionIdByRef(transactionRef);
+            if (transactionId <= 0) {
+                List<TransactionMaterial> materials = new ArrayList<>();
+                Transaction transaction = fromJson(entry, materials);
+                transactionId = dbHelper.saveTransactionWithReceipt(transaction, materials, receiptJob(transaction));
+            } else {
+                Log.d(TAG, transactionRef + " already in database, skipping");
+            }
+        } catch (JSONException e) {
+            Log.e(TAG, "Dropping unreadable journal entry " + transactionRef, e);
+            markApplied(transactionRef);
+            return;
+        }
+
+        if (transactionId > 0) {
+            synchronized (this) {
+                failedAttempts.remove(transactionRef);
+            }
+            markApplied(transactionRef);
+            if (callback != null) {
+                callback.onApplied(transactionRef, transactionId);
+            }
+            return;
+        }
+
+        int attempts;
+        int pendingCount;
+        synchronized (this) {
+            Integer previous = failedAttempts.get(transactionRef);
+            attempts = previous != null ? previous + 1 : 1;
+            failedAttempts.put(transactionRef, attempts);
+            pendingCount = pending.size();
+        }
+        // Still pending in the journal, so a retry dropped here is picked up by the next replay
+        long delay = Math.min(RETRY_MAX_MS, RETRY_BASE_MS << Math.min(attempts - 1, 16));
+        Log.e(TAG, "Failed to apply " + transactionRef + " (attempt " + attempts + "), retrying in " + delay + "ms");
+        AppExecutors.get().schedule(AppExecutors.Pool.DB, () -> applyEntry(transactionRef, callback), delay);
+
+        if (attempts == ATTEMPTS_BEFORE_ALERT) {
+            if (callback != null) {
+                callback.onApplied(transactionRef, -1);
+            }
+            StuckListener listener = stuckListener;
+            if (listener != null) {
+                AppExecutors.get().mainThread().execute(
+                        () -> listener.onApplyStuck(transactionRef, attempts, pendingCount));
+            }
+        }
+    }
+
+    private synchronized void markApplied(String transactionRef) {
+        pending.remove(transactionRef);
+        try {
+            if (pending.isEmpty()) {
+                // Everything written so far is in SQLite: start a fresh journal
+                truncate();
+            } else {
+                JSONObject marker = new JSONObject();
+                marker.put("type", TYPE_APPLIED);
+                marker.put("ref", transactionRef);
+                writeLine(marker);
+            }
+        } catch (IOException | JSONException e) {
+            // Worst case the entry is re-checked on replay and skipped by ref
+            Log.e(TAG, "Could not record applied marker for " + transactionRef, e);
+        }
+    }
+
+    private void writeLine(JSONObject entry) throws IOException {
+        FileOutputStream out = new FileOutputStream(journalFile, true);
+        try {
+            out.write((entry.toString() + "\n").getBytes(StandardCharsets.UTF_8));
+            out.flush();
+            out.getFD().sync();
+        } finally {
+            out.close();
+        }
+    }
+
+    private void truncate() throws IOException {
+        FileOutputStream out = new FileOutputStream(journalFile, false);
+        try {
+            out.getFD().sync();
+        } finally {
+            out.close();
+        }
+    }
+
+    private void loadPending() {
+        pending.clear();
+        if (!journalFile.exists()) {
+            return;
+        }
+
+        BufferedReader reader = null;
+        try {
+            reader = new BufferedReader(new InputStreamReader(
+                    new FileInputStream(journalFile), StandardCharsets.UTF_8));
+            String line;
+            while ((line = reader.readLine()) != null) {
+                if (line.isEmpty()) {
+                    continue;
+                }
+                try {
+                    JSONObject entry = new JSONObject(line);
+                    String ref = entry.getString("ref");
+                    if (TYPE_APPLIED.equals(entry.optString("type"))) {
+                        pending.remove(ref);
+                    } else {
+                        pending.put(ref, entry);
+                    }
+                } catch (JSONException e) {
+                    // A torn final line from a crash mid-append; the sale was never acknowledged
+                    Log.w(TAG, "Skipping unreadable journal line");
+                }
+            }
+        } catch (IOException e) {
+            Log.e(TAG, "Error reading journal", e);
+        } finally {
+            if (reader != null) {
+                try {
+                    reader.close();
+                } catch (IOException e) {
+                    Log.e(TAG, "Error closing journal", e);
+                }
+            }
+        }
+    }
+
+    // Recorded with the sale, not queued: it is printed when the clerk asks for the receipt
+    private static PrintHistoryManager.PrintJob receiptJob(Transaction transaction) {
+        PrintHistoryManager.PrintJob job = new PrintHistoryManager.PrintJob();
+        job.jobId = PrintHistoryManager.receiptJobId(transaction.getTransactionId());
+        job.jobType = PrintHistoryManager.PrintJobType.RECEIPT;
+        job.status = PrintHistoryManager.PrintJobStatus.QUEUED;
+        job.createdAt = new Date(transaction.getTimestamp());
+        job.templateVersion = ReceiptRenderer.TEMPLATE_VERSION;
+        return job;
+    }
+
+    private static JSONObject toJson(Transaction transaction, List<TransactionMaterial> materials) throws JSONException {
+        JSONObject entry = new JSONObject();
+        entry.put("type", TYPE_TRANSACTION);
+        entry.put("ref", transaction.getTransactionId());
+        entry.put("timestamp", transaction.getTimestamp());
+        entry.put("weightGrams", transaction.getTotalWeightGrams());
+        entry.put("valueCents", transaction.getTotalValueCents());
+        entry.put("materialCount", transaction.getMaterialCount());
+        entry.put("status", transaction.getStatus());
+        entry.put("notes", transaction.getNotes());
+
+        JSONArray items = new JSONArray();
+        for (TransactionMaterial material : materials) {
+            JSONObject item = new JSONObject();
+            item.put("materialId", material.getMaterialId());
+            item.put("name", material.getMaterialName());
+            item.put("weightGrams", material.getWeightGrams());
+            item.put("priceCents", material.getPricePerKgCents());
+            item.put("timestamp", material.getTimestamp());
+            items.put(item);
+        }
+        entry.put("items", items);
+        return entry;
+    }
+
+    private static Transaction fromJson(JSONObject entry, List<TransactionMaterial> materials) throws JSONException {
+        Transaction transaction = new Transaction(0, entry.getString("ref"), entry.getLong("timestamp"),
+                entry.getLong("weightGrams"), entry.getLong("valueCents"), entry.getInt("materialCount"),
+                entry.getString("status"), entry.optString("notes", null));
+
+        JSONArray items = entry.getJSONArray("items");
+        for (int i = 0; i < items.length(); i++) {
+            JSONObject item = items.getJSONObject(i);
+            materials.add(new TransactionMaterial(
+                    item.getLong("materialId"),
+                    item.getString("name"),
+                    FixedPoint.fromGrams(item.getLong("weightGrams")),
+                    FixedPoint.fromCents(item.getLong("priceCents")),
+                    item.getLong("timestamp")));
+        }
+        return transaction;
+    }
+
+    public synchronized int getPendingCount() {
+        return pending.size();
+    }
+
+    public synchronized String getStats() {
+        double avgMs = appendCount > 0 ? totalAppendNanos / 1_000_000.0 / appendCount : 0;
+        return String.format(java.util.Locale.US,
+                "appends=%d avg=%.2fms max=%.2fms pending=%d retrying=%d replayed=%d replayTime=%dms",
+                appendCount, avgMs, maxAppendNanos / 1_000_000.0, pending.size(), failedAttempts.size(),
+                replayedCount, lastReplayMs);
+    }
+}
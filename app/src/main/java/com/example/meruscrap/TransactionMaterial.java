@@ -5,29 +5,47 @@ package com.example.meruscrap;
  * This is the final material entry that gets added to the transaction summary
  */
 public class TransactionMaterial {
+    private long materialId; // materials.id, 0 when the material is not in the catalog
     private String materialName;
-    private double weight;
-    private double pricePerKg;
+    private long weightGrams;
+    private long pricePerKgCents;
     private long timestamp;
 
     public TransactionMaterial(String materialName, double weight, double pricePerKg, long timestamp) {
+        this(0, materialName, weight, pricePerKg, timestamp);
+    }
+
+    public TransactionMaterial(long materialId, String materialName, double weight, double pricePerKg, long timestamp) {
+        this.materialId = materialId;
         this.materialName = materialName;
-        this.weight = weight;
-        this.pricePerKg = pricePerKg;
+        this.weightGrams = FixedPoint.toGrams(weight);
+        this.pricePerKgCents = FixedPoint.toCents(pricePerKg);
         this.timestamp = timestamp;
     }
 
     // Getters
+    public long getMaterialId() {
+        return materialId;
+    }
+
     public String getMaterialName() {
         return materialName;
     }
 
     public double getWeight() {
-        return weight;
+        return FixedPoint.fromGrams(weightGrams);
+    }
+
+    public long getWeightGrams() {
+        return weightGrams;
     }
 
     public double getPricePerKg() {
-        return pricePerKg;
+        return FixedPoint.fromCents(pricePerKgCents);
+    }
+
+    public long getPricePerKgCents() {
+        return pricePerKgCents;
     }
 
     public long getTimestamp() {
@@ -35,20 +53,28 @@ public class TransactionMaterial {
     }
 
     public double getValue() {
-        return weight * pricePerKg;
+        return FixedPoint.fromCents(getValueCents());
+    }
+
+    public long getValueCents() {
+        return FixedPoint.valueCents(weightGrams, pricePerKgCents);
     }
 
     // Setters
+    public void setMaterialId(long materialId) {
+        this.materialId = materialId;
+    }
+
     public void setMaterialName(String materialName) {
         this.materialName = materialName;
     }
 
     public void setWeight(double weight) {
-        this.weight = weight;
+        this.weightGrams = FixedPoint.toGrams(weight);
     }
 
     public void setPricePerKg(double pricePerKg) {
-        this.pricePerKg = pricePerKg;
+        this.pricePerKgCents = FixedPoint.toCents(pricePerKg);
     }
 
     public void setTimestamp(long timestamp) {
@@ -57,7 +83,7 @@ public class TransactionMaterial {
 
     // Utility methods
     public String getFormattedWeight() {
-        return String.format("%.2f kg", weight);
+        return String.format("%.2f kg", getWeight());
     }
 
     public String getFormattedValue() {
@@ -65,15 +91,16 @@ public class TransactionMaterial {
     }
 
     public String getFormattedPrice() {
-        return String.format("KSH %.2f/kg", pricePerKg);
+        return String.format("KSH %.2f/kg", getPricePerKg());
     }
 
     @Override
     public String toString() {
         return "TransactionMaterial{" +
-                "materialName='" + materialName + '\'' +
-                ", weight=" + weight +
-                ", pricePerKg=" + pricePerKg +
+                "materialId=" + materialId +
+                ", materialName='" + materialName + '\'' +
+                ", weightGrams=" + weightGrams +
+                ", pricePerKgCents=" + pricePerKgCents +
                 ", timestamp=" + timestamp +
                 ", value=" + getValue() +
                 '}';
@@ -84,8 +111,8 @@ public class TransactionMaterial {
         if (this == obj) return true;
         if (obj == null || getClass() != obj.getClass()) return false;
         TransactionMaterial that = (TransactionMaterial) obj;
-        return Double.compare(that.weight, weight) == 0 &&
-                Double.compare(that.pricePerKg, pricePerKg) == 0 &&
+        return weightGrams == that.weightGrams &&
+                pricePerKgCents == that.pricePerKgCents &&
                 timestamp == that.timestamp &&
                 materialName.equals(that.materialName);
     }
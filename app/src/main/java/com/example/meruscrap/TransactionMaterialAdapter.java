@@ -6,20 +6,26 @@ import android.view.ViewGroup;
 import android.widget.TextView;
 
 import androidx.annotation.NonNull;
+import androidx.recyclerview.widget.AsyncListDiffer;
+import androidx.recyclerview.widget.DiffUtil;
 import androidx.recyclerview.widget.RecyclerView;
 
 import com.google.android.material.button.MaterialButton;
 
 import java.text.DecimalFormat;
+import java.util.ArrayList;
 import java.util.List;
+import java.util.Objects;
 
 /**
  * Adapter for displaying transaction materials in the transaction summary list
  * Used in the transaction summary card to show all materials added to the current transaction
  */
 public class TransactionMaterialAdapter extends RecyclerView.Adapter<TransactionMaterialAdapter.ViewHolder> {
-    private List<TransactionMaterial> materials;
+    // Holds its own snapshot; callers pass the updated list to updateMaterials after each change
+    private final AsyncListDiffer<TransactionMaterial> materials = new AsyncListDiffer<>(this, DIFF_CALLBACK);
     private OnMaterialRemovedListener listener;
+    private final RenderStats renderStats = RenderStats.forList("Transaction summary");
     private DecimalFormat weightFormat = new DecimalFormat("0.00");
     private DecimalFormat currencyFormat = new DecimalFormat("KSH #,##0.00");
 
@@ -28,8 +34,9 @@ public class TransactionMaterialAdapter extends RecyclerView.Adapter<Transaction
     }
 
     public TransactionMaterialAdapter(List<TransactionMaterial> materials, OnMaterialRemovedListener listener) {
-        this.materials = materials;
         this.listener = listener;
+        setHasStableIds(true);
+        this.materials.submitList(materials != null ? new ArrayList<>(materials) : new ArrayList<>());
     }
 
     @NonNull
@@ -42,7 +49,8 @@ public class TransactionMaterialAdapter extends RecyclerView.Adapter<Transaction
 
     @Override
     public void onBindViewHolder(@NonNull ViewHolder holder, int position) {
-        TransactionMaterial material = materials.get(position);
+        long start = renderStats.bindStarted();
+        TransactionMaterial material = materials.getCurrentList().get(position);
 
         holder.tvMaterialName.setText(material.getMaterialName());
         holder.tvWeight.setText(weightFormat.format(material.getWeight()) + " kg");
@@ -61,39 +69,46 @@ public class TransactionMaterialAdapter extends RecyclerView.Adapter<Transaction
                         weightFormat.format(material.getWeight()) + " kilograms, " +
                         currencyFormat.format(material.getValue()) + ", tap remove button to delete"
         );
+        renderStats.bindFinished(start);
     }
 
     @Override
     public int getItemCount() {
-        return materials.size();
+        return materials.getCurrentList().size();
+    }
+
+    // Materials are combined by name, so each appears once in the list
+    @Override
+    public long getItemId(int position) {
+        return stableId(materials.getCurrentList().get(position));
     }
 
     /**
-     * Update the materials list and refresh the adapter
+     * Show the given list. The diff runs in the background, so adding one weighed item
+     * inserts or rebinds just that row.
      */
     public void updateMaterials(List<TransactionMaterial> newMaterials) {
-        this.materials.clear();
-        if (newMaterials != null) {
-            this.materials.addAll(newMaterials);
-        }
-        notifyDataSetChanged();
+        renderStats.listUpdated();
+        materials.submitList(newMaterials != null ? new ArrayList<>(newMaterials) : new ArrayList<>());
     }
 
     /**
      * Add a new material to the list
      */
     public void addMaterial(TransactionMaterial material) {
-        materials.add(material);
-        notifyItemInserted(materials.size() - 1);
+        List<TransactionMaterial> updated = new ArrayList<>(materials.getCurrentList());
+        updated.add(material);
+        updateMaterials(updated);
     }
 
     /**
      * Remove material at position
      */
     public void removeMaterial(int position) {
-        if (position >= 0 && position < materials.size()) {
-            materials.remove(position);
-            notifyItemRemoved(position);
+        List<TransactionMaterial> updated = new ArrayList<>(materials.getCurrentList());
+        if (position >= 0 && position < updated.size()) {
+            updated.remove(position);
+            updateMaterials(updated);
         }
     }
 
@@ -101,9 +116,10 @@ public class TransactionMaterialAdapter extends RecyclerView.Adapter<Transaction
      * Update material at position
      */
     public void updateMaterial(int position, TransactionMaterial material) {
-        if (position >= 0 && position < materials.size()) {
-            materials.set(position, material);
-            notifyItemChanged(position);
+        List<TransactionMaterial> updated = new ArrayList<>(materials.getCurrentList());
+        if (position >= 0 && position < updated.size()) {
+            updated.set(position, material);
+            updateMaterials(updated);
         }
     }
 
@@ -111,8 +127,9 @@ public class TransactionMaterialAdapter extends RecyclerView.Adapter<Transaction
      * Get material at position
      */
     public TransactionMaterial getMaterialAt(int position) {
-        if (position >= 0 && position < materials.size()) {
-            return materials.get(position);
+        List<TransactionMaterial> current = materials.getCurrentList();
+        if (position >= 0 && position < current.size()) {
+            return current.get(position);
         }
         return null;
     }
@@ -121,31 +138,55 @@ public class TransactionMaterialAdapter extends RecyclerView.Adapter<Transaction
      * Check if the list is empty
      */
     public boolean isEmpty() {
-        return materials.isEmpty();
+        return materials.getCurrentList().isEmpty();
     }
 
     /**
      * Get total weight of all materials
      */
     public double getTotalWeight() {
-        double total = 0.0;
-        for (TransactionMaterial material : materials) {
-            total += material.getWeight();
+        long totalGrams = 0;
+        for (TransactionMaterial material : materials.getCurrentList()) {
+            totalGrams += material.getWeightGrams();
         }
-        return total;
+        return FixedPoint.fromGrams(totalGrams);
     }
 
     /**
      * Get total value of all materials
      */
     public double getTotalValue() {
-        double total = 0.0;
-        for (TransactionMaterial material : materials) {
-            total += material.getValue();
+        long totalCents = 0;
+        for (TransactionMaterial material : materials.getCurrentList()) {
+            totalCents += material.getValueCents();
         }
-        return total;
+        return FixedPoint.fromCents(totalCents);
     }
 
+    // Catalog id when there is one, otherwise derived from the name (negative, so the two never meet)
+    private static long stableId(TransactionMaterial material) {
+        if (material.getMaterialId() > 0) {
+            return material.getMaterialId();
+        }
+        String name = material.getMaterialName();
+        return -1L - (name != null ? name.hashCode() & 0x7fffffffL : 0);
+    }
+
+    private static final DiffUtil.ItemCallback<TransactionMaterial> DIFF_CALLBACK =
+            new DiffUtil.ItemCallback<TransactionMaterial>() {
+                @Override
+                public boolean areItemsTheSame(@NonNull TransactionMaterial oldItem, @NonNull TransactionMaterial newItem) {
+                    return stableId(oldItem) == stableId(newItem);
+                }
+
+                @Override
+                public boolean areContentsTheSame(@NonNull TransactionMaterial oldItem, @NonNull TransactionMaterial newItem) {
+                    return Objects.equals(oldItem.getMaterialName(), newItem.getMaterialName())
+                            && oldItem.getWeightGrams() == newItem.getWeightGrams()
+                            && oldItem.getPricePerKgCents() == newItem.getPricePerKgCents();
+                }
+            };
+
     static class ViewHolder extends RecyclerView.ViewHolder {
         TextView tvMaterialName, tvWeight, tvValue, tvPrice;
         MaterialButton btnRemove;
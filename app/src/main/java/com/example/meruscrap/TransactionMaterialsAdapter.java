@@ -10,13 +10,18 @@ import android.widget.ImageView;
 import android.widget.TextView;
 
 import androidx.annotation.NonNull;
+import androidx.recyclerview.widget.AsyncListDiffer;
+import androidx.recyclerview.widget.DiffUtil;
 import androidx.recyclerview.widget.RecyclerView;
 
 import com.google.android.material.card.MaterialCardView;
 
 import java.text.DecimalFormat;
 import java.util.ArrayList;
+import java.util.HashSet;
 import java.util.List;
+import java.util.Objects;
+import java.util.Set;
 
 /**
  * FIXED: Specialized adapter for material selection in transactions
@@ -26,11 +31,15 @@ import java.util.List;
 public class TransactionMaterialsAdapter extends RecyclerView.Adapter<TransactionMaterialsAdapter.MaterialViewHolder> {
     private static final String TAG = "TransactionMaterialsAdapter";
 
+    // Rebind only the "already added" overlay, not the whole card
+    private static final Object PAYLOAD_USED_STATE = new Object();
+
     private Context context;
-    private List<Material> materials;
-    private List<String> usedMaterialIds;
+    private final AsyncListDiffer<Material> materials = new AsyncListDiffer<>(this, DIFF_CALLBACK);
+    private final Set<String> usedMaterialIds = new HashSet<>();
     private OnMaterialClickListener listener;
     private DecimalFormat currencyFormat;
+    private final RenderStats renderStats = RenderStats.forList("Transaction material grid");
 
     public interface OnMaterialClickListener {
         void onMaterialClick(Material material, int position);
@@ -39,11 +48,14 @@ public class TransactionMaterialsAdapter extends RecyclerView.Adapter<Transactio
 
     public TransactionMaterialsAdapter(Context context, List<Material> materials, List<String> usedMaterialIds) {
         this.context = context;
-        this.materials = materials != null ? new ArrayList<>(materials) : new ArrayList<>();
-        this.usedMaterialIds = usedMaterialIds != null ? new ArrayList<>(usedMaterialIds) : new ArrayList<>();
+        if (usedMaterialIds != null) {
+            this.usedMaterialIds.addAll(usedMaterialIds);
+        }
         this.currencyFormat = new DecimalFormat("KSH #,##0.00");
+        setHasStableIds(true);
+        this.materials.submitList(materials != null ? new ArrayList<>(materials) : new ArrayList<>());
 
-        Log.d(TAG, "Adapter created with " + this.materials.size() + " materials and " + this.usedMaterialIds.size() + " used materials");
+        Log.d(TAG, "Adapter created with " + getItemCount() + " materials and " + this.usedMaterialIds.size() + " used materials");
     }
 
     public void setOnMaterialClickListener(OnMaterialClickListener listener) {
@@ -60,98 +72,87 @@ public class TransactionMaterialsAdapter extends RecyclerView.Adapter<Transactio
 
     @Override
     public void onBindViewHolder(@NonNull MaterialViewHolder holder, int position) {
-        if (position < materials.size()) {
-            Material material = materials.get(position);
-            holder.bind(material, position);
+        List<Material> current = materials.getCurrentList();
+        if (position < current.size()) {
+            long start = renderStats.bindStarted();
+            holder.bind(current.get(position));
+            renderStats.bindFinished(start);
         } else {
-            Log.w(TAG, "Invalid position: " + position + ", materials size: " + materials.size());
+            Log.w(TAG, "Invalid position: " + position + ", materials size: " + current.size());
+        }
+    }
+
+    @Override
+    public void onBindViewHolder(@NonNull MaterialViewHolder holder, int position, @NonNull List<Object> payloads) {
+        if (payloads.isEmpty() || position >= getItemCount()) {
+            onBindViewHolder(holder, position);
+            return;
         }
+        long start = renderStats.bindStarted();
+        holder.bindUsedState(materials.getCurrentList().get(position));
+        renderStats.bindFinished(start);
     }
 
     @Override
     public int getItemCount() {
-        int count = materials.size();
-        Log.d(TAG, "getItemCount: " + count);
-        return count;
+        return materials.getCurrentList().size();
+    }
+
+    @Override
+    public long getItemId(int position) {
+        return materials.getCurrentList().get(position).getId();
     }
 
     /**
-     * FIXED: Update the materials list and refresh the adapter
+     * Replace the materials list. The diff runs in the background and only rows whose
+     * material actually changed are rebound.
      */
     public void updateMaterials(List<Material> newMaterials) {
         Log.d(TAG, "updateMaterials called with " + (newMaterials != null ? newMaterials.size() : "NULL") + " materials");
 
-        // EMERGENCY FIX: Create new list if current one is broken
-        if (this.materials == null) {
-            this.materials = new ArrayList<>();
-            Log.d(TAG, "Creating new materials list - was null");
-        }
-
-        // Clear existing
-        this.materials.clear();
-        Log.d(TAG, "Cleared materials list, size now: " + this.materials.size());
-
-        // Add new materials with extra checking
-        if (newMaterials != null && !newMaterials.isEmpty()) {
-            try {
-                // Add one by one with verification
-                for (Material material : newMaterials) {
-                    if (material != null) {
-                        this.materials.add(material);
-                        Log.d(TAG, "Added material: " + material.getName() + " (Total now: " + this.materials.size() + ")");
-                    } else {
-                        Log.w(TAG, "Skipped null material");
-                    }
-                }
-
-                Log.d(TAG, "Successfully added " + this.materials.size() + " materials");
-
-                // Verify the list
-                if (this.materials.size() != newMaterials.size()) {
-                    Log.e(TAG, "SIZE MISMATCH! Expected: " + newMaterials.size() + ", Got: " + this.materials.size());
+        List<Material> snapshot = new ArrayList<>();
+        if (newMaterials != null) {
+            for (Material material : newMaterials) {
+                if (material != null) {
+                    snapshot.add(material);
+                } else {
+                    Log.w(TAG, "Skipped null material");
                 }
-
-            } catch (Exception e) {
-                Log.e(TAG, "Error adding materials: " + e.getMessage(), e);
-                // Fallback: recreate list
-                this.materials = new ArrayList<>(newMaterials);
-                Log.d(TAG, "Fallback: recreated list with size: " + this.materials.size());
             }
-        } else {
-            Log.w(TAG, "newMaterials is null or empty");
         }
 
-        Log.d(TAG, "FINAL: Materials updated, new count: " + this.materials.size());
-
-        // Force notify change
-        notifyDataSetChanged();
-
-        // Additional verification
-        Log.d(TAG, "After notifyDataSetChanged(), getItemCount(): " + getItemCount());
+        renderStats.listUpdated();
+        materials.submitList(snapshot);
     }
 
     /**
-     * FIXED: Update the list of used material IDs and refresh the adapter
+     * Update the set of materials already in the transaction. Only the cards whose
+     * state flipped are rebound, and only their overlay.
      */
     public void updateUsedMaterials(List<String> newUsedMaterialIds) {
-        Log.d(TAG, "updateUsedMaterials called with " + (newUsedMaterialIds != null ? newUsedMaterialIds.size() : 0) + " used materials");
-
-        this.usedMaterialIds.clear();
+        Set<String> updated = new HashSet<>();
         if (newUsedMaterialIds != null) {
-            this.usedMaterialIds.addAll(newUsedMaterialIds);
+            updated.addAll(newUsedMaterialIds);
+        }
+
+        List<Material> current = materials.getCurrentList();
+        for (int i = 0; i < current.size(); i++) {
+            String id = String.valueOf(current.get(i).getId());
+            if (usedMaterialIds.contains(id) != updated.contains(id)) {
+                notifyItemChanged(i, PAYLOAD_USED_STATE);
+            }
         }
 
-        Log.d(TAG, "Used materials updated, new count: " + this.usedMaterialIds.size());
-        notifyDataSetChanged();
+        usedMaterialIds.clear();
+        usedMaterialIds.addAll(updated);
+        Log.d(TAG, "Used materials updated, new count: " + usedMaterialIds.size());
     }
 
     /**
      * Check if a material is already used in the current transaction
      */
     public boolean isMaterialUsed(long materialId) {
-        boolean isUsed = usedMaterialIds.contains(String.valueOf(materialId));
-        Log.d(TAG, "Material ID " + materialId + " is used: " + isUsed);
-        return isUsed;
+        return usedMaterialIds.contains(String.valueOf(materialId));
     }
 
     /**
@@ -159,12 +160,13 @@ public class TransactionMaterialsAdapter extends RecyclerView.Adapter<Transactio
      */
     public int getAvailableMaterialsCount() {
         int count = 0;
-        for (Material material : materials) {
+        List<Material> current = materials.getCurrentList();
+        for (Material material : current) {
             if (!isMaterialUsed(material.getId())) {
                 count++;
             }
         }
-        Log.d(TAG, "Available materials count: " + count + " out of " + materials.size());
+        Log.d(TAG, "Available materials count: " + count + " out of " + current.size());
         return count;
     }
 
@@ -172,15 +174,16 @@ public class TransactionMaterialsAdapter extends RecyclerView.Adapter<Transactio
      * Get all materials (for external access)
      */
     public List<Material> getAllMaterials() {
-        return new ArrayList<>(materials);
+        return new ArrayList<>(materials.getCurrentList());
     }
 
     /**
      * Get material at specific position
      */
     public Material getMaterialAt(int position) {
-        if (position >= 0 && position < materials.size()) {
-            return materials.get(position);
+        List<Material> current = materials.getCurrentList();
+        if (position >= 0 && position < current.size()) {
+            return current.get(position);
         }
         return null;
     }
@@ -189,7 +192,7 @@ public class TransactionMaterialsAdapter extends RecyclerView.Adapter<Transactio
      * Check if adapter is empty
      */
     public boolean isEmpty() {
-        return materials.isEmpty();
+        return materials.getCurrentList().isEmpty();
     }
 
     /**
@@ -199,6 +202,21 @@ public class TransactionMaterialsAdapter extends RecyclerView.Adapter<Transactio
         return getAvailableMaterialsCount() > 0;
     }
 
+    // Same material by id; contents compared on the fields the card shows
+    private static final DiffUtil.ItemCallback<Material> DIFF_CALLBACK = new DiffUtil.ItemCallback<Material>() {
+        @Override
+        public boolean areItemsTheSame(@NonNull Material oldItem, @NonNull Material newItem) {
+            return oldItem.getId() == newItem.getId();
+        }
+
+        @Override
+        public boolean areContentsTheSame(@NonNull Material oldItem, @NonNull Material newItem) {
+            return Objects.equals(oldItem.getName(), newItem.getName())
+                    && oldItem.getPricePerKg() == newItem.getPricePerKg()
+                    && Objects.equals(oldItem.getIcon(), newItem.getIcon());
+        }
+    };
+
     public class MaterialViewHolder extends RecyclerView.ViewHolder {
         private MaterialCardView materialCard;
         private TextView tvMaterialIcon;
@@ -234,14 +252,12 @@ public class TransactionMaterialsAdapter extends RecyclerView.Adapter<Transactio
                     ", price=" + (tvMaterialPrice != null));
         }
 
-        public void bind(Material material, int position) {
+        public void bind(Material material) {
             if (material == null) {
-                Log.w(TAG, "Attempting to bind null material at position " + position);
+                Log.w(TAG, "Attempting to bind null material");
                 return;
             }
 
-            Log.d(TAG, "Binding material: " + material.getName() + " at position " + position);
-
             try {
                 // Set material data with null checks
                 if (tvMaterialIcon != null) {
@@ -257,24 +273,27 @@ public class TransactionMaterialsAdapter extends RecyclerView.Adapter<Transactio
                     tvMaterialPrice.setText(priceText);
                 }
 
-                // Check if material is used in current transaction
-                boolean isUsed = isMaterialUsed(material.getId());
-                Log.d(TAG, "Material " + material.getName() + " is used: " + isUsed);
-
-                // Handle used state visual feedback
-                handleUsedState(isUsed);
-
-                // Set up click listeners
-                setupClickListeners(material, position, isUsed);
-
-                // Set accessibility description
-                setAccessibilityDescription(material, isUsed);
+                bindUsedState(material);
 
             } catch (Exception e) {
                 Log.e(TAG, "Error binding material " + material.getName() + ": " + e.getMessage(), e);
             }
         }
 
+        // The parts of the card that depend on whether the material is already in the transaction
+        void bindUsedState(Material material) {
+            boolean isUsed = isMaterialUsed(material.getId());
+
+            // Handle used state visual feedback
+            handleUsedState(isUsed);
+
+            // Set up click listeners
+            setupClickListeners(material, isUsed);
+
+            // Set accessibility description
+            setAccessibilityDescription(material, isUsed);
+        }
+
         private void handleUsedState(boolean isUsed) {
             if (materialOverlay != null) {
                 if (isUsed) {
@@ -308,7 +327,7 @@ public class TransactionMaterialsAdapter extends RecyclerView.Adapter<Transactio
             }
         }
 
-        private void setupClickListeners(Material material, int position, boolean isUsed) {
+        private void setupClickListeners(Material material, boolean isUsed) {
             if (materialCard != null) {
                 if (!isUsed && listener != null) {
                     // Set up click listeners only for available materials
@@ -325,13 +344,14 @@ public class TransactionMaterialsAdapter extends RecyclerView.Adapter<Transactio
                             if (ivSelectedIndicator != null) {
                                 ivSelectedIndicator.setVisibility(View.GONE);
                             }
-                            listener.onMaterialClick(material, position);
+                            // Read at click time: diffed rows can move without a rebind
+                            listener.onMaterialClick(material, getAdapterPosition());
                         }, 150);
                     });
 
                     materialCard.setOnLongClickListener(v -> {
                         Log.d(TAG, "Material long clicked: " + material.getName());
-                        listener.onMaterialLongClick(material, position);
+                        listener.onMaterialLongClick(material, getAdapterPosition());
                         return true;
                     });
                 } else {
@@ -101,7 +101,9 @@ public class Transactions extends Fragment implements
     private String signalStrength = "Strong";
 
     // Database Integration
-    private MaterialsDBHelper materialsDBHelper;
+    private MaterialCatalog materialCatalog;
+    // Price edits and new materials from the Materials screen show up without a reload
+    private final MaterialCatalog.Listener catalogListener = materials -> forceLoadMaterials();
     private TransactionsDBHelper transactionsDBHelper;
 
     // Data Management
@@ -266,6 +268,7 @@ public class Transactions extends Fragment implements
     public void onResume() {
         super.onResume();
         Log.d(TAG, "=== onResume() ===");
+        RenderStats.startFrameMonitor();
 
         // Force reload materials
         if (getView() != null) {
@@ -282,7 +285,7 @@ public class Transactions extends Fragment implements
     public void onPause() {
         super.onPause();
         Log.d(TAG, "=== onPause() ===");
-        // Fragment paused
+        RenderStats.stopFrameMonitor();
     }
 
 
@@ -309,7 +312,8 @@ public class Transactions extends Fragment implements
         // Initialize database helper with proper context checking
         try {
             if (getContext() != null) {
-                materialsDBHelper = MaterialsDBHelper.getInstance(getContext());
+                materialCatalog = MaterialCatalog.getInstance(getContext());
+                materialCatalog.addListener(catalogListener);
                 transactionsDBHelper = TransactionsDBHelper.getInstance(getContext());
                 Log.d(TAG, "Database helpers initialized successfully");
             } else {
@@ -667,12 +671,13 @@ public class Transactions extends Fragment implements
             return;
         }
 
-        if (materialsDBHelper == null) {
-            Log.e(TAG, "Database helper is null, attempting to reinitialize");
+        if (materialCatalog == null) {
+            Log.e(TAG, "Material catalog is null, attempting to reinitialize");
             try {
-                materialsDBHelper = MaterialsDBHelper.getInstance(getContext());
+                materialCatalog = MaterialCatalog.getInstance(getContext());
+                materialCatalog.addListener(catalogListener);
             } catch (Exception e) {
-                Log.e(TAG, "Failed to reinitialize database helper", e);
+                Log.e(TAG, "Failed to reinitialize material catalog", e);
                 return;
             }
         }
@@ -682,25 +687,31 @@ public class Transactions extends Fragment implements
             return;
         }
 
+        if (!materialCatalog.isLoaded()) {
+            // The load runs on the DB pool; catalogListener brings us back here when it is done
+            Log.d(TAG, "Material catalog still loading");
+            materialCatalog.preload();
+            return;
+        }
+
         try {
             // Clear existing materials
             availableMaterials.clear();
             Log.d(TAG, "Cleared existing materials");
 
-            // Get direct count from database
-            int dbCount = materialsDBHelper.getMaterialsCount();
-            Log.d(TAG, "Database reports " + dbCount + " materials");
+            int catalogCount = materialCatalog.size();
+            Log.d(TAG, "Catalog holds " + catalogCount + " materials");
 
-            if (dbCount == 0) {
-                Log.i(TAG, "Database is empty, creating default materials");
+            if (catalogCount == 0) {
+                Log.i(TAG, "Catalog is empty, creating default materials");
                 createDefaultMaterials();
-                dbCount = materialsDBHelper.getMaterialsCount();
-                Log.d(TAG, "After creating defaults, database has " + dbCount + " materials");
+                catalogCount = materialCatalog.size();
+                Log.d(TAG, "After creating defaults, catalog has " + catalogCount + " materials");
             }
 
-            // Load materials from database
-            List<Material> dbMaterials = materialsDBHelper.getAllMaterials();
-            Log.d(TAG, "getAllMaterials() returned: " + (dbMaterials != null ? dbMaterials.size() : "NULL"));
+            // Served from memory, no query
+            List<Material> dbMaterials = materialCatalog.getAll();
+            Log.d(TAG, "Catalog returned: " + (dbMaterials != null ? dbMaterials.size() : "NULL"));
 
             if (dbMaterials != null && !dbMaterials.isEmpty()) {
                 availableMaterials.addAll(dbMaterials);
@@ -715,7 +726,6 @@ public class Transactions extends Fragment implements
                 // Force update adapter
                 materialSelectionAdapter.updateMaterials(availableMaterials);
                 materialSelectionAdapter.updateUsedMaterials(usedMaterialIds);
-                materialSelectionAdapter.notifyDataSetChanged();
 
                 Log.d(TAG, "Adapter updated - item count: " + materialSelectionAdapter.getItemCount());
 
@@ -730,7 +740,7 @@ public class Transactions extends Fragment implements
                 }
 
             } else {
-                Log.w(TAG, "No materials loaded from database");
+                Log.w(TAG, "No materials in catalog");
                 showNoMaterialsState();
             }
 
@@ -763,7 +773,7 @@ public class Transactions extends Fragment implements
             int successCount = 0;
             for (Material material : defaultMaterials) {
                 try {
-                    long result = materialsDBHelper.insertMaterial(material);
+                    long result = materialCatalog.insert(material);
                     if (result > 0) {
                         successCount++;
                         Log.d(TAG, "Created: " + material.getName() + " (ID: " + result + ")");
@@ -861,8 +871,13 @@ public class Transactions extends Fragment implements
     private void updateMaterialCount() {
         if (tvMaterialCount != null) {
             int totalMaterials = availableMaterials.size();
-            int availableCount = materialSelectionAdapter != null ?
-                    materialSelectionAdapter.getAvailableMaterialsCount() : totalMaterials;
+            // Counted here rather than from the adapter, whose list updates after its diff
+            int availableCount = 0;
+            for (Material material : availableMaterials) {
+                if (!usedMaterialIds.contains(String.valueOf(material.getId()))) {
+                    availableCount++;
+                }
+            }
 
             String countText = totalMaterials == 0 ?
                     "No materials configured" :
@@ -1082,6 +1097,7 @@ public class Transactions extends Fragment implements
             // Combine with existing material
             int existingIndex = transactionMaterials.indexOf(existingMaterial);
             TransactionMaterial combinedMaterial = new TransactionMaterial(
+                    selectedMaterial.getId(),
                     selectedMaterial.getName(),
                     existingMaterial.getWeight() + weight,
                     selectedMaterial.getPricePerKg(),
@@ -1089,7 +1105,7 @@ public class Transactions extends Fragment implements
             );
             transactionMaterials.set(existingIndex, combinedMaterial);
             if (transactionSummaryAdapter != null) {
-                transactionSummaryAdapter.notifyItemChanged(existingIndex);
+                transactionSummaryAdapter.updateMaterials(transactionMaterials);
             }
 
             if (getContext() != null) {
@@ -1101,6 +1117,7 @@ public class Transactions extends Fragment implements
         } else {
             // Create new transaction material
             TransactionMaterial transactionMaterial = new TransactionMaterial(
+                    selectedMaterial.getId(),
                     selectedMaterial.getName(),
                     weight,
                     selectedMaterial.getPricePerKg(),
@@ -1109,7 +1126,7 @@ public class Transactions extends Fragment implements
 
             transactionMaterials.add(transactionMaterial);
             if (transactionSummaryAdapter != null) {
-                transactionSummaryAdapter.notifyItemInserted(transactionMaterials.size() - 1);
+                transactionSummaryAdapter.updateMaterials(transactionMaterials);
             }
 
             // Mark material as used
@@ -1159,7 +1176,7 @@ public class Transactions extends Fragment implements
             TransactionMaterial removed = transactionMaterials.get(position);
             transactionMaterials.remove(position);
             if (transactionSummaryAdapter != null) {
-                transactionSummaryAdapter.notifyItemRemoved(position);
+                transactionSummaryAdapter.updateMaterials(transactionMaterials);
             }
 
             markMaterialAsUnused(removed.getMaterialName());
@@ -1181,13 +1198,15 @@ public class Transactions extends Fragment implements
     private void updateTransactionSummary() {
         if (tvTransactionTotal == null) return;
 
-        double totalWeight = 0;
-        double totalValue = 0;
+        long totalWeightGrams = 0;
+        long totalValueCents = 0;
 
         for (TransactionMaterial material : transactionMaterials) {
-            totalWeight += material.getWeight();
-            totalValue += material.getValue();
+            totalWeightGrams += material.getWeightGrams();
+            totalValueCents += material.getValueCents();
         }
+        double totalWeight = FixedPoint.fromGrams(totalWeightGrams);
+        double totalValue = FixedPoint.fromCents(totalValueCents);
 
         tvTransactionTotal.setText(
                 transactionMaterials.size() + " materials • " +
@@ -1279,7 +1298,7 @@ public class Transactions extends Fragment implements
 
         batches.add(batch);
         if (batchAdapter != null) {
-            batchAdapter.notifyItemInserted(batches.size() - 1);
+            batchAdapter.updateBatches(batches);
         }
 
         if (etBatchManualWeight != null) {
@@ -1301,7 +1320,7 @@ public class Transactions extends Fragment implements
         if (position >= 0 && position < batches.size()) {
             batches.remove(position);
             if (batchAdapter != null) {
-                batchAdapter.notifyItemRemoved(position);
+                batchAdapter.updateBatches(batches);
             }
             updateBatchSummary();
 
@@ -1312,13 +1331,15 @@ public class Transactions extends Fragment implements
     }
 
     private void updateBatchSummary() {
-        double totalWeight = 0;
-        double totalValue = 0;
+        long totalWeightGrams = 0;
+        long totalValueCents = 0;
 
         for (WeighingBatch batch : batches) {
-            totalWeight += batch.getWeight();
-            totalValue += batch.getValue();
+            totalWeightGrams += batch.getWeightGrams();
+            totalValueCents += batch.getValueCents();
         }
+        double totalWeight = FixedPoint.fromGrams(totalWeightGrams);
+        double totalValue = FixedPoint.fromCents(totalValueCents);
 
         if (tvTotalWeight != null) tvTotalWeight.setText(weightFormat.format(totalWeight) + " kg");
         if (tvTotalValue != null) tvTotalValue.setText(currencyFormat.format(totalValue));
@@ -1336,19 +1357,22 @@ public class Transactions extends Fragment implements
             return;
         }
 
-        double totalBatchWeight = 0;
-        double totalBatchValue = 0;
+        long totalBatchWeightGrams = 0;
+        long totalBatchValueCents = 0;
         String materialName = selectedMaterial.getName();
 
         for (WeighingBatch batch : batches) {
-            totalBatchWeight += batch.getWeight();
-            totalBatchValue += batch.getValue();
+            totalBatchWeightGrams += batch.getWeightGrams();
+            totalBatchValueCents += batch.getValueCents();
         }
+        double totalBatchWeight = FixedPoint.fromGrams(totalBatchWeightGrams);
+        double totalBatchValue = FixedPoint.fromCents(totalBatchValueCents);
 
         TransactionMaterial existingMaterial = findExistingTransactionMaterial(materialName);
         if (existingMaterial != null) {
             int existingIndex = transactionMaterials.indexOf(existingMaterial);
             TransactionMaterial combinedMaterial = new TransactionMaterial(
+                    selectedMaterial.getId(),
                     materialName,
                     existingMaterial.getWeight() + totalBatchWeight,
                     selectedMaterial.getPricePerKg(),
@@ -1356,7 +1380,7 @@ public class Transactions extends Fragment implements
             );
             transactionMaterials.set(existingIndex, combinedMaterial);
             if (transactionSummaryAdapter != null) {
-                transactionSummaryAdapter.notifyItemChanged(existingIndex);
+                transactionSummaryAdapter.updateMaterials(transactionMaterials);
             }
 
             if (getContext() != null) {
@@ -1367,6 +1391,7 @@ public class Transactions extends Fragment implements
             }
         } else {
             TransactionMaterial batchTransactionMaterial = new TransactionMaterial(
+                    selectedMaterial.getId(),
                     materialName,
                     totalBatchWeight,
                     selectedMaterial.getPricePerKg(),
@@ -1374,7 +1399,7 @@ public class Transactions extends Fragment implements
             );
             transactionMaterials.add(batchTransactionMaterial);
             if (transactionSummaryAdapter != null) {
-                transactionSummaryAdapter.notifyItemInserted(transactionMaterials.size() - 1);
+                transactionSummaryAdapter.updateMaterials(transactionMaterials);
             }
 
             markMaterialAsUsed(selectedMaterial);
@@ -1390,7 +1415,7 @@ public class Transactions extends Fragment implements
 
         batches.clear();
         if (batchAdapter != null) {
-            batchAdapter.notifyDataSetChanged();
+            batchAdapter.updateBatches(batches);
         }
 
         isAccumulativeMode = false;
@@ -1465,13 +1490,13 @@ public class Transactions extends Fragment implements
 
         try {
             // Calculate totals and create summary
-            double totalWeight = 0;
-            double totalValue = 0;
+            long totalWeightGrams = 0;
+            long totalValueCents = 0;
             Map<String, TransactionMaterialSummary> materialSummary = new HashMap<>();
 
             for (TransactionMaterial material : transactionMaterials) {
-                totalWeight += material.getWeight();
-                totalValue += material.getValue();
+                totalWeightGrams += material.getWeightGrams();
+                totalValueCents += material.getValueCents();
 
                 String materialName = material.getMaterialName();
                 if (materialSummary.containsKey(materialName)) {
@@ -1488,6 +1513,9 @@ public class Transactions extends Fragment implements
                 }
             }
 
+            double totalWeight = FixedPoint.fromGrams(totalWeightGrams);
+            double totalValue = FixedPoint.fromCents(totalValueCents);
+
             // Create completely fresh dialog layout
             View dialogView = createEnhancedDialogLayout(materialSummary, totalWeight, totalValue);
 
@@ -2071,7 +2099,7 @@ public class Transactions extends Fragment implements
         Log.d(TAG, "User confirmed transaction - proceeding with processing");
 
         // Generate unique transaction ID
-        String transactionId = "TXN_" + System.currentTimeMillis();
+        String transactionId = IdGenerator.getInstance(requireContext()).next("TXN");
 
         // Create Transaction object for database
         Transaction transaction = new Transaction(
@@ -2087,53 +2115,29 @@ public class Transactions extends Fragment implements
 
         Log.d(TAG, "Saving confirmed transaction: " + transactionId + " with " + transactionMaterials.size() + " materials");
 
-        // Show processing indicator
-        if (getContext() != null) {
-            Toast.makeText(getContext(), "Processing transaction...", Toast.LENGTH_SHORT).show();
+        Map<String, Double> simpleSummary = new HashMap<>();
+        for (TransactionMaterialSummary summary : materialSummary.values()) {
+            simpleSummary.put(summary.materialName, summary.weight);
         }
 
-        // Save transaction to database in background thread
-        new Thread(() -> {
-            try {
-                long savedTransactionId = -1;
-
-                if (transactionsDBHelper != null) {
-                    savedTransactionId = transactionsDBHelper.saveTransaction(transaction, transactionMaterials);
-                }
-
-                // Return to main thread for UI updates
-                final long finalSavedTransactionId = savedTransactionId;
-                if (getActivity() != null && isAdded()) {
-                    getActivity().runOnUiThread(() -> {
-                        // Convert materialSummary to the format expected by handleTransactionSaved
-                        Map<String, Double> simpleSummary = new HashMap<>();
-                        for (TransactionMaterialSummary summary : materialSummary.values()) {
-                            simpleSummary.put(summary.materialName, summary.weight);
-                        }
-
-                        handleTransactionSaved(finalSavedTransactionId, transaction, simpleSummary, totalWeight, totalValue);
-                    });
-                }
-
-            } catch (Exception e) {
-                Log.e(TAG, "Error saving confirmed transaction to database", e);
-
-                // Return to main thread for error handling
-                if (getActivity() != null && isAdded()) {
-                    getActivity().runOnUiThread(() -> {
-                        // Convert materialSummary for error handling
-                        Map<String, Double> simpleSummary = new HashMap<>();
-                        for (TransactionMaterialSummary summary : materialSummary.values()) {
-                            simpleSummary.put(summary.materialName, summary.weight);
-                        }
+        // Journal the sale durably, then confirm right away; the database write happens behind
+        // append() only throws when the sale was not written, so a failure here is safe to re-ring
+        long confirmStart = System.currentTimeMillis();
+        try {
+            TransactionJournal.getInstance(getContext()).append(transaction,
+                    new ArrayList<>(transactionMaterials),
+                    (ref, savedId) -> Log.d(TAG, "Transaction " + ref + " applied to database with ID: " + savedId));
+        } catch (Exception e) {
+            Log.e(TAG, "Error journaling confirmed transaction", e);
+            handleTransactionSaveError(e, transaction, simpleSummary, totalWeight, totalValue);
+            return;
+        }
+        Log.d(TAG, "Transaction " + transactionId + " confirmed in " +
+                (System.currentTimeMillis() - confirmStart) + "ms");
 
-                        handleTransactionSaveError(e, transaction, simpleSummary, totalWeight, totalValue);
-                    });
-                }
-            }
-        }).start();
+        handleTransactionSaved(true, transaction, simpleSummary, totalWeight, totalValue);
     }
-    private void handleTransactionSaved(long savedTransactionId, Transaction transaction,
+    private void handleTransactionSaved(boolean saved, Transaction transaction,
                                         Map<String, Double> materialSummary, double totalWeight, double totalValue) {
 
         if (!isAdded() || getContext() == null) {
@@ -2152,8 +2156,8 @@ public class Transactions extends Fragment implements
                         transactionMaterials.size()
                 );
 
-        // Generate receipt content
-        String receiptContent = generateReceipt(materialSummary, totalWeight, totalValue);
+        // Render the receipt now; printing it later goes by the transaction ref and hits the cache
+        String receiptContent = generateReceipt(transaction);
 
         // Initialize print status manager if needed
         if (printStatusManager == null) {
@@ -2168,11 +2172,11 @@ public class Transactions extends Fragment implements
             Log.d(TAG, "Smart dialog shown successfully");
 
             // Show success toast
-            String toastMessage = savedTransactionId > 0 ?
+            String toastMessage = saved ?
                     "Transaction saved successfully!" :
                     "Transaction completed (database save failed)";
             Toast.makeText(getContext(), toastMessage,
-                    savedTransactionId > 0 ? Toast.LENGTH_SHORT : Toast.LENGTH_LONG).show();
+                    saved ? Toast.LENGTH_SHORT : Toast.LENGTH_LONG).show();
 
             // Reset transaction for next one
             resetTransaction();
@@ -2181,21 +2185,21 @@ public class Transactions extends Fragment implements
             Log.e(TAG, "Failed to show smart dialog", e);
 
             // Fallback to original dialog
-            showFallbackCompletionDialog(savedTransactionId, transaction, materialSummary, totalWeight, totalValue, receiptContent);
+            showFallbackCompletionDialog(saved, transaction, materialSummary, totalWeight, totalValue);
         }
     }
 
 // Add this fallback method in case smart dialog fails:
 
-    private void showFallbackCompletionDialog(long savedTransactionId, Transaction transaction,
-                                              Map<String, Double> materialSummary, double totalWeight, double totalValue, String receiptContent) {
+    private void showFallbackCompletionDialog(boolean saved, Transaction transaction,
+                                              Map<String, Double> materialSummary, double totalWeight, double totalValue) {
 
         Log.w(TAG, "Using fallback completion dialog");
 
         // Build basic success message (same as original)
         StringBuilder summary = new StringBuilder();
 
-        if (savedTransactionId > 0) {
+        if (saved) {
             summary.append("✅ Transaction Saved Successfully!\n");
         } else {
             summary.append("⚠️ Transaction Completed (Save Failed)\n");
@@ -2215,7 +2219,8 @@ public class Transactions extends Fragment implements
                 .setMessage(summary.toString())
                 .setPositiveButton("Print Receipt", (dialog, which) -> {
                     if (mainActivity != null && mainActivity.isPrinterConnected()) {
-                        mainActivity.printReceipt(receiptContent);
+                        mainActivity.printTransactionReceipt(transaction.getTransactionId(),
+                                ReceiptRenderer.TEMPLATE_VERSION);
                         showSnackbar("Receipt sent to printer", Snackbar.LENGTH_SHORT);
                     } else {
                         showSnackbar("Printer not connected", Snackbar.LENGTH_SHORT);
@@ -2251,8 +2256,8 @@ public class Transactions extends Fragment implements
         summary.append("\nTotal Weight: ").append(weightFormat.format(totalWeight)).append(" kg");
         summary.append("\nTotal Value: ").append(currencyFormat.format(totalValue));
 
-        // Generate receipt for printing
-        String receiptContent = generateReceipt(materialSummary, totalWeight, totalValue);
+        // The transaction was not saved, so this receipt is printed from its text
+        String receiptContent = generateReceipt(transaction);
 
         // Show error dialog with options
         new AlertDialog.Builder(getContext())
@@ -2283,88 +2288,29 @@ public class Transactions extends Fragment implements
     public void getTransactionStats() {
         if (transactionsDBHelper == null) return;
 
-        new Thread(() -> {
-            try {
-                TransactionsDBHelper.TransactionStats stats = transactionsDBHelper.getTransactionStats();
-
-                if (getActivity() != null && isAdded()) {
-                    getActivity().runOnUiThread(() -> {
+        AppExecutors.get().submit(AppExecutors.Pool.DB, this,
+                transactionsDBHelper::getTransactionStats,
+                new AppExecutors.ResultCallback<TransactionsDBHelper.TransactionStats>() {
+                    @Override
+                    public void onResult(TransactionsDBHelper.TransactionStats stats) {
                         Log.d(TAG, "Transaction Stats - Count: " + stats.totalTransactions +
                                 ", Weight: " + stats.getFormattedTotalWeight() +
                                 ", Value: " + stats.getFormattedTotalValue());
-                    });
-                }
+                    }
 
-            } catch (Exception e) {
-                Log.e(TAG, "Error getting transaction stats", e);
-            }
-        }).start();
+                    @Override
+                    public void onError(Exception e) {
+                        Log.e(TAG, "Error getting transaction stats", e);
+                    }
+                });
     }
 
-    private String generateReceipt(Map<String, Double> materialSummary, double totalWeight, double totalValue) {
-        StringBuilder receipt = new StringBuilder();
-
-        // Header with business info
-        receipt.append("================================\n");
-        receipt.append("    MERU SCRAP METAL MARKET\n");
-        receipt.append("      Meru County, Kenya\n");
-        receipt.append("================================\n");
-
-        // Date and transaction info
-        SimpleDateFormat dateFormat = new SimpleDateFormat("dd/MM/yyyy HH:mm", Locale.getDefault());
-        receipt.append("Date: ").append(dateFormat.format(new Date())).append("\n");
-        receipt.append("Transaction: ").append(System.currentTimeMillis()).append("\n");
-        if (transactionMaterials.size() > 0) {
-            receipt.append("Materials: ").append(transactionMaterials.size()).append("\n");
-        }
-        receipt.append("================================\n");
-
-        // Materials section
-        receipt.append("MATERIALS:\n");
-        receipt.append("--------------------------------\n");
-
-        for (Map.Entry<String, Double> entry : materialSummary.entrySet()) {
-            String materialName = entry.getKey();
-            double weight = entry.getValue();
-
-            // Find price per kg for this material
-            double pricePerKg = 0.0;
-            for (TransactionMaterial tm : transactionMaterials) {
-                if (tm.getMaterialName().equals(materialName)) {
-                    pricePerKg = tm.getPricePerKg();
-                    break;
-                }
-            }
-
-            double value = weight * pricePerKg;
-
-            receipt.append(String.format("%-15s %8s kg\n",
-                    truncateString(materialName, 15),
-                    weightFormat.format(weight)));
-            receipt.append(String.format("  @ %s/kg = %s\n",
-                    currencyFormat.format(pricePerKg).replace("KSH ", ""),
-                    currencyFormat.format(value)));
-            receipt.append("\n");
+    private String generateReceipt(Transaction transaction) {
+        List<TransactionItem> items = new ArrayList<>(transactionMaterials.size());
+        for (TransactionMaterial material : transactionMaterials) {
+            items.add(new TransactionItem(0, material));
         }
-
-        receipt.append("--------------------------------\n");
-        receipt.append(String.format("TOTAL WEIGHT: %10s kg\n", weightFormat.format(totalWeight)));
-        receipt.append(String.format("TOTAL VALUE:  %s\n", currencyFormat.format(totalValue)));
-        receipt.append("================================\n");
-        receipt.append("Thank you for your business!\n");
-        receipt.append("Come back soon!\n");
-        receipt.append("================================\n");
-        receipt.append("\n\n"); // Extra spacing for cut
-
-        return receipt.toString();
-    }
-
-    /**
-     * Helper method to truncate strings for receipt formatting
-     */
-    private String truncateString(String str, int maxLength) {
-        if (str == null) return "";
-        return str.length() <= maxLength ? str : str.substring(0, maxLength - 3) + "...";
+        return ReceiptRenderer.getInstance(getContext()).render(transaction, items);
     }
 
     private void resetTransaction() {
@@ -2372,12 +2318,12 @@ public class Transactions extends Fragment implements
 
         batches.clear();
         if (batchAdapter != null) {
-            batchAdapter.notifyDataSetChanged();
+            batchAdapter.updateBatches(batches);
         }
 
         transactionMaterials.clear();
         if (transactionSummaryAdapter != null) {
-            transactionSummaryAdapter.notifyDataSetChanged();
+            transactionSummaryAdapter.updateMaterials(transactionMaterials);
         }
 
         usedMaterialIds.clear();
@@ -2547,16 +2493,16 @@ public class Transactions extends Fragment implements
     private class PrintStatusManager implements SmartTransactionDialog.SmartDialogListener {
         private static final String TAG = "PrintStatusManager";
 
-        // Queue for receipt content if printer is busy
-        private String queuedReceiptContent;
+        // Transaction whose receipt is being printed
+        private String queuedTransactionRef;
         private int currentAttempt = 0;
 
         @Override
-        public void onPrintRequested(String receiptContent, int attemptNumber) {
+        public void onPrintRequested(String transactionRef, int attemptNumber) {
             Log.d(TAG, "Print requested - Attempt: " + attemptNumber);
 
             currentAttempt = attemptNumber;
-            queuedReceiptContent = receiptContent;
+            queuedTransactionRef = transactionRef;
 
             // Check printer availability
             if (!isPrinterConnected()) {
@@ -2569,45 +2515,33 @@ public class Transactions extends Fragment implements
                 return;
             }
 
-            // Start print job in background
-            new Thread(() -> {
-                try {
-                    boolean success = executePrintJob(receiptContent);
-
-                    // Return to main thread for UI updates
-                    if (getActivity() != null && isAdded()) {
-                        getActivity().runOnUiThread(() -> {
-                            if (smartDialog != null) {
-                                if (success) {
-                                    smartDialog.onPrintSuccess();
-                                } else {
-                                    smartDialog.onPrintFailure("Print job failed");
-                                }
-                            }
-                        });
-                    }
-
-                } catch (Exception e) {
-                    Log.e(TAG, "Print execution error", e);
+            if (mainActivity == null || !isAdded()) {
+                if (smartDialog != null) {
+                    smartDialog.onPrintFailure("Printer not available");
+                }
+                return;
+            }
 
-                    // Return to main thread for error handling
-                    if (getActivity() != null && isAdded()) {
-                        getActivity().runOnUiThread(() -> {
-                            if (smartDialog != null) {
-                                smartDialog.onPrintFailure("Print error: " + e.getMessage());
+            // The dialog reports what the print queue says: stored and queued, or refused
+            mainActivity.printTransactionReceipt(transactionRef, ReceiptRenderer.TEMPLATE_VERSION,
+                    (jobId, accepted) -> {
+                        Log.d(TAG, "Receipt for " + transactionRef + (accepted ? " queued as " + jobId : " not queued"));
+                        if (smartDialog != null) {
+                            if (accepted) {
+                                smartDialog.onPrintSuccess();
+                            } else {
+                                smartDialog.onPrintFailure("Receipt could not be queued");
                             }
-                        });
-                    }
-                }
-            }).start();
+                        }
+                    });
         }
 
         @Override
-        public void onPrintLater(String receiptContent) {
+        public void onPrintLater(String transactionRef) {
             Log.d(TAG, "Print later requested");
 
             // Save receipt for later printing
-            saveReceiptForLater(receiptContent);
+            saveReceiptForLater(transactionRef);
 
             if (getContext() != null) {
                 showSnackbar("Receipt saved for later printing", Snackbar.LENGTH_SHORT);
@@ -2627,7 +2561,7 @@ public class Transactions extends Fragment implements
             Log.d(TAG, "Smart dialog dismissed");
 
             // Clear any pending operations
-            queuedReceiptContent = null;
+            queuedTransactionRef = null;
             currentAttempt = 0;
 
             // Reset transaction state for next transaction
@@ -2647,73 +2581,16 @@ public class Transactions extends Fragment implements
         }
 
         /**
-         * Execute the actual print job
+         * Save a receipt for later printing, as its transaction ref rather than the text
          */
-        private boolean executePrintJob(String receiptContent) {
-            try {
-                Log.d(TAG, "Executing print job...");
-
-                // Simulate print time (remove this in production)
-                Thread.sleep(2000 + (currentAttempt * 1000)); // Longer delay for retries
-
-                // Check if printer is still connected
-                if (!isPrinterConnected()) {
-                    Log.w(TAG, "Printer disconnected during print job");
-                    return false;
-                }
-
-                // Send to actual printer via MainActivity
-                if (mainActivity != null && isAdded()) {
-                    getActivity().runOnUiThread(() -> {
-                        mainActivity.printReceipt(receiptContent);
-                    });
-
-                    // For now, assume success
-                    // In production, you'd get actual result from print manager
-                    boolean printSuccess = simulatePrintResult();
-
-                    Log.d(TAG, "Print job completed: " + (printSuccess ? "SUCCESS" : "FAILED"));
-                    return printSuccess;
-                }
-
-                return false;
-
-            } catch (InterruptedException e) {
-                Log.w(TAG, "Print job interrupted", e);
-                return false;
-            } catch (Exception e) {
-                Log.e(TAG, "Print job execution failed", e);
-                return false;
-            }
-        }
-
-        /**
-         * Simulate print result (remove in production)
-         * Replace this with actual printer result checking
-         */
-        private boolean simulatePrintResult() {
-            // Simulate different scenarios for testing
-
-            // 90% success rate on first attempt
-            if (currentAttempt == 1) {
-                return Math.random() < 0.9;
-            }
-
-            // 70% success rate on retry attempts
-            return Math.random() < 0.7;
-        }
-
-        /**
-         * Save receipt content for later printing
-         */
-        private void saveReceiptForLater(String receiptContent) {
+        private void saveReceiptForLater(String transactionRef) {
             try {
                 // Save to SharedPreferences or database
                 SharedPreferences prefs = getContext().getSharedPreferences("pending_receipts", Context.MODE_PRIVATE);
                 SharedPreferences.Editor editor = prefs.edit();
 
-                String key = "receipt_" + System.currentTimeMillis();
-                editor.putString(key, receiptContent);
+                String key = IdGenerator.getInstance(getContext()).next("receipt");
+                editor.putString(key, ReceiptRenderer.ReceiptRef.format(transactionRef));
                 editor.apply();
 
                 Log.d(TAG, "Receipt saved for later: " + key);
@@ -2798,8 +2675,14 @@ public class Transactions extends Fragment implements
             builder.setTitle("Pending Receipts (" + receiptKeys.length + ")")
                     .setItems(receiptTitles, (dialog, which) -> {
                         String selectedKey = receiptKeys[which];
-                        String receiptContent = prefs.getString(selectedKey, "");
-                        showPendingReceiptOptions(selectedKey, receiptContent);
+                        String stored = prefs.getString(selectedKey, "");
+                        ReceiptRenderer.ReceiptRef ref = ReceiptRenderer.ReceiptRef.parse(stored);
+                        if (ref == null) {
+                            // Saved by an older version, with the receipt text itself
+                            showPendingReceiptOptions(selectedKey, null, stored);
+                            return;
+                        }
+                        loadPendingReceipt(selectedKey, ref);
                     })
                     .setNegativeButton("Cancel", null)
                     .setNeutralButton("Clear All", (dialog, which) -> clearAllPendingReceipts())
@@ -2811,10 +2694,33 @@ public class Transactions extends Fragment implements
         }
     }
 
+    // Render a receipt saved as a transaction ref, off the main thread, then offer its options
+    private void loadPendingReceipt(String receiptKey, ReceiptRenderer.ReceiptRef ref) {
+        ReceiptRenderer renderer = ReceiptRenderer.getInstance(getContext());
+        AppExecutors.get().submit(AppExecutors.Pool.DB, this,
+                () -> renderer.getReceipt(ref.transactionRef, ref.templateVersion),
+                new AppExecutors.ResultCallback<String>() {
+                    @Override
+                    public void onResult(String receiptContent) {
+                        if (receiptContent == null) {
+                            showSnackbar("Transaction " + ref.transactionRef + " not found", Snackbar.LENGTH_SHORT);
+                            return;
+                        }
+                        showPendingReceiptOptions(receiptKey, ref, receiptContent);
+                    }
+
+                    @Override
+                    public void onError(Exception e) {
+                        Log.e(TAG, "Error loading pending receipt " + receiptKey, e);
+                        showSnackbar("Error loading pending receipt", Snackbar.LENGTH_SHORT);
+                    }
+                });
+    }
+
     /**
-     * Show options for a pending receipt
+     * Show options for a pending receipt. ref is null for receipts saved as text.
      */
-    private void showPendingReceiptOptions(String receiptKey, String receiptContent) {
+    private void showPendingReceiptOptions(String receiptKey, ReceiptRenderer.ReceiptRef ref, String receiptContent) {
         if (getContext() == null || receiptContent.isEmpty()) return;
 
         AlertDialog.Builder builder = new AlertDialog.Builder(getContext());
@@ -2822,7 +2728,11 @@ public class Transactions extends Fragment implements
                 .setMessage("What would you like to do with this receipt?")
                 .setPositiveButton("Print Now", (dialog, which) -> {
                     if (printStatusManager.isPrinterConnected()) {
-                        mainActivity.printReceipt(receiptContent);
+                        if (ref != null) {
+                            mainActivity.printTransactionReceipt(ref.transactionRef, ref.templateVersion);
+                        } else {
+                            mainActivity.printReceipt(receiptContent);
+                        }
                         removePendingReceipt(receiptKey);
                         showSnackbar("Receipt sent to printer", Snackbar.LENGTH_SHORT);
                     } else {
@@ -2997,7 +2907,7 @@ public class Transactions extends Fragment implements
             bleScaleViewModel = null;
 
             // Clean up database helpers (they use singleton pattern, but clear references)
-            materialsDBHelper = null;
+            materialCatalog = null;
             transactionsDBHelper = null;
 
             Log.d(TAG, "Fragment cleanup completed successfully");
@@ -3009,6 +2919,10 @@ public class Transactions extends Fragment implements
     public void onDestroyView() {
         super.onDestroyView();
 
+        if (materialCatalog != null) {
+            materialCatalog.removeListener(catalogListener);
+        }
+
         // Ensure dialog is properly dismissed
         if (currentDialog != null && currentDialog.isShowing()) {
             try {
@@ -3,75 +3,102 @@ package com.example.meruscrap;
 import android.content.ContentValues;
 import android.content.Context;
 import android.database.Cursor;
+import android.database.DatabaseUtils;
 import android.database.sqlite.SQLiteDatabase;
-import android.database.sqlite.SQLiteOpenHelper;
+import android.database.sqlite.SQLiteStatement;
 import android.util.Log;
 
+import org.json.JSONArray;
+import org.json.JSONException;
+import org.json.JSONObject;
+
+import java.io.IOException;
 import java.util.ArrayList;
 import java.util.List;
 import java.util.Calendar;
+import java.util.Map;
 
-public class TransactionsDBHelper extends SQLiteOpenHelper {
+/**
+ * Transactions and their line items. The tables live in MeruScrapDatabase alongside
+ * materials and print history; this class owns their schema and queries.
+ */
+public class TransactionsDBHelper {
     private static final String TAG = "TransactionsDBHelper";
 
-    // Database Info
-    private static final String DATABASE_NAME = "MeruScrapTransactions.db";
-    private static final int DATABASE_VERSION = 1;
+    // Layout version of the transaction tables; archive files and pre-consolidation
+    // MeruScrapTransactions.db files record it in user_version
+    static final int SCHEMA_VERSION = 5;
 
     // Singleton instance with proper synchronization
     private static TransactionsDBHelper instance;
     private static final Object LOCK = new Object();
 
     // Table Names
-    private static final String TABLE_TRANSACTIONS = "transactions";
-    private static final String TABLE_TRANSACTION_ITEMS = "transaction_items";
+    static final String TABLE_TRANSACTIONS = "transactions";
+    static final String TABLE_TRANSACTION_ITEMS = "transaction_items";
+    private static final String TABLE_TRANSACTIONS_FTS = "transactions_fts";
 
     // Transactions Table Columns
-    private static final String COLUMN_TRANSACTION_ID = "id";
+    static final String COLUMN_TRANSACTION_ID = "id";
     private static final String COLUMN_TRANSACTION_REF = "transaction_ref";
-    private static final String COLUMN_TIMESTAMP = "timestamp";
-    private static final String COLUMN_TOTAL_WEIGHT = "total_weight";
-    private static final String COLUMN_TOTAL_VALUE = "total_value";
+    static final String COLUMN_TIMESTAMP = "timestamp";
+    private static final String COLUMN_TOTAL_WEIGHT_G = "total_weight_g";
+    private static final String COLUMN_TOTAL_VALUE_CENTS = "total_value_cents";
     private static final String COLUMN_MATERIAL_COUNT = "material_count";
     private static final String COLUMN_STATUS = "status";
     private static final String COLUMN_NOTES = "notes";
 
     // Transaction Items Table Columns
     private static final String COLUMN_ITEM_ID = "id";
-    private static final String COLUMN_ITEM_TRANSACTION_ID = "transaction_id";
+    static final String COLUMN_ITEM_TRANSACTION_ID = "transaction_id";
+    private static final String COLUMN_MATERIAL_ID = "material_id";
     private static final String COLUMN_MATERIAL_NAME = "material_name";
-    private static final String COLUMN_WEIGHT = "weight";
-    private static final String COLUMN_PRICE_PER_KG = "price_per_kg";
-    private static final String COLUMN_ITEM_TOTAL_VALUE = "total_value";
+    private static final String COLUMN_WEIGHT_G = "weight_g";
+    private static final String COLUMN_PRICE_PER_KG_CENTS = "price_per_kg_cents";
+    private static final String COLUMN_ITEM_TOTAL_VALUE_CENTS = "total_value_cents";
     private static final String COLUMN_ITEM_TIMESTAMP = "timestamp";
     private static final String COLUMN_ITEM_NOTES = "notes";
+    private static final String COLUMN_ITEM_REF = "item_ref";
+
+    // Change-log payload key holding the line items
+    private static final String PAYLOAD_ITEMS = "items";
+
+    // Search index columns (docid is the transaction id)
+    private static final String COLUMN_FTS_MATERIALS = "materials";
+
+    // Create Tables SQL - money is stored in cents and weight in grams so SUM() is exact
+    private static String createTransactionsTable(String tableName) {
+        return "CREATE TABLE " + tableName + "(" +
+                COLUMN_TRANSACTION_ID + " INTEGER PRIMARY KEY AUTOINCREMENT," +
+                COLUMN_TRANSACTION_REF + " TEXT UNIQUE NOT NULL," +
+                COLUMN_TIMESTAMP + " INTEGER NOT NULL," +
+                COLUMN_TOTAL_WEIGHT_G + " INTEGER NOT NULL," +
+                COLUMN_TOTAL_VALUE_CENTS + " INTEGER NOT NULL," +
+                COLUMN_MATERIAL_COUNT + " INTEGER NOT NULL," +
+                COLUMN_STATUS + " TEXT DEFAULT 'COMPLETED'," +
+                COLUMN_NOTES + " TEXT" +
+                ")";
+    }
 
-    // Create Tables SQL
-    private static final String CREATE_TRANSACTIONS_TABLE =
-            "CREATE TABLE " + TABLE_TRANSACTIONS + "(" +
-                    COLUMN_TRANSACTION_ID + " INTEGER PRIMARY KEY AUTOINCREMENT," +
-                    COLUMN_TRANSACTION_REF + " TEXT UNIQUE NOT NULL," +
-                    COLUMN_TIMESTAMP + " INTEGER NOT NULL," +
-                    COLUMN_TOTAL_WEIGHT + " REAL NOT NULL," +
-                    COLUMN_TOTAL_VALUE + " REAL NOT NULL," +
-                    COLUMN_MATERIAL_COUNT + " INTEGER NOT NULL," +
-                    COLUMN_STATUS + " TEXT DEFAULT 'COMPLETED'," +
-                    COLUMN_NOTES + " TEXT" +
-                    ")";
-
-    private static final String CREATE_TRANSACTION_ITEMS_TABLE =
-            "CREATE TABLE " + TABLE_TRANSACTION_ITEMS + "(" +
-                    COLUMN_ITEM_ID + " INTEGER PRIMARY KEY AUTOINCREMENT," +
-                    COLUMN_ITEM_TRANSACTION_ID + " INTEGER NOT NULL," +
-                    COLUMN_MATERIAL_NAME + " TEXT NOT NULL," +
-                    COLUMN_WEIGHT + " REAL NOT NULL," +
-                    COLUMN_PRICE_PER_KG + " REAL NOT NULL," +
-                    COLUMN_ITEM_TOTAL_VALUE + " REAL NOT NULL," +
-                    COLUMN_ITEM_TIMESTAMP + " INTEGER NOT NULL," +
-                    COLUMN_ITEM_NOTES + " TEXT," +
-                    "FOREIGN KEY(" + COLUMN_ITEM_TRANSACTION_ID + ") REFERENCES " +
-                    TABLE_TRANSACTIONS + "(" + COLUMN_TRANSACTION_ID + ") ON DELETE CASCADE" +
-                    ")";
+    private static String createTransactionItemsTable(String tableName, String transactionsTable) {
+        return "CREATE TABLE " + tableName + "(" +
+                COLUMN_ITEM_ID + " INTEGER PRIMARY KEY AUTOINCREMENT," +
+                COLUMN_ITEM_TRANSACTION_ID + " INTEGER NOT NULL," +
+                // References materials.id. Not a declared FK: archive files hold items without the
+                // materials table, and items keep their snapshot name if a material is deleted
+                COLUMN_MATERIAL_ID + " INTEGER," +
+                COLUMN_MATERIAL_NAME + " TEXT NOT NULL," +
+                COLUMN_WEIGHT_G + " INTEGER NOT NULL," +
+                COLUMN_PRICE_PER_KG_CENTS + " INTEGER NOT NULL," +
+                COLUMN_ITEM_TOTAL_VALUE_CENTS + " INTEGER NOT NULL," +
+                COLUMN_ITEM_TIMESTAMP + " INTEGER NOT NULL," +
+                COLUMN_ITEM_NOTES + " TEXT," +
+                // Last, where ALTER TABLE puts it on upgraded tables, so SELECT * copies line up
+                COLUMN_ITEM_REF + " TEXT," +
+                "FOREIGN KEY(" + COLUMN_ITEM_TRANSACTION_ID + ") REFERENCES " +
+                transactionsTable + "(" + COLUMN_TRANSACTION_ID + ") ON DELETE CASCADE" +
+                ")";
+    }
 
     // Thread-safe singleton pattern
     public static TransactionsDBHelper getInstance(Context context) {
@@ -85,46 +112,203 @@ public class TransactionsDBHelper extends SQLiteOpenHelper {
         return instance;
     }
 
+    private final Context appContext;
+    private final MeruScrapDatabase database;
+    private final IdGenerator ids;
+
     private TransactionsDBHelper(Context context) {
-        super(context, DATABASE_NAME, null, DATABASE_VERSION);
+        this.appContext = context;
+        this.database = MeruScrapDatabase.getInstance(context);
+        this.ids = IdGenerator.getInstance(context);
+    }
+
+    public SQLiteDatabase getWritableDatabase() {
+        return database.getWritableDatabase();
+    }
+
+    public SQLiteDatabase getReadableDatabase() {
+        return database.getReadableDatabase();
     }
 
-    @Override
-    public void onCreate(SQLiteDatabase db) {
-        Log.d(TAG, "Creating transactions database tables");
-        db.execSQL(CREATE_TRANSACTIONS_TABLE);
-        db.execSQL(CREATE_TRANSACTION_ITEMS_TABLE);
+    // Called from MeruScrapDatabase.onCreate
+    static void createSchema(SQLiteDatabase db) {
+        Log.d(TAG, "Creating transactions tables");
+        db.execSQL(createTransactionsTable(TABLE_TRANSACTIONS));
+        db.execSQL(createTransactionItemsTable(TABLE_TRANSACTION_ITEMS, TABLE_TRANSACTIONS));
+        createIndexes(db);
+        createSearchIndex(db);
+    }
 
-        // Create indexes for better performance
+    // Create indexes for better performance
+    private static void createIndexes(SQLiteDatabase db) {
         db.execSQL("CREATE INDEX idx_transaction_timestamp ON " + TABLE_TRANSACTIONS + "(" + COLUMN_TIMESTAMP + ")");
         db.execSQL("CREATE INDEX idx_transaction_status ON " + TABLE_TRANSACTIONS + "(" + COLUMN_STATUS + ")");
         db.execSQL("CREATE INDEX idx_item_transaction_id ON " + TABLE_TRANSACTION_ITEMS + "(" + COLUMN_ITEM_TRANSACTION_ID + ")");
-        db.execSQL("CREATE INDEX idx_item_material ON " + TABLE_TRANSACTION_ITEMS + "(" + COLUMN_MATERIAL_NAME + ")");
+        db.execSQL("CREATE INDEX idx_item_material_id ON " + TABLE_TRANSACTION_ITEMS + "(" + COLUMN_MATERIAL_ID + ")");
+        createItemRefIndex(db);
+    }
+
+    private static void createItemRefIndex(SQLiteDatabase db) {
+        db.execSQL("CREATE UNIQUE INDEX IF NOT EXISTS idx_item_ref ON " + TABLE_TRANSACTION_ITEMS + "(" + COLUMN_ITEM_REF + ")");
+    }
+
+    // Archive files hold the same two tables (no search index) so rows can be copied with SELECT *
+    static void createArchiveTables(SQLiteDatabase db) {
+        db.execSQL(createTransactionsTable(TABLE_TRANSACTIONS));
+        db.execSQL(createTransactionItemsTable(TABLE_TRANSACTION_ITEMS, TABLE_TRANSACTIONS));
+        db.execSQL("CREATE INDEX idx_transaction_timestamp ON " + TABLE_TRANSACTIONS + "(" + COLUMN_TIMESTAMP + ")");
+        db.execSQL("CREATE INDEX idx_item_transaction_id ON " + TABLE_TRANSACTION_ITEMS + "(" + COLUMN_ITEM_TRANSACTION_ID + ")");
+        createItemRefIndex(db);
+    }
+
+    // FTS4 index over ref, notes and item material names, kept in sync by triggers
+    private static void createSearchIndex(SQLiteDatabase db) {
+        db.execSQL("CREATE VIRTUAL TABLE " + TABLE_TRANSACTIONS_FTS + " USING fts4(" +
+                COLUMN_TRANSACTION_REF + ", " + COLUMN_NOTES + ", " + COLUMN_FTS_MATERIALS + ")");
+
+        db.execSQL("CREATE TRIGGER trg_transactions_fts_insert AFTER INSERT ON " + TABLE_TRANSACTIONS + " BEGIN " +
+                "INSERT INTO " + TABLE_TRANSACTIONS_FTS + "(docid, " + COLUMN_TRANSACTION_REF + ", " + COLUMN_NOTES + ", " +
+                COLUMN_FTS_MATERIALS + ") VALUES (new." + COLUMN_TRANSACTION_ID + ", new." + COLUMN_TRANSACTION_REF +
+                ", new." + COLUMN_NOTES + ", ''); END");
+        db.execSQL("CREATE TRIGGER trg_transactions_fts_update AFTER UPDATE OF " + COLUMN_TRANSACTION_REF + ", " +
+                COLUMN_NOTES + " ON " + TABLE_TRANSACTIONS + " BEGIN " +
+                "UPDATE " + TABLE_TRANSACTIONS_FTS + " SET " + COLUMN_TRANSACTION_REF + " = new." + COLUMN_TRANSACTION_REF +
+                ", " + COLUMN_NOTES + " = new." + COLUMN_NOTES + " WHERE docid = new." + COLUMN_TRANSACTION_ID + "; END");
+        db.execSQL("CREATE TRIGGER trg_transactions_fts_delete AFTER DELETE ON " + TABLE_TRANSACTIONS + " BEGIN " +
+                "DELETE FROM " + TABLE_TRANSACTIONS_FTS + " WHERE docid = old." + COLUMN_TRANSACTION_ID + "; END");
+
+        db.execSQL("CREATE TRIGGER trg_items_fts_insert AFTER INSERT ON " + TABLE_TRANSACTION_ITEMS + " BEGIN " +
+                refreshSearchMaterialsSql("new") + " END");
+        db.execSQL("CREATE TRIGGER trg_items_fts_update AFTER UPDATE OF " + COLUMN_MATERIAL_NAME + " ON " +
+                TABLE_TRANSACTION_ITEMS + " BEGIN " + refreshSearchMaterialsSql("new") + " END");
+        db.execSQL("CREATE TRIGGER trg_items_fts_delete AFTER DELETE ON " + TABLE_TRANSACTION_ITEMS + " BEGIN " +
+                refreshSearchMaterialsSql("old") + " END");
+    }
+
+    private static String refreshSearchMaterialsSql(String row) {
+        return "UPDATE " + TABLE_TRANSACTIONS_FTS + " SET " + COLUMN_FTS_MATERIALS + " = " +
+                "(SELECT group_concat(" + COLUMN_MATERIAL_NAME + ", ' ') FROM " + TABLE_TRANSACTION_ITEMS +
+                " WHERE " + COLUMN_ITEM_TRANSACTION_ID + " = " + row + "." + COLUMN_ITEM_TRANSACTION_ID + ")" +
+                " WHERE docid = " + row + "." + COLUMN_ITEM_TRANSACTION_ID + ";";
     }
 
-    @Override
-    public void onUpgrade(SQLiteDatabase db, int oldVersion, int newVersion) {
-        Log.d(TAG, "Upgrading database from version " + oldVersion + " to " + newVersion);
+    /**
+     * Bring a pre-consolidation MeruScrapTransactions.db up to the current table layout so
+     * MeruScrapDatabase can copy its rows column for column. The search index (version 4) is
+     * not built here; the triggers in the new database index rows as they are imported.
+     */
+    static void upgradeLegacyTables(SQLiteDatabase db, int oldVersion, Map<String, Long> materialIds) {
+        Log.d(TAG, "Upgrading legacy transactions from version " + oldVersion);
+
+        if (oldVersion < 2) {
+            migrateToMaterialIds(db, materialIds);
+        }
+        if (oldVersion < 3) {
+            migrateToFixedPoint(db);
+        }
+        if (oldVersion < 5) {
+            migrateToItemRefs(db);
+        }
+    }
 
-        if (oldVersion < newVersion) {
-            // Drop existing tables and recreate (for development)
-            // In production, you'd want to migrate data
-            db.execSQL("DROP TABLE IF EXISTS " + TABLE_TRANSACTION_ITEMS);
-            db.execSQL("DROP TABLE IF EXISTS " + TABLE_TRANSACTIONS);
-            onCreate(db);
+    /**
+     * Version 5: line items get a globally unique item_ref. Existing rows are given
+     * "<transaction_ref>-<id>", which is already unique. Used for the application database
+     * (MeruScrapDatabase version 2), legacy imports and archive files.
+     */
+    static void migrateToItemRefs(SQLiteDatabase db) {
+        // Tables rebuilt by migrateToFixedPoint above already have the column
+        if (!hasColumn(db, TABLE_TRANSACTION_ITEMS, COLUMN_ITEM_REF)) {
+            db.execSQL("ALTER TABLE " + TABLE_TRANSACTION_ITEMS + " ADD COLUMN " + COLUMN_ITEM_REF + " TEXT");
         }
+        db.execSQL("UPDATE " + TABLE_TRANSACTION_ITEMS + " SET " + COLUMN_ITEM_REF + " = " +
+                "(SELECT t." + COLUMN_TRANSACTION_REF + " FROM " + TABLE_TRANSACTIONS + " t WHERE t." +
+                COLUMN_TRANSACTION_ID + " = " + TABLE_TRANSACTION_ITEMS + "." + COLUMN_ITEM_TRANSACTION_ID + ")" +
+                " || '-' || " + COLUMN_ITEM_ID + " WHERE " + COLUMN_ITEM_REF + " IS NULL");
+        createItemRefIndex(db);
+        Log.d(TAG, "Added item refs");
     }
 
-    @Override
-    public void onConfigure(SQLiteDatabase db) {
-        super.onConfigure(db);
-        db.setForeignKeyConstraintsEnabled(true);
+    private static boolean hasColumn(SQLiteDatabase db, String table, String column) {
+        Cursor cursor = db.rawQuery("PRAGMA table_info(" + table + ")", null);
+        try {
+            int nameIndex = cursor.getColumnIndexOrThrow("name");
+            while (cursor.moveToNext()) {
+                if (column.equals(cursor.getString(nameIndex))) {
+                    return true;
+                }
+            }
+            return false;
+        } finally {
+            cursor.close();
+        }
+    }
+
+    // Version 2: line items reference materials by id instead of grouping on the name text
+    private static void migrateToMaterialIds(SQLiteDatabase db, Map<String, Long> materialIds) {
+        db.execSQL("ALTER TABLE " + TABLE_TRANSACTION_ITEMS + " ADD COLUMN " + COLUMN_MATERIAL_ID + " INTEGER");
+
+        SQLiteStatement backfill = db.compileStatement(
+                "UPDATE " + TABLE_TRANSACTION_ITEMS + " SET " + COLUMN_MATERIAL_ID + " = ? WHERE " +
+                        COLUMN_MATERIAL_NAME + " = ?");
+        try {
+            for (Map.Entry<String, Long> entry : materialIds.entrySet()) {
+                backfill.bindLong(1, entry.getValue());
+                backfill.bindString(2, entry.getKey());
+                backfill.executeUpdateDelete();
+            }
+        } finally {
+            backfill.close();
+        }
+
+        db.execSQL("DROP INDEX IF EXISTS idx_item_material");
+        db.execSQL("CREATE INDEX idx_item_material_id ON " + TABLE_TRANSACTION_ITEMS + "(" + COLUMN_MATERIAL_ID + ")");
+        Log.d(TAG, "Back-filled material ids for " + materialIds.size() + " materials");
+    }
+
+    // Version 3: REAL money/weight columns become INTEGER cents/grams.
+    // SQLite can't change a column type in place, so both tables are rebuilt. The new items table
+    // references transactions_new, and the rename below carries that reference over, so no
+    // ON DELETE CASCADE fires when the old tables are dropped.
+    private static void migrateToFixedPoint(SQLiteDatabase db) {
+        String transactionsNew = TABLE_TRANSACTIONS + "_new";
+        String itemsNew = TABLE_TRANSACTION_ITEMS + "_new";
+
+        db.execSQL(createTransactionsTable(transactionsNew));
+        db.execSQL("INSERT INTO " + transactionsNew + " (" +
+                COLUMN_TRANSACTION_ID + ", " + COLUMN_TRANSACTION_REF + ", " + COLUMN_TIMESTAMP + ", " +
+                COLUMN_TOTAL_WEIGHT_G + ", " + COLUMN_TOTAL_VALUE_CENTS + ", " + COLUMN_MATERIAL_COUNT + ", " +
+                COLUMN_STATUS + ", " + COLUMN_NOTES + ") " +
+                "SELECT " + COLUMN_TRANSACTION_ID + ", " + COLUMN_TRANSACTION_REF + ", " + COLUMN_TIMESTAMP + ", " +
+                "CAST(ROUND(total_weight * 1000) AS INTEGER), CAST(ROUND(total_value * 100) AS INTEGER), " +
+                COLUMN_MATERIAL_COUNT + ", " + COLUMN_STATUS + ", " + COLUMN_NOTES +
+                " FROM " + TABLE_TRANSACTIONS);
+
+        db.execSQL(createTransactionItemsTable(itemsNew, transactionsNew));
+        db.execSQL("INSERT INTO " + itemsNew + " (" +
+                COLUMN_ITEM_ID + ", " + COLUMN_ITEM_TRANSACTION_ID + ", " + COLUMN_MATERIAL_ID + ", " +
+                COLUMN_MATERIAL_NAME + ", " + COLUMN_WEIGHT_G + ", " + COLUMN_PRICE_PER_KG_CENTS + ", " +
+                COLUMN_ITEM_TOTAL_VALUE_CENTS + ", " + COLUMN_ITEM_TIMESTAMP + ", " + COLUMN_ITEM_NOTES + ") " +
+                "SELECT " + COLUMN_ITEM_ID + ", " + COLUMN_ITEM_TRANSACTION_ID + ", " + COLUMN_MATERIAL_ID + ", " +
+                COLUMN_MATERIAL_NAME + ", CAST(ROUND(weight * 1000) AS INTEGER), " +
+                "CAST(ROUND(price_per_kg * 100) AS INTEGER), CAST(ROUND(total_value * 100) AS INTEGER), " +
+                COLUMN_ITEM_TIMESTAMP + ", " + COLUMN_ITEM_NOTES +
+                " FROM " + TABLE_TRANSACTION_ITEMS);
+
+        db.execSQL("DROP TABLE " + TABLE_TRANSACTION_ITEMS);
+        db.execSQL("DROP TABLE " + TABLE_TRANSACTIONS);
+        db.execSQL("ALTER TABLE " + transactionsNew + " RENAME TO " + TABLE_TRANSACTIONS);
+        db.execSQL("ALTER TABLE " + itemsNew + " RENAME TO " + TABLE_TRANSACTION_ITEMS);
+        createIndexes(db);
+
+        Log.d(TAG, "Migrated transaction amounts to fixed-point columns");
     }
 
     // FIXED: Thread-safe database operations - don't close the database manually
     public synchronized long saveTransaction(Transaction transaction, List<TransactionMaterial> transactionMaterials) {
         SQLiteDatabase db = null;
         long transactionId = -1;
+        long start = System.nanoTime();
 
         try {
             db = this.getWritableDatabase();
@@ -134,8 +318,8 @@ public class TransactionsDBHelper extends SQLiteOpenHelper {
             ContentValues transactionValues = new ContentValues();
             transactionValues.put(COLUMN_TRANSACTION_REF, transaction.getTransactionId());
             transactionValues.put(COLUMN_TIMESTAMP, transaction.getTimestamp());
-            transactionValues.put(COLUMN_TOTAL_WEIGHT, transaction.getTotalWeight());
-            transactionValues.put(COLUMN_TOTAL_VALUE, transaction.getTotalValue());
+            transactionValues.put(COLUMN_TOTAL_WEIGHT_G, transaction.getTotalWeightGrams());
+            transactionValues.put(COLUMN_TOTAL_VALUE_CENTS, transaction.getTotalValueCents());
             transactionValues.put(COLUMN_MATERIAL_COUNT, transaction.getMaterialCount());
             transactionValues.put(COLUMN_STATUS, transaction.getStatus());
             transactionValues.put(COLUMN_NOTES, transaction.getNotes());
@@ -150,14 +334,19 @@ public class TransactionsDBHelper extends SQLiteOpenHelper {
             Log.d(TAG, "Inserted transaction with ID: " + transactionId);
 
             // Insert transaction items
+            List<ContentValues> items = new ArrayList<>(transactionMaterials.size());
             for (TransactionMaterial material : transactionMaterials) {
                 ContentValues itemValues = new ContentValues();
                 itemValues.put(COLUMN_ITEM_TRANSACTION_ID, transactionId);
+                if (material.getMaterialId() > 0) {
+                    itemValues.put(COLUMN_MATERIAL_ID, material.getMaterialId());
+                }
                 itemValues.put(COLUMN_MATERIAL_NAME, material.getMaterialName());
-                itemValues.put(COLUMN_WEIGHT, material.getWeight());
-                itemValues.put(COLUMN_PRICE_PER_KG, material.getPricePerKg());
-                itemValues.put(COLUMN_ITEM_TOTAL_VALUE, material.getValue());
+                itemValues.put(COLUMN_WEIGHT_G, material.getWeightGrams());
+                itemValues.put(COLUMN_PRICE_PER_KG_CENTS, material.getPricePerKgCents());
+                itemValues.put(COLUMN_ITEM_TOTAL_VALUE_CENTS, material.getValueCents());
                 itemValues.put(COLUMN_ITEM_TIMESTAMP, material.getTimestamp());
+                itemValues.put(COLUMN_ITEM_REF, ids.next("ITM"));
 
                 long itemId = db.insert(TABLE_TRANSACTION_ITEMS, null, itemValues);
                 if (itemId == -1) {
@@ -165,10 +354,18 @@ public class TransactionsDBHelper extends SQLiteOpenHelper {
                     return -1;
                 }
                 Log.d(TAG, "Inserted transaction item: " + material.getMaterialName() + " with ID: " + itemId);
+                items.add(itemValues);
             }
 
+            // Row ids are local; other devices re-link items by ref and materials by name
+            JSONObject payload = ChangeLog.toJson(transactionValues)
+                    .put(PAYLOAD_ITEMS, ChangeLog.toJsonArray(items, COLUMN_ITEM_TRANSACTION_ID, COLUMN_MATERIAL_ID));
+            ChangeLog.record(db, ids, ChangeLog.ENTITY_TRANSACTION,
+                    transaction.getTransactionId(), ChangeLog.OP_UPSERT, payload);
+
             db.setTransactionSuccessful();
-            Log.d(TAG, "Transaction saved successfully with " + transactionMaterials.size() + " items");
+            Log.d(TAG, "Transaction saved successfully with " + transactionMaterials.size() + " items in " +
+                    (System.nanoTime() - start) / 1000 + "us");
 
         } catch (Exception e) {
             Log.e(TAG, "Error saving transaction", e);
@@ -187,25 +384,143 @@ public class TransactionsDBHelper extends SQLiteOpenHelper {
         return transactionId;
     }
 
+    /**
+     * Insert a transaction received from another device. Transactions are never edited once
+     * saved, so one that is already here (same transaction_ref) is left alone and false is
+     * returned. Call inside the importing write transaction.
+     */
+    static boolean applyRemoteChange(SQLiteDatabase db, JSONObject payload) throws JSONException {
+        String ref = payload.getString(COLUMN_TRANSACTION_REF);
+        if (DatabaseUtils.queryNumEntries(db, TABLE_TRANSACTIONS, COLUMN_TRANSACTION_REF + " = ?",
+                new String[]{ref}) > 0) {
+            return false;
+        }
+
+        ContentValues header = ChangeLog.toContentValues(payload, COLUMN_TRANSACTION_REF, COLUMN_TIMESTAMP,
+                COLUMN_TOTAL_WEIGHT_G, COLUMN_TOTAL_VALUE_CENTS, COLUMN_MATERIAL_COUNT, COLUMN_STATUS, COLUMN_NOTES);
+        long transactionId = db.insertOrThrow(TABLE_TRANSACTIONS, null, header);
+
+        JSONArray items = payload.optJSONArray(PAYLOAD_ITEMS);
+        for (int i = 0; items != null && i < items.length(); i++) {
+            JSONObject item = items.getJSONObject(i);
+            ContentValues itemValues = ChangeLog.toContentValues(item, COLUMN_MATERIAL_NAME, COLUMN_WEIGHT_G,
+                    COLUMN_PRICE_PER_KG_CENTS, COLUMN_ITEM_TOTAL_VALUE_CENTS, COLUMN_ITEM_TIMESTAMP,
+                    COLUMN_ITEM_NOTES, COLUMN_ITEM_REF);
+            itemValues.put(COLUMN_ITEM_TRANSACTION_ID, transactionId);
+            long materialId = MaterialsDBHelper.findIdByName(db, item.getString(COLUMN_MATERIAL_NAME));
+            if (materialId > 0) {
+                itemValues.put(COLUMN_MATERIAL_ID, materialId);
+            }
+            db.insertOrThrow(TABLE_TRANSACTION_ITEMS, null, itemValues);
+        }
+        return true;
+    }
+
+    // Saves the sale and records its receipt print job in one SQLite transaction: either both
+    // are committed or neither is. Returns the transaction row id, or -1. A receipt job already
+    // stored (printed before the sale was applied) is kept as it is.
+    //
+    // Lock order on the write path is this helper's monitor, then the connection: synchronized
+    // here so the monitor is held before runInTransaction takes the connection, the same order
+    // as saveTransaction and the archiver.
+    public synchronized long saveTransactionWithReceipt(Transaction transaction, List<TransactionMaterial> transactionMaterials,
+                                                        PrintHistoryManager.PrintJob receiptJob) {
+        PrintHistoryManager printHistory = PrintHistoryManager.getInstance(appContext);
+        Long transactionId = database.runInTransaction(db -> {
+            long id = saveTransaction(transaction, transactionMaterials);
+            if (id <= 0) {
+                throw new IllegalStateException("Transaction " + transaction.getTransactionId() + " not saved");
+            }
+            receiptJob.transactionId = transaction.getTransactionId();
+            if (printHistory.addPrintJob(receiptJob) <= 0 && printHistory.getPrintJobById(receiptJob.jobId) == null) {
+                throw new IllegalStateException("Receipt job " + receiptJob.jobId + " not recorded");
+            }
+            return id;
+        });
+        return transactionId != null ? transactionId : -1;
+    }
+
+    // Row id of the transaction with this ref in the hot tables, or -1
+    public synchronized long getTransactionIdByRef(String transactionRef) {
+        Cursor cursor = null;
+        try {
+            cursor = this.getReadableDatabase().rawQuery("SELECT " + COLUMN_TRANSACTION_ID + " FROM " +
+                    TABLE_TRANSACTIONS + " WHERE " + COLUMN_TRANSACTION_REF + " = ?", new String[]{transactionRef});
+            return cursor.moveToFirst() ? cursor.getLong(0) : -1;
+        } catch (Exception e) {
+            Log.e(TAG, "Error looking up transaction " + transactionRef, e);
+            return -1;
+        } finally {
+            if (cursor != null) {
+                cursor.close();
+            }
+        }
+    }
+
+    // The transaction with this ref and its items, from the hot tables or an archive; null if none
+    public synchronized Transaction getTransactionByRef(String transactionRef) {
+        long id = getTransactionIdByRef(transactionRef);
+        if (id > 0) {
+            return getTransaction(id);
+        }
+        final String[] args = new String[]{transactionRef};
+        return TransactionArchiveManager.getInstance(appContext).findInArchives(archiveDb -> {
+            Transaction transaction = null;
+            Cursor cursor = null;
+            try {
+                cursor = archiveDb.rawQuery("SELECT " + TRANSACTION_MAPPER.select() + " FROM " + TABLE_TRANSACTIONS +
+                        " WHERE " + COLUMN_TRANSACTION_REF + " = ?", args);
+                transaction = TRANSACTION_MAPPER.mapFirst(cursor);
+                cursor.close();
+
+                if (transaction != null) {
+                    cursor = archiveDb.rawQuery("SELECT " + ITEM_MAPPER.select() + " FROM " + TABLE_TRANSACTION_ITEMS +
+                            " WHERE " + COLUMN_ITEM_TRANSACTION_ID + " = ?",
+                            new String[]{String.valueOf(transaction.getId())});
+                    transaction.setItems(ITEM_MAPPER.mapAll(cursor));
+                }
+            } finally {
+                if (cursor != null && !cursor.isClosed()) {
+                    cursor.close();
+                }
+            }
+            return transaction;
+        });
+    }
+
     // FIXED: Thread-safe read operations
     public synchronized List<Transaction> getAllTransactions() {
+        return getTransactions(0, Long.MAX_VALUE);
+    }
+
+    // Transactions in [startTime, endTime), newest first. Archive files are attached only
+    // when the range reaches back into an archived year.
+    public synchronized List<Transaction> getTransactions(long startTime, long endTime) {
+        return queryTransactions(TRANSACTION_MAPPER, startTime, endTime);
+    }
+
+    // Same range without notes, for list screens
+    public synchronized List<Transaction> getTransactionSummaries(long startTime, long endTime) {
+        return queryTransactions(TRANSACTION_SUMMARY_MAPPER, startTime, endTime);
+    }
+
+    private List<Transaction> queryTransactions(RowMapper<Transaction> mapper, long startTime, long endTime) {
         List<Transaction> transactions = new ArrayList<>();
-        SQLiteDatabase db = null;
+        TransactionArchiveManager.ArchiveReader reader = null;
         Cursor cursor = null;
 
         try {
-            db = this.getReadableDatabase();
-            String query = "SELECT * FROM " + TABLE_TRANSACTIONS + " ORDER BY " + COLUMN_TIMESTAMP + " DESC";
-            cursor = db.rawQuery(query, null);
+            reader = TransactionArchiveManager.getInstance(appContext)
+                    .openReader(this.getReadableDatabase(), startTime, endTime);
+            String query = reader.unionAll("SELECT " + mapper.select() + " FROM %1$s." + TABLE_TRANSACTIONS +
+                    " WHERE " + COLUMN_TIMESTAMP + " >= ? AND " + COLUMN_TIMESTAMP + " < ?") +
+                    " ORDER BY " + COLUMN_TIMESTAMP + " DESC";
+            cursor = reader.db.rawQuery(query,
+                    reader.repeatArgs(String.valueOf(startTime), String.valueOf(endTime)));
 
-            if (cursor.moveToFirst()) {
-                do {
-                    Transaction transaction = cursorToTransaction(cursor);
-                    transactions.add(transaction);
-                } while (cursor.moveToNext());
-            }
+            transactions = mapper.mapAll(cursor);
 
-            Log.d(TAG, "Retrieved " + transactions.size() + " transactions");
+            Log.d(TAG, "Retrieved " + transactions.size() + " transactions from " + reader.schemas);
 
         } catch (Exception e) {
             Log.e(TAG, "Error getting transactions", e);
@@ -217,7 +532,10 @@ public class TransactionsDBHelper extends SQLiteOpenHelper {
                     Log.e(TAG, "Error closing cursor", e);
                 }
             }
-            // Don't close the database - let SQLiteOpenHelper manage it
+            if (reader != null) {
+                // Only closes the connection if archives were attached to it
+                reader.close();
+            }
         }
 
         return transactions;
@@ -231,13 +549,16 @@ public class TransactionsDBHelper extends SQLiteOpenHelper {
 
         try {
             db = this.getReadableDatabase();
-            String query = "SELECT * FROM " + TABLE_TRANSACTIONS + " WHERE " + COLUMN_TRANSACTION_ID + " = ?";
+            String query = "SELECT " + TRANSACTION_MAPPER.select() + " FROM " + TABLE_TRANSACTIONS +
+                    " WHERE " + COLUMN_TRANSACTION_ID + " = ?";
             cursor = db.rawQuery(query, new String[]{String.valueOf(transactionId)});
 
-            if (cursor.moveToFirst()) {
-                transaction = cursorToTransaction(cursor);
+            transaction = TRANSACTION_MAPPER.mapFirst(cursor);
+            if (transaction != null) {
                 // Load transaction items
                 transaction.setItems(getTransactionItems(transactionId));
+            } else {
+                transaction = findArchivedTransaction(transactionId);
             }
 
         } catch (Exception e) {
@@ -257,6 +578,8 @@ public class TransactionsDBHelper extends SQLiteOpenHelper {
     }
 
     // FIXED: Thread-safe transaction items retrieval
+    // Hot tables only: a transaction with no items is not a miss, so archives are only searched
+    // when the header itself is missing (getTransaction, getTransactionByRef)
     public synchronized List<TransactionItem> getTransactionItems(long transactionId) {
         List<TransactionItem> items = new ArrayList<>();
         SQLiteDatabase db = null;
@@ -264,15 +587,11 @@ public class TransactionsDBHelper extends SQLiteOpenHelper {
 
         try {
             db = this.getReadableDatabase();
-            String query = "SELECT * FROM " + TABLE_TRANSACTION_ITEMS + " WHERE " + COLUMN_ITEM_TRANSACTION_ID + " = ?";
+            String query = "SELECT " + ITEM_MAPPER.select() + " FROM " + TABLE_TRANSACTION_ITEMS +
+                    " WHERE " + COLUMN_ITEM_TRANSACTION_ID + " = ?";
             cursor = db.rawQuery(query, new String[]{String.valueOf(transactionId)});
 
-            if (cursor.moveToFirst()) {
-                do {
-                    TransactionItem item = cursorToTransactionItem(cursor);
-                    items.add(item);
-                } while (cursor.moveToNext());
-            }
+            items = ITEM_MAPPER.mapAll(cursor);
 
         } catch (Exception e) {
             Log.e(TAG, "Error getting transaction items for transaction ID: " + transactionId, e);
@@ -290,24 +609,252 @@ public class TransactionsDBHelper extends SQLiteOpenHelper {
         return items;
     }
 
-    // FIXED: Thread-safe transaction statistics
+    // Ids carry no date, so a miss in the hot tables is looked up archive by archive
+    private Transaction findArchivedTransaction(final long transactionId) {
+        final String[] args = new String[]{String.valueOf(transactionId)};
+        return TransactionArchiveManager.getInstance(appContext).findInArchives(archiveDb -> {
+            Transaction transaction = null;
+            Cursor cursor = null;
+            try {
+                cursor = archiveDb.rawQuery("SELECT " + TRANSACTION_MAPPER.select() + " FROM " + TABLE_TRANSACTIONS +
+                        " WHERE " + COLUMN_TRANSACTION_ID + " = ?", args);
+                transaction = TRANSACTION_MAPPER.mapFirst(cursor);
+                cursor.close();
+
+                if (transaction != null) {
+                    cursor = archiveDb.rawQuery("SELECT " + ITEM_MAPPER.select() + " FROM " + TABLE_TRANSACTION_ITEMS +
+                            " WHERE " + COLUMN_ITEM_TRANSACTION_ID + " = ?", args);
+                    transaction.setItems(ITEM_MAPPER.mapAll(cursor));
+                }
+            } finally {
+                if (cursor != null && !cursor.isClosed()) {
+                    cursor.close();
+                }
+            }
+            return transaction;
+        });
+    }
+
+    // Full-text search over ref, notes and material names, best matches first then newest.
+    // Pass 0 for startTime/endTime to leave that side of the date range open.
+    // Results are summaries (no notes); load the full row with getTransaction(id).
+    public synchronized List<Transaction> searchTransactions(String query, long startTime, long endTime,
+                                                             int limit, int offset) {
+        List<Transaction> transactions = new ArrayList<>();
+        String matchExpression = buildMatchExpression(query);
+        if (matchExpression == null) {
+            return transactions;
+        }
+
+        Cursor cursor = null;
+
+        try {
+            long start = System.currentTimeMillis();
+            SQLiteDatabase db = this.getReadableDatabase();
+
+            // offsets() emits four integers per matching token, so its word count / 4 is the hit count
+            StringBuilder sql = new StringBuilder("SELECT " + TRANSACTION_SUMMARY_MAPPER.select("t") +
+                    " FROM (SELECT docid, " +
+                    "(length(offsets(" + TABLE_TRANSACTIONS_FTS + ")) - " +
+                    "length(replace(offsets(" + TABLE_TRANSACTIONS_FTS + "), ' ', '')) + 1) / 4 AS hits " +
+                    "FROM " + TABLE_TRANSACTIONS_FTS + " WHERE " + TABLE_TRANSACTIONS_FTS + " MATCH ?) f " +
+                    "JOIN " + TABLE_TRANSACTIONS + " t ON t." + COLUMN_TRANSACTION_ID + " = f.docid");
+            List<String> args = new ArrayList<>();
+            args.add(matchExpression);
+
+            String where = " WHERE ";
+            if (startTime > 0) {
+                sql.append(where).append("t.").append(COLUMN_TIMESTAMP).append(" >= ?");
+                args.add(String.valueOf(startTime));
+                where = " AND ";
+            }
+            if (endTime > 0) {
+                sql.append(where).append("t.").append(COLUMN_TIMESTAMP).append(" < ?");
+                args.add(String.valueOf(endTime));
+            }
+            sql.append(" ORDER BY f.hits DESC, t.").append(COLUMN_TIMESTAMP).append(" DESC LIMIT ? OFFSET ?");
+            args.add(String.valueOf(limit));
+            args.add(String.valueOf(offset));
+
+            cursor = db.rawQuery(sql.toString(), args.toArray(new String[0]));
+
+            transactions = TRANSACTION_SUMMARY_MAPPER.mapAll(cursor);
+
+            Log.d(TAG, "Search '" + query + "' returned " + transactions.size() + " transactions in " +
+                    (System.currentTimeMillis() - start) + "ms");
+
+        } catch (Exception e) {
+            Log.e(TAG, "Error searching transactions", e);
+        } finally {
+            if (cursor != null) {
+                try {
+                    cursor.close();
+                } catch (Exception e) {
+                    Log.e(TAG, "Error closing cursor", e);
+                }
+            }
+        }
+
+        return transactions;
+    }
+
+    public List<Transaction> searchTransactions(String query, int limit, int offset) {
+        return searchTransactions(query, 0, 0, limit, offset);
+    }
+
+    // Turns free text into an FTS MATCH expression: every word must match, as a prefix
+    private static String buildMatchExpression(String query) {
+        if (query == null) {
+            return null;
+        }
+
+        StringBuilder expression = new StringBuilder();
+        for (String token : query.toLowerCase(java.util.Locale.ROOT).split("[^\\p{L}\\p{N}]+")) {
+            if (token.isEmpty()) {
+                continue;
+            }
+            if (expression.length() > 0) {
+                expression.append(' ');
+            }
+            expression.append(token).append('*');
+        }
+
+        return expression.length() > 0 ? expression.toString() : null;
+    }
+
+    // Diagnostic: times the FTS search against the LIKE '%term%' scan it replaces
+    public synchronized SearchBenchmark benchmarkSearch(String term, int iterations) {
+        SearchBenchmark benchmark = new SearchBenchmark();
+        String matchExpression = buildMatchExpression(term);
+        if (matchExpression == null || iterations <= 0) {
+            return benchmark;
+        }
+
+        SQLiteDatabase db = this.getReadableDatabase();
+        String like = "%" + term + "%";
+        String likeQuery = "SELECT DISTINCT t." + COLUMN_TRANSACTION_ID + " FROM " + TABLE_TRANSACTIONS + " t " +
+                "LEFT JOIN " + TABLE_TRANSACTION_ITEMS + " i ON i." + COLUMN_ITEM_TRANSACTION_ID + " = t." + COLUMN_TRANSACTION_ID +
+                " WHERE t." + COLUMN_TRANSACTION_REF + " LIKE ? OR t." + COLUMN_NOTES + " LIKE ? OR i." +
+                COLUMN_MATERIAL_NAME + " LIKE ?";
+        String ftsQuery = "SELECT docid FROM " + TABLE_TRANSACTIONS_FTS + " WHERE " + TABLE_TRANSACTIONS_FTS + " MATCH ?";
+
+        long start = System.nanoTime();
+        for (int i = 0; i < iterations; i++) {
+            benchmark.likeMatches = countRows(db, likeQuery, new String[]{like, like, like});
+        }
+        benchmark.likeAverageMs = (System.nanoTime() - start) / 1_000_000.0 / iterations;
+
+        start = System.nanoTime();
+        for (int i = 0; i < iterations; i++) {
+            benchmark.ftsMatches = countRows(db, ftsQuery, new String[]{matchExpression});
+        }
+        benchmark.ftsAverageMs = (System.nanoTime() - start) / 1_000_000.0 / iterations;
+
+        Log.d(TAG, "Search benchmark '" + term + "': " + benchmark);
+        return benchmark;
+    }
+
+    // Diagnostic: rows/sec for SELECT * with per-row name lookups versus the mapped projections
+    public synchronized MappingBenchmark benchmarkRowMapping(int iterations) {
+        MappingBenchmark benchmark = new MappingBenchmark();
+        if (iterations <= 0) {
+            return benchmark;
+        }
+
+        SQLiteDatabase db = this.getReadableDatabase();
+        String from = " FROM " + TABLE_TRANSACTIONS + " ORDER BY " + COLUMN_TIMESTAMP + " DESC";
+        Cursor cursor = null;
+
+        try {
+            long start = System.nanoTime();
+            for (int i = 0; i < iterations; i++) {
+                cursor = db.rawQuery("SELECT *" + from, null);
+                int rows = 0;
+                while (cursor.moveToNext()) {
+                    new Transaction(
+                            cursor.getLong(cursor.getColumnIndexOrThrow(COLUMN_TRANSACTION_ID)),
+                            cursor.getString(cursor.getColumnIndexOrThrow(COLUMN_TRANSACTION_REF)),
+                            cursor.getLong(cursor.getColumnIndexOrThrow(COLUMN_TIMESTAMP)),
+                            cursor.getLong(cursor.getColumnIndexOrThrow(COLUMN_TOTAL_WEIGHT_G)),
+                            cursor.getLong(cursor.getColumnIndexOrThrow(COLUMN_TOTAL_VALUE_CENTS)),
+                            cursor.getInt(cursor.getColumnIndexOrThrow(COLUMN_MATERIAL_COUNT)),
+                            cursor.getString(cursor.getColumnIndexOrThrow(COLUMN_STATUS)),
+                            cursor.getString(cursor.getColumnIndexOrThrow(COLUMN_NOTES)));
+                    rows++;
+                }
+                cursor.close();
+                benchmark.rows = rows;
+            }
+            benchmark.byNameRowsPerSec = rowsPerSecond(benchmark.rows, iterations, System.nanoTime() - start);
+
+            start = System.nanoTime();
+            for (int i = 0; i < iterations; i++) {
+                cursor = db.rawQuery("SELECT " + TRANSACTION_MAPPER.select() + from, null);
+                TRANSACTION_MAPPER.mapAll(cursor);
+                cursor.close();
+            }
+            benchmark.mappedRowsPerSec = rowsPerSecond(benchmark.rows, iterations, System.nanoTime() - start);
+
+            start = System.nanoTime();
+            for (int i = 0; i < iterations; i++) {
+                cursor = db.rawQuery("SELECT " + TRANSACTION_SUMMARY_MAPPER.select() + from, null);
+                TRANSACTION_SUMMARY_MAPPER.mapAll(cursor);
+                cursor.close();
+            }
+            benchmark.summaryRowsPerSec = rowsPerSecond(benchmark.rows, iterations, System.nanoTime() - start);
+
+            Log.d(TAG, "Row mapping benchmark: " + benchmark);
+        } catch (Exception e) {
+            Log.e(TAG, "Error running row mapping benchmark", e);
+        } finally {
+            if (cursor != null && !cursor.isClosed()) {
+                cursor.close();
+            }
+        }
+
+        return benchmark;
+    }
+
+    private static double rowsPerSecond(int rows, int iterations, long elapsedNanos) {
+        return elapsedNanos > 0 ? (double) rows * iterations * 1_000_000_000L / elapsedNanos : 0;
+    }
+
+    private int countRows(SQLiteDatabase db, String query, String[] args) {
+        Cursor cursor = null;
+        try {
+            cursor = db.rawQuery(query, args);
+            return cursor.getCount();
+        } catch (Exception e) {
+            Log.e(TAG, "Error running benchmark query", e);
+            return -1;
+        } finally {
+            if (cursor != null) {
+                cursor.close();
+            }
+        }
+    }
+
+    // FIXED: Thread-safe transaction statistics (all time, so every archive is included)
     public synchronized TransactionStats getTransactionStats() {
-        SQLiteDatabase db = null;
         TransactionStats stats = new TransactionStats();
+        TransactionArchiveManager.ArchiveReader reader = null;
         Cursor cursor = null;
 
         try {
-            db = this.getReadableDatabase();
-            String query = "SELECT COUNT(*) as count, SUM(" + COLUMN_TOTAL_WEIGHT + ") as total_weight, " +
-                    "SUM(" + COLUMN_TOTAL_VALUE + ") as total_value FROM " + TABLE_TRANSACTIONS +
-                    " WHERE " + COLUMN_STATUS + " = 'COMPLETED'";
+            reader = TransactionArchiveManager.getInstance(appContext)
+                    .openReader(this.getReadableDatabase(), 0, Long.MAX_VALUE);
+            String query = "SELECT SUM(count) as count, SUM(total_weight) as total_weight, " +
+                    "SUM(total_value) as total_value FROM (" +
+                    reader.unionAll("SELECT COUNT(*) as count, SUM(" + COLUMN_TOTAL_WEIGHT_G + ") as total_weight, " +
+                            "SUM(" + COLUMN_TOTAL_VALUE_CENTS + ") as total_value FROM %1$s." + TABLE_TRANSACTIONS +
+                            " WHERE " + COLUMN_STATUS + " = 'COMPLETED'") + ")";
 
-            cursor = db.rawQuery(query, null);
+            cursor = reader.db.rawQuery(query, null);
 
             if (cursor.moveToFirst()) {
                 stats.totalTransactions = cursor.getInt(cursor.getColumnIndexOrThrow("count"));
-                stats.totalWeight = cursor.getDouble(cursor.getColumnIndexOrThrow("total_weight"));
-                stats.totalValue = cursor.getDouble(cursor.getColumnIndexOrThrow("total_value"));
+                stats.totalWeightGrams = cursor.getLong(cursor.getColumnIndexOrThrow("total_weight"));
+                stats.totalValueCents = cursor.getLong(cursor.getColumnIndexOrThrow("total_value"));
             }
 
         } catch (Exception e) {
@@ -320,7 +867,9 @@ public class TransactionsDBHelper extends SQLiteOpenHelper {
                     Log.e(TAG, "Error closing cursor", e);
                 }
             }
-            // Don't close the database
+            if (reader != null) {
+                reader.close();
+            }
         }
 
         return stats;
@@ -347,8 +896,8 @@ public class TransactionsDBHelper extends SQLiteOpenHelper {
             db = this.getReadableDatabase();
 
             // Query for today's transactions
-            String query = "SELECT COUNT(*) as count, SUM(" + COLUMN_TOTAL_WEIGHT + ") as total_weight, " +
-                    "SUM(" + COLUMN_TOTAL_VALUE + ") as total_value, MAX(" + COLUMN_TIMESTAMP + ") as last_transaction " +
+            String query = "SELECT COUNT(*) as count, SUM(" + COLUMN_TOTAL_WEIGHT_G + ") as total_weight, " +
+                    "SUM(" + COLUMN_TOTAL_VALUE_CENTS + ") as total_value, MAX(" + COLUMN_TIMESTAMP + ") as last_transaction " +
                     "FROM " + TABLE_TRANSACTIONS +
                     " WHERE " + COLUMN_STATUS + " = 'COMPLETED' AND " +
                     COLUMN_TIMESTAMP + " >= ? AND " + COLUMN_TIMESTAMP + " < ?";
@@ -357,13 +906,13 @@ public class TransactionsDBHelper extends SQLiteOpenHelper {
 
             if (cursor.moveToFirst()) {
                 stats.transactionCount = cursor.getInt(cursor.getColumnIndexOrThrow("count"));
-                stats.totalWeight = cursor.getDouble(cursor.getColumnIndexOrThrow("total_weight"));
-                stats.totalValue = cursor.getDouble(cursor.getColumnIndexOrThrow("total_value"));
+                stats.totalWeightGrams = cursor.getLong(cursor.getColumnIndexOrThrow("total_weight"));
+                stats.totalValueCents = cursor.getLong(cursor.getColumnIndexOrThrow("total_value"));
                 stats.lastTransactionTime = cursor.getLong(cursor.getColumnIndexOrThrow("last_transaction"));
             }
 
             // Get yesterday's total for comparison
-            stats.yesterdayTotal = getYesterdayTotalInternal(db);
+            stats.yesterdayTotalCents = getYesterdayTotalInternal(db);
 
         } catch (Exception e) {
             Log.e(TAG, "Error getting today's transaction stats", e);
@@ -382,8 +931,8 @@ public class TransactionsDBHelper extends SQLiteOpenHelper {
     }
 
     // FIXED: Internal method to get yesterday's total using existing connection
-    private double getYesterdayTotalInternal(SQLiteDatabase db) {
-        double yesterdayTotal = 0.0;
+    private long getYesterdayTotalInternal(SQLiteDatabase db) {
+        long yesterdayTotal = 0;
         Cursor cursor = null;
 
         try {
@@ -399,14 +948,14 @@ public class TransactionsDBHelper extends SQLiteOpenHelper {
             calendar.add(Calendar.DAY_OF_MONTH, 1);
             long endOfYesterday = calendar.getTimeInMillis();
 
-            String query = "SELECT SUM(" + COLUMN_TOTAL_VALUE + ") as total FROM " + TABLE_TRANSACTIONS +
+            String query = "SELECT SUM(" + COLUMN_TOTAL_VALUE_CENTS + ") as total FROM " + TABLE_TRANSACTIONS +
                     " WHERE " + COLUMN_STATUS + " = 'COMPLETED' AND " +
                     COLUMN_TIMESTAMP + " >= ? AND " + COLUMN_TIMESTAMP + " < ?";
 
             cursor = db.rawQuery(query, new String[]{String.valueOf(startOfYesterday), String.valueOf(endOfYesterday)});
 
             if (cursor.moveToFirst()) {
-                yesterdayTotal = cursor.getDouble(cursor.getColumnIndexOrThrow("total"));
+                yesterdayTotal = cursor.getLong(cursor.getColumnIndexOrThrow("total"));
             }
 
         } catch (Exception e) {
@@ -424,10 +973,71 @@ public class TransactionsDBHelper extends SQLiteOpenHelper {
         return yesterdayTotal;
     }
 
+    // Per-material totals for a period, grouped on the integer material key.
+    // Items without a catalog id (legacy rows that could not be matched) are grouped by their name.
+    public synchronized List<MaterialStats> getMaterialStats(long startTime, long endTime) {
+        List<MaterialStats> statsList = new ArrayList<>();
+        TransactionArchiveManager.ArchiveReader reader = null;
+        Cursor cursor = null;
+
+        try {
+            long start = System.currentTimeMillis();
+            reader = TransactionArchiveManager.getInstance(appContext)
+                    .openReader(this.getReadableDatabase(), startTime, endTime);
+
+            String items = reader.unionAll("SELECT i.* FROM %1$s." + TABLE_TRANSACTION_ITEMS + " i " +
+                    "JOIN %1$s." + TABLE_TRANSACTIONS + " t ON t." + COLUMN_TRANSACTION_ID + " = i." + COLUMN_ITEM_TRANSACTION_ID +
+                    " WHERE t." + COLUMN_STATUS + " = 'COMPLETED' AND " +
+                    "t." + COLUMN_TIMESTAMP + " >= ? AND t." + COLUMN_TIMESTAMP + " < ?");
+
+            // The bare material_name column resolves to the row holding MAX(timestamp),
+            // so a renamed material is reported under its latest name
+            String query = "SELECT " + COLUMN_MATERIAL_ID + ", " + COLUMN_MATERIAL_NAME + ", " +
+                    "MAX(" + COLUMN_ITEM_TIMESTAMP + "), COUNT(*), " +
+                    "SUM(" + COLUMN_WEIGHT_G + "), SUM(" + COLUMN_ITEM_TOTAL_VALUE_CENTS + ") " +
+                    "FROM (" + items + ")" +
+                    " GROUP BY " + COLUMN_MATERIAL_ID + ", " +
+                    "CASE WHEN " + COLUMN_MATERIAL_ID + " IS NULL THEN " + COLUMN_MATERIAL_NAME + " END" +
+                    " ORDER BY 6 DESC";
+
+            cursor = reader.db.rawQuery(query,
+                    reader.repeatArgs(String.valueOf(startTime), String.valueOf(endTime)));
+
+            while (cursor.moveToNext()) {
+                MaterialStats stats = new MaterialStats();
+                stats.materialId = cursor.isNull(0) ? 0 : cursor.getLong(0);
+                stats.materialName = cursor.getString(1);
+                stats.itemCount = cursor.getInt(3);
+                stats.totalWeightGrams = cursor.getLong(4);
+                stats.totalValueCents = cursor.getLong(5);
+                statsList.add(stats);
+            }
+
+            Log.d(TAG, "Material stats: " + statsList.size() + " materials in " +
+                    (System.currentTimeMillis() - start) + "ms");
+
+        } catch (Exception e) {
+            Log.e(TAG, "Error getting material stats", e);
+        } finally {
+            if (cursor != null) {
+                try {
+                    cursor.close();
+                } catch (Exception e) {
+                    Log.e(TAG, "Error closing cursor", e);
+                }
+            }
+            if (reader != null) {
+                reader.close();
+            }
+        }
+
+        return statsList;
+    }
+
     // Separate method if you need yesterday's total independently
-    private double getYesterdayTotal() {
+    private long getYesterdayTotal() {
         SQLiteDatabase db = null;
-        double yesterdayTotal = 0.0;
+        long yesterdayTotal = 0;
         Cursor cursor = null;
 
         try {
@@ -448,57 +1058,336 @@ public class TransactionsDBHelper extends SQLiteOpenHelper {
         return yesterdayTotal;
     }
 
-    // Helper methods - unchanged
-    private Transaction cursorToTransaction(Cursor cursor) {
-        return new Transaction(
-                cursor.getLong(cursor.getColumnIndexOrThrow(COLUMN_TRANSACTION_ID)),
-                cursor.getString(cursor.getColumnIndexOrThrow(COLUMN_TRANSACTION_REF)),
-                cursor.getLong(cursor.getColumnIndexOrThrow(COLUMN_TIMESTAMP)),
-                cursor.getDouble(cursor.getColumnIndexOrThrow(COLUMN_TOTAL_WEIGHT)),
-                cursor.getDouble(cursor.getColumnIndexOrThrow(COLUMN_TOTAL_VALUE)),
-                cursor.getInt(cursor.getColumnIndexOrThrow(COLUMN_MATERIAL_COUNT)),
-                cursor.getString(cursor.getColumnIndexOrThrow(COLUMN_STATUS)),
-                cursor.getString(cursor.getColumnIndexOrThrow(COLUMN_NOTES))
-        );
-    }
-
-    private TransactionItem cursorToTransactionItem(Cursor cursor) {
-        return new TransactionItem(
-                cursor.getLong(cursor.getColumnIndexOrThrow(COLUMN_ITEM_ID)),
-                cursor.getLong(cursor.getColumnIndexOrThrow(COLUMN_ITEM_TRANSACTION_ID)),
-                cursor.getString(cursor.getColumnIndexOrThrow(COLUMN_MATERIAL_NAME)),
-                cursor.getDouble(cursor.getColumnIndexOrThrow(COLUMN_WEIGHT)),
-                cursor.getDouble(cursor.getColumnIndexOrThrow(COLUMN_PRICE_PER_KG)),
-                cursor.getDouble(cursor.getColumnIndexOrThrow(COLUMN_ITEM_TOTAL_VALUE)),
-                cursor.getLong(cursor.getColumnIndexOrThrow(COLUMN_ITEM_TIMESTAMP)),
-                cursor.getString(cursor.getColumnIndexOrThrow(COLUMN_ITEM_NOTES))
-        );
+    // ---- Streaming export ----
+
+    public interface ExportRowVisitor {
+        void visit(ExportRow row) throws IOException;
     }
 
+    /**
+     * One line item with its transaction header. A single instance is refilled for every row
+     * of an export, so walking the whole history allocates nothing per row.
+     */
+    public static final class ExportRow {
+        public long transactionId;
+        public String transactionRef;
+        public long timestamp;
+        public String status;
+        public String transactionNotes;
+        public long itemId;
+        public String itemRef;
+        // 0 for items that predate material ids
+        public long materialId;
+        public String materialName;
+        public long weightGrams;
+        public long pricePerKgCents;
+        public long valueCents;
+        public String itemNotes;
+    }
+
+    private static final String EXPORT_FROM = " FROM %1$s." + TABLE_TRANSACTIONS + " t JOIN %1$s." +
+            TABLE_TRANSACTION_ITEMS + " i ON i." + COLUMN_ITEM_TRANSACTION_ID + " = t." + COLUMN_TRANSACTION_ID;
+
+    private static final String EXPORT_SELECT = "SELECT t." + COLUMN_TRANSACTION_ID + ", t." +
+            COLUMN_TRANSACTION_REF + ", t." + COLUMN_TIMESTAMP + ", t." + COLUMN_STATUS + ", t." + COLUMN_NOTES +
+            ", i." + COLUMN_ITEM_ID + ", i." + COLUMN_ITEM_REF + ", i." + COLUMN_MATERIAL_ID + ", i." +
+            COLUMN_MATERIAL_NAME + ", i." + COLUMN_WEIGHT_G + ", i." + COLUMN_PRICE_PER_KG_CENTS + ", i." +
+            COLUMN_ITEM_TOTAL_VALUE_CENTS + ", i." + COLUMN_ITEM_NOTES + EXPORT_FROM;
+
+    // The unary + keeps SQLite from driving the scan off the timestamp or material index: the
+    // rows must come back in (t.id, i.id) order straight from the primary key, or every page
+    // would sort the whole range again
+    private static String exportFilter(long[] materialIds) {
+        StringBuilder where = new StringBuilder(" WHERE +t." + COLUMN_TIMESTAMP + " >= ? AND +t." +
+                COLUMN_TIMESTAMP + " < ?");
+        if (materialIds != null && materialIds.length > 0) {
+            where.append(" AND +i.").append(COLUMN_MATERIAL_ID).append(" IN (");
+            for (int i = 0; i < materialIds.length; i++) {
+                where.append(i > 0 ? ", " : "").append(materialIds[i]);
+            }
+            where.append(")");
+        }
+        return where.toString();
+    }
+
+    /**
+     * Items in [startTime, endTime), optionally only for the given materials, archives included.
+     */
+    public long countExportRows(long startTime, long endTime, long[] materialIds) {
+        TransactionArchiveManager.ArchiveReader reader = TransactionArchiveManager.getInstance(appContext)
+                .openReader(this.getReadableDatabase(), startTime, endTime);
+        try {
+            long total = 0;
+            for (String schema : reader.schemas) {
+                total += countExportRows(reader.db, schema, startTime, endTime, materialIds);
+            }
+            return total;
+        } finally {
+            reader.close();
+        }
+    }
+
+    static long countExportRows(SQLiteDatabase db, String schema, long startTime, long endTime, long[] materialIds) {
+        return DatabaseUtils.longForQuery(db, "SELECT COUNT(*)" + String.format(EXPORT_FROM, schema) +
+                exportFilter(materialIds), new String[]{String.valueOf(startTime), String.valueOf(endTime)});
+    }
+
+    /**
+     * Visit every item in [startTime, endTime), optionally only for the given materials:
+     * archived years oldest first, then the live tables, each in save order. Rows are read in
+     * keyset pages of pageSize, so memory stays flat however long the history is.
+     *
+     * Not synchronized on purpose: an export can run for minutes and must not hold up
+     * saveTransaction. Returns the number of rows visited.
+     */
+    public long forEachExportRow(long startTime, long endTime, long[] materialIds, int pageSize,
+                                 ExportRowVisitor visitor) throws IOException {
+        TransactionArchiveManager.ArchiveReader reader = TransactionArchiveManager.getInstance(appContext)
+                .openReader(this.getReadableDatabase(), startTime, endTime);
+        try {
+            long rows = 0;
+            // schemas is main first, then archives by year
+            for (int i = 1; i < reader.schemas.size(); i++) {
+                rows += forEachExportRow(reader.db, reader.schemas.get(i), startTime, endTime,
+                        materialIds, pageSize, visitor);
+            }
+            rows += forEachExportRow(reader.db, reader.schemas.get(0), startTime, endTime,
+                    materialIds, pageSize, visitor);
+            return rows;
+        } finally {
+            reader.close();
+        }
+    }
+
+    static long forEachExportRow(SQLiteDatabase db, String schema, long startTime, long endTime,
+                                 long[] materialIds, int pageSize, ExportRowVisitor visitor) throws IOException {
+        // Resume after the last (transaction id, item id) seen; the SQL text is the same for
+        // every page, so SQLite reuses the prepared statement
+        String sql = String.format(EXPORT_SELECT, schema) + exportFilter(materialIds) +
+                " AND t." + COLUMN_TRANSACTION_ID + " >= ? AND (t." + COLUMN_TRANSACTION_ID + " > ? OR i." +
+                COLUMN_ITEM_ID + " > ?) ORDER BY t." + COLUMN_TRANSACTION_ID + ", i." + COLUMN_ITEM_ID +
+                " LIMIT " + pageSize;
+        String[] args = new String[5];
+        args[0] = String.valueOf(startTime);
+        args[1] = String.valueOf(endTime);
+
+        ExportRow row = new ExportRow();
+        long lastTransactionId = 0;
+        long lastItemId = 0;
+        long rows = 0;
+        int pageRows;
+        do {
+            args[2] = args[3] = String.valueOf(lastTransactionId);
+            args[4] = String.valueOf(lastItemId);
+            pageRows = 0;
+            Cursor cursor = db.rawQuery(sql, args);
+            try {
+                while (cursor.moveToNext()) {
+                    row.transactionId = cursor.getLong(0);
+                    row.transactionRef = cursor.getString(1);
+                    row.timestamp = cursor.getLong(2);
+                    row.status = cursor.getString(3);
+                    row.transactionNotes = cursor.getString(4);
+                    row.itemId = cursor.getLong(5);
+                    row.itemRef = cursor.getString(6);
+                    row.materialId = cursor.isNull(7) ? 0 : cursor.getLong(7);
+                    row.materialName = cursor.getString(8);
+                    row.weightGrams = cursor.getLong(9);
+                    row.pricePerKgCents = cursor.getLong(10);
+                    row.valueCents = cursor.getLong(11);
+                    row.itemNotes = cursor.getString(12);
+                    visitor.visit(row);
+                    pageRows++;
+                }
+            } finally {
+                cursor.close();
+            }
+            rows += pageRows;
+            lastTransactionId = row.transactionId;
+            lastItemId = row.itemId;
+        } while (pageRows == pageSize);
+        return rows;
+    }
+
+    /**
+     * Diagnostic: create the transaction tables in an empty scratch database and fill them
+     * with itemRows generated items, four to a transaction, for export benchmarks.
+     */
+    static void seedBenchmarkData(SQLiteDatabase db, int itemRows) {
+        db.execSQL(createTransactionsTable(TABLE_TRANSACTIONS));
+        db.execSQL(createTransactionItemsTable(TABLE_TRANSACTION_ITEMS, TABLE_TRANSACTIONS));
+        createIndexes(db);
+
+        String[] materials = {"Copper", "Aluminium", "Brass", "Steel", "Lead", "Batteries"};
+        long time = System.currentTimeMillis() - (long) itemRows * 60_000L;
+        SQLiteStatement transaction = db.compileStatement("INSERT INTO " + TABLE_TRANSACTIONS + "(" +
+                COLUMN_TRANSACTION_REF + ", " + COLUMN_TIMESTAMP + ", " + COLUMN_TOTAL_WEIGHT_G + ", " +
+                COLUMN_TOTAL_VALUE_CENTS + ", " + COLUMN_MATERIAL_COUNT + ") VALUES (?, ?, ?, ?, ?)");
+        SQLiteStatement item = db.compileStatement("INSERT INTO " + TABLE_TRANSACTION_ITEMS + "(" +
+                COLUMN_ITEM_TRANSACTION_ID + ", " + COLUMN_MATERIAL_ID + ", " + COLUMN_MATERIAL_NAME + ", " +
+                COLUMN_WEIGHT_G + ", " + COLUMN_PRICE_PER_KG_CENTS + ", " + COLUMN_ITEM_TOTAL_VALUE_CENTS + ", " +
+                COLUMN_ITEM_TIMESTAMP + ", " + COLUMN_ITEM_REF + ") VALUES (?, ?, ?, ?, ?, ?, ?, ?)");
+
+        db.beginTransaction();
+        try {
+            long transactionId = 0;
+            for (int i = 0; i < itemRows; i++) {
+                long timestamp = time + i * 60_000L;
+                if (i % 4 == 0) {
+                    transaction.bindString(1, "TXN_BENCH_" + i);
+                    transaction.bindLong(2, timestamp);
+                    transaction.bindLong(3, 40_000);
+                    transaction.bindLong(4, 2_000_000);
+                    transaction.bindLong(5, 4);
+                    transactionId = transaction.executeInsert();
+                }
+                int material = i % materials.length;
+                long grams = 1_000 + (i * 37L) % 20_000;
+                long price = (material + 1) * 5_000L;
+                item.bindLong(1, transactionId);
+                item.bindLong(2, material + 1);
+                item.bindString(3, materials[material]);
+                item.bindLong(4, grams);
+                item.bindLong(5, price);
+                item.bindLong(6, FixedPoint.valueCents(grams, price));
+                item.bindLong(7, timestamp);
+                item.bindString(8, "ITM_BENCH_" + i);
+                item.executeInsert();
+            }
+            db.setTransactionSuccessful();
+        } finally {
+            db.endTransaction();
+            transaction.close();
+            item.close();
+        }
+    }
+
+    // Row mappers: explicit projections, column indices resolved once per cursor
+    private static final RowMapper<Transaction> TRANSACTION_MAPPER = new RowMapper<Transaction>(
+            COLUMN_TRANSACTION_ID, COLUMN_TRANSACTION_REF, COLUMN_TIMESTAMP, COLUMN_TOTAL_WEIGHT_G,
+            COLUMN_TOTAL_VALUE_CENTS, COLUMN_MATERIAL_COUNT, COLUMN_STATUS, COLUMN_NOTES) {
+        @Override
+        protected Transaction map(Cursor cursor, int[] col) {
+            return new Transaction(cursor.getLong(col[0]), cursor.getString(col[1]), cursor.getLong(col[2]),
+                    cursor.getLong(col[3]), cursor.getLong(col[4]), cursor.getInt(col[5]),
+                    cursor.getString(col[6]), cursor.getString(col[7]));
+        }
+    };
+
+    // List rows skip the free-text notes
+    private static final RowMapper<Transaction> TRANSACTION_SUMMARY_MAPPER = new RowMapper<Transaction>(
+            COLUMN_TRANSACTION_ID, COLUMN_TRANSACTION_REF, COLUMN_TIMESTAMP, COLUMN_TOTAL_WEIGHT_G,
+            COLUMN_TOTAL_VALUE_CENTS, COLUMN_MATERIAL_COUNT, COLUMN_STATUS) {
+        @Override
+        protected Transaction map(Cursor cursor, int[] col) {
+            return new Transaction(cursor.getLong(col[0]), cursor.getString(col[1]), cursor.getLong(col[2]),
+                    cursor.getLong(col[3]), cursor.getLong(col[4]), cursor.getInt(col[5]),
+                    cursor.getString(col[6]), null);
+        }
+    };
+
+    private static final RowMapper<TransactionItem> ITEM_MAPPER = new RowMapper<TransactionItem>(
+            COLUMN_ITEM_ID, COLUMN_ITEM_TRANSACTION_ID, COLUMN_MATERIAL_ID, COLUMN_MATERIAL_NAME, COLUMN_WEIGHT_G,
+            COLUMN_PRICE_PER_KG_CENTS, COLUMN_ITEM_TOTAL_VALUE_CENTS, COLUMN_ITEM_TIMESTAMP, COLUMN_ITEM_NOTES) {
+        @Override
+        protected TransactionItem map(Cursor cursor, int[] col) {
+            return new TransactionItem(cursor.getLong(col[0]), cursor.getLong(col[1]), cursor.getLong(col[2]),
+                    cursor.getString(col[3]), cursor.getLong(col[4]), cursor.getLong(col[5]),
+                    cursor.getLong(col[6]), cursor.getLong(col[7]), cursor.getString(col[8]));
+        }
+    };
+
     // Stats helper classes - unchanged
     public static class TransactionStats {
         public int totalTransactions = 0;
-        public double totalWeight = 0.0;
-        public double totalValue = 0.0;
+        public long totalWeightGrams = 0;
+        public long totalValueCents = 0;
+
+        public double getTotalWeight() {
+            return FixedPoint.fromGrams(totalWeightGrams);
+        }
+
+        public double getTotalValue() {
+            return FixedPoint.fromCents(totalValueCents);
+        }
 
         public String getFormattedTotalWeight() {
-            return String.format(java.util.Locale.getDefault(), "%.2f kg", totalWeight);
+            return String.format(java.util.Locale.getDefault(), "%.2f kg", getTotalWeight());
         }
 
         public String getFormattedTotalValue() {
-            return String.format(java.util.Locale.getDefault(), "KSH %.2f", totalValue);
+            return String.format(java.util.Locale.getDefault(), "KSH %.2f", getTotalValue());
+        }
+    }
+
+    public static class MaterialStats {
+        public long materialId = 0;
+        public String materialName;
+        public int itemCount = 0;
+        public long totalWeightGrams = 0;
+        public long totalValueCents = 0;
+
+        public double getTotalWeight() {
+            return FixedPoint.fromGrams(totalWeightGrams);
+        }
+
+        public double getTotalValue() {
+            return FixedPoint.fromCents(totalValueCents);
+        }
+
+        public String getFormattedTotalWeight() {
+            return String.format(java.util.Locale.getDefault(), "%.2f kg", getTotalWeight());
+        }
+
+        public String getFormattedTotalValue() {
+            return String.format(java.util.Locale.getDefault(), "KSH %.2f", getTotalValue());
+        }
+    }
+
+    public static class MappingBenchmark {
+        public int rows = 0;
+        public double byNameRowsPerSec = 0.0;
+        public double mappedRowsPerSec = 0.0;
+        public double summaryRowsPerSec = 0.0;
+
+        @Override
+        public String toString() {
+            return String.format(java.util.Locale.US,
+                    "%d rows: SELECT * by name %.0f rows/s, mapped %.0f rows/s, summary %.0f rows/s",
+                    rows, byNameRowsPerSec, mappedRowsPerSec, summaryRowsPerSec);
+        }
+    }
+
+    public static class SearchBenchmark {
+        public int ftsMatches = 0;
+        public int likeMatches = 0;
+        public double ftsAverageMs = 0.0;
+        public double likeAverageMs = 0.0;
+
+        @Override
+        public String toString() {
+            return String.format(java.util.Locale.US, "FTS %.2fms (%d rows) vs LIKE %.2fms (%d rows)",
+                    ftsAverageMs, ftsMatches, likeAverageMs, likeMatches);
         }
     }
 
     public static class TodayStats {
         public int transactionCount = 0;
-        public double totalWeight = 0.0;
-        public double totalValue = 0.0;
-        public double yesterdayTotal = 0.0;
+        public long totalWeightGrams = 0;
+        public long totalValueCents = 0;
+        public long yesterdayTotalCents = 0;
         public long lastTransactionTime = 0;
 
+        public double getTotalWeight() {
+            return FixedPoint.fromGrams(totalWeightGrams);
+        }
+
+        public double getTotalValue() {
+            return FixedPoint.fromCents(totalValueCents);
+        }
+
         public String getFormattedTotalValue() {
-            return String.format(java.util.Locale.getDefault(), "KSh %,.0f", totalValue);
+            return String.format(java.util.Locale.getDefault(), "KSh %,.0f", getTotalValue());
         }
 
         public String getFormattedTransactionCount() {
@@ -506,11 +1395,11 @@ public class TransactionsDBHelper extends SQLiteOpenHelper {
         }
 
         public String getGrowthPercentage() {
-            if (yesterdayTotal == 0) {
-                return totalValue > 0 ? "↗ New Sales!" : "No change";
+            if (yesterdayTotalCents == 0) {
+                return totalValueCents > 0 ? "↗ New Sales!" : "No change";
             }
 
-            double growth = ((totalValue - yesterdayTotal) / yesterdayTotal) * 100;
+            double growth = ((totalValueCents - yesterdayTotalCents) / (double) yesterdayTotalCents) * 100;
             String arrow = growth >= 0 ? "↗" : "↘";
             String sign = growth >= 0 ? "+" : "";
 
@@ -519,10 +1408,10 @@ public class TransactionsDBHelper extends SQLiteOpenHelper {
         }
 
         public String getGrowthColor() {
-            if (yesterdayTotal == 0) {
-                return totalValue > 0 ? "#27AE60" : "#546E7A";
+            if (yesterdayTotalCents == 0) {
+                return totalValueCents > 0 ? "#27AE60" : "#546E7A";
             }
-            return totalValue >= yesterdayTotal ? "#27AE60" : "#F44336";
+            return totalValueCents >= yesterdayTotalCents ? "#27AE60" : "#F44336";
         }
 
         public String getTimeSinceLastTransaction() {
@@ -1,33 +1,50 @@
 package com.example.meruscrap;
 
+import java.util.concurrent.atomic.AtomicLong;
+
 /**
  * Represents a single weighing batch in accumulative weighing mode
  * Used when weighing multiple pieces of the same material separately
  */
 public class WeighingBatch {
+    private static final AtomicLong NEXT_ID = new AtomicLong(1);
+
+    private final long id = NEXT_ID.getAndIncrement(); // In-memory identity for list diffing
     private long timestamp;
-    private double weight;
-    private double pricePerKg;
+    private long weightGrams;
+    private long pricePerKgCents;
     private String materialName;
 
     public WeighingBatch(long timestamp, double weight, double pricePerKg, String materialName) {
         this.timestamp = timestamp;
-        this.weight = weight;
-        this.pricePerKg = pricePerKg;
+        this.weightGrams = FixedPoint.toGrams(weight);
+        this.pricePerKgCents = FixedPoint.toCents(pricePerKg);
         this.materialName = materialName;
     }
 
     // Getters
+    public long getId() {
+        return id;
+    }
+
     public long getTimestamp() {
         return timestamp;
     }
 
     public double getWeight() {
-        return weight;
+        return FixedPoint.fromGrams(weightGrams);
+    }
+
+    public long getWeightGrams() {
+        return weightGrams;
     }
 
     public double getPricePerKg() {
-        return pricePerKg;
+        return FixedPoint.fromCents(pricePerKgCents);
+    }
+
+    public long getPricePerKgCents() {
+        return pricePerKgCents;
     }
 
     public String getMaterialName() {
@@ -35,7 +52,11 @@ public class WeighingBatch {
     }
 
     public double getValue() {
-        return weight * pricePerKg;
+        return FixedPoint.fromCents(getValueCents());
+    }
+
+    public long getValueCents() {
+        return FixedPoint.valueCents(weightGrams, pricePerKgCents);
     }
 
     // Setters
@@ -44,11 +65,11 @@ public class WeighingBatch {
     }
 
     public void setWeight(double weight) {
-        this.weight = weight;
+        this.weightGrams = FixedPoint.toGrams(weight);
     }
 
     public void setPricePerKg(double pricePerKg) {
-        this.pricePerKg = pricePerKg;
+        this.pricePerKgCents = FixedPoint.toCents(pricePerKg);
     }
 
     public void setMaterialName(String materialName) {
@@ -59,8 +80,8 @@ public class WeighingBatch {
     public String toString() {
         return "WeighingBatch{" +
                 "timestamp=" + timestamp +
-                ", weight=" + weight +
-                ", pricePerKg=" + pricePerKg +
+                ", weightGrams=" + weightGrams +
+                ", pricePerKgCents=" + pricePerKgCents +
                 ", materialName='" + materialName + '\'' +
                 ", value=" + getValue() +
                 '}';
@@ -0,0 +1,103 @@
+package com.example.meruscrap;
+
+import org.junit.Test;
+
+import java.io.ByteArrayOutputStream;
+import java.io.IOException;
+import java.math.BigDecimal;
+import java.nio.charset.StandardCharsets;
+import java.util.Random;
+
+import static org.junit.Assert.*;
+
+public class ESCPOSBufferTest {
+
+    @Test
+    public void fixed_insertsDecimalPoint() {
+        assertEquals("1234.56", fixed(123456, 2));
+        assertEquals("12.345", fixed(12345, 3));
+        assertEquals("42", fixed(42, 0));
+    }
+
+    @Test
+    public void fixed_padsWithZeros() {
+        assertEquals("0.00", fixed(0, 2));
+        assertEquals("0.05", fixed(5, 2));
+        assertEquals("0.50", fixed(50, 2));
+        assertEquals("0.007", fixed(7, 3));
+        assertEquals("0", fixed(0, 0));
+    }
+
+    @Test
+    public void fixed_negatives() {
+        assertEquals("-0.05", fixed(-5, 2));
+        assertEquals("-1234.56", fixed(-123456, 2));
+        assertEquals("-7", fixed(-7, 0));
+    }
+
+    @Test
+    public void fixed_extremes() {
+        assertEquals("92233720368547758.07", fixed(Long.MAX_VALUE, 2));
+        assertEquals("-92233720368547758.08", fixed(Long.MIN_VALUE, 2));
+        assertEquals("-9223372036854775808", fixed(Long.MIN_VALUE, 0));
+    }
+
+    @Test
+    public void fixed_matchesBigDecimal() {
+        Random random = new Random(11);
+        for (int i = 0; i < 10_000; i++) {
+            long scaled = random.nextLong() >> random.nextInt(64);
+            int decimals = random.nextInt(5);
+            String expected = BigDecimal.valueOf(scaled, decimals).toPlainString();
+            assertEquals(scaled + "/" + decimals, expected, fixed(scaled, decimals));
+        }
+    }
+
+    @Test
+    public void fixedLength_matchesWrittenLength() {
+        long[] values = {0, 1, -1, 9, 10, -10, 99, 100, 12345, -5, Long.MAX_VALUE, Long.MIN_VALUE};
+        for (long value : values) {
+            for (int decimals = 0; decimals <= 4; decimals++) {
+                ESCPOSBuffer buffer = new ESCPOSBuffer();
+                buffer.fixed(value, decimals);
+                assertEquals(value + "/" + decimals, buffer.size(), ESCPOSBuffer.fixedLength(value, decimals));
+            }
+        }
+    }
+
+    @Test
+    public void fixed_appendsAfterExistingContent() {
+        ESCPOSBuffer buffer = new ESCPOSBuffer().text("KES ").fixed(150, 2).newLine();
+        assertEquals("KES 1.50\n", new String(buffer.toByteArray(), StandardCharsets.US_ASCII));
+        assertEquals(3, buffer.getFragmentCount());
+    }
+
+    @Test
+    public void writeTo_sendsWholeJobOnce() throws IOException {
+        ESCPOSBuffer buffer = new ESCPOSBuffer();
+        for (int i = 0; i < 1000; i++) {
+            buffer.line("Line " + i);
+        }
+        ByteArrayOutputStream out = new ByteArrayOutputStream();
+        assertEquals(1, buffer.writeTo(out, 0));
+        assertArrayEquals(buffer.toByteArray(), out.toByteArray());
+
+        ByteArrayOutputStream chunked = new ByteArrayOutputStream();
+        int writes = buffer.writeTo(chunked, 512);
+        assertEquals((buffer.size() + 511) / 512, writes);
+        assertArrayEquals(buffer.toByteArray(), chunked.toByteArray());
+    }
+
+    @Test
+    public void reset_startsEmpty() {
+        ESCPOSBuffer buffer = new ESCPOSBuffer().line("first");
+        buffer.reset().fixed(1, 1);
+        assertEquals("0.1", new String(buffer.toByteArray(), StandardCharsets.US_ASCII));
+        assertEquals(1, buffer.getFragmentCount());
+    }
+
+    private static String fixed(long scaled, int decimals) {
+        byte[] bytes = new ESCPOSBuffer().fixed(scaled, decimals).toByteArray();
+        return new String(bytes, StandardCharsets.US_ASCII);
+    }
+}
@@ -0,0 +1,114 @@
+package com.example.meruscrap;
+
+import org.junit.Test;
+
+import java.math.BigDecimal;
+import java.math.RoundingMode;
+import java.util.Random;
+
+import static org.junit.Assert.*;
+
+public class FixedPointTest {
+
+    @Test
+    public void valueCents_exact() {
+        // 2.5 kg at KES 120.00/kg
+        assertEquals(30000, FixedPoint.valueCents(2500, 12000));
+        assertEquals(0, FixedPoint.valueCents(0, 12000));
+        assertEquals(0, FixedPoint.valueCents(2500, 0));
+    }
+
+    @Test
+    public void valueCents_roundsHalfAwayFromZero() {
+        // 1 g at 0.05/kg is 0.005 cents
+        assertEquals(0, FixedPoint.valueCents(1, 5));
+        // 0.499 and 0.5 cents
+        assertEquals(0, FixedPoint.valueCents(499, 1));
+        assertEquals(1, FixedPoint.valueCents(500, 1));
+        assertEquals(2, FixedPoint.valueCents(1500, 1));
+        assertEquals(3, FixedPoint.valueCents(2500, 1));
+    }
+
+    @Test
+    public void valueCents_negativesMirrorPositives() {
+        assertEquals(-1, FixedPoint.valueCents(-500, 1));
+        assertEquals(-1, FixedPoint.valueCents(500, -1));
+        assertEquals(-3, FixedPoint.valueCents(-2500, 1));
+        assertEquals(0, FixedPoint.valueCents(-499, 1));
+        assertEquals(-30000, FixedPoint.valueCents(-2500, 12000));
+        for (long grams = -5000; grams <= 5000; grams += 7) {
+            assertEquals(-FixedPoint.valueCents(grams, 333), FixedPoint.valueCents(-grams, 333));
+        }
+    }
+
+    @Test
+    public void valueCents_matchesBigDecimalHalfUp() {
+        Random random = new Random(99);
+        for (int i = 0; i < 100_000; i++) {
+            long grams = random.nextInt(4_000_001) - 2_000_000;
+            long price = random.nextInt(100_000);
+            assertEquals(grams + "g @ " + price, reference(grams, price), FixedPoint.valueCents(grams, price));
+        }
+    }
+
+    @Test
+    public void cents_roundTrip() {
+        double[] amounts = {0, 0.01, 0.1, 0.29, 1.15, 19.99, 120.5, 1234.56, 99999.99, -0.01, -45.67};
+        for (double amount : amounts) {
+            long cents = FixedPoint.toCents(amount);
+            assertEquals(String.valueOf(amount), amount, FixedPoint.fromCents(cents), 0);
+            assertEquals(cents, FixedPoint.toCents(FixedPoint.fromCents(cents)));
+        }
+        // Binary doubles just under the cent still land on it
+        assertEquals(29, FixedPoint.toCents(0.29));
+        assertEquals(115, FixedPoint.toCents(1.15));
+    }
+
+    @Test
+    public void grams_roundTrip() {
+        double[] weights = {0, 0.001, 0.5, 1.005, 2.345, 12.5, 999.999, -3.25};
+        for (double weight : weights) {
+            long grams = FixedPoint.toGrams(weight);
+            assertEquals(String.valueOf(weight), weight, FixedPoint.fromGrams(grams), 0);
+            assertEquals(grams, FixedPoint.toGrams(FixedPoint.fromGrams(grams)));
+        }
+        assertEquals(1005, FixedPoint.toGrams(1.005));
+    }
+
+    @Test
+    public void largeSum_isExactWhereDoublesDrift() {
+        // A million weighings, summed as the totals did before (kg * price in doubles) and now
+        Random random = new Random(2024);
+        long exact = 0;
+        BigDecimal reference = BigDecimal.ZERO;
+        double doubles = 0;
+        int linesOffByACent = 0;
+        for (int i = 0; i < 1_000_000; i++) {
+            long grams = 1 + random.nextInt(2_000_000);
+            long price = 1 + random.nextInt(50_000);
+            long cents = FixedPoint.valueCents(grams, price);
+            exact += cents;
+            reference = reference.add(BigDecimal.valueOf(reference(grams, price)));
+
+            double value = FixedPoint.fromGrams(grams) * FixedPoint.fromCents(price);
+            doubles += value;
+            if (Math.round(value * 100) != cents) {
+                linesOffByACent++;
+            }
+        }
+
+        assertEquals(reference.longValueExact(), exact);
+        // The double total agrees to within half a cent a line, but is not the exact sum
+        double driftCents = Math.abs(doubles * 100 - exact);
+        assertTrue(driftCents <= 1_000_000 * 0.5);
+        assertTrue("double total was exact", driftCents >= 1);
+        assertTrue("no line rounded differently", linesOffByACent > 0);
+    }
+
+    // grams * price / 1000 rounded half away from zero
+    private static long reference(long grams, long pricePerKgCents) {
+        return BigDecimal.valueOf(grams).multiply(BigDecimal.valueOf(pricePerKgCents))
+                .divide(BigDecimal.valueOf(FixedPoint.GRAMS_PER_KG), 0, RoundingMode.HALF_UP)
+                .longValueExact();
+    }
+}
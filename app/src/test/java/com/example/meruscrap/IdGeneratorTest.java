@@ -0,0 +1,233 @@
+package com.example.meruscrap;
+
+import android.content.SharedPreferences;
+
+import org.junit.Test;
+
+import java.util.HashMap;
+import java.util.Map;
+import java.util.Random;
+import java.util.Set;
+
+import static org.junit.Assert.*;
+
+public class IdGeneratorTest {
+    private static final long DEVICE_ID = 0xBEEF;
+
+    @Test
+    public void encode_isFixedWidthCrockfordBase32() {
+        assertEquals("0000000000000", IdGenerator.encode(0));
+        assertEquals("000000000000Z", IdGenerator.encode(31));
+        assertEquals("0000000000010", IdGenerator.encode(32));
+        assertEquals("7ZZZZZZZZZZZZ", IdGenerator.encode(Long.MAX_VALUE));
+
+        String encoded = IdGenerator.encode(new Random(42).nextLong() >>> 1);
+        assertEquals(13, encoded.length());
+        assertTrue(encoded.matches("[0-9A-HJKMNP-TV-Z]{13}"));
+    }
+
+    @Test
+    public void encode_sortsLikeTheNumbers() {
+        Random random = new Random(7);
+        for (int i = 0; i < 10_000; i++) {
+            long a = random.nextLong() >>> 1;
+            long b = random.nextLong() >>> (1 + random.nextInt(40));
+            int byNumber = Long.compare(a, b);
+            int byString = IdGenerator.encode(a).compareTo(IdGenerator.encode(b));
+            assertEquals(a + " vs " + b, Integer.signum(byNumber), Integer.signum(byString));
+        }
+    }
+
+    @Test
+    public void nextId_isStrictlyIncreasing() {
+        IdGenerator generator = new IdGenerator(existingDevice());
+        // Far more than 64 per millisecond, so the sequence overflows into borrowed milliseconds
+        long previous = generator.nextId();
+        String previousRef = IdGenerator.encode(previous);
+        for (int i = 0; i < 50_000; i++) {
+            long id = generator.nextId();
+            String ref = IdGenerator.encode(id);
+            assertTrue(id > previous);
+            assertTrue(ref.compareTo(previousRef) > 0);
+            previous = id;
+            previousRef = ref;
+        }
+    }
+
+    @Test
+    public void nextId_carriesDeviceAndTime() {
+        IdGenerator generator = new IdGenerator(existingDevice());
+        long before = System.currentTimeMillis();
+        long id = generator.nextId();
+
+        assertEquals(DEVICE_ID, (id >>> 6) & 0xFFFF);
+        assertTrue(IdGenerator.timestampOf(id) >= before);
+        assertTrue(IdGenerator.timestampOf(id) <= System.currentTimeMillis() + 1);
+    }
+
+    @Test
+    public void nextId_startsPastReservedMark() {
+        // A previous run issued ids up to a minute ahead of this clock
+        FakePreferences prefs = existingDevice();
+        long reserved = System.currentTimeMillis() + 60_000;
+        prefs.values.put("reserved_until_ms", reserved);
+
+        long id = new IdGenerator(prefs).nextId();
+        assertTrue(IdGenerator.timestampOf(id) >= reserved);
+    }
+
+    @Test
+    public void nextId_persistsReservationAhead() {
+        FakePreferences prefs = existingDevice();
+        long id = new IdGenerator(prefs).nextId();
+
+        long reserved = prefs.getLong("reserved_until_ms", 0);
+        assertTrue(reserved > IdGenerator.timestampOf(id));
+        assertTrue(IdGenerator.timestampOf(new IdGenerator(prefs).nextId()) >= reserved);
+    }
+
+    @Test
+    public void next_addsPrefix() {
+        String ref = new IdGenerator(existingDevice()).next("TXN");
+        assertTrue(ref.startsWith("TXN_"));
+        assertEquals(17, ref.length());
+    }
+
+    @Test
+    public void nextChangeSequence_neverGoesBack() {
+        IdGenerator generator = new IdGenerator(existingDevice());
+        assertEquals(1, generator.nextChangeSequence(1));
+        assertEquals(5, generator.nextChangeSequence(5));
+        // A restored, older log would start again at 3
+        assertEquals(6, generator.nextChangeSequence(3));
+        assertEquals(7, generator.nextChangeSequence(1));
+    }
+
+    // Ids already assigned, as after first run (assigning them logs, which local tests cannot)
+    private static FakePreferences existingDevice() {
+        FakePreferences prefs = new FakePreferences();
+        prefs.values.put("device_id", DEVICE_ID);
+        prefs.values.put("origin_id", 0x1234_5678_9ABCL);
+        return prefs;
+    }
+
+    // Longs only, which is all IdGenerator stores
+    private static class FakePreferences implements SharedPreferences {
+        final Map<String, Object> values = new HashMap<>();
+
+        @Override
+        public long getLong(String key, long defValue) {
+            Object value = values.get(key);
+            return value != null ? (Long) value : defValue;
+        }
+
+        @Override
+        public boolean contains(String key) {
+            return values.containsKey(key);
+        }
+
+        @Override
+        public Map<String, ?> getAll() {
+            return new HashMap<>(values);
+        }
+
+        @Override
+        public Editor edit() {
+            return new Editor() {
+                private final Map<String, Object> changes = new HashMap<>();
+
+                @Override
+                public Editor putLong(String key, long value) {
+                    changes.put(key, value);
+                    return this;
+                }
+
+                @Override
+                public Editor remove(String key) {
+                    changes.put(key, null);
+                    return this;
+                }
+
+                @Override
+                public boolean commit() {
+                    for (Map.Entry<String, Object> change : changes.entrySet()) {
+                        if (change.getValue() == null) {
+                            values.remove(change.getKey());
+                        } else {
+                            values.put(change.getKey(), change.getValue());
+                        }
+                    }
+                    return true;
+                }
+
+                @Override
+                public void apply() {
+                    commit();
+                }
+
+                @Override
+                public Editor putString(String key, String value) {
+                    throw new UnsupportedOperationException();
+                }
+
+                @Override
+                public Editor putStringSet(String key, Set<String> values) {
+                    throw new UnsupportedOperationException();
+                }
+
+                @Override
+                public Editor putInt(String key, int value) {
+                    throw new UnsupportedOperationException();
+                }
+
+                @Override
+                public Editor putFloat(String key, float value) {
+                    throw new UnsupportedOperationException();
+                }
+
+                @Override
+                public Editor putBoolean(String key, boolean value) {
+                    throw new UnsupportedOperationException();
+                }
+
+                @Override
+                public Editor clear() {
+                    throw new UnsupportedOperationException();
+                }
+            };
+        }
+
+        @Override
+        public String getString(String key, String defValue) {
+            throw new UnsupportedOperationException();
+        }
+
+        @Override
+        public Set<String> getStringSet(String key, Set<String> defValues) {
+            throw new UnsupportedOperationException();
+        }
+
+        @Override
+        public int getInt(String key, int defValue) {
+            throw new UnsupportedOperationException();
+        }
+
+        @Override
+        public float getFloat(String key, float defValue) {
+            throw new UnsupportedOperationException();
+        }
+
+        @Override
+        public boolean getBoolean(String key, boolean defValue) {
+            throw new UnsupportedOperationException();
+        }
+
+        @Override
+        public void registerOnSharedPreferenceChangeListener(OnSharedPreferenceChangeListener listener) {
+        }
+
+        @Override
+        public void unregisterOnSharedPreferenceChangeListener(OnSharedPreferenceChangeListener listener) {
+        }
+    }
+}
@@ -0,0 +1,110 @@
+package com.example.meruscrap;
+
+import org.junit.Before;
+import org.junit.Test;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+
+import static org.junit.Assert.*;
+
+public class MaterialSearchIndexTest {
+    private List<Material> materials;
+    private MaterialSearchIndex index;
+
+    @Before
+    public void setUp() {
+        materials = Arrays.asList(
+                new Material("Copper", 650, "🟫", "Bare bright wire"),
+                new Material("Aluminium", 120, "⚪", "Cans and sheet"),
+                new Material("Brass", 420, "🟡", "Fittings and taps"),
+                new Material("Steel", 30, "⚙️", null),
+                new Material("Copper Pipe", 600, "🟫", "Plumbing offcuts"));
+        index = new MaterialSearchIndex(materials);
+    }
+
+    @Test
+    public void blankQuery_returnsEverything() {
+        assertEquals(materials, index.search(""));
+        assertEquals(materials, index.search("   "));
+        assertEquals(materials, index.search(null));
+    }
+
+    @Test
+    public void shortQuery_isSingleGramLookup() {
+        assertEquals(names("Copper", "Copper Pipe"), names(index.search("co")));
+        assertEquals(names("Copper", "Aluminium", "Brass"), names(index.search("a")));
+        assertEquals(names("Aluminium"), names(index.search("ium")));
+    }
+
+    @Test
+    public void search_ignoresCaseAndSurroundingSpace() {
+        assertEquals(names("Brass"), names(index.search("  BRASS ")));
+    }
+
+    @Test
+    public void search_matchesDescription() {
+        assertEquals(names("Copper"), names(index.search("wire")));
+        assertEquals(names("Brass"), names(index.search("taps")));
+    }
+
+    @Test
+    public void longQuery_requiresAdjacentTrigrams() {
+        assertEquals(names("Copper", "Copper Pipe"), names(index.search("copper")));
+        assertEquals(names("Copper Pipe"), names(index.search("copper pipe")));
+        assertTrue(index.search("pipecopper").isEmpty());
+    }
+
+    @Test
+    public void longQuery_allTrigramsPresentButApart_isNotAMatch() {
+        // "tinting" holds int, nti and tin, but not "intint"
+        MaterialSearchIndex film = new MaterialSearchIndex(
+                Arrays.asList(new Material("Window Film", 10, "🪟", "Tinting offcuts")));
+        assertTrue(film.search("intint").isEmpty());
+        assertEquals(1, film.search("tinting").size());
+    }
+
+    @Test
+    public void unknownTrigram_returnsNothing() {
+        assertTrue(index.search("zinc").isEmpty());
+        assertTrue(index.search("xyz").isEmpty());
+    }
+
+    @Test
+    public void refiningQuery_matchesFreshSearch() {
+        String[] typed = {"c", "co", "cop", "copp", "coppe", "copper", "copper ", "copper p"};
+        for (String query : typed) {
+            List<Material> refined = index.search(query);
+            List<Material> fresh = new MaterialSearchIndex(materials).search(query);
+            assertEquals(query, names(fresh), names(refined));
+        }
+    }
+
+    @Test
+    public void unrelatedQueryAfterRefining_searchesAgain() {
+        index.search("copp");
+        assertEquals(names("Brass"), names(index.search("brass")));
+        // Deleting back to a shorter query must not reuse the narrower results
+        index.search("copper pipe");
+        assertEquals(names("Copper", "Copper Pipe"), names(index.search("copper")));
+    }
+
+    @Test
+    public void results_keepListOrder() {
+        assertEquals(names("Copper", "Aluminium", "Brass"), names(index.search("a")));
+        assertEquals(5, index.size());
+    }
+
+    private static List<String> names(String... names) {
+        return Arrays.asList(names);
+    }
+
+    private static List<String> names(List<Material> materials) {
+        List<String> names = new ArrayList<>();
+        for (Material material : materials) {
+            names.add(material.getName());
+        }
+        return names;
+    }
+}
@@ -0,0 +1,65 @@
+package com.example.meruscrap;
+
+import org.junit.Test;
+
+import static com.example.meruscrap.BluetoothPrintManager.PrinterStatus.*;
+import static org.junit.Assert.*;
+
+public class PrinterStatusReaderTest {
+    // Bits 1 and 4 are always set in DLE EOT replies
+    private static final int FIXED = 0x12;
+
+    @Test
+    public void fixedBitsOnly_isOnline() {
+        assertEquals(ONLINE, PrinterStatusReader.interpretStatus(FIXED, FIXED, FIXED));
+    }
+
+    @Test
+    public void paperEnd_isNoPaper() {
+        assertEquals(NO_PAPER, PrinterStatusReader.interpretStatus(FIXED, FIXED, FIXED | 0x60));
+        // Stopped feeding because the paper ran out
+        assertEquals(NO_PAPER, PrinterStatusReader.interpretStatus(FIXED | 0x20, FIXED, FIXED));
+    }
+
+    @Test
+    public void paperNearEnd_isStillOnline() {
+        assertEquals(ONLINE, PrinterStatusReader.interpretStatus(FIXED, FIXED, FIXED | 0x0C));
+    }
+
+    @Test
+    public void coverOpen() {
+        assertEquals(COVER_OPEN, PrinterStatusReader.interpretStatus(FIXED | 0x04, FIXED, FIXED));
+    }
+
+    @Test
+    public void cutterError_isPaperJam() {
+        assertEquals(PAPER_JAM, PrinterStatusReader.interpretStatus(FIXED, FIXED | 0x08, FIXED));
+    }
+
+    @Test
+    public void autoRecoverableError_isOverheated() {
+        assertEquals(OVERHEATED, PrinterStatusReader.interpretStatus(FIXED, FIXED | 0x40, FIXED));
+    }
+
+    @Test
+    public void otherErrors_areUnknown() {
+        // Unrecoverable error
+        assertEquals(UNKNOWN_ERROR, PrinterStatusReader.interpretStatus(FIXED, FIXED | 0x20, FIXED));
+        // Offline bit 2 in the error reply
+        assertEquals(UNKNOWN_ERROR, PrinterStatusReader.interpretStatus(FIXED, FIXED | 0x04, FIXED));
+        // Error flagged in the offline reply
+        assertEquals(UNKNOWN_ERROR, PrinterStatusReader.interpretStatus(FIXED | 0x40, FIXED, FIXED));
+    }
+
+    @Test
+    public void paperWinsOverOtherConditions() {
+        assertEquals(NO_PAPER, PrinterStatusReader.interpretStatus(FIXED | 0x44, FIXED | 0x48, FIXED | 0x60));
+    }
+
+    @Test
+    public void conditionsDecodeInPriorityOrder() {
+        assertEquals(COVER_OPEN, PrinterStatusReader.interpretStatus(FIXED | 0x04, FIXED | 0x48, FIXED));
+        assertEquals(PAPER_JAM, PrinterStatusReader.interpretStatus(FIXED, FIXED | 0x68, FIXED));
+        assertEquals(OVERHEATED, PrinterStatusReader.interpretStatus(FIXED | 0x40, FIXED | 0x40, FIXED));
+    }
+}